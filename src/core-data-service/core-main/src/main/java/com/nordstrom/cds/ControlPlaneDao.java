@@ -22,6 +22,9 @@ import com.nordstrom.gtm.ipfilter.IpFilter;
 import com.nordstrom.gtm.ipfilter.ListAppIpFiltersRequest;
 import com.nordstrom.gtm.ipfilter.ListAppIpFiltersResponse;
 import com.nordstrom.gtm.ipfilter.RemoveAppIpFilterRequest;
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterRequest;
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterResponse;
+import com.nordstrom.gtm.ratelimiter.SetRateLimiterRequest;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -84,6 +87,86 @@ public class ControlPlaneDao {
     }
   }
 
+  /**
+   * The rate limits of a service. A service without a rate limiter row is returned with zero
+   * limits, which the NFE reads as unlimited.
+   */
+  GetRateLimiterResponse getRateLimiter(GetRateLimiterRequest request)
+      throws SQLException, CoreDataServiceException {
+    try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword)) {
+      Optional<Integer> serviceId = serviceId(connection, request.getServiceName());
+      if (!serviceId.isPresent()) {
+        throw CoreDataServiceException.invalidArgument("service name", request.getServiceName());
+      }
+
+      return selectRateLimiter(connection, request.getServiceName(), serviceId.get());
+    }
+  }
+
+  Empty setRateLimiter(SetRateLimiterRequest request)
+      throws SQLException, CoreDataServiceException {
+    try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword)) {
+      Optional<Integer> serviceId = serviceId(connection, request.getServiceName());
+      if (!serviceId.isPresent()) {
+        throw CoreDataServiceException.invalidArgument("service name", request.getServiceName());
+      }
+
+      upsertRateLimiter(connection, request, serviceId.get());
+
+      return Empty.getDefaultInstance();
+    }
+  }
+
+  private GetRateLimiterResponse selectRateLimiter(
+      Connection connection, String serviceName, int serviceId) throws SQLException {
+    String selectQuery =
+        "SELECT rate_limiter.requests_per_second, rate_limiter.max_connections_per_client, "
+            + "rate_limiter.is_disabled "
+            + "FROM rate_limiter "
+            + "WHERE rate_limiter.app_id = ? "
+            + "LIMIT 1";
+
+    try (PreparedStatement statement = connection.prepareStatement(selectQuery)) {
+      statement.setInt(1, serviceId);
+
+      GetRateLimiterResponse.Builder builder =
+          GetRateLimiterResponse.newBuilder().setServiceName(serviceName);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        if (resultSet.next()) {
+          builder
+              .setRequestsPerSecond(resultSet.getInt("rate_limiter.requests_per_second"))
+              .setMaxConnectionsPerClient(
+                  resultSet.getInt("rate_limiter.max_connections_per_client"))
+              .setIsDisabled(resultSet.getBoolean("rate_limiter.is_disabled"));
+        }
+      }
+
+      return builder.build();
+    }
+  }
+
+  private void upsertRateLimiter(
+      Connection connection, SetRateLimiterRequest request, int serviceId) throws SQLException {
+    String upsertQuery =
+        "INSERT INTO rate_limiter "
+            + "(app_id, requests_per_second, max_connections_per_client, is_disabled) "
+            + "VALUES (?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE "
+            + "requests_per_second = VALUES(requests_per_second), "
+            + "max_connections_per_client = VALUES(max_connections_per_client), "
+            + "is_disabled = VALUES(is_disabled)";
+
+    int index = 1;
+    try (PreparedStatement statement = connection.prepareStatement(upsertQuery)) {
+      statement.setInt(index++, serviceId);
+      statement.setInt(index++, request.getRequestsPerSecond());
+      statement.setInt(index++, request.getMaxConnectionsPerClient());
+      statement.setBoolean(index++, request.getIsDisabled());
+
+      statement.execute();
+    }
+  }
+
   private void insertIpFilter(
       Connection connection, AddAppIpFilterRequest request, int serviceId, String ipFilterKey)
       throws SQLException, CoreDataServiceException {
@@ -146,7 +229,7 @@ public class ControlPlaneDao {
   private ListAppIpFiltersResponse getIpFilters(
       Connection connection, ListAppIpFiltersRequest request) throws SQLException {
     String selectQuery =
-        "SELECT ip_filter.ip_filter_key, ip_filter.cidr_network_address, ip_filter.type, ip_filter.is_disabled, ip_filter.notes "
+        "SELECT app.is_default_allow, ip_filter.ip_filter_key, ip_filter.cidr_network_address, ip_filter.type, ip_filter.is_disabled, ip_filter.notes "
             + "FROM app "
             + "LEFT JOIN ip_filter USING (app_id) "
             + "WHERE app.name = ?";
@@ -156,8 +239,15 @@ public class ControlPlaneDao {
 
       ResultSet resultSet = statement.executeQuery();
       HashMap<String, IpFilter> ipFilters = new HashMap<>();
+      boolean isDefaultAllow = false;
 
       while (resultSet.next()) {
+        isDefaultAllow = resultSet.getBoolean("app.is_default_allow");
+        String key = resultSet.getString("ip_filter.ip_filter_key");
+        if (key == null) {
+          // the app has no filters, the left join still returns the app's row
+          continue;
+        }
         String typeString = resultSet.getString("ip_filter.type");
 
         try {
@@ -171,7 +261,6 @@ public class ControlPlaneDao {
           if (notes != null) {
             ipFilterBuilder.setNotes(notes);
           }
-          String key = resultSet.getString("ip_filter.ip_filter_key");
 
           ipFilters.put(key, ipFilterBuilder.build());
 
@@ -180,7 +269,10 @@ public class ControlPlaneDao {
         }
       }
 
-      return ListAppIpFiltersResponse.newBuilder().putAllIpFilterKeyToIpFilter(ipFilters).build();
+      return ListAppIpFiltersResponse.newBuilder()
+          .putAllIpFilterKeyToIpFilter(ipFilters)
+          .setIsDefaultAllow(isDefaultAllow)
+          .build();
     }
   }
 
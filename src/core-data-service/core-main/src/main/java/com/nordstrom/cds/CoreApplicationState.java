@@ -45,7 +45,8 @@ public class CoreApplicationState extends ApplicationState {
             new ServiceDeployTargetGrpcService(serviceRegistrationDao),
             new CoreDbApiKeyGrpcService(apiKeyDao),
             new CoreDbServiceInfoGrpcService(serviceRegistrationDao),
-            new IpFilteringGrpcService(controlPlaneDao));
+            new IpFilteringGrpcService(controlPlaneDao),
+            new RateLimitingGrpcService(controlPlaneDao));
 
     GrpcRouteStateBuilder grpcRouteStateBuilder = new GrpcRouteStateBuilder();
     List<RouteState> routeStates = grpcRouteStateBuilder.buildGrpcRouteStates(grpcServices);
@@ -16,6 +16,8 @@
 package com.nordstrom.cds;
 
 import com.google.common.collect.Lists;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchRequest;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchResponse;
 import com.nordstrom.gtm.coredb.GetNlpRoutingInfoRequest;
 import com.nordstrom.gtm.coredb.GetNlpRoutingInfoResponse;
 import com.nordstrom.gtm.coredb.GetServiceDeployTargetInfoRequest;
@@ -47,7 +49,10 @@ public class CoreDbServiceInfoGrpcService implements GrpcService {
 
   public List<GrpcRoute> getRoutes() {
     return Collections.unmodifiableList(
-        Lists.newArrayList(getNlpRoutingInfoRoute(), getServiceDeployTargetInfoRoute()));
+        Lists.newArrayList(
+            getNlpRoutingInfoRoute(),
+            getNlpRoutingInfoBatchRoute(),
+            getServiceDeployTargetInfoRoute()));
   }
 
   private GrpcRoute getNlpRoutingInfoRoute() {
@@ -67,6 +72,23 @@ public class CoreDbServiceInfoGrpcService implements GrpcService {
     return new GrpcRoute(this, "GetNlpRoutingInfo", handler);
   }
 
+  private GrpcRoute getNlpRoutingInfoBatchRoute() {
+    GrpcRequestHandler<GetNlpRoutingInfoBatchRequest, GetNlpRoutingInfoBatchResponse> handler;
+    handler =
+        new GrpcRequestHandler<>(
+            GetNlpRoutingInfoBatchRequest::parseFrom,
+            (GetNlpRoutingInfoBatchRequest request) -> {
+              try {
+                return serviceRegistrationDao.getNlpRoutingInfoBatch(request);
+              } catch (SQLException e) {
+                log.info("get NLP routing info batch call failed", e);
+                throw exceptionTransformer.convertToStatusException(e);
+              }
+            });
+
+    return new GrpcRoute(this, "GetNlpRoutingInfoBatch", handler);
+  }
+
   private GrpcRoute getServiceDeployTargetInfoRoute() {
     GrpcRequestHandler<GetServiceDeployTargetInfoRequest, GetServiceDeployTargetInfoResponse>
         handler;
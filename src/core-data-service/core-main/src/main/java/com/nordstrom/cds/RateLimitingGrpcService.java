@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.cds;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.Empty;
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterRequest;
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterResponse;
+import com.nordstrom.gtm.ratelimiter.SetRateLimiterRequest;
+import com.xjeffrose.xio.grpc.GrpcRoute;
+import com.xjeffrose.xio.grpc.GrpcService;
+import com.xjeffrose.xio.http.GrpcRequestHandler;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+public class RateLimitingGrpcService implements GrpcService {
+  private final ControlPlaneDao controlPlaneDao;
+  private final ExceptionTransformer exceptionTransformer = new ExceptionTransformer();
+
+  public RateLimitingGrpcService(ControlPlaneDao controlPlaneDao) {
+    this.controlPlaneDao = controlPlaneDao;
+  }
+
+  public String getPackageName() {
+    return "nordstrom.gtm.ratelimiter";
+  }
+
+  public String getServiceName() {
+    return "RateLimiting";
+  }
+
+  public List<GrpcRoute> getRoutes() {
+    return Collections.unmodifiableList(
+        Lists.newArrayList(getRateLimiterRoute(), setRateLimiterRoute()));
+  }
+
+  private GrpcRoute getRateLimiterRoute() {
+    GrpcRequestHandler<GetRateLimiterRequest, GetRateLimiterResponse> handler;
+    handler =
+        new GrpcRequestHandler<>(
+            GetRateLimiterRequest::parseFrom,
+            (GetRateLimiterRequest request) -> {
+              try {
+                return controlPlaneDao.getRateLimiter(request);
+              } catch (SQLException | CoreDataServiceException e) {
+                log.info("get rate limiter call failed", e);
+                throw exceptionTransformer.convertToStatusException(e);
+              }
+            });
+
+    return new GrpcRoute(this, "GetRateLimiter", handler);
+  }
+
+  private GrpcRoute setRateLimiterRoute() {
+    GrpcRequestHandler<SetRateLimiterRequest, Empty> handler;
+    handler =
+        new GrpcRequestHandler<>(
+            SetRateLimiterRequest::parseFrom,
+            (SetRateLimiterRequest request) -> {
+              try {
+                return controlPlaneDao.setRateLimiter(request);
+              } catch (SQLException | CoreDataServiceException e) {
+                log.info("set rate limiter call failed", e);
+                throw exceptionTransformer.convertToStatusException(e);
+              }
+            });
+
+    return new GrpcRoute(this, "SetRateLimiter", handler);
+  }
+}
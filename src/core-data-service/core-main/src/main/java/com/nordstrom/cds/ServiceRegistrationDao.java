@@ -16,6 +16,8 @@
 package com.nordstrom.cds;
 
 import com.google.protobuf.Empty;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchRequest;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchResponse;
 import com.nordstrom.gtm.coredb.GetNlpRoutingInfoRequest;
 import com.nordstrom.gtm.coredb.GetNlpRoutingInfoResponse;
 import com.nordstrom.gtm.coredb.GetServiceDeployTargetInfoRequest;
@@ -36,6 +38,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -102,6 +108,65 @@ class ServiceRegistrationDao {
     }
   }
 
+  /**
+   * Returns the "core" info needed for NFEs to route to the NLPs of many AWS accounts, using a
+   * single query.
+   */
+  GetNlpRoutingInfoBatchResponse getNlpRoutingInfoBatch(GetNlpRoutingInfoBatchRequest request)
+      throws SQLException {
+    List<String> accountIds = request.getAwsAccountIdsList();
+    GetNlpRoutingInfoBatchResponse.Builder responseBuilder =
+        GetNlpRoutingInfoBatchResponse.newBuilder();
+    if (accountIds.isEmpty()) {
+      return responseBuilder.build();
+    }
+
+    try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword)) {
+      String placeholders = String.join(", ", Collections.nCopies(accountIds.size(), "?"));
+      String selectQuery =
+          "SELECT DISTINCT dt.cloud_account_id, app.name, ou.name, dt.version "
+              + "FROM app "
+              + "LEFT JOIN organizational_unit AS ou USING (organizational_unit_id) "
+              + "LEFT JOIN deploy_target AS dt USING (app_id) "
+              + "WHERE dt.platform = ? AND dt.cloud_account_id IN ("
+              + placeholders
+              + ")";
+
+      try (PreparedStatement preparedStatement = connection.prepareStatement(selectQuery)) {
+        int index = 1;
+        preparedStatement.setString(index++, DEPLOY_TARGET_PLATFORM_AWS);
+        for (String accountId : accountIds) {
+          preparedStatement.setString(index++, accountId);
+        }
+
+        Map<String, GetNlpRoutingInfoResponse.Builder> routingInfo = new LinkedHashMap<>();
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          while (resultSet.next()) {
+            PathComponents.Builder pathComponentsBuilder =
+                PathComponents.newBuilder()
+                    .setOrganizationUnit(resultSet.getString("ou.name"))
+                    .setServiceName(resultSet.getString("app.name"));
+
+            String version = resultSet.getString("dt.version");
+            if (version != null) {
+              pathComponentsBuilder.setServiceVersion(version);
+            }
+
+            routingInfo
+                .computeIfAbsent(
+                    resultSet.getString("dt.cloud_account_id"),
+                    accountId -> GetNlpRoutingInfoResponse.newBuilder())
+                .addPathComponentsArray(pathComponentsBuilder.build());
+          }
+        }
+
+        routingInfo.forEach(
+            (accountId, builder) -> responseBuilder.putRoutingInfo(accountId, builder.build()));
+        return responseBuilder.build();
+      }
+    }
+  }
+
   /**
    * Returns the "core" info needed for NLPs to route to service instances that are described by a
    * specific deploy target.
@@ -19,6 +19,8 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.nordstrom.cds.TestHelpers.GrpcTestHelpers;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchRequest;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchResponse;
 import com.nordstrom.gtm.coredb.GetNlpRoutingInfoRequest;
 import com.nordstrom.gtm.coredb.GetNlpRoutingInfoResponse;
 import com.nordstrom.gtm.coredb.GetServiceDeployTargetInfoRequest;
@@ -56,8 +58,8 @@ public class CoreDbServiceInfoGrpcServiceTest extends Assert {
 
   @Test
   public void testRoutesBasicInfo() throws Exception {
-    // should have 2 routes
-    assertEquals(2, subject.getRoutes().size());
+    // should have 3 routes
+    assertEquals(3, subject.getRoutes().size());
 
     // should set the subject as the service for every route
     for (GrpcRoute route : subject.getRoutes()) {
@@ -99,6 +101,48 @@ public class CoreDbServiceInfoGrpcServiceTest extends Assert {
     handler.getAppLogic().apply(request);
   }
 
+  @Test
+  public void testGetNlpRoutingInfoBatchSuccess() throws Exception {
+    GrpcRoute createRoute =
+        GrpcTestHelpers.findRoute(subject.getRoutes(), "GetNlpRoutingInfoBatch");
+
+    GrpcRequestHandler<GetNlpRoutingInfoBatchRequest, GetNlpRoutingInfoBatchResponse> handler =
+        createRoute.handler;
+    GetNlpRoutingInfoBatchRequest request =
+        GetNlpRoutingInfoBatchRequest.newBuilder()
+            .addAwsAccountIds("123")
+            .addAwsAccountIds("456")
+            .build();
+    GetNlpRoutingInfoBatchResponse expectedResponse =
+        GetNlpRoutingInfoBatchResponse.newBuilder()
+            .putRoutingInfo(
+                "123",
+                GetNlpRoutingInfoResponse.newBuilder()
+                    .addPathComponentsArray(
+                        PathComponents.newBuilder().setServiceName("hello service").build())
+                    .build())
+            .build();
+
+    when(serviceRegistrationDao.getNlpRoutingInfoBatch(request)).thenReturn(expectedResponse);
+    GetNlpRoutingInfoBatchResponse actualResponse = handler.getAppLogic().apply(request);
+    assertEquals(expectedResponse, actualResponse);
+  }
+
+  @Test(expected = StatusException.class)
+  public void testGetNlpRoutingInfoBatchFailure() throws Exception {
+    GrpcRoute createRoute =
+        GrpcTestHelpers.findRoute(subject.getRoutes(), "GetNlpRoutingInfoBatch");
+
+    GrpcRequestHandler<GetNlpRoutingInfoBatchRequest, GetNlpRoutingInfoBatchResponse> handler =
+        createRoute.handler;
+    GetNlpRoutingInfoBatchRequest request =
+        GetNlpRoutingInfoBatchRequest.newBuilder().addAwsAccountIds("123").build();
+
+    when(serviceRegistrationDao.getNlpRoutingInfoBatch(request)).thenThrow(new SQLException());
+
+    handler.getAppLogic().apply(request);
+  }
+
   @Test
   public void testGetServiceDeployTargetInfoSuccess() throws Exception {
     GrpcRoute createRoute =
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.cds;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.protobuf.Empty;
+import com.nordstrom.cds.TestHelpers.GrpcTestHelpers;
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterRequest;
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterResponse;
+import com.nordstrom.gtm.ratelimiter.SetRateLimiterRequest;
+import com.xjeffrose.xio.grpc.GrpcRoute;
+import com.xjeffrose.xio.http.GrpcRequestHandler;
+import io.grpc.StatusException;
+import java.sql.SQLException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimitingGrpcServiceTest extends Assert {
+  private RateLimitingGrpcService subject;
+  private ControlPlaneDao controlPlaneDao;
+
+  @Before
+  public void beforeEach() {
+    controlPlaneDao = mock(ControlPlaneDao.class);
+    subject = new RateLimitingGrpcService(controlPlaneDao);
+  }
+
+  @Test
+  public void testPackageName() {
+    assertEquals("nordstrom.gtm.ratelimiter", subject.getPackageName());
+  }
+
+  @Test
+  public void testServiceName() {
+    assertEquals("RateLimiting", subject.getServiceName());
+  }
+
+  @Test
+  public void testGetRateLimiterSuccess() throws Exception {
+    GrpcRoute getRoute = GrpcTestHelpers.findRoute(subject.getRoutes(), "GetRateLimiter");
+
+    GrpcRequestHandler<GetRateLimiterRequest, GetRateLimiterResponse> handler = getRoute.handler;
+    GetRateLimiterRequest request =
+        GetRateLimiterRequest.newBuilder().setServiceName("my service name").build();
+    GetRateLimiterResponse expectedResponse =
+        GetRateLimiterResponse.newBuilder()
+            .setServiceName("my service name")
+            .setRequestsPerSecond(100)
+            .setMaxConnectionsPerClient(10)
+            .build();
+
+    when(controlPlaneDao.getRateLimiter(request)).thenReturn(expectedResponse);
+    GetRateLimiterResponse actualResponse = handler.getAppLogic().apply(request);
+    assertEquals(expectedResponse, actualResponse);
+  }
+
+  @Test(expected = StatusException.class)
+  public void testGetRateLimiterFailure() throws Exception {
+    GrpcRoute getRoute = GrpcTestHelpers.findRoute(subject.getRoutes(), "GetRateLimiter");
+
+    GrpcRequestHandler<GetRateLimiterRequest, GetRateLimiterResponse> handler = getRoute.handler;
+    GetRateLimiterRequest request =
+        GetRateLimiterRequest.newBuilder().setServiceName("my service name").build();
+
+    when(controlPlaneDao.getRateLimiter(request)).thenThrow(new SQLException());
+
+    handler.getAppLogic().apply(request);
+  }
+
+  @Test
+  public void testSetRateLimiterSuccess() throws Exception {
+    GrpcRoute setRoute = GrpcTestHelpers.findRoute(subject.getRoutes(), "SetRateLimiter");
+
+    GrpcRequestHandler<SetRateLimiterRequest, Empty> handler = setRoute.handler;
+    SetRateLimiterRequest request =
+        SetRateLimiterRequest.newBuilder()
+            .setServiceName("my service name")
+            .setRequestsPerSecond(100)
+            .build();
+    Empty expectedResponse = Empty.getDefaultInstance();
+
+    when(controlPlaneDao.setRateLimiter(request)).thenReturn(expectedResponse);
+    Empty actualResponse = handler.getAppLogic().apply(request);
+    assertEquals(expectedResponse, actualResponse);
+  }
+
+  @Test(expected = StatusException.class)
+  public void testSetRateLimiterFailure() throws Exception {
+    GrpcRoute setRoute = GrpcTestHelpers.findRoute(subject.getRoutes(), "SetRateLimiter");
+
+    GrpcRequestHandler<SetRateLimiterRequest, Empty> handler = setRoute.handler;
+    SetRateLimiterRequest request =
+        SetRateLimiterRequest.newBuilder().setServiceName("my service name").build();
+
+    when(controlPlaneDao.setRateLimiter(request))
+        .thenThrow(CoreDataServiceException.invalidArgument("service name", "my service name"));
+
+    handler.getAppLogic().apply(request);
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures deriving the Gatekeeper permission of an 'apikey:encoded_path' route from the request
+ * path, done for every request to such a route: as the authorizer does it (memoized), derived
+ * afresh, and with the regex split and stream it used to be derived with, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermissionPathBenchmark {
+  @Param({
+    "/v1/teamyo/slapservice/",
+    "/v1/teamyo/slapservice/api/v1/fives/12345?expand=true",
+    "//v1//teamyo/slapservice//api/v1/fives/12345/comments/67890/replies/"
+  })
+  private String path;
+
+  @Benchmark
+  public String encodedPermissionPath() {
+    return GatekeeperAuthorizer.encodedPermissionPath(path);
+  }
+
+  @Benchmark
+  public String derive() {
+    return ApiKeyPermissions.derive(path);
+  }
+
+  @Benchmark
+  public String splitAndReduce() {
+    String[] parts = path.split("/+");
+    if (parts.length > 3) {
+      return Stream.of(parts)
+          .skip(2)
+          .reduce(
+              new StringBuilder("apikey"),
+              (sb, s) -> sb.append(':').append(s),
+              StringBuilder::append)
+          .toString();
+    } else {
+      return "*";
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import com.google.common.collect.ImmutableMap;
+import com.nordstrom.nfe.config.NfeConfig;
+import com.nordstrom.nfe.nlpmanagement.AccountInfo;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.xjeffrose.xio.http.ProxyClientFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures applying a change of the customer account NLPs to the routes, from queueing the change
+ * to {@link RouteStates} until the new route generation is published, with 1k and 10k NLPs (one
+ * per account, each serving its own route). Changing one NLP should cost little more than
+ * publishing, replacing all of them rebuilds every NLP route.
+ *
+ * <p>The coalescing window is turned off so that each change is published on its own. The route
+ * updates thread of {@link RouteStates} never stops, JMH warns about it at the end of each fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RouteUpdateBenchmark {
+  @Param({"1000", "10000"})
+  private int nlpCount;
+
+  private RouteStates routeStates;
+  private int version;
+
+  @Setup
+  public void setUp() {
+    Config config =
+        ConfigFactory.parseString("nfe.routeUpdates.coalesceWindow = 0 ms")
+            .withFallback(ConfigFactory.load());
+    NfeConfig nfeConfig = new NfeConfig(config);
+    NfeState nfeState = new NfeState(nfeConfig);
+    routeStates = new RouteStates(nfeState, nfeConfig, new ProxyClientFactory(nfeState));
+
+    apply(previous -> accounts(0));
+  }
+
+  @Benchmark
+  public void updateOneNlp() {
+    int next = ++version;
+    apply(
+        previous -> {
+          Map<String, AccountInfo> accounts = new LinkedHashMap<>(previous);
+          accounts.put(accountId(0), account(0, next));
+          return accounts;
+        });
+  }
+
+  @Benchmark
+  public void replaceEveryNlp() {
+    int next = ++version;
+    apply(previous -> accounts(next));
+  }
+
+  /** Queues the change, then waits for the routes to be published. */
+  private void apply(Function<ImmutableMap<String, AccountInfo>, Map<String, AccountInfo>> change) {
+    long published = routeStates.getPublishCount();
+    routeStates.updateCustomerAccountNlpInstanceMap(change);
+    while (routeStates.getPublishCount() == published) {
+      Thread.yield();
+    }
+  }
+
+  private Map<String, AccountInfo> accounts(int version) {
+    Map<String, AccountInfo> accounts = new LinkedHashMap<>();
+    for (int i = 0; i < nlpCount; i++) {
+      accounts.put(accountId(i), account(i, version));
+    }
+    return accounts;
+  }
+
+  private static String accountId(int i) {
+    return String.format("%012d", i);
+  }
+
+  /** The account's NLP moves to another address with each version. */
+  private static AccountInfo account(int i, int version) {
+    int host = i + version;
+    String ipAddress = "10." + (host >> 16 & 0xff) + "." + (host >> 8 & 0xff) + "." + (host & 0xff);
+    return new AccountInfo(
+        Collections.singletonList(ipAddress),
+        Collections.singletonList("/ou-" + (i % 97) + "/service-" + i + "/"));
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.apikey;
+
+import com.google.common.collect.ImmutableList;
+import com.nordstrom.nfe.config.ApiKeyAdmissionConfig;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the local admission check of the API key of a request, made before any Gatekeeper call:
+ * for issued keys (passed on to Gatekeeper) and for keys never issued (rejected right away).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ApiKeyAdmissionBenchmark {
+  private static final String ROUTE = "/v1/teamyo/slapservice/";
+
+  @Param({"10000", "1000000"})
+  private int keyCount;
+
+  private ApiKeyAdmission admission;
+  private String[] issuedKeys;
+  private String[] unknownKeys;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    admission =
+        new ApiKeyAdmission(
+            new ApiKeyAdmissionConfig(true, keyCount, 0.001, 60000), ImmutableList.of());
+    List<String> keys = new ArrayList<>(keyCount);
+    for (int i = 0; i < keyCount; i++) {
+      keys.add(UUID.randomUUID().toString());
+    }
+    admission.rebuild(keys, ImmutableList.of(ROUTE));
+
+    issuedKeys = new String[1024];
+    unknownKeys = new String[1024];
+    for (int i = 0; i < issuedKeys.length; i++) {
+      issuedKeys[i] = keys.get(i * (keyCount / issuedKeys.length));
+      unknownKeys[i] = UUID.randomUUID().toString();
+    }
+  }
+
+  @Benchmark
+  public boolean issuedKey() {
+    return admission.admits(ROUTE, issuedKeys[next++ & 1023]);
+  }
+
+  @Benchmark
+  public boolean unknownKey() {
+    return admission.admits(ROUTE, unknownKeys[next++ & 1023]);
+  }
+}
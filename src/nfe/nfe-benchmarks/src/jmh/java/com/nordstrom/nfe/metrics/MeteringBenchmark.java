@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Response;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the cost of metering a request: starting its timer, then counting and timing its
+ * response. A request should take well under a microsecond and allocate nothing. Run with -t to
+ * have several threads meter the same route, as the event loops do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MeteringBenchmark {
+
+  /** The route, shared by every thread. */
+  @State(Scope.Benchmark)
+  public static class Route {
+    private final RouteMetrics metrics = new RouteMetrics();
+  }
+
+  /** The connection of a thread. */
+  @State(Scope.Thread)
+  public static class Connection {
+    private EmbeddedChannel channel;
+    private MeteringProxyHandler.MeteringContext meteringCtx;
+    private Response response;
+
+    @Setup
+    public void setUp() {
+      channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+      meteringCtx = MeteringProxyHandler.MeteringContext.of(channel.pipeline().firstContext());
+      response =
+          DefaultFullResponse.builder()
+              .status(HttpResponseStatus.OK)
+              .streamId(1)
+              .body(Unpooled.copiedBuffer(new byte[512]))
+              .headers(new DefaultHeaders())
+              .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+      channel.finishAndReleaseAll();
+    }
+  }
+
+  @Benchmark
+  public void meterRequest(Route route, Connection connection) {
+    connection.meteringCtx.requestStarted(1, route.metrics);
+    connection.meteringCtx.observe(connection.response);
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.nlpmanagement;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures reading the NLP nodes the deployment watchers get from Zookeeper, with the same
+ * ObjectMapper setup as the watchers. Every NLP of the fleet is read this way when the NFE starts
+ * or reconnects to Zookeeper.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ZookeeperJsonBenchmark {
+  @Param({"1", "20"})
+  private int kubernetesServiceCount;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private byte[] customerAccountNlp;
+  private byte[] kubernetesNode;
+
+  @Setup
+  public void setUp() throws IOException {
+    customerAccountNlp =
+        objectMapper.writeValueAsBytes(
+            new CustomerAccountNlpZookeeperInfo("123456789012", "i-0a1b2c3d4e5f67890", "10.0.1.2"));
+
+    List<KubernetesServiceZookeeperInfo> services = new ArrayList<>();
+    for (int i = 0; i < kubernetesServiceCount; i++) {
+      services.add(new KubernetesServiceZookeeperInfo("service-" + i, 3));
+    }
+    kubernetesNode =
+        objectMapper.writeValueAsBytes(
+            new KubernetesNodeZookeeperInfo(
+                "us-west-2", "cluster-1", "node-0a1b2c3d", "10.0.2.3", services));
+  }
+
+  @Benchmark
+  public CustomerAccountNlpZookeeperInfo readCustomerAccountNlp() throws IOException {
+    return objectMapper.readValue(customerAccountNlp, CustomerAccountNlpZookeeperInfo.class);
+  }
+
+  @Benchmark
+  public KubernetesNodeZookeeperInfo readKubernetesNode() throws IOException {
+    return objectMapper.readValue(kubernetesNode, KubernetesNodeZookeeperInfo.class);
+  }
+}
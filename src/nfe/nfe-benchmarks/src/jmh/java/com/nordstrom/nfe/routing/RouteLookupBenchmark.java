@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import com.google.common.collect.ImmutableMap;
+import com.nordstrom.nfe.NfeState;
+import com.nordstrom.nfe.config.NfeConfig;
+import com.typesafe.config.ConfigFactory;
+import com.xjeffrose.xio.http.DefaultFullRequest;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.RouteConfig;
+import com.xjeffrose.xio.http.RoutePartial;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures routing a request through {@link NfePipelineRouter} as the number of routes in the
+ * {@link NfeState} grows. The time per request should stay roughly flat from 10 to 50k routes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RouteLookupBenchmark {
+  private static final PipelineRequestHandler HANDLER = (ctx, request, route) -> {};
+
+  @Param({"10", "1000", "10000", "50000"})
+  private int routeCount;
+
+  private EmbeddedChannel channel;
+  private ChannelPipeline pipeline;
+  private Sink sink;
+  private Request[] requests;
+  private int next;
+
+  /** Keeps the last routed request, so that the routing can't be optimized away. */
+  private static class Sink extends ChannelInboundHandlerAdapter {
+    private Object last;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      last = msg;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    NfeState nfeState = new NfeState(new NfeConfig(ConfigFactory.load()));
+    nfeState.setRoutes(routes(routeCount));
+
+    sink = new Sink();
+    channel = new EmbeddedChannel(new NfePipelineRouter(nfeState::getRouteGeneration), sink);
+    pipeline = channel.pipeline();
+
+    requests = new Request[1024];
+    for (int i = 0; i < requests.length; i++) {
+      Headers headers = new DefaultHeaders();
+      headers.set("host", "api.example.com");
+      requests[i] =
+          DefaultFullRequest.builder()
+              .method(HttpMethod.GET)
+              .path(path(i * 7919 % routeCount) + "resource/" + i)
+              .headers(headers)
+              .body(Unpooled.EMPTY_BUFFER)
+              .streamId(1)
+              .build();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  public RouteState route() {
+    pipeline.fireChannelRead(requests[next++ & (requests.length - 1)]);
+    return ((RoutePartial) sink.last).route();
+  }
+
+  private static ImmutableMap<String, RouteState> routes(int count) {
+    ImmutableMap.Builder<String, RouteState> builder = ImmutableMap.builder();
+    for (int i = 0; i < count; i++) {
+      String path = path(i);
+      builder.put(
+          path,
+          new RouteState(new RouteConfig(Collections.emptyList(), "", path, "none"), HANDLER));
+    }
+    return builder.build();
+  }
+
+  private static String path(int i) {
+    return "/v1/ou-" + (i % 97) + "/service-" + i + "/";
+  }
+}
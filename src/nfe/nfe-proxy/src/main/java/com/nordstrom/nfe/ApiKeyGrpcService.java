@@ -23,9 +23,12 @@ import com.google.protobuf.Empty;
 import com.google.rpc.Status;
 import com.nordstrom.gtm.apikey.ApiKey;
 import com.nordstrom.gtm.apikey.KeyRequest;
+import com.nordstrom.nfe.apikey.ApiKeyAdmission;
+import com.nordstrom.nfe.apikey.ApiKeyAdmissionUpdater;
 import com.xjeffrose.xio.grpc.GrpcRoute;
 import com.xjeffrose.xio.grpc.GrpcService;
 import com.xjeffrose.xio.http.GrpcRequestHandler;
+import io.grpc.StatusException;
 import io.grpc.protobuf.StatusProto;
 import java.util.Collections;
 import java.util.List;
@@ -33,14 +36,30 @@ import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Generates and revokes API keys. A generated key is saved to the core data service before it is
+ * granted its permissions in Gatekeeper (and deleted again if they can't be granted), a revoked
+ * key is deleted from it once its permissions are removed; either way every NFE is then told to
+ * refresh its admitted keys.
+ */
 @Slf4j
 public class ApiKeyGrpcService implements GrpcService {
   private static final String GENERATE_NEW_API_KEY = "GenerateNewApiKey";
   private static final String REVOKE_API_KEY = "RevokeApiKey";
   private final GatekeeperClientProxy gatekeeperClient;
+  private final CoreDataService coreDataService;
+  private final ApiKeyAdmission apiKeyAdmission;
+  private final ApiKeyAdmissionUpdater apiKeyAdmissionUpdater;
 
-  public ApiKeyGrpcService(GatekeeperClientProxy gatekeeperClient) {
+  public ApiKeyGrpcService(
+      GatekeeperClientProxy gatekeeperClient,
+      CoreDataService coreDataService,
+      ApiKeyAdmission apiKeyAdmission,
+      ApiKeyAdmissionUpdater apiKeyAdmissionUpdater) {
     this.gatekeeperClient = gatekeeperClient;
+    this.coreDataService = coreDataService;
+    this.apiKeyAdmission = apiKeyAdmission;
+    this.apiKeyAdmissionUpdater = apiKeyAdmissionUpdater;
   }
 
   @Override
@@ -90,22 +109,39 @@ public class ApiKeyGrpcService implements GrpcService {
                     .setServiceName(request.getServiceName())
                     .setKeyName(request.getKeyName())
                     .build();
+            // saved first, so that no NFE rejects the key once it is granted
+            try {
+              coreDataService.saveApiKey(response);
+            } catch (ExecutionException | InterruptedException e) {
+              log.error("error saving generated api key in the core database", e);
+              throw unavailable("core database error");
+            }
             try {
               gatekeeperClient.createSubjectPermissions(
                   response.getKey(), apiKeyAsPermission(response));
+              gatekeeperClient.getAuthorizationCache().invalidate(response.getKey());
             } catch (ExecutionException | InterruptedException e) {
               log.error("error creating generated api key permission in gatekeeper", e);
-              throw StatusProto.toStatusException(
-                  Status.newBuilder()
-                      .setCode(UNAVAILABLE.getCode().value())
-                      .setMessage("gatekeeper error")
-                      .build());
+              deleteUngrantedKey(response);
+              throw unavailable("gatekeeper error");
             }
+            apiKeyAdmission.keyGenerated(response.getKey());
+            apiKeyAdmissionUpdater.postKeysUpdated();
             return response;
           }
         });
   }
 
+  /** A generated key that could not be granted is not left behind in the core database. */
+  private void deleteUngrantedKey(ApiKey apiKey) {
+    try {
+      coreDataService.deleteApiKey(apiKey.getKey());
+    } catch (ExecutionException | InterruptedException e) {
+      // the key has no permissions, it is admitted by the NFEs but never authorized
+      log.error("error deleting ungranted api key from the core database", e);
+    }
+  }
+
   private String apiKeyAsPermission(ApiKey apiKey) {
     return String.format("apikey:%s:%s:*", apiKey.getTeamName(), apiKey.getServiceName())
         .toLowerCase();
@@ -116,19 +152,29 @@ public class ApiKeyGrpcService implements GrpcService {
     return new GrpcRequestHandler<>(
         ApiKey::parseFrom,
         revokeKey -> {
-          // todo: (WK) (BR) delete key from coredb
           try {
             gatekeeperClient.removeSubjectPermissions(
                 revokeKey.getKey(), apiKeyAsPermission(revokeKey));
+            gatekeeperClient.getAuthorizationCache().invalidate(revokeKey.getKey());
           } catch (ExecutionException | InterruptedException e) {
             log.error("error revoking api key permission in gatekeeper", e);
-            throw StatusProto.toStatusException(
-                Status.newBuilder()
-                    .setCode(UNAVAILABLE.getCode().value())
-                    .setMessage("gatekeeper error")
-                    .build());
+            throw unavailable("gatekeeper error");
           }
+          apiKeyAdmission.keyRevoked(revokeKey.getKey());
+          try {
+            coreDataService.deleteApiKey(revokeKey.getKey());
+          } catch (ExecutionException | InterruptedException e) {
+            // the key is revoked in gatekeeper already, revoking it again deletes it
+            log.error("error deleting revoked api key from the core database", e);
+            throw unavailable("core database error");
+          }
+          apiKeyAdmissionUpdater.postKeysUpdated();
           return response;
         });
   }
+
+  private static StatusException unavailable(String message) {
+    return StatusProto.toStatusException(
+        Status.newBuilder().setCode(UNAVAILABLE.getCode().value()).setMessage(message).build());
+  }
 }
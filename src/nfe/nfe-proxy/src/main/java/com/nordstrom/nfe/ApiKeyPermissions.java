@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Derives the Gatekeeper permission of 'apikey:encoded_path' routes from request paths: the path
+ * components after the version, joined with ':' behind 'apikey' ('/v1/ou/service/things' gives
+ * 'apikey:ou:service:things'). Runs of '/' count as one, paths without at least an organization
+ * unit and a service give '*'.
+ *
+ * <p>A permission is derived with one scan over the path, and kept in a fixed size table indexed
+ * by the hash of the path, so a path seen recently is resolved without allocating anything. The
+ * permissions are interned, every path leading to a permission gets the same string. The table is
+ * shared by the event loops without locking: an entry is an immutable (path, permission) pair, a
+ * racing write at worst replaces an entry with another valid one.
+ */
+final class ApiKeyPermissions {
+  static final String NO_PERMISSION = "*";
+  private static final String PREFIX = "apikey";
+
+  private final Entry[] entries;
+  private final int mask;
+  private final Interner<String> interner = Interners.newWeakInterner();
+
+  /** @param size the number of paths remembered, rounded up to a power of two. */
+  ApiKeyPermissions(int size) {
+    int capacity = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    this.entries = new Entry[capacity];
+    this.mask = capacity - 1;
+  }
+
+  String permission(String path) {
+    int hash = path.hashCode();
+    int index = (hash ^ (hash >>> 16)) & mask;
+    Entry entry = entries[index];
+    if (entry != null && entry.path.equals(path)) {
+      return entry.permission;
+    }
+    String permission = interner.intern(derive(path));
+    entries[index] = new Entry(path, permission);
+    return permission;
+  }
+
+  /**
+   * The permission of a path, without memoizing it. Components are what is left between runs of
+   * '/'. The first component of a path starting with '/' is the version, otherwise the first two
+   * are skipped.
+   */
+  static String derive(CharSequence path) {
+    int length = path.length();
+    int skipped = length > 0 && path.charAt(0) == '/' ? 1 : 2;
+    int components = 0;
+    int start = length;
+    int i = 0;
+    while (i < length) {
+      while (i < length && path.charAt(i) == '/') {
+        i++;
+      }
+      if (i == length) {
+        break;
+      }
+      if (components++ == skipped) {
+        start = i;
+      }
+      while (i < length && path.charAt(i) != '/') {
+        i++;
+      }
+    }
+    if (components < skipped + 2) {
+      return NO_PERMISSION;
+    }
+
+    StringBuilder permission = new StringBuilder(PREFIX.length() + 1 + length - start);
+    permission.append(PREFIX).append(':');
+    boolean separator = false;
+    for (i = start; i < length; i++) {
+      char c = path.charAt(i);
+      if (c == '/') {
+        separator = true;
+      } else {
+        if (separator) {
+          permission.append(':');
+          separator = false;
+        }
+        permission.append(c);
+      }
+    }
+    return permission.toString();
+  }
+
+  private static final class Entry {
+    private final String path;
+    private final String permission;
+
+    private Entry(String path, String permission) {
+      this.path = path;
+      this.permission = permission;
+    }
+  }
+}
@@ -15,76 +15,228 @@
  */
 package com.nordstrom.nfe;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.nordstrom.gtm.coredb.GetCustomerAccountNlpRoutingInfoRequest;
-import com.nordstrom.gtm.coredb.GetCustomerAccountNlpRoutingInfoResponse;
+import com.nordstrom.gtm.apikey.ApiKey;
+import com.nordstrom.gtm.coredb.ApiKeyGrpc;
+import com.nordstrom.gtm.coredb.DeleteApiKeyRequest;
 import com.nordstrom.gtm.coredb.GetKubernetesNlpRoutingInfoRequest;
 import com.nordstrom.gtm.coredb.GetKubernetesNlpRoutingInfoResponse;
-import com.nordstrom.gtm.coredb.GetServiceRoutingInfoRequest;
-import com.nordstrom.gtm.coredb.GetServiceRoutingInfoResponse;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchRequest;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchResponse;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoResponse;
+import com.nordstrom.gtm.coredb.GetServiceDeployTargetInfoRequest;
+import com.nordstrom.gtm.coredb.GetServiceDeployTargetInfoResponse;
+import com.nordstrom.gtm.coredb.ListApiKeysRequest;
+import com.nordstrom.gtm.coredb.ListApiKeysResponse;
 import com.nordstrom.gtm.coredb.PathComponents;
-import com.nordstrom.gtm.coredb.ServiceRegistrationGrpc;
-import com.nordstrom.gtm.serviceregistration.AccountType;
+import com.nordstrom.gtm.coredb.ServiceInfoGrpc;
+import com.nordstrom.gtm.ipfilter.IpFilteringGrpc;
+import com.nordstrom.gtm.ipfilter.ListAppIpFiltersRequest;
+import com.nordstrom.gtm.ipfilter.ListAppIpFiltersResponse;
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterRequest;
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterResponse;
+import com.nordstrom.gtm.ratelimiter.RateLimitingGrpc;
 import com.nordstrom.nfe.config.CoreDatabaseConfig;
 import com.nordstrom.nfe.servicedeployment.CoreServiceDeploymentInfo;
 import com.xjeffrose.xio.SSL.SslContextFactory;
+import io.grpc.ClientInterceptors;
 import io.grpc.ManagedChannel;
 import io.grpc.netty.NettyChannelBuilder;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Client of the core database service. Every call is multiplexed over one long lived HTTP/2
+ * channel, kept alive with pings and bounded by a per call deadline.
+ */
 @Slf4j
 public class CoreDataService {
   private final CoreDatabaseConfig coreDatabaseConfig;
+  private final ManagedChannel channel;
+  private final GrpcClientMetrics metrics = new GrpcClientMetrics();
+  private final ServiceInfoGrpc.ServiceInfoFutureStub serviceInfoStub;
+  private final RateLimitingGrpc.RateLimitingFutureStub rateLimitingStub;
+  private final IpFilteringGrpc.IpFilteringFutureStub ipFilteringStub;
+  private final ApiKeyGrpc.ApiKeyFutureStub apiKeyStub;
 
   public CoreDataService(CoreDatabaseConfig coreDatabaseConfig) {
     this.coreDatabaseConfig = coreDatabaseConfig;
+    this.channel = buildChannel(coreDatabaseConfig);
+    this.serviceInfoStub =
+        ServiceInfoGrpc.newFutureStub(ClientInterceptors.intercept(channel, metrics));
+    this.rateLimitingStub =
+        RateLimitingGrpc.newFutureStub(ClientInterceptors.intercept(channel, metrics));
+    this.ipFilteringStub =
+        IpFilteringGrpc.newFutureStub(ClientInterceptors.intercept(channel, metrics));
+    this.apiKeyStub = ApiKeyGrpc.newFutureStub(ClientInterceptors.intercept(channel, metrics));
+  }
+
+  public GrpcClientMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** Stops the channel, giving calls in flight up to their deadline to complete. */
+  public void shutdown() {
+    channel.shutdown();
+    try {
+      if (!channel.awaitTermination(coreDatabaseConfig.getDeadlineMillis(), MILLISECONDS)) {
+        channel.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      channel.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
   }
 
-  public Map<String, List<String>> getCustomerAccountNlpRoutePaths(List<String> accounIds) {
+  /**
+   * Looks up the route paths of many accounts. The accounts are split in batches of batchSize, each
+   * looked up with one GetNlpRoutingInfoBatch call, and up to batchesInFlight calls are in flight
+   * at once on the shared channel. Accounts without any route get an empty list, the accounts of a
+   * failed call are left out of the result.
+   */
+  public Map<String, List<String>> getCustomerAccountNlpRoutePaths(List<String> accountIds) {
     Map<String, List<String>> routePathsMap = new HashMap<>();
 
-    for (String accountId : accounIds) {
-      Optional<List<String>> optRoutePaths = getCustomerAccountNlpRoutePaths(accountId);
-      optRoutePaths.ifPresent(routePaths -> routePathsMap.put(accountId, routePaths));
+    List<List<String>> batches = Lists.partition(accountIds, coreDatabaseConfig.getBatchSize());
+    for (List<List<String>> inFlight :
+        Lists.partition(batches, coreDatabaseConfig.getBatchesInFlight())) {
+      List<ListenableFuture<GetNlpRoutingInfoBatchResponse>> futures =
+          new ArrayList<>(inFlight.size());
+      for (List<String> batch : inFlight) {
+        futures.add(requestNlpRoutingInfoBatch(batch));
+      }
+
+      for (int i = 0; i < inFlight.size(); i++) {
+        putRoutePaths(routePathsMap, inFlight.get(i), futures.get(i));
+      }
     }
 
     return routePathsMap;
   }
 
+  /**
+   * Looks up the rate limits of many services, batched like the route path lookups. Services whose
+   * lookup failed are left out of the result.
+   */
+  public Map<String, GetRateLimiterResponse> getRateLimiters(Collection<String> serviceNames) {
+    return lookUpServices(
+        serviceNames,
+        serviceName ->
+            rateLimitingStub
+                .withDeadlineAfter(coreDatabaseConfig.getDeadlineMillis(), MILLISECONDS)
+                .getRateLimiter(
+                    GetRateLimiterRequest.newBuilder().setServiceName(serviceName).build()),
+        "rate limiter");
+  }
+
+  /**
+   * Looks up the IP filters of many services, batched like the route path lookups. Services whose
+   * lookup failed are left out of the result.
+   */
+  public Map<String, ListAppIpFiltersResponse> getIpFilters(Collection<String> serviceNames) {
+    return lookUpServices(
+        serviceNames,
+        serviceName ->
+            ipFilteringStub
+                .withDeadlineAfter(coreDatabaseConfig.getDeadlineMillis(), MILLISECONDS)
+                .listAppIpFilters(
+                    ListAppIpFiltersRequest.newBuilder().setServiceName(serviceName).build()),
+        "ip filters");
+  }
+
+  /**
+   * Looks up the API keys issued for many services, batched like the route path lookups. Services
+   * whose lookup failed are left out of the result.
+   */
+  public Map<String, ListApiKeysResponse> getApiKeys(Collection<String> serviceNames) {
+    return lookUpServices(
+        serviceNames,
+        serviceName ->
+            apiKeyStub
+                .withDeadlineAfter(coreDatabaseConfig.getDeadlineMillis(), MILLISECONDS)
+                .listApiKeys(ListApiKeysRequest.newBuilder().setServiceName(serviceName).build()),
+        "api keys");
+  }
+
+  /** Saves a generated API key, it is listed for its service from then on. */
+  public void saveApiKey(ApiKey apiKey) throws ExecutionException, InterruptedException {
+    apiKeyStub
+        .withDeadlineAfter(coreDatabaseConfig.getDeadlineMillis(), MILLISECONDS)
+        .saveApiKey(apiKey)
+        .get();
+  }
+
+  /** Deletes a revoked API key, it is no longer listed for its service. */
+  public void deleteApiKey(String key) throws ExecutionException, InterruptedException {
+    apiKeyStub
+        .withDeadlineAfter(coreDatabaseConfig.getDeadlineMillis(), MILLISECONDS)
+        .deleteApiKey(DeleteApiKeyRequest.newBuilder().setKey(key).build())
+        .get();
+  }
+
+  private <T> Map<String, T> lookUpServices(
+      Collection<String> serviceNames,
+      Function<String, ListenableFuture<T>> lookup,
+      String description) {
+    Map<String, T> results = new HashMap<>();
+
+    List<String> names = new ArrayList<>(serviceNames);
+    for (List<String> batch : Lists.partition(names, coreDatabaseConfig.getBatchSize())) {
+      List<ListenableFuture<T>> futures = new ArrayList<>(batch.size());
+      for (String serviceName : batch) {
+        futures.add(lookup.apply(serviceName));
+      }
+
+      for (int i = 0; i < batch.size(); i++) {
+        try {
+          results.put(batch.get(i), futures.get(i).get());
+        } catch (InterruptedException | ExecutionException e) {
+          log.error("Unable to get {} for service {}: ", description, batch.get(i), e);
+        }
+      }
+    }
+
+    return results;
+  }
+
   /** This is to get the info that customer account NLPs need when a service is deployed. */
-  public CoreServiceDeploymentInfo getServiceRoutePath(String serviceName)
+  public CoreServiceDeploymentInfo getServiceRoutePath(String deployTargetKey)
       throws ExecutionException, InterruptedException {
-    GetServiceRoutingInfoRequest request =
-        GetServiceRoutingInfoRequest.newBuilder().setServiceName(serviceName).build();
-    ServiceRegistrationGrpc.ServiceRegistrationFutureStub futureStub = makeFutureStub();
+    GetServiceDeployTargetInfoRequest request =
+        GetServiceDeployTargetInfoRequest.newBuilder().setDeployTargetKey(deployTargetKey).build();
 
-    ListenableFuture<GetServiceRoutingInfoResponse> listenableFuture =
-        futureStub.getServiceRoutingInfo(request);
-    GetServiceRoutingInfoResponse response = listenableFuture.get();
+    ListenableFuture<GetServiceDeployTargetInfoResponse> listenableFuture =
+        makeServiceInfoStub().getServiceDeployTargetInfo(request);
+    GetServiceDeployTargetInfoResponse response = listenableFuture.get();
 
     return new CoreServiceDeploymentInfo(
         "/" + response.getPathComponents().getServiceName() + "/",
-        response.getCloudAccountId(),
-        response.getServiceDescription());
+        response.getDeploymentPlatformInfo().getAwsInfo().getAccountId(),
+        response.getServiceDescription(),
+        response.getIsTlsEnabled());
   }
 
   public Map<String, String> getPathsForServices(List<String> serviceName)
       throws ExecutionException, InterruptedException {
     GetKubernetesNlpRoutingInfoRequest request =
         GetKubernetesNlpRoutingInfoRequest.newBuilder().addAllServiceName(serviceName).build();
-    ServiceRegistrationGrpc.ServiceRegistrationFutureStub futureStub = makeFutureStub();
 
     ListenableFuture<GetKubernetesNlpRoutingInfoResponse> listenableFuture =
-        futureStub.getKubernetesNlpRoutingInfo(request);
+        makeServiceInfoStub().getKubernetesNlpRoutingInfo(request);
     GetKubernetesNlpRoutingInfoResponse response = listenableFuture.get();
 
     return response
@@ -96,41 +248,56 @@ public class CoreDataService {
         .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
   }
 
-  private Optional<List<String>> getCustomerAccountNlpRoutePaths(String accountId) {
-    GetCustomerAccountNlpRoutingInfoRequest request =
-        GetCustomerAccountNlpRoutingInfoRequest.newBuilder()
-            .setAccountType(AccountType.AWS)
-            .setCloudAccountId(accountId)
-            .build();
-    ServiceRegistrationGrpc.ServiceRegistrationFutureStub futureStub = makeFutureStub();
+  private ListenableFuture<GetNlpRoutingInfoBatchResponse> requestNlpRoutingInfoBatch(
+      List<String> accountIds) {
+    GetNlpRoutingInfoBatchRequest request =
+        GetNlpRoutingInfoBatchRequest.newBuilder().addAllAwsAccountIds(accountIds).build();
 
-    ListenableFuture<GetCustomerAccountNlpRoutingInfoResponse> listenableFuture =
-        futureStub.getCustomerAccountNlpRoutingInfo(request);
+    return makeServiceInfoStub().getNlpRoutingInfoBatch(request);
+  }
 
+  private void putRoutePaths(
+      Map<String, List<String>> routePathsMap,
+      List<String> accountIds,
+      ListenableFuture<GetNlpRoutingInfoBatchResponse> listenableFuture) {
+    Map<String, GetNlpRoutingInfoResponse> routingInfo;
     try {
-      GetCustomerAccountNlpRoutingInfoResponse response = listenableFuture.get();
-      return Optional.of(
-          response
-              .getPathComponentsArrayList()
-              .stream()
-              .map(this::routingPath)
-              .collect(Collectors.toList()));
+      routingInfo = listenableFuture.get().getRoutingInfoMap();
     } catch (InterruptedException | ExecutionException e) {
-      log.error("Unable to get routing info for NLP: ", e);
-      return Optional.empty();
+      log.error("Unable to get routing info for NLPs of accounts {}: ", accountIds, e);
+      return;
     }
+
+    for (String accountId : accountIds) {
+      GetNlpRoutingInfoResponse response = routingInfo.get(accountId);
+      // accounts without any route are left out of the response
+      List<String> routePaths =
+          response == null
+              ? Collections.emptyList()
+              : response
+                  .getPathComponentsArrayList()
+                  .stream()
+                  .map(this::routingPath)
+                  .collect(Collectors.toList());
+      routePathsMap.put(accountId, routePaths);
+    }
+  }
+
+  private ServiceInfoGrpc.ServiceInfoFutureStub makeServiceInfoStub() {
+    return serviceInfoStub.withDeadlineAfter(coreDatabaseConfig.getDeadlineMillis(), MILLISECONDS);
   }
 
-  private ServiceRegistrationGrpc.ServiceRegistrationFutureStub makeFutureStub() {
+  private static ManagedChannel buildChannel(CoreDatabaseConfig coreDatabaseConfig) {
     SslContext sslContext =
         SslContextFactory.buildClientContext(
             coreDatabaseConfig.getTlsConfig(), InsecureTrustManagerFactory.INSTANCE);
-    ManagedChannel channel =
-        NettyChannelBuilder.forAddress(coreDatabaseConfig.getHost(), coreDatabaseConfig.getPort())
-            .sslContext(sslContext)
-            .build();
 
-    return ServiceRegistrationGrpc.newFutureStub(channel);
+    return NettyChannelBuilder.forAddress(
+            coreDatabaseConfig.getHost(), coreDatabaseConfig.getPort())
+        .sslContext(sslContext)
+        .keepAliveTime(coreDatabaseConfig.getKeepAliveTimeMillis(), MILLISECONDS)
+        .keepAliveTimeout(coreDatabaseConfig.getKeepAliveTimeoutMillis(), MILLISECONDS)
+        .build();
   }
 
   private String routingPath(PathComponents routingInformation) {
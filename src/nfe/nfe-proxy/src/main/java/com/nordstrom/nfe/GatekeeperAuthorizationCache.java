@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.protobuf.Timestamp;
+import com.nordstrom.gatekeeper.AuthorizationResponse;
+import com.nordstrom.gatekeeper.AuthorizationSuccess;
+import com.nordstrom.nfe.config.GatekeeperConfig;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Process wide cache of Gatekeeper authorization decisions keyed by (subject, permission).
+ *
+ * <p>Each decision is kept until the 'cache_ttl' Gatekeeper attached to the response, bounded by
+ * the configured maximum TTL. The number of entries is bounded and the least recently used
+ * decisions are evicted first.
+ */
+public class GatekeeperAuthorizationCache {
+
+  private final Cache<SubjectPermission, Decision> decisions;
+  private final long maxTtlMillis;
+  private final LongSupplier clock;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public GatekeeperAuthorizationCache(GatekeeperConfig config) {
+    this(
+        config.authorizationCacheMaxSize,
+        config.authorizationCacheMaxTtlMillis,
+        System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  GatekeeperAuthorizationCache(long maxSize, long maxTtlMillis, LongSupplier clock) {
+    this.maxTtlMillis = maxTtlMillis;
+    this.clock = clock;
+    this.decisions =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(maxTtlMillis, TimeUnit.MILLISECONDS)
+            .removalListener(
+                notification -> {
+                  if (notification.getCause() == RemovalCause.SIZE) {
+                    evictions.increment();
+                  }
+                })
+            .build();
+  }
+
+  /**
+   * Builds an authorization response out of cached decisions.
+   *
+   * @param subjectId the api key or TLS peer identity.
+   * @param permissions the permissions requested.
+   * @return a successful response if every permission has a live cached decision, otherwise null.
+   */
+  @Nullable
+  public AuthorizationResponse lookup(String subjectId, List<String> permissions) {
+    long now = clock.getAsLong();
+    AuthorizationSuccess.Builder success = AuthorizationSuccess.newBuilder();
+
+    for (String permission : permissions) {
+      SubjectPermission key = new SubjectPermission(subjectId, permission);
+      Decision decision = decisions.getIfPresent(key);
+      if (decision == null || decision.expiresAtMillis <= now) {
+        if (decision != null) {
+          decisions.invalidate(key);
+        }
+        misses.increment();
+        return null;
+      }
+      success.putPermissions(permission, decision.authorized);
+    }
+
+    hits.increment();
+    return AuthorizationResponse.newBuilder().setSuccess(success).build();
+  }
+
+  /**
+   * Records the decisions of a Gatekeeper response. Only successful responses with a 'cache_ttl' in
+   * the future are cached.
+   */
+  public void record(String subjectId, AuthorizationResponse response) {
+    if (response.getResponseCase() != AuthorizationResponse.ResponseCase.SUCCESS) {
+      return;
+    }
+
+    AuthorizationSuccess success = response.getSuccess();
+    if (!success.hasCacheTtl()) {
+      return;
+    }
+
+    long now = clock.getAsLong();
+    long expiresAtMillis = Math.min(toMillis(success.getCacheTtl()), now + maxTtlMillis);
+    if (expiresAtMillis <= now) {
+      return;
+    }
+
+    for (Map.Entry<String, Boolean> entry : success.getPermissionsMap().entrySet()) {
+      decisions.put(
+          new SubjectPermission(subjectId, entry.getKey()),
+          new Decision(entry.getValue(), expiresAtMillis));
+    }
+  }
+
+  /** Drops every cached decision for a subject, e.g. after its permissions changed. */
+  public void invalidate(String subjectId) {
+    decisions.asMap().keySet().removeIf(key -> key.subjectId.equals(subjectId));
+  }
+
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  public long missCount() {
+    return misses.sum();
+  }
+
+  public long evictionCount() {
+    return evictions.sum();
+  }
+
+  public long size() {
+    return decisions.size();
+  }
+
+  private static long toMillis(Timestamp timestamp) {
+    return TimeUnit.SECONDS.toMillis(timestamp.getSeconds())
+        + TimeUnit.NANOSECONDS.toMillis(timestamp.getNanos());
+  }
+
+  @EqualsAndHashCode
+  private static class SubjectPermission {
+    private final String subjectId;
+    private final String permission;
+
+    SubjectPermission(String subjectId, String permission) {
+      this.subjectId = subjectId;
+      this.permission = permission;
+    }
+  }
+
+  private static class Decision {
+    private final boolean authorized;
+    private final long expiresAtMillis;
+
+    Decision(boolean authorized, long expiresAtMillis) {
+      this.authorized = authorized;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+}
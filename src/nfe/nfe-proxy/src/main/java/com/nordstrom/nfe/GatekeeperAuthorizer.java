@@ -17,106 +17,286 @@ package com.nordstrom.nfe;
 
 import static io.netty.handler.codec.http.HttpResponseStatus.UNAUTHORIZED;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.nordstrom.gatekeeper.AuthorizationResponse;
 import com.nordstrom.gatekeeper.AuthorizationSuccess;
-import com.xjeffrose.xio.http.DefaultFullResponse;
-import com.xjeffrose.xio.http.DefaultHeaders;
+import com.nordstrom.nfe.apikey.ApiKeyAdmission;
+import com.nordstrom.nfe.tracing.Trace;
+import com.nordstrom.nfe.tracing.TracingHandler;
 import com.xjeffrose.xio.http.Request;
 import com.xjeffrose.xio.http.RoutePartial;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.stream.Stream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Authorizes each routed request against Gatekeeper without blocking the event loop.
+ *
+ * <p>When the Gatekeeper response for a stream is not yet available a callback is registered on
+ * the future and any further inbound messages for that stream are held back until the decision is
+ * made. Once the response arrives (on the channel's executor) the held messages are either fired
+ * down the pipeline in their original order or released and answered with a 401.
+ *
+ * <p>API keys that were definitely never issued are answered with a 401 right away, without asking
+ * Gatekeeper.
+ *
+ * <p>An instance of this handler is created per channel, so the pending state is only ever touched
+ * from that channel's event loop.
+ */
 @Slf4j
-public class GatekeeperAuthorizer extends SimpleChannelInboundHandler<RoutePartial> {
+public class GatekeeperAuthorizer extends ChannelInboundHandlerAdapter {
+  // shared by every channel, holds the permissions of the paths seen most recently
+  private static final ApiKeyPermissions API_KEY_PERMISSIONS = new ApiKeyPermissions(4096);
 
   private final NfeState nfeState;
   private final GatekeeperClientProxy gatekeeperClientProxy;
+  private final ApiKeyAdmission apiKeyAdmission;
 
-  public GatekeeperAuthorizer(NfeState nfeState, GatekeeperClientProxy gatekeeperClientProxy) {
+  // key is stream id, value is the messages held back while the authorization is pending
+  private final Map<Integer, Queue<Object>> pendingStreams = new HashMap<>();
+  // streams that were rejected but have not yet seen their last message
+  private final RejectedStreams rejectedStreams = new RejectedStreams();
+
+  public GatekeeperAuthorizer(
+      NfeState nfeState,
+      GatekeeperClientProxy gatekeeperClientProxy,
+      ApiKeyAdmission apiKeyAdmission) {
     this.nfeState = nfeState;
     this.gatekeeperClientProxy = gatekeeperClientProxy;
+    this.apiKeyAdmission = apiKeyAdmission;
   }
 
-  private String encodedPermissionPath(Request msg) {
-    String[] parts = msg.path().split("/+");
-    if (parts.length > 3) {
-      // https://api.yourdomain.com/<version>/<ou-team>/<service-name>/...
-      return Stream.of(parts)
-          .skip(2)
-          .reduce(
-              new StringBuilder("apikey"),
-              (sb, s) -> sb.append(':').append(s),
-              StringBuilder::append)
-          .toString();
-    } else {
-      return "*";
-    }
+  @VisibleForTesting
+  static String encodedPermissionPath(String path) {
+    // https://api.yourdomain.com/<version>/<ou-team>/<service-name>/...
+    return API_KEY_PERMISSIONS.permission(path);
   }
 
-  private boolean checkIsAuthorized(ChannelHandlerContext ctx, String permission, Request request) {
-    if (permission.equals("none")) {
-      return true;
+  /**
+   * Resolves the permission that Gatekeeper will be asked about. For 'apikey:encoded_path' routes
+   * this is derived from the request path, otherwise it is the route's configured permission.
+   */
+  private String resolvePermission(String permission, Request request) {
+    if (permission.startsWith("apikey:encoded_path")) {
+      return encodedPermissionPath(request.path());
     }
+    return permission;
+  }
 
-    final ListenableFuture<AuthorizationResponse> future;
-
-    if (permission.startsWith("apikey")) {
+  @Nullable
+  private ListenableFuture<AuthorizationResponse> requestAuthorization(
+      ChannelHandlerContext ctx, RoutePartial msg, String routePermission, String permission) {
+    Request request = msg.request();
+    if (routePermission.startsWith("apikey")) {
       String key = request.headers().get("apikey");
-      if (permission.startsWith("apikey:encoded_path")) {
-        permission = encodedPermissionPath(request);
-        future = gatekeeperClientProxy.apiKeyAuth(ctx, key, Collections.singletonList(permission));
+      if (!apiKeyAdmission.admits(msg.route().path(), key)) {
+        log.debug("api key was never issued");
+        return null;
+      }
+      if (routePermission.startsWith("apikey:encoded_path")) {
+        return gatekeeperClientProxy.apiKeyAuth(key, Collections.singletonList(permission));
       } else {
-        future = gatekeeperClientProxy.apiKeyAuth(ctx, key, nfeState.allPermissions());
+        return gatekeeperClientProxy.apiKeyAuth(key, nfeState.allPermissions());
       }
     } else {
-      future = gatekeeperClientProxy.getMutualAuthResponse(ctx);
+      return gatekeeperClientProxy.getMutualAuthResponse(ctx);
+    }
+  }
+
+  private boolean isAuthorized(AuthorizationResponse response, String permission) {
+    if (response.getResponseCase() == AuthorizationResponse.ResponseCase.SUCCESS) {
+      log.debug("Gatekeeper response is a success");
+      AuthorizationSuccess success = response.getSuccess();
+      log.debug("Gatekeeper response permissions map: {}", success.getPermissionsMap());
+      Boolean value = success.getPermissionsMap().get(permission);
+      if (value != null) {
+        return value;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    Integer streamId = streamIdOf(msg);
+    if (streamId == null) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+
+    Queue<Object> pending = pendingStreams.get(streamId);
+    if (pending != null) {
+      // an authorization for this stream is in flight, hold the message back
+      pending.add(msg);
+      return;
+    }
+
+    if (rejectedStreams.drain(msg)) {
+      // the stream was already answered with a 401, drop the rest of it
+      return;
+    }
+
+    if (msg instanceof RoutePartial && ((RoutePartial) msg).request().startOfMessage()) {
+      authorize(ctx, (RoutePartial) msg, streamId);
+    } else {
+      // the rest of a stream whose start was authorized
+      ctx.fireChannelRead(msg);
     }
+  }
+
+  private void authorize(ChannelHandlerContext ctx, RoutePartial msg, int streamId) {
+    String routePermission = msg.route().config().permissionNeeded();
+    if (routePermission.equals("none")) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+
+    Trace trace = TracingHandler.trace(ctx.channel(), streamId);
+    long startNanos = System.nanoTime();
+    Request request = msg.request();
+    String permission = resolvePermission(routePermission, request);
+    ListenableFuture<AuthorizationResponse> future =
+        requestAuthorization(ctx, msg, routePermission, permission);
 
     if (future == null) {
       log.debug("No Gatekeeper future authorization failed");
+      traceAuthorization(trace, startNanos, true, false);
+      reject(ctx, msg, permission);
+      return;
+    }
+
+    if (future.isDone()) {
+      // fast path: the response is already cached on the channel
+      boolean authorized = decisionOf(future, permission);
+      traceAuthorization(trace, startNanos, true, authorized);
+      complete(ctx, msg, permission, authorized);
+      return;
+    }
+
+    pendingStreams.put(streamId, new ArrayDeque<>());
+    Futures.addCallback(
+        future,
+        new FutureCallback<AuthorizationResponse>() {
+          @Override
+          public void onSuccess(@Nullable AuthorizationResponse response) {
+            boolean authorized = response != null && isAuthorized(response, permission);
+            traceAuthorization(trace, startNanos, false, authorized);
+            resume(ctx, msg, streamId, permission, authorized);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            log.error("Caught Exception: ", t);
+            traceAuthorization(trace, startNanos, false, false);
+            resume(ctx, msg, streamId, permission, false);
+          }
+        },
+        ctx.executor());
+  }
+
+  private boolean decisionOf(ListenableFuture<AuthorizationResponse> future, String permission) {
+    try {
+      return isAuthorized(Futures.getDone(future), permission);
+    } catch (Exception e) {
+      log.error("Caught Exception: ", e);
       return false;
-    } else {
+    }
+  }
+
+  private static void traceAuthorization(
+      @Nullable Trace trace, long startNanos, boolean cached, boolean authorized) {
+    if (trace != null) {
+      trace.span(
+          "authorization",
+          startNanos,
+          System.nanoTime(),
+          "nfe.authorization.cached",
+          Boolean.toString(cached),
+          "nfe.authorized",
+          Boolean.toString(authorized));
+    }
+  }
+
+  /** Continues a stream once its pending authorization has been decided. */
+  private void resume(
+      ChannelHandlerContext ctx,
+      RoutePartial msg,
+      int streamId,
+      String permission,
+      boolean authorized) {
+    Queue<Object> held = pendingStreams.remove(streamId);
+    if (held == null) {
+      // the channel went away while we were waiting, everything has been released already
+      RequestBodies.release(msg);
+      return;
+    }
+
+    complete(ctx, msg, permission, authorized);
+
+    Object next;
+    while ((next = held.poll()) != null) {
+      // re-enter channelRead so a held message can itself trigger another authorization
       try {
-        AuthorizationResponse response = future.get();
-        if (response.getResponseCase() == AuthorizationResponse.ResponseCase.SUCCESS) {
-          log.debug("Gatekeeper response is a success");
-          AuthorizationSuccess success = response.getSuccess();
-          log.debug("Gatekeeper response permissions map: {}", success.getPermissionsMap());
-          Boolean value = success.getPermissionsMap().get(permission);
-          if (value != null) {
-            return value;
-          }
-        }
+        channelRead(ctx, next);
       } catch (Exception e) {
-        log.error("Caught Exception: ", e);
-        return false;
+        ctx.fireExceptionCaught(e);
       }
     }
+  }
 
-    return false;
+  private void complete(
+      ChannelHandlerContext ctx, RoutePartial msg, String permission, boolean authorized) {
+    if (authorized) {
+      ctx.fireChannelRead(msg);
+    } else {
+      reject(ctx, msg, permission);
+    }
   }
 
-  @Override
-  protected void channelRead0(ChannelHandlerContext ctx, RoutePartial msg) throws Exception {
-    String permission = msg.route().config().permissionNeeded();
-    if (!checkIsAuthorized(ctx, permission, msg.request())) {
-      String path = msg.route().path();
-      log.debug("user not authorized for permission: {} at path: {}", permission, path);
-      ctx.writeAndFlush(
-          DefaultFullResponse.builder()
-              .status(UNAUTHORIZED)
-              .streamId(msg.request().streamId())
-              .body(Unpooled.EMPTY_BUFFER)
-              .headers(new DefaultHeaders())
-              .build());
-      return;
+  private void reject(ChannelHandlerContext ctx, RoutePartial msg, String permission) {
+    String path = msg.route().path();
+    log.debug("user not authorized for permission: {} at path: {}", permission, path);
+    rejectedStreams.reject(ctx, msg, UNAUTHORIZED);
+  }
+
+  @Nullable
+  private static Integer streamIdOf(Object msg) {
+    if (msg instanceof RoutePartial) {
+      return ((RoutePartial) msg).request().streamId();
     }
+    if (msg instanceof Request) {
+      return ((Request) msg).streamId();
+    }
+    return null;
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    releasePending();
+    super.channelInactive(ctx);
+  }
 
-    ctx.fireChannelRead(msg);
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    releasePending();
+    super.handlerRemoved(ctx);
+  }
+
+  private void releasePending() {
+    for (Queue<Object> held : pendingStreams.values()) {
+      held.forEach(RequestBodies::release);
+    }
+    pendingStreams.clear();
+    rejectedStreams.clear();
   }
 }
@@ -15,44 +15,62 @@
  */
 package com.nordstrom.nfe;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.nordstrom.gatekeeper.AuthorizationResponse;
 import com.nordstrom.gatekeeper.GatekeeperClient;
+import com.nordstrom.nfe.config.GatekeeperConfig;
+import com.nordstrom.nfe.metrics.LatencyHistogram;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.util.AttributeKey;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 public class GatekeeperClientProxy extends GatekeeperClient {
 
   private static final AttributeKey<ListenableFuture<AuthorizationResponse>> RESPONSE_KEY =
       AttributeKey.newInstance("nfe_gatekeeper_response_key");
 
-  private static final AttributeKey<Map<String, ListenableFuture<AuthorizationResponse>>>
-      API_KEY_RESPONSE_KEY = AttributeKey.newInstance("nfe_gatekeeper_apikey_response_key");
+  private final GatekeeperAuthorizationCache authorizationCache;
+  private final LatencyHistogram authorizationLatency = new LatencyHistogram();
 
   public GatekeeperClientProxy(String host, int port) {
-    super(host, port);
+    this(new GatekeeperConfig(host, port));
+  }
+
+  public GatekeeperClientProxy(GatekeeperConfig config) {
+    super(config.host, config.port);
+    this.authorizationCache = new GatekeeperAuthorizationCache(config);
+  }
+
+  public GatekeeperAuthorizationCache getAuthorizationCache() {
+    return authorizationCache;
+  }
+
+  /** The latencies of the requests made to Gatekeeper, the cached decisions left out. */
+  public LatencyHistogram getAuthorizationLatency() {
+    return authorizationLatency;
   }
 
   /**
-   * Get the api key response for a given api key.
+   * Get the api key response for a given api key, from the process wide authorization cache while
+   * its decisions are live.
    *
-   * @param ctx the channel context where to cache responses.
    * @param apiKey the api key.
+   * @param permissions the permissions requested.
    * @return the future authentication response or null.
    */
   @Nullable
   ListenableFuture<AuthorizationResponse> apiKeyAuth(
-      ChannelHandlerContext ctx, @Nullable String apiKey, List<String> permissions) {
-    ListenableFuture<AuthorizationResponse> future = getApiKeyCachedChannelResponse(ctx, apiKey);
-    if (future == null && apiKey != null) {
-      future = authorizeAsync(apiKey, permissions);
-      getCachedChannelApiKeyResponses(ctx).put(apiKey, future);
+      @Nullable String apiKey, List<String> permissions) {
+    if (apiKey == null) {
+      return null;
     }
-    return future;
+    return cachedOrAuthorizeAsync(apiKey, permissions);
   }
 
   /**
@@ -75,36 +93,45 @@ public class GatekeeperClientProxy extends GatekeeperClient {
    * @param permissions the permissions requested.
    */
   public void mutualAuth(ChannelHandlerContext ctx, String subjectId, List<String> permissions) {
-    ctx.channel().attr(RESPONSE_KEY).set(authorizeAsync(subjectId, permissions));
-  }
-
-  /**
-   * Get the cached channel api key response for a given api key.
-   *
-   * @param ctx the channel context where the responses are stored.
-   * @param apiKey the api key.
-   * @return the future authentication response or null if one has not been performed.
-   */
-  @Nullable
-  private ListenableFuture<AuthorizationResponse> getApiKeyCachedChannelResponse(
-      ChannelHandlerContext ctx, @Nullable String apiKey) {
-    return getCachedChannelApiKeyResponses(ctx).get(apiKey);
+    ctx.channel().attr(RESPONSE_KEY).set(cachedOrAuthorizeAsync(subjectId, permissions));
   }
 
   /**
-   * Get the cached channel api key responses.
+   * Answers from the process wide authorization cache when every permission has a live decision,
+   * otherwise performs the gatekeeper request and records its decisions (and latency) once it
+   * completes.
    *
-   * @param ctx the channel context where the responses are stored.
-   * @return a map of apikey to future responses.
+   * @param subjectId the api key or TLS peer identity.
+   * @param permissions the permissions requested.
+   * @return the future authentication response.
    */
-  private Map<String, ListenableFuture<AuthorizationResponse>> getCachedChannelApiKeyResponses(
-      ChannelHandlerContext ctx) {
-    Map<String, ListenableFuture<AuthorizationResponse>> responses =
-        ctx.channel().attr(API_KEY_RESPONSE_KEY).get();
-    if (responses == null) {
-      responses = new HashMap<>();
-      ctx.channel().attr(API_KEY_RESPONSE_KEY).set(responses);
+  private ListenableFuture<AuthorizationResponse> cachedOrAuthorizeAsync(
+      String subjectId, List<String> permissions) {
+    AuthorizationResponse cached = authorizationCache.lookup(subjectId, permissions);
+    if (cached != null) {
+      return Futures.immediateFuture(cached);
     }
-    return responses;
+
+    long start = System.nanoTime();
+    ListenableFuture<AuthorizationResponse> future = authorizeAsync(subjectId, permissions);
+    Futures.addCallback(
+        future,
+        new FutureCallback<AuthorizationResponse>() {
+          @Override
+          public void onSuccess(@Nullable AuthorizationResponse response) {
+            authorizationLatency.record(System.nanoTime() - start);
+            if (response != null) {
+              authorizationCache.record(subjectId, response);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            authorizationLatency.record(System.nanoTime() - start);
+            log.debug("Gatekeeper request failed, nothing to cache: ", t);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return future;
   }
 }
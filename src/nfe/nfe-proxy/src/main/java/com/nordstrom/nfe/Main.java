@@ -15,11 +15,18 @@
  */
 package com.nordstrom.nfe;
 
+import com.nordstrom.nfe.apikey.ApiKeyAdmissionUpdater;
 import com.nordstrom.nfe.bootstrap.NfeApplicationBootstrap;
 import com.nordstrom.nfe.bootstrap.NfeServiceLocator;
 import com.nordstrom.nfe.config.NfeConfig;
+import com.nordstrom.nfe.ipfilter.IpFilterUpdater;
+import com.nordstrom.nfe.metrics.MetricsServer;
 import com.nordstrom.nfe.nlpmanagement.CustomerAccountNlpDeploymentWatcher;
 import com.nordstrom.nfe.nlpmanagement.KubernetesNlpDeploymentWatcher;
+import com.nordstrom.nfe.nlpmanagement.NlpHealthChecker;
+import com.nordstrom.nfe.ratelimiting.FleetQuotas;
+import com.nordstrom.nfe.ratelimiting.RateLimitUpdater;
+import com.nordstrom.nfe.tracing.Tracer;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.xjeffrose.xio.core.NullZkClient;
@@ -36,6 +43,30 @@ public class Main {
     // The application created by bootstrap is holding all of the state.
     bootstrap.build();
 
+    CoreDataService coreDataService = NfeServiceLocator.getInstance().getCoreDataService();
+    Runtime.getRuntime().addShutdownHook(new Thread(coreDataService::shutdown));
+    NlpHealthChecker nlpHealthChecker = NfeServiceLocator.getInstance().getNlpHealthChecker();
+    Runtime.getRuntime().addShutdownHook(new Thread(nlpHealthChecker::shutdown));
+    IpFilterUpdater ipFilterUpdater = NfeServiceLocator.getInstance().getIpFilterUpdater();
+    ipFilterUpdater.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(ipFilterUpdater::shutdown));
+    RateLimitUpdater rateLimitUpdater = NfeServiceLocator.getInstance().getRateLimitUpdater();
+    rateLimitUpdater.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(rateLimitUpdater::shutdown));
+    ApiKeyAdmissionUpdater apiKeyAdmissionUpdater =
+        NfeServiceLocator.getInstance().getApiKeyAdmissionUpdater();
+    apiKeyAdmissionUpdater.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(apiKeyAdmissionUpdater::shutdown));
+    FleetQuotas fleetQuotas = NfeServiceLocator.getInstance().getFleetQuotas();
+    fleetQuotas.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(fleetQuotas::shutdown));
+    MetricsServer metricsServer = NfeServiceLocator.getInstance().getMetricsServer();
+    metricsServer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::shutdown));
+    Tracer tracer = NfeServiceLocator.getInstance().getTracer();
+    tracer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(tracer::shutdown));
+
     boolean haveZkClient = nfeState.getZkClient() instanceof NullZkClient;
     if (haveZkClient) {
       // Start Zookeeper Watcher to be notified of customer account NLP deployments.
@@ -18,6 +18,7 @@ package com.nordstrom.nfe;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.nordstrom.nfe.config.NfeConfig;
+import com.nordstrom.nfe.routing.RouteGeneration;
 import com.xjeffrose.xio.application.ApplicationState;
 import com.xjeffrose.xio.http.RouteState;
 import java.util.concurrent.atomic.AtomicReference;
@@ -29,8 +30,8 @@ import lombok.extern.slf4j.Slf4j;
 @Getter
 @Slf4j
 public class NfeState extends ApplicationState {
-  private AtomicReference<ImmutableMap<String, RouteState>> routesRef =
-      new AtomicReference<>(ImmutableMap.of());
+  private AtomicReference<RouteGeneration> routeGenerationRef =
+      new AtomicReference<>(RouteGeneration.EMPTY);
 
   private final ImmutableList<String> allPermissions;
 
@@ -40,10 +41,27 @@ public class NfeState extends ApplicationState {
   }
 
   public ImmutableMap<String, RouteState> getRoutes() {
-    return routesRef.get();
+    return routeGenerationRef.get().routes();
   }
 
+  public RouteGeneration getRouteGeneration() {
+    return routeGenerationRef.get();
+  }
+
+  /**
+   * Publishes a new route generation. The route tree is built here, on the caller's thread, so
+   * request threads only ever swap in a finished one.
+   */
   public void setRoutes(ImmutableMap<String, RouteState> routes) {
-    this.routesRef.set(routes);
+    RouteGeneration previous = routeGenerationRef.get();
+    this.routeGenerationRef.set(previous.next(routes));
+  }
+
+  /**
+   * Publishes a route generation derived (on the caller's thread) from the current one, see {@link
+   * RouteGeneration#update}.
+   */
+  public void setRouteGeneration(RouteGeneration generation) {
+    this.routeGenerationRef.set(generation);
   }
 }
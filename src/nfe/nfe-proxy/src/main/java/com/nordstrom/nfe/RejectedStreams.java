@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.RoutePartial;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The streams of a channel that an inbound handler answered itself before their last message
+ * arrived. The rest of such a stream is dropped, and its bodies released, instead of being passed
+ * on. An instance belongs to one handler of one channel and is only used from its event loop.
+ */
+public final class RejectedStreams {
+  private final Set<Integer> streamIds = new HashSet<>();
+
+  /**
+   * Releases msg and answers its stream with an empty response of the given status. The remaining
+   * messages of the stream are then dropped by {@link #drain}.
+   */
+  public void reject(ChannelHandlerContext ctx, Object msg, HttpResponseStatus status) {
+    Request request = requestOf(msg);
+    if (!request.endOfMessage()) {
+      streamIds.add(request.streamId());
+    }
+    RequestBodies.release(msg);
+    ctx.writeAndFlush(
+        DefaultFullResponse.builder()
+            .status(status)
+            .streamId(request.streamId())
+            .body(Unpooled.EMPTY_BUFFER)
+            .headers(new DefaultHeaders())
+            .build());
+  }
+
+  /** Releases msg and returns true when it belongs to a rejected stream, false otherwise. */
+  public boolean drain(Object msg) {
+    if (!(msg instanceof Request || msg instanceof RoutePartial)) {
+      return false;
+    }
+    Request request = requestOf(msg);
+    if (!streamIds.contains(request.streamId())) {
+      return false;
+    }
+    if (request.endOfMessage()) {
+      streamIds.remove(request.streamId());
+    }
+    RequestBodies.release(msg);
+    return true;
+  }
+
+  /** Forgets every rejected stream, for when the channel goes away. */
+  public void clear() {
+    streamIds.clear();
+  }
+
+  private static Request requestOf(Object msg) {
+    if (msg instanceof RoutePartial) {
+      return ((RoutePartial) msg).request();
+    }
+    return (Request) msg;
+  }
+}
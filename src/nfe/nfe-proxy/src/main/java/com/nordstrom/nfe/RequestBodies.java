@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.RoutePartial;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import javax.annotation.Nullable;
+
+/**
+ * The bodies of the request messages passed between the NFE's inbound handlers. Neither a request
+ * nor the route partial wrapping it is reference counted, a message that is dropped instead of
+ * passed on has to release its body (or segment content).
+ */
+public final class RequestBodies {
+  private RequestBodies() {}
+
+  /** The body of a whole request or the content of a request segment, null if it has none. */
+  @Nullable
+  public static ByteBuf content(Request request) {
+    if (request instanceof SegmentedData) {
+      return ((SegmentedData) request).content();
+    }
+    return request.body();
+  }
+
+  /** Releases the body of a request or route partial, or the message itself for anything else. */
+  public static void release(Object msg) {
+    if (msg instanceof RoutePartial) {
+      msg = ((RoutePartial) msg).request();
+    }
+    if (msg instanceof Request) {
+      ReferenceCountUtil.release(content((Request) msg));
+      return;
+    }
+    ReferenceCountUtil.release(msg);
+  }
+}
@@ -17,12 +17,35 @@ package com.nordstrom.nfe;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.nordstrom.nfe.balancing.BalancingPolicy;
+import com.nordstrom.nfe.balancing.BalancingProxyHandler;
+import com.nordstrom.nfe.balancing.ConcurrencyLimiter;
+import com.nordstrom.nfe.balancing.ConcurrencyLimitingProxyHandler;
+import com.nordstrom.nfe.balancing.Endpoint;
+import com.nordstrom.nfe.balancing.EndpointHealth;
+import com.nordstrom.nfe.caching.CachingProxyHandler;
+import com.nordstrom.nfe.caching.ResponseCache;
+import com.nordstrom.nfe.compression.CompressingProxyHandler;
+import com.nordstrom.nfe.compression.ResponseCompressor;
+import com.nordstrom.nfe.config.BalancingConfig;
+import com.nordstrom.nfe.config.CompressionConfig;
 import com.nordstrom.nfe.config.NfeConfig;
+import com.nordstrom.nfe.config.RouteUpdatesConfig;
+import com.nordstrom.nfe.config.StreamingConfig;
+import com.nordstrom.nfe.metrics.LatencyHistogram;
+import com.nordstrom.nfe.metrics.MeteringProxyHandler;
+import com.nordstrom.nfe.metrics.NfeMetrics;
 import com.nordstrom.nfe.nlpmanagement.AccountInfo;
 import com.nordstrom.nfe.nlpmanagement.KubernetesNodeInfo;
+import com.nordstrom.nfe.nlpmanagement.NlpHealthChecker;
 import com.nordstrom.nfe.nlpmanagement.NlpInstanceEntry;
+import com.nordstrom.nfe.routing.RouteGeneration;
+import com.nordstrom.nfe.streaming.StreamingProxyHandler;
 import com.xjeffrose.xio.client.ClientConfig;
 import com.xjeffrose.xio.core.SocketAddressHelper;
 import com.xjeffrose.xio.grpc.GrpcRoute;
@@ -34,15 +57,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -50,20 +81,71 @@ public class RouteStates {
   private final NfeState nfeState;
   private final NfeConfig nfeConfig;
   private final ProxyClientFactory proxyClientFactory;
+  @Nullable private final NlpHealthChecker nlpHealthChecker;
+  @Nullable private final NfeMetrics metrics;
+  private final EndpointHealth endpointHealth;
+  private final ResponseCache responseCache;
+  private final ResponseCompressor responseCompressor;
   private final BlockingQueue<Runnable> blockingQueue = new LinkedBlockingQueue<>();
   private final AtomicReference<ImmutableMap<String, AccountInfo>>
       customerAccountNlpInstanceMap; // key is account id
   private final AtomicReference<ImmutableMap<String, KubernetesNodeInfo>>
       kubernetesNlpInstanceMap; // key is node's unique id: (region, clusterId, nodeId)
-  private List<RouteState> grpcRouteStates = Collections.emptyList();
-  private List<RouteState> configRouteStates = Collections.emptyList();
+  // the routes from the config file and the gRPC services, key is path
+  private Map<String, RouteState> staticRoutes = Collections.emptyMap();
+
+  // The NLP routes are only ever touched from the queue thread. They are updated incrementally so
+  // that a route whose NLPs did not change keeps its RouteState (and its warm upstream clients).
+  // key is path
+  private final Map<String, NlpRoute> customerAccountNlpRoutes = new LinkedHashMap<>();
+  private final Map<String, NlpRoute> kubernetesNlpRoutes = new LinkedHashMap<>();
+  // key is path, value is the ids of the accounts (or K8S nodes) serving that path
+  private final Map<String, Set<String>> customerAccountIdsByPath = new HashMap<>();
+  private final Map<String, Set<String>> kubernetesNodeIdsByPath = new HashMap<>();
+  // set by mutations on the queue thread, the routes are published once per batch of mutations
+  private boolean staticRoutesChanged = false;
+  private final Set<String> changedPaths = new LinkedHashSet<>();
+
+  private final LongAdder mutationCount = new LongAdder();
+  private final LongAdder publishCount = new LongAdder();
+  private final LongAdder publishNanos = new LongAdder();
+  private volatile long lastPublishNanos = 0;
+  private volatile int lastBatchSize = 0;
 
   public RouteStates(
       NfeState nfeState, NfeConfig nfeConfig, ProxyClientFactory proxyClientFactory) {
+    this(nfeState, nfeConfig, proxyClientFactory, null);
+  }
+
+  /** @param nlpHealthChecker health checks the NLPs of the routes, or null to not check them. */
+  public RouteStates(
+      NfeState nfeState,
+      NfeConfig nfeConfig,
+      ProxyClientFactory proxyClientFactory,
+      @Nullable NlpHealthChecker nlpHealthChecker) {
+    this(nfeState, nfeConfig, proxyClientFactory, nlpHealthChecker, null);
+  }
+
+  /**
+   * @param nlpHealthChecker health checks the NLPs of the routes, or null to not check them.
+   * @param metrics meters the proxy routes, or null to not meter them.
+   */
+  public RouteStates(
+      NfeState nfeState,
+      NfeConfig nfeConfig,
+      ProxyClientFactory proxyClientFactory,
+      @Nullable NlpHealthChecker nlpHealthChecker,
+      @Nullable NfeMetrics metrics) {
 
     this.nfeState = nfeState;
     this.nfeConfig = nfeConfig;
     this.proxyClientFactory = proxyClientFactory;
+    this.nlpHealthChecker = nlpHealthChecker;
+    this.metrics = metrics;
+    this.endpointHealth =
+        nlpHealthChecker == null ? EndpointHealth.ALWAYS_HEALTHY : nlpHealthChecker;
+    this.responseCache = new ResponseCache(nfeConfig.responseCacheConfig());
+    this.responseCompressor = new ResponseCompressor(nfeConfig.responseCompressionConfig());
     this.customerAccountNlpInstanceMap = new AtomicReference<>(ImmutableBiMap.of());
     this.kubernetesNlpInstanceMap = new AtomicReference<>(ImmutableMap.of());
 
@@ -86,16 +168,19 @@ public class RouteStates {
   public void buildInitialRoutes(List<GrpcService> grpcServices) {
     addToQueue(
         () -> {
-          this.grpcRouteStates = buildGrpcRouteStates(grpcServices);
-          this.configRouteStates = buildConfigRouteStates();
-
-          updateRouteMap();
+          Map<String, RouteState> staticRoutes = new LinkedHashMap<>();
+          // put each state into the map with the path as the key, gRPC routes win
+          buildConfigRouteStates().forEach(state -> staticRoutes.put(state.path(), state));
+          buildGrpcRouteStates(grpcServices)
+              .forEach(state -> staticRoutes.put(state.path(), state));
+          this.staticRoutes = staticRoutes;
+          this.staticRoutesChanged = true;
         });
   }
 
   /**
-   * Adds the new customer account NLPs to the list of known NLPs. Recomputes all the routes for all
-   * NLPs based on newly updated NLP list.
+   * Adds the new customer account NLPs to the list of known NLPs. Recomputes the routes served by
+   * the accounts of the new NLPs.
    */
   public void addCustomerAccountNlpInstances(
       Supplier<List<NlpInstanceEntry>> nlpInstanceEntriesSupplier) {
@@ -107,8 +192,11 @@ public class RouteStates {
             return;
           }
 
+          ImmutableMap<String, AccountInfo> previousNlpInstanceMap =
+              this.customerAccountNlpInstanceMap.get();
           Map<String, AccountInfo> combinedNlpInstanceMap =
-              new LinkedHashMap<>(this.customerAccountNlpInstanceMap.get());
+              new LinkedHashMap<>(previousNlpInstanceMap);
+          Set<String> changedAccountIds = new LinkedHashSet<>();
 
           for (NlpInstanceEntry nlpInstanceEntry : nlpInstanceEntries) {
             AccountInfo originalAccountInfo =
@@ -129,18 +217,19 @@ public class RouteStates {
             }
 
             combinedNlpInstanceMap.put(nlpInstanceEntry.getAccountId(), updatedAccountInfo);
+            changedAccountIds.add(nlpInstanceEntry.getAccountId());
           }
 
           customerAccountNlpInstanceMap.set(ImmutableMap.copyOf(combinedNlpInstanceMap));
 
           // Now that the customer account NLPs map is updated, we need to update the route map.
-          updateRouteMap();
+          updateCustomerAccountNlpRoutes(previousNlpInstanceMap, changedAccountIds);
         });
   }
 
   /**
    * Removes the customer account NLP with the provided information from the list of known NLPs.
-   * Recomputes all the routes for all NLPs based on newly updated NLP list.
+   * Recomputes the routes served by the NLP's account.
    *
    * <p>NOTE: If an NLP with the provided information is not found then the map of routes is not
    * recomputed.
@@ -148,8 +237,9 @@ public class RouteStates {
   public void removeCustomerAccountNlpInstance(String accountId, String ipAddress) {
     addToQueue(
         () -> {
-          Map<String, AccountInfo> nlpInstanceMap =
-              new HashMap<>(this.customerAccountNlpInstanceMap.get());
+          ImmutableMap<String, AccountInfo> previousNlpInstanceMap =
+              this.customerAccountNlpInstanceMap.get();
+          Map<String, AccountInfo> nlpInstanceMap = new LinkedHashMap<>(previousNlpInstanceMap);
           AccountInfo accountInfo = nlpInstanceMap.get(accountId);
 
           if (accountInfo == null || !accountInfo.getIpAddresses().contains(ipAddress)) {
@@ -165,7 +255,8 @@ public class RouteStates {
           }
 
           this.customerAccountNlpInstanceMap.set(ImmutableMap.copyOf(nlpInstanceMap));
-          updateRouteMap();
+          updateCustomerAccountNlpRoutes(
+              previousNlpInstanceMap, Collections.singleton(accountId));
         });
   }
 
@@ -179,17 +270,31 @@ public class RouteStates {
       Function<ImmutableMap<String, AccountInfo>, Map<String, AccountInfo>> nlpInstanceMapUpdater) {
     addToQueue(
         () -> {
+          ImmutableMap<String, AccountInfo> previousNlpInstanceMap =
+              customerAccountNlpInstanceMap.get();
           Map<String, AccountInfo> newNlpInstanceMap =
-              nlpInstanceMapUpdater.apply(customerAccountNlpInstanceMap.get());
+              nlpInstanceMapUpdater.apply(previousNlpInstanceMap);
           customerAccountNlpInstanceMap.set(ImmutableMap.copyOf(newNlpInstanceMap));
-          updateRouteMap();
+
+          // only the accounts that were added, removed or modified need their routes rebuilt
+          Set<String> changedAccountIds = new LinkedHashSet<>();
+          Set<String> accountIds =
+              Sets.union(previousNlpInstanceMap.keySet(), newNlpInstanceMap.keySet());
+          for (String accountId : accountIds) {
+            if (!Objects.equals(
+                previousNlpInstanceMap.get(accountId), newNlpInstanceMap.get(accountId))) {
+              changedAccountIds.add(accountId);
+            }
+          }
+
+          updateCustomerAccountNlpRoutes(previousNlpInstanceMap, changedAccountIds);
         });
   }
 
   /**
    * Adds the new kubernetes NLPs to the list of known NLPs. If a new KubernetesNodeInfo is provided
-   * that has the same uniqueId then it will override the old one. Recomputes all the routes for all
-   * NLPs based on newly updated NLP list.
+   * that has the same uniqueId then it will override the old one. Recomputes the routes served by
+   * the new nodes.
    */
   public void addKubernetesNlpInstances(
       Supplier<List<KubernetesNodeInfo>> kubernetesNodeInfosSupplier) {
@@ -201,23 +306,27 @@ public class RouteStates {
             return;
           }
 
+          ImmutableMap<String, KubernetesNodeInfo> previousKubernetesNodeInfos =
+              this.kubernetesNlpInstanceMap.get();
           Map<String, KubernetesNodeInfo> combinedKubernetesNodeInfos =
-              new LinkedHashMap<>(this.kubernetesNlpInstanceMap.get());
+              new LinkedHashMap<>(previousKubernetesNodeInfos);
+          Set<String> changedNodeIds = new LinkedHashSet<>();
 
           for (KubernetesNodeInfo kubernetesNodeInfo : kubernetesNodeInfos) {
             combinedKubernetesNodeInfos.put(kubernetesNodeInfo.getUniqueId(), kubernetesNodeInfo);
+            changedNodeIds.add(kubernetesNodeInfo.getUniqueId());
           }
 
           kubernetesNlpInstanceMap.set(ImmutableMap.copyOf(combinedKubernetesNodeInfos));
 
           // Now that the kubernetes NLPs map is updated, we need to update the route map.
-          updateRouteMap();
+          updateKubernetesNlpRoutes(previousKubernetesNodeInfos, changedNodeIds);
         });
   }
 
   /**
    * Removes the kubernetes NLP with the provided information from the list of known NLPs.
-   * Recomputes all the routes for all NLPs based on newly updated NLP list.
+   * Recomputes the routes served by the removed node.
    *
    * <p>NOTE: If an NLP with the provided information is not found then the map of routes is not
    * recomputed.
@@ -225,41 +334,207 @@ public class RouteStates {
   public void removeKubernetesNlpInstance(String uniqueId) {
     addToQueue(
         () -> {
+          ImmutableMap<String, KubernetesNodeInfo> previousNlpInstanceMap =
+              this.kubernetesNlpInstanceMap.get();
           Map<String, KubernetesNodeInfo> nlpInstanceMap =
-              new HashMap<>(this.kubernetesNlpInstanceMap.get());
+              new LinkedHashMap<>(previousNlpInstanceMap);
           if (nlpInstanceMap.containsKey(uniqueId)) {
             nlpInstanceMap.remove(uniqueId);
             this.kubernetesNlpInstanceMap.set(ImmutableMap.copyOf(nlpInstanceMap));
 
-            updateRouteMap();
+            updateKubernetesNlpRoutes(previousNlpInstanceMap, Collections.singleton(uniqueId));
           }
         });
   }
 
   /**
-   * Recreates the route map.
+   * Publishes the next route generation.
    *
-   * <p>Uses the already created routes from the config file and gRPC services. Also, rebuilds the
-   * routes from the account info map.
+   * <p>When only NLP routes changed, the routes of the changed paths are swapped into the current
+   * generation, leaving the rest of its route tree as is. The whole tree is only built again when
+   * the config file and gRPC routes are (re)built.
    *
    * <p>Routes built from account info map will override config file routes. It can potentially
    * override gRPC routes, but these should not conflict as the route path format is different.
    */
-  private void updateRouteMap() {
-    List<RouteState> combinedRouteStates = new ArrayList<>();
-    combinedRouteStates.addAll(configRouteStates);
-    combinedRouteStates.addAll(grpcRouteStates);
-    combinedRouteStates.addAll(buildCustomerAccountNlpRouteStates());
-    combinedRouteStates.addAll(buildKubernetesNlpRouteStates());
-
-    LinkedHashMap<String, RouteState> routeMap = new LinkedHashMap<>();
-    combinedRouteStates.forEach(
-        (RouteState state) -> {
-          // put this state into the routeMap with the path as the key
-          routeMap.put(state.path(), state);
-        });
+  private void publishRoutes() {
+    long start = System.nanoTime();
+    RouteGeneration current = nfeState.getRouteGeneration();
+    RouteGeneration next;
+    if (staticRoutesChanged) {
+      LinkedHashMap<String, RouteState> routeMap = new LinkedHashMap<>(staticRoutes);
+      customerAccountNlpRoutes.forEach((path, route) -> routeMap.put(path, route.routeState));
+      kubernetesNlpRoutes.forEach((path, route) -> routeMap.put(path, route.routeState));
+      next = current.next(ImmutableMap.copyOf(routeMap));
+    } else {
+      Map<String, RouteState> changed = new LinkedHashMap<>();
+      Set<String> removed = new HashSet<>();
+      for (String path : changedPaths) {
+        RouteState route = route(path);
+        if (route != null) {
+          changed.put(path, route);
+        } else {
+          removed.add(path);
+        }
+      }
+      next = current.update(changed, removed);
+    }
+    staticRoutesChanged = false;
+    changedPaths.clear();
+
+    nfeState.setRouteGeneration(next);
+    if (nlpHealthChecker != null) {
+      nlpHealthChecker.setTargets(nlpAddresses());
+    }
+
+    long elapsed = System.nanoTime() - start;
+    lastPublishNanos = elapsed;
+    publishNanos.add(elapsed);
+    publishCount.increment();
+  }
+
+  /** The route serving a path, kubernetes NLPs first, then customer account NLPs. */
+  @Nullable
+  private RouteState route(String path) {
+    NlpRoute route = kubernetesNlpRoutes.get(path);
+    if (route == null) {
+      route = customerAccountNlpRoutes.get(path);
+    }
+    return route != null ? route.routeState : staticRoutes.get(path);
+  }
+
+  /** The addresses of every NLP serving a route. */
+  private Set<InetSocketAddress> nlpAddresses() {
+    Set<InetSocketAddress> addresses = new HashSet<>();
+    for (NlpRoute route :
+        Iterables.concat(customerAccountNlpRoutes.values(), kubernetesNlpRoutes.values())) {
+      for (String ipAddress : route.spec.ipAddresses) {
+        addresses.add(new InetSocketAddress(ipAddress, route.spec.port));
+      }
+    }
+    return addresses;
+  }
+
+  /**
+   * Rebuilds the customer account NLP routes for the paths served (before or after the change) by
+   * the changed accounts. Every other route is left untouched.
+   */
+  private void updateCustomerAccountNlpRoutes(
+      Map<String, AccountInfo> previousNlpInstanceMap, Set<String> changedAccountIds) {
+    Map<String, AccountInfo> nlpInstanceMap = this.customerAccountNlpInstanceMap.get();
+    Set<String> dirtyPaths = new LinkedHashSet<>();
+
+    for (String accountId : changedAccountIds) {
+      AccountInfo previousAccountInfo = previousNlpInstanceMap.get(accountId);
+      if (previousAccountInfo != null) {
+        for (String path : previousAccountInfo.getPaths()) {
+          dirtyPaths.add(path);
+          removeFromPathIndex(customerAccountIdsByPath, path, accountId);
+        }
+      }
+
+      AccountInfo accountInfo = nlpInstanceMap.get(accountId);
+      if (accountInfo != null) {
+        for (String path : accountInfo.getPaths()) {
+          dirtyPaths.add(path);
+          // the most recently changed account wins if several accounts claim the same path
+          removeFromPathIndex(customerAccountIdsByPath, path, accountId);
+          customerAccountIdsByPath.computeIfAbsent(path, k -> new LinkedHashSet<>()).add(accountId);
+        }
+      }
+    }
 
-    nfeState.setRoutes(ImmutableMap.copyOf(routeMap));
+    int port = nfeConfig.defaultClientConfig().remote().getPort();
+    for (String path : dirtyPaths) {
+      NlpRouteSpec spec = null;
+      Set<String> accountIds = customerAccountIdsByPath.get(path);
+      if (accountIds != null) {
+        String ownerAccountId = Iterables.getLast(accountIds);
+        spec = new NlpRouteSpec(path, nlpInstanceMap.get(ownerAccountId).getIpAddresses(), port);
+      }
+      applyNlpRoute(customerAccountNlpRoutes, path, spec);
+    }
+  }
+
+  /**
+   * Rebuilds the kubernetes NLP routes for the paths served (before or after the change) by the
+   * changed nodes. Every other route is left untouched.
+   */
+  private void updateKubernetesNlpRoutes(
+      Map<String, KubernetesNodeInfo> previousNlpInstanceMap, Set<String> changedNodeIds) {
+    Map<String, KubernetesNodeInfo> nlpInstanceMap = this.kubernetesNlpInstanceMap.get();
+    Set<String> dirtyPaths = new LinkedHashSet<>();
+
+    for (String nodeId : changedNodeIds) {
+      KubernetesNodeInfo previousNodeInfo = previousNlpInstanceMap.get(nodeId);
+      KubernetesNodeInfo nodeInfo = nlpInstanceMap.get(nodeId);
+      List<String> paths = nodeInfo != null ? nodeInfo.getPaths() : Collections.emptyList();
+
+      if (previousNodeInfo != null) {
+        for (String path : previousNodeInfo.getPaths()) {
+          dirtyPaths.add(path);
+          if (!paths.contains(path)) {
+            removeFromPathIndex(kubernetesNodeIdsByPath, path, nodeId);
+          }
+        }
+      }
+
+      for (String path : paths) {
+        dirtyPaths.add(path);
+        // a node that is updated in place keeps its position for the path
+        kubernetesNodeIdsByPath.computeIfAbsent(path, k -> new LinkedHashSet<>()).add(nodeId);
+      }
+    }
+
+    // TODO(br): use correct port (should be the port reserved by K8S for NLPs)
+    int port = nfeConfig.kubernetesRoutingConfig().getReservedNlpPort();
+    for (String path : dirtyPaths) {
+      NlpRouteSpec spec = null;
+      Set<String> nodeIds = kubernetesNodeIdsByPath.get(path);
+      if (nodeIds != null) {
+        List<String> ipAddresses =
+            nodeIds
+                .stream()
+                .map(nlpInstanceMap::get)
+                .map(KubernetesNodeInfo::getIpAddress)
+                .collect(Collectors.toList());
+        spec = new NlpRouteSpec(path, ipAddresses, port);
+      }
+      applyNlpRoute(kubernetesNlpRoutes, path, spec);
+    }
+  }
+
+  private static void removeFromPathIndex(
+      Map<String, Set<String>> pathIndex, String path, String id) {
+    Set<String> ids = pathIndex.get(path);
+    if (ids != null) {
+      ids.remove(id);
+      if (ids.isEmpty()) {
+        pathIndex.remove(path);
+      }
+    }
+  }
+
+  /**
+   * Brings the route for a single path in line with its spec. A RouteState is only built when the
+   * spec actually changed, otherwise the existing one is reused.
+   *
+   * @param spec the desired route, or null if the path is no longer served.
+   */
+  private void applyNlpRoute(Map<String, NlpRoute> routes, String path, NlpRouteSpec spec) {
+    NlpRoute existing = routes.get(path);
+    if (spec == null) {
+      if (existing != null) {
+        routes.remove(path);
+        changedPaths.add(path);
+      }
+      return;
+    }
+
+    if (existing == null || !existing.spec.equals(spec)) {
+      routes.put(path, buildNlpRoute(spec, existing));
+      changedPaths.add(path);
+    }
   }
 
   private List<RouteState> buildConfigRouteStates() {
@@ -268,16 +543,93 @@ public class RouteStates {
         // iterate over a stream of ProxyRouteConfig
         .stream()
         // for each ProxyRouteConfig create a ProxyRouteState
-        .map(this::buildProxyRouteState)
+        .map(config -> buildProxyRouteState(config, nfeConfig.balancingConfig(config)))
         // collect into a List<ProxyRouteState>
         .collect(Collectors.toList());
   }
 
-  private ProxyRouteState buildProxyRouteState(ProxyRouteConfig config) {
-    return new ProxyRouteState(
-        nfeState,
-        config,
-        new PersistentProxyHandler(proxyClientFactory, config, new SocketAddressHelper()));
+  private ProxyRouteState buildProxyRouteState(
+      ProxyRouteConfig config, BalancingConfig balancingConfig) {
+    return buildProxyRouteState(
+        config, balancingConfig, buildEndpoints(config, balancingConfig, Collections.emptyList()));
+  }
+
+  /**
+   * Builds an endpoint for each client of a route. Each client gets a proxy handler of its own so
+   * that the balancing policy, not the proxy handler, decides where a stream goes.
+   *
+   * @param previous the endpoints of the route being replaced. The one with the address and weight
+   *     of a client is carried over as is, along with its warm connections, latency and outlier
+   *     state.
+   */
+  private List<Endpoint> buildEndpoints(
+      ProxyRouteConfig config, BalancingConfig balancingConfig, List<Endpoint> previous) {
+    Map<InetSocketAddress, Endpoint> previousByAddress = new HashMap<>();
+    previous.forEach(endpoint -> previousByAddress.put(endpoint.address(), endpoint));
+
+    List<Endpoint> endpoints = new ArrayList<>();
+    List<ClientConfig> clientConfigs = config.clientConfigs();
+
+    for (int i = 0; i < clientConfigs.size(); i++) {
+      ClientConfig clientConfig = clientConfigs.get(i);
+      int weight = balancingConfig.getWeight(i);
+      Endpoint endpoint = previousByAddress.remove(clientConfig.remote());
+      if (endpoint != null && endpoint.weight() == weight) {
+        endpoints.add(endpoint);
+        continue;
+      }
+
+      LatencyHistogram latencyHistogram =
+          metrics != null ? metrics.endpointLatency(config.path(), clientConfig.remote()) : null;
+      ProxyRouteConfig endpointConfig =
+          ProxyRouteConfig.newBuilder(config)
+              .setClientConfigs(Collections.singletonList(clientConfig))
+              .build();
+      endpoints.add(
+          new Endpoint(
+              clientConfig.remote(),
+              weight,
+              balancingConfig.getEwmaDecayNanos(),
+              new PersistentProxyHandler(
+                  proxyClientFactory, endpointConfig, new SocketAddressHelper()),
+              latencyHistogram));
+    }
+    return endpoints;
+  }
+
+  /** Builds a route whose requests are balanced over the given endpoints. */
+  private ProxyRouteState buildProxyRouteState(
+      ProxyRouteConfig config, BalancingConfig balancingConfig, List<Endpoint> endpoints) {
+    PipelineRequestHandler handler =
+        new BalancingProxyHandler(
+            endpoints,
+            BalancingPolicy.create(balancingConfig.getPolicy()),
+            balancingConfig.getOutlierDetectionConfig(),
+            balancingConfig.getRetryConfig(),
+            endpointHealth);
+    if (balancingConfig.getConcurrencyLimitConfig().isEnabled()) {
+      handler =
+          new ConcurrencyLimitingProxyHandler(
+              handler, new ConcurrencyLimiter(balancingConfig.getConcurrencyLimitConfig()));
+    }
+    StreamingConfig streamingConfig = nfeConfig.streamingConfig(config);
+    if (streamingConfig.isEnabled()) {
+      // streamed bodies are never held whole, so streaming routes are not cached
+      handler = new StreamingProxyHandler(handler, streamingConfig);
+    } else if (nfeConfig.cachingEnabled(config)) {
+      // cache hits are answered ahead of the concurrency limit
+      handler = new CachingProxyHandler(handler, responseCache);
+    }
+    CompressionConfig compressionConfig = nfeConfig.compressionConfig(config);
+    if (compressionConfig.isEnabled()) {
+      // the cache keeps responses uncompressed, they are compressed for each client that accepts it
+      handler = new CompressingProxyHandler(handler, compressionConfig, responseCompressor);
+    }
+    if (metrics != null) {
+      // metered last, what was sent to the client (compressed or from the cache) is what counts
+      handler = new MeteringProxyHandler(handler, metrics.route(config.path()));
+    }
+    return new ProxyRouteState(nfeState, config, handler);
   }
 
   private List<RouteState> buildGrpcRouteStates(List<GrpcService> grpcServices) {
@@ -303,107 +655,92 @@ public class RouteStates {
     return routeStates;
   }
 
-  private List<RouteState> buildCustomerAccountNlpRouteStates() {
-    Map<String, AccountInfo> nlpInstanceMap = this.customerAccountNlpInstanceMap.get();
-    List<RouteState> routeStates = new ArrayList<>();
-
-    for (String accountId : nlpInstanceMap.keySet()) {
-      AccountInfo accountInfo = nlpInstanceMap.get(accountId);
-
-      for (String path : accountInfo.getPaths()) {
-        List<String> pathComponents = Arrays.asList(path.split("/"));
-        String serviceName = pathComponents.get(pathComponents.size() - 1);
-        routeStates.add(
-            buildNlpRouteState(
-                path,
-                serviceName,
-                accountInfo.getIpAddresses(),
-                nfeConfig.defaultClientConfig().remote().getPort()));
-      }
-    }
-
-    return routeStates;
-  }
-
-  private List<RouteState> buildKubernetesNlpRouteStates() {
-    Map<String, KubernetesNodeInfo> nodeIdToKubernetesNlpInstanceMap =
-        this.kubernetesNlpInstanceMap.get();
-    List<RouteState> routeStates = new ArrayList<>();
-
-    // Reverse map the K8S nodes to group them by path
-    Map<String, List<KubernetesNodeInfo>> pathToKubernetesNlpInstancesMap = new LinkedHashMap<>();
-    for (String nodeId : nodeIdToKubernetesNlpInstanceMap.keySet()) {
-      KubernetesNodeInfo kubernetesNodeInfo = nodeIdToKubernetesNlpInstanceMap.get(nodeId);
-
-      for (String path : kubernetesNodeInfo.getPaths()) {
-        List<KubernetesNodeInfo> newInfoList;
-
-        if (pathToKubernetesNlpInstancesMap.get(path) == null) {
-          newInfoList = new ArrayList<>();
-        } else {
-          newInfoList = pathToKubernetesNlpInstancesMap.get(path);
-        }
-
-        newInfoList.add(kubernetesNodeInfo);
-        pathToKubernetesNlpInstancesMap.put(path, newInfoList);
-      }
-    }
-
-    // Create a RouteState per path, with a Client per K8S node
-    for (String path : pathToKubernetesNlpInstancesMap.keySet()) {
-      List<KubernetesNodeInfo> kubernetesNodeInfos = pathToKubernetesNlpInstancesMap.get(path);
-      List<String> pathComponents = Arrays.asList(path.split("/"));
-      String serviceName = pathComponents.get(pathComponents.size() - 1);
-
-      List<String> ipAddresses =
-          kubernetesNodeInfos
-              .stream()
-              .map(KubernetesNodeInfo::getIpAddress)
-              .collect(Collectors.toList());
-
-      // TODO(br): use correct port (should be the port reserved by K8S for NLPs)
-      routeStates.add(
-          buildNlpRouteState(
-              path,
-              serviceName,
-              ipAddresses,
-              nfeConfig.kubernetesRoutingConfig().getReservedNlpPort()));
-    }
-
-    return routeStates;
-  }
-
-  private ProxyRouteState buildNlpRouteState(
-      String path, String serviceName, List<String> ipAddresses, int port) {
+  /**
+   * Builds the route of an NLP path.
+   *
+   * @param previous the route being replaced, its endpoints that are still in the spec are reused.
+   */
+  private NlpRoute buildNlpRoute(NlpRouteSpec spec, @Nullable NlpRoute previous) {
     List<ClientConfig> clientConfigs = new ArrayList<>();
 
-    for (String ipAddress : ipAddresses) {
+    for (String ipAddress : spec.ipAddresses) {
       clientConfigs.add(
           ClientConfig.newBuilder(nfeConfig.defaultClientConfig())
-              .setRemote(new InetSocketAddress(ipAddress, port))
+              .setRemote(new InetSocketAddress(ipAddress, spec.port))
               .build());
     }
 
+    List<String> pathComponents = Arrays.asList(spec.path.split("/"));
+    String serviceName = pathComponents.get(pathComponents.size() - 1);
+
     ProxyRouteConfig proxyRouteConfig =
         ProxyRouteConfig.newBuilder(nfeConfig.defaultProxyRouteConfig())
-            .setPath(path)
+            .setPath(spec.path)
             .setProxyPath("/" + serviceName + "/")
             .setClientConfigs(clientConfigs)
             .build();
 
-    return buildProxyRouteState(proxyRouteConfig);
+    BalancingConfig balancingConfig = nfeConfig.defaultBalancingConfig();
+    List<Endpoint> endpoints =
+        buildEndpoints(
+            proxyRouteConfig,
+            balancingConfig,
+            previous != null ? previous.endpoints : Collections.emptyList());
+    return new NlpRoute(
+        spec, endpoints, buildProxyRouteState(proxyRouteConfig, balancingConfig, endpoints));
   }
 
   private void startQueue() {
     while (true) {
       try {
-        blockingQueue.take().run();
+        runBatch(blockingQueue.take());
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
     }
   }
 
+  /**
+   * Runs the given mutation along with every mutation queued within the coalescing window (up to
+   * the max batch size), then publishes the resulting routes once.
+   */
+  private void runBatch(Runnable first) throws InterruptedException {
+    RouteUpdatesConfig config = nfeConfig.routeUpdatesConfig();
+    long window = TimeUnit.MILLISECONDS.toNanos(config.getCoalesceWindowMillis());
+    long deadline = System.nanoTime() + window;
+    int batchSize = 0;
+    Runnable next = first;
+
+    try {
+      while (next != null) {
+        runMutation(next);
+        batchSize++;
+        if (batchSize >= config.getMaxBatchSize()) {
+          break;
+        }
+        long remaining = deadline - System.nanoTime();
+        next =
+            remaining > 0
+                ? blockingQueue.poll(remaining, TimeUnit.NANOSECONDS)
+                : blockingQueue.poll();
+      }
+    } finally {
+      lastBatchSize = batchSize;
+      if (staticRoutesChanged || !changedPaths.isEmpty()) {
+        publishRoutes();
+      }
+    }
+  }
+
+  private void runMutation(Runnable mutation) {
+    mutationCount.increment();
+    try {
+      mutation.run();
+    } catch (RuntimeException e) {
+      log.error("Failed to apply route change", e);
+    }
+  }
+
   @VisibleForTesting
   public void addToQueue(Runnable runnable) {
     try {
@@ -412,4 +749,70 @@ public class RouteStates {
       e.printStackTrace();
     }
   }
+
+  /** The cache of the responses of the proxy routes that have caching enabled. */
+  public ResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  /** The compression of the responses of the proxy routes that have compression enabled. */
+  public ResponseCompressor getResponseCompressor() {
+    return responseCompressor;
+  }
+
+  /** The number of route changes waiting to be applied. */
+  public int getQueueDepth() {
+    return blockingQueue.size();
+  }
+
+  /** The number of route changes applied so far. */
+  public long getMutationCount() {
+    return mutationCount.sum();
+  }
+
+  /** The number of route generations published so far. */
+  public long getPublishCount() {
+    return publishCount.sum();
+  }
+
+  /** The total time spent building and publishing route generations, in nanoseconds. */
+  public long getPublishNanos() {
+    return publishNanos.sum();
+  }
+
+  /** The time spent building and publishing the latest route generation, in nanoseconds. */
+  public long getLastPublishNanos() {
+    return lastPublishNanos;
+  }
+
+  /** The number of route changes that went into the latest batch. */
+  public int getLastBatchSize() {
+    return lastBatchSize;
+  }
+
+  /** Everything that goes into building the RouteState of an NLP path. */
+  @EqualsAndHashCode
+  private static class NlpRouteSpec {
+    private final String path;
+    private final List<String> ipAddresses;
+    private final int port;
+
+    NlpRouteSpec(String path, List<String> ipAddresses, int port) {
+      this.path = path;
+      this.ipAddresses = ImmutableList.copyOf(ipAddresses);
+      this.port = port;
+    }
+  }
+
+  private static class NlpRoute {
+    private final NlpRouteSpec spec;
+    private final List<Endpoint> endpoints;
+    private final RouteState routeState;
+
+    NlpRoute(NlpRouteSpec spec, List<Endpoint> endpoints, RouteState routeState) {
+      this.spec = spec;
+      this.endpoints = endpoints;
+      this.routeState = routeState;
+    }
+  }
 }
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.apikey;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.nordstrom.nfe.config.ApiKeyAdmissionConfig;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Local admission of API keys, checked before asking Gatekeeper about a key. Keys that are
+ * definitely not issued are rejected from a Bloom filter of the issued keys, without a round trip.
+ *
+ * <p>The filter is rebuilt from the issued keys on every refresh. Keys generated by this NFE are
+ * saved to the core data service first, and added to the filter as they are generated, until a
+ * refresh that looked them up after that rebuilds it. A Bloom filter can't forget a key, the keys
+ * revoked by this NFE are kept aside and rejected as well, until the core data service no longer
+ * lists them.
+ *
+ * <p>Keys are only checked on the routes whose service's keys were read for the filter. On other
+ * routes (until the first rebuild, or routed since the last one) every key is admitted and
+ * Gatekeeper decides as before.
+ */
+@Slf4j
+public class ApiKeyAdmission {
+  private final ApiKeyAdmissionConfig config;
+  private final ImmutableList<String> configuredKeys;
+  // the keys generated and revoked by this NFE, by when they were (in changes)
+  private final Map<String, Long> generatedKeys = new ConcurrentHashMap<>();
+  private final Map<String, Long> revokedKeys = new ConcurrentHashMap<>();
+  // counts the keys generated or revoked and the refreshes started, to order them
+  private final AtomicLong changes = new AtomicLong();
+  private final LongAdder admittedCount = new LongAdder();
+  private final LongAdder rejectedCount = new LongAdder();
+
+  // null until the issued keys are first known
+  @Nullable private volatile Coverage coverage;
+
+  public ApiKeyAdmission(ApiKeyAdmissionConfig config, Collection<String> configuredKeys) {
+    this.config = config;
+    this.configuredKeys = ImmutableList.copyOf(configuredKeys);
+  }
+
+  /**
+   * Whether a key sent to a route may have been issued, false when it definitely was not (or was
+   * revoked).
+   */
+  public boolean admits(String routePath, @Nullable String key) {
+    Coverage current = coverage;
+    if (current == null || key == null || !current.routePaths.contains(routePath)) {
+      // a request without a key is rejected by the Gatekeeper client anyway
+      return true;
+    }
+    if (current.filter.mightContain(key)
+        && (revokedKeys.isEmpty() || !revokedKeys.containsKey(key))) {
+      admittedCount.increment();
+      return true;
+    }
+    rejectedCount.increment();
+    return false;
+  }
+
+  /** A key was generated by this NFE, and saved to the core data service. */
+  public synchronized void keyGenerated(String key) {
+    if (!config.isEnabled()) {
+      return;
+    }
+    generatedKeys.put(key, changes.incrementAndGet());
+    Coverage current = coverage;
+    if (current != null) {
+      current.filter.put(key);
+    }
+  }
+
+  /** A key was revoked by this NFE. */
+  public void keyRevoked(String key) {
+    if (!config.isEnabled()) {
+      return;
+    }
+    generatedKeys.remove(key);
+    revokedKeys.put(key, changes.incrementAndGet());
+  }
+
+  /** A refresh is about to look up the issued keys, returns when it did for rebuild. */
+  long refreshStarted() {
+    return changes.incrementAndGet();
+  }
+
+  /**
+   * Replaces the filter with one of the issued keys, plus the configured and generated ones. Keys
+   * are checked on routePaths, the routes of the services whose keys were issuedKeys, looked up
+   * after refreshStarted.
+   *
+   * <p>Keys are saved to the core data service before keyGenerated, so a key generated before the
+   * lookup is among issuedKeys (when its service is routed at all) and no longer kept aside. A key
+   * revoked before the lookup is let go of too, once the core data service stops listing it.
+   */
+  synchronized void rebuild(
+      Collection<String> issuedKeys, Collection<String> routePaths, long refreshStarted) {
+    generatedKeys.values().removeIf(generated -> generated < refreshStarted);
+    if (!revokedKeys.isEmpty()) {
+      Set<String> issued = new HashSet<>(issuedKeys);
+      revokedKeys
+          .entrySet()
+          .removeIf(
+              revoked -> revoked.getValue() < refreshStarted && !issued.contains(revoked.getKey()));
+    }
+
+    int keyCount = issuedKeys.size() + configuredKeys.size() + generatedKeys.size();
+    // leave room for the keys generated until the next rebuild
+    ApiKeyFilter rebuilt =
+        ApiKeyFilter.create(
+            Math.max(config.getExpectedKeys(), 2 * keyCount), config.getFalsePositiveRate());
+    issuedKeys.forEach(rebuilt::put);
+    configuredKeys.forEach(rebuilt::put);
+    generatedKeys.keySet().forEach(rebuilt::put);
+
+    if (coverage == null) {
+      log.info("Admitting {} api keys with a {} byte filter", keyCount, rebuilt.sizeInBytes());
+    }
+    coverage = new Coverage(rebuilt, ImmutableSet.copyOf(routePaths));
+  }
+
+  /** Number of keys generated or revoked by this NFE and kept aside from the issued ones. */
+  @VisibleForTesting
+  int getKeptAsideCount() {
+    return generatedKeys.size() + revokedKeys.size();
+  }
+
+  /** Number of routes whose keys are checked. */
+  public int getRouteCount() {
+    Coverage current = coverage;
+    return current == null ? 0 : current.routePaths.size();
+  }
+
+  /** Number of keys in the filter. */
+  public int getKeyCount() {
+    Coverage current = coverage;
+    return current == null ? 0 : current.filter.keyCount();
+  }
+
+  /** Memory taken by the bits of the filter. */
+  public long getSizeInBytes() {
+    Coverage current = coverage;
+    return current == null ? 0 : current.filter.sizeInBytes();
+  }
+
+  /** The false positive rate the filter is sized for. */
+  public double getTargetFalsePositiveRate() {
+    return config.getFalsePositiveRate();
+  }
+
+  /** The chance that a key never issued gets through to Gatekeeper, given the filter's bits. */
+  public double getEstimatedFalsePositiveRate() {
+    Coverage current = coverage;
+    return current == null ? 1 : current.filter.estimatedFalsePositiveRate();
+  }
+
+  /** Number of keys checked and passed on to Gatekeeper. */
+  public long getAdmittedCount() {
+    return admittedCount.sum();
+  }
+
+  /** Number of keys rejected without asking Gatekeeper. */
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  /** The filter of the issued keys and the routes it is checked on, replaced together. */
+  private static final class Coverage {
+    private final ApiKeyFilter filter;
+    private final ImmutableSet<String> routePaths;
+
+    Coverage(ApiKeyFilter filter, ImmutableSet<String> routePaths) {
+      this.filter = filter;
+      this.routePaths = routePaths;
+    }
+  }
+}
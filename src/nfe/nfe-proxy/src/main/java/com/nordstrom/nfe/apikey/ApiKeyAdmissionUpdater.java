@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.apikey;
+
+import com.nordstrom.gtm.apikey.ApiKey;
+import com.nordstrom.gtm.coredb.ListApiKeysResponse;
+import com.nordstrom.nfe.CoreDataService;
+import com.nordstrom.nfe.config.ApiKeyAdmissionConfig;
+import com.nordstrom.nfe.routing.RouteGeneration;
+import com.xjeffrose.xio.core.ZkClient;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.shared.SharedCount;
+import org.apache.curator.framework.recipes.shared.SharedCountListener;
+import org.apache.curator.framework.recipes.shared.SharedCountReader;
+import org.apache.curator.framework.recipes.shared.VersionedValue;
+import org.apache.curator.framework.state.ConnectionState;
+
+/**
+ * Keeps the issued API keys admitted up to date. Every refresh interval the keys of each service
+ * the current proxy routes lead to are read from the core data service and the admission filter is
+ * rebuilt from them. A service whose lookup failed keeps its last known keys, the routes of a
+ * service whose keys were never read are left unchecked.
+ *
+ * <p>Every NFE also refreshes as soon as the keys updated counter in zookeeper changes, which the
+ * NFE generating or revoking a key bumps once the core data service has it saved or deleted.
+ */
+@Slf4j
+public class ApiKeyAdmissionUpdater {
+  private static final String KEYS_UPDATED_PATH = "/api_keys/updated_counter";
+  private static final int UPDATE_ATTEMPTS = 3;
+
+  private final ApiKeyAdmissionConfig config;
+  private final ApiKeyAdmission admission;
+  private final CoreDataService coreDataService;
+  private final ZkClient zkClient;
+  private final Supplier<RouteGeneration> routeGeneration;
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("api-keys", true));
+
+  // the last known keys of each routed service, only touched from the executor
+  private final Map<String, List<String>> keysByService = new HashMap<>();
+  // null until started, or when the counter can't be watched
+  @Nullable private volatile SharedCount keysUpdated;
+
+  public ApiKeyAdmissionUpdater(
+      ApiKeyAdmissionConfig config,
+      ApiKeyAdmission admission,
+      CoreDataService coreDataService,
+      ZkClient zkClient,
+      Supplier<RouteGeneration> routeGeneration) {
+    this.config = config;
+    this.admission = admission;
+    this.coreDataService = coreDataService;
+    this.zkClient = zkClient;
+    this.routeGeneration = routeGeneration;
+  }
+
+  public void start() {
+    if (config.isEnabled()) {
+      executor.scheduleWithFixedDelay(
+          this::refresh, 0, config.getRefreshIntervalMillis(), TimeUnit.MILLISECONDS);
+      watchKeysUpdated();
+    }
+  }
+
+  public void shutdown() {
+    SharedCount count = keysUpdated;
+    keysUpdated = null;
+    if (count != null) {
+      try {
+        count.close();
+      } catch (IOException e) {
+        log.warn("Unable to close the api keys updated counter", e);
+      }
+    }
+    executor.shutdownNow();
+  }
+
+  private void watchKeysUpdated() {
+    try {
+      SharedCount count = zkClient.createSharedCounter(KEYS_UPDATED_PATH, 0);
+      count.addListener(
+          new SharedCountListener() {
+            @Override
+            public void countHasChanged(SharedCountReader reader, int newCount) {
+              executor.execute(ApiKeyAdmissionUpdater.this::refresh);
+            }
+
+            @Override
+            public void stateChanged(CuratorFramework client, ConnectionState newState) {
+              log.info("Api keys updated counter connection is {}", newState);
+            }
+          });
+      count.start();
+      keysUpdated = count;
+    } catch (Exception e) {
+      log.error(
+          "Unable to watch the api keys updated counter, keys generated or revoked by other NFEs "
+              + "are only seen every refresh interval",
+          e);
+    }
+  }
+
+  /**
+   * Tells every NFE (this one included) to refresh, after this one saved a generated key to the
+   * core data service or deleted a revoked one from it.
+   */
+  public void postKeysUpdated() {
+    SharedCount count = keysUpdated;
+    if (count == null) {
+      return;
+    }
+    try {
+      for (int attempt = 0; attempt < UPDATE_ATTEMPTS; attempt++) {
+        VersionedValue<Integer> previous = count.getVersionedValue();
+        if (count.trySetCount(previous, previous.getValue() + 1)) {
+          return;
+        }
+      }
+      log.warn("Api keys updated counter kept changing, not bumping it");
+    } catch (Exception e) {
+      log.error("Unable to bump the api keys updated counter", e);
+    }
+  }
+
+  void refresh() {
+    try {
+      long refreshStarted = admission.refreshStarted();
+      Map<String, String> serviceNamesByRoutePath =
+          routeGeneration.get().proxyRouteServiceNames();
+      Set<String> serviceNames = new HashSet<>(serviceNamesByRoutePath.values());
+
+      Map<String, ListApiKeysResponse> responses = coreDataService.getApiKeys(serviceNames);
+      responses.forEach((serviceName, response) -> keysByService.put(serviceName, keys(response)));
+      keysByService.keySet().retainAll(serviceNames);
+
+      List<String> issuedKeys = new ArrayList<>();
+      keysByService.values().forEach(issuedKeys::addAll);
+      List<String> routePaths = new ArrayList<>();
+      serviceNamesByRoutePath.forEach(
+          (routePath, serviceName) -> {
+            if (keysByService.containsKey(serviceName)) {
+              routePaths.add(routePath);
+            }
+          });
+      if (keysByService.size() < serviceNames.size()) {
+        log.warn(
+            "Not checking the api keys of {} of {} services, their keys are not known",
+            serviceNames.size() - keysByService.size(),
+            serviceNames.size());
+      }
+      admission.rebuild(issuedKeys, routePaths, refreshStarted);
+    } catch (Exception e) {
+      // keep the schedule going, the next refresh will try again
+      log.error("Unable to refresh api keys", e);
+    }
+  }
+
+  private static List<String> keys(ListApiKeysResponse response) {
+    return response.getApiKeysList().stream().map(ApiKey::getKey).collect(Collectors.toList());
+  }
+}
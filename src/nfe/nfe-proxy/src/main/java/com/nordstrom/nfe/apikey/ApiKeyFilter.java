@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.apikey;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of API keys: {@link #mightContain} is always true for the keys put in it and, at
+ * about the false positive rate the filter was sized for, true for other keys as well.
+ *
+ * <p>A key is hashed once into two 64 bit values, the bits it sets are picked from them by double
+ * hashing. Lookups neither allocate nor lock, puts set the bits with compare and set so that keys
+ * can be added while the filter is read.
+ */
+final class ApiKeyFilter {
+  private static final double LN2 = Math.log(2);
+
+  private final AtomicLongArray words;
+  private final long bitSize;
+  private final int hashCount;
+  private final AtomicLong setBitCount = new AtomicLong();
+  private final AtomicInteger keyCount = new AtomicInteger();
+
+  private ApiKeyFilter(int wordCount, int hashCount) {
+    this.words = new AtomicLongArray(wordCount);
+    this.bitSize = (long) wordCount * Long.SIZE;
+    this.hashCount = hashCount;
+  }
+
+  /** An empty filter holding up to expectedKeys keys at falsePositiveRate. */
+  static ApiKeyFilter create(int expectedKeys, double falsePositiveRate) {
+    int keys = Math.max(1, expectedKeys);
+    double bits = -keys * Math.log(falsePositiveRate) / (LN2 * LN2);
+    int wordCount = (int) Math.max(1, Math.ceil(bits / Long.SIZE));
+    int hashCount = (int) Math.max(1, Math.round((double) wordCount * Long.SIZE / keys * LN2));
+    return new ApiKeyFilter(wordCount, hashCount);
+  }
+
+  /** Adds a key, returns whether any of its bits were not set yet. */
+  boolean put(String key) {
+    long hash = hash(key);
+    long h1 = mix(hash);
+    long h2 = mix(hash + 0x9E3779B97F4A7C15L);
+
+    boolean changed = false;
+    long combined = h1;
+    for (int i = 0; i < hashCount; i++) {
+      changed |= setBit((combined & Long.MAX_VALUE) % bitSize);
+      combined += h2;
+    }
+    keyCount.incrementAndGet();
+    return changed;
+  }
+
+  boolean mightContain(String key) {
+    long hash = hash(key);
+    long h1 = mix(hash);
+    long h2 = mix(hash + 0x9E3779B97F4A7C15L);
+
+    long combined = h1;
+    for (int i = 0; i < hashCount; i++) {
+      long bit = (combined & Long.MAX_VALUE) % bitSize;
+      if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+      combined += h2;
+    }
+    return true;
+  }
+
+  private boolean setBit(long bit) {
+    int index = (int) (bit >>> 6);
+    long mask = 1L << bit;
+    long word;
+    do {
+      word = words.get(index);
+      if ((word & mask) != 0) {
+        return false;
+      }
+    } while (!words.compareAndSet(index, word, word | mask));
+    setBitCount.incrementAndGet();
+    return true;
+  }
+
+  /** Number of keys put in the filter, a key put twice counts twice. */
+  int keyCount() {
+    return keyCount.get();
+  }
+
+  long bitSize() {
+    return bitSize;
+  }
+
+  long sizeInBytes() {
+    return bitSize / Byte.SIZE;
+  }
+
+  int hashCount() {
+    return hashCount;
+  }
+
+  /** The chance that a key never put in the filter is found in it, given the bits now set. */
+  double estimatedFalsePositiveRate() {
+    return Math.pow((double) setBitCount.get() / bitSize, hashCount);
+  }
+
+  /** FNV-1a over the chars of the key. */
+  private static long hash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /** The murmur3 finalizer, spreads every bit of the hash over the result. */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Route;
+import io.netty.channel.ChannelHandlerContext;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import javax.annotation.Nullable;
+
+/**
+ * The attempts at one retryable request stream: the first one, its retries and its hedges. The
+ * first attempt to start an acceptable response wins the stream, whatever the other attempts send
+ * back is dropped. Attempts report back from their clients' event loops, so every decision is
+ * synchronized (they only ever contend within one stream).
+ */
+class Attempts {
+  enum Outcome {
+    /** Pass the message on to the client. */
+    FORWARD,
+    /** Drop the message (or failure), another attempt answers the stream. */
+    DROP,
+    /** Drop the message (or failure) and send the request to another endpoint. */
+    RETRY,
+    /** Nothing else can answer the stream, pass the message (or failure) on. */
+    FAIL
+  }
+
+  final ChannelHandlerContext ctx;
+  final Request request;
+  final Route route;
+  private final int maxAttempts;
+  private final Set<Endpoint> tried = new HashSet<>();
+  // attempts that have neither started a response nor failed
+  private final Set<Endpoint> pending = new HashSet<>();
+  // attempts that have neither finished a response nor failed
+  private final Set<Endpoint> open = new HashSet<>();
+  @Nullable private Endpoint winner;
+  private boolean givenUp;
+  @Nullable private ScheduledFuture<?> hedge;
+
+  Attempts(ChannelHandlerContext ctx, Request request, Route route, int maxAttempts) {
+    this.ctx = ctx;
+    this.request = request;
+    this.route = route;
+    this.maxAttempts = maxAttempts;
+  }
+
+  synchronized void sent(Endpoint endpoint) {
+    tried.add(endpoint);
+    pending.add(endpoint);
+    open.add(endpoint);
+  }
+
+  synchronized void setHedge(ScheduledFuture<?> hedge) {
+    this.hedge = hedge;
+  }
+
+  synchronized boolean isAnswered() {
+    return winner != null || givenUp;
+  }
+
+  /** Whether the messages of the endpoint's attempt go to the client. */
+  synchronized boolean isWinner(Endpoint endpoint) {
+    return winner == endpoint;
+  }
+
+  /** The available endpoints that have not been tried yet, empty when out of attempts. */
+  synchronized Endpoint[] untried(Endpoint[] available) {
+    if (tried.size() >= maxAttempts) {
+      return new Endpoint[0];
+    }
+    List<Endpoint> untried = new ArrayList<>(available.length);
+    for (Endpoint endpoint : available) {
+      if (!tried.contains(endpoint)) {
+        untried.add(endpoint);
+      }
+    }
+    return untried.toArray(new Endpoint[0]);
+  }
+
+  /**
+   * A response started on the endpoint's attempt.
+   *
+   * @param unavailable whether the response is one to retry (a 503).
+   * @param retry takes a retry out of the budget, given there is another endpoint to try.
+   */
+  synchronized Outcome onResponse(
+      Endpoint endpoint, boolean unavailable, Endpoint[] available, RetryBudget retry) {
+    if (winner != null || givenUp) {
+      return winner == endpoint ? Outcome.FORWARD : Outcome.DROP;
+    }
+    pending.remove(endpoint);
+    if (unavailable) {
+      if (!pending.isEmpty()) {
+        return Outcome.DROP;
+      }
+      if (untried(available).length > 0 && retry.tryAcquire()) {
+        return Outcome.RETRY;
+      }
+    }
+    win(endpoint);
+    return Outcome.FORWARD;
+  }
+
+  /** The endpoint's attempt failed before finishing its response. */
+  synchronized Outcome onFailure(Endpoint endpoint, Endpoint[] available, RetryBudget retry) {
+    open.remove(endpoint);
+    if (winner != null || givenUp) {
+      return winner == endpoint ? Outcome.FAIL : Outcome.DROP;
+    }
+    pending.remove(endpoint);
+    if (!pending.isEmpty()) {
+      return Outcome.DROP;
+    }
+    if (untried(available).length > 0 && retry.tryAcquire()) {
+      return Outcome.RETRY;
+    }
+    givenUp = true;
+    cancelHedge();
+    return Outcome.FAIL;
+  }
+
+  /** The endpoint's attempt finished its response. */
+  synchronized void onFinished(Endpoint endpoint) {
+    open.remove(endpoint);
+  }
+
+  /** No attempt is left to answer, the stream was answered some other way. */
+  synchronized void giveUp() {
+    givenUp = true;
+    cancelHedge();
+  }
+
+  /** Whether nothing more is expected from any attempt. */
+  synchronized boolean isComplete() {
+    return (winner != null || givenUp) && open.isEmpty();
+  }
+
+  private void win(Endpoint endpoint) {
+    winner = endpoint;
+    cancelHedge();
+  }
+
+  private void cancelHedge() {
+    if (hedge != null) {
+      hedge.cancel(false);
+      hedge = null;
+    }
+  }
+}
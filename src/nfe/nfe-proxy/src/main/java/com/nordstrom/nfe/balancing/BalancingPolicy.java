@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import javax.annotation.Nullable;
+
+/**
+ * Picks the endpoint a new request stream is sent to. One instance is created per route, it is
+ * called concurrently from every event loop and must not block.
+ */
+public interface BalancingPolicy {
+
+  /** The policies that can be selected with 'balancing.policy' in a proxy route config. */
+  enum Type {
+    /** Cycles through the endpoints, visiting each one 'weight' times per round. */
+    WeightedRoundRobin,
+    /** Picks the endpoint with fewer outstanding requests out of two random ones. */
+    PowerOfTwoChoices,
+    /** Picks the endpoint with the lower outstanding * peak EWMA latency out of two random ones. */
+    PeakEwma
+  }
+
+  /**
+   * @param endpoints the endpoints to choose from.
+   * @return the chosen endpoint, or null if there are no endpoints.
+   */
+  @Nullable
+  Endpoint select(Endpoint[] endpoints);
+
+  /**
+   * Picks among a subset of the route's endpoints, such as the ones a retry or hedge has not tried
+   * yet. The subset is built for the one pick, so the policy must not keep any state for it.
+   *
+   * @param endpoints the endpoints to choose from.
+   * @return the chosen endpoint, or null if there are no endpoints.
+   */
+  @Nullable
+  default Endpoint selectAmong(Endpoint[] endpoints) {
+    return select(endpoints);
+  }
+
+  static BalancingPolicy create(Type type) {
+    switch (type) {
+      case PowerOfTwoChoices:
+        return new PowerOfTwoChoicesPolicy(Endpoint::outstanding);
+      case PeakEwma:
+        return new PowerOfTwoChoicesPolicy(Endpoint::cost);
+      case WeightedRoundRobin:
+      default:
+        return new WeightedRoundRobinPolicy();
+    }
+  }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_GATEWAY;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+
+import com.nordstrom.nfe.RejectedStreams;
+import com.nordstrom.nfe.RequestBodies;
+import com.nordstrom.nfe.config.OutlierDetectionConfig;
+import com.nordstrom.nfe.config.RetryConfig;
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Route;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Spreads the request streams of a route over its endpoints. The balancing policy picks one of the
+ * endpoints in rotation (not ejected, passing health checks) when a stream starts, the rest of the
+ * stream is pinned to that endpoint and handed to its proxy handler.
+ *
+ * <p>Whole requests without a body and with a retryable method are kept until their response
+ * starts, so that they can be sent to another endpoint when the first one can't be reached or is
+ * unavailable, and hedged when the first one is slower than the route's latency percentile.
+ * Retries and hedges are taken out of the route's retry budget.
+ */
+@Slf4j
+public class BalancingProxyHandler implements PipelineRequestHandler {
+  private static final HandlerContexts<BalancingProxyHandler, ChannelStreams> STREAMS =
+      new HandlerContexts<>(
+          BalancingProxyHandler.class,
+          (ctx, handler) -> new ChannelStreams(),
+          ChannelStreams::close);
+  private static final Endpoint[] NO_ENDPOINTS = new Endpoint[0];
+
+  private final Endpoint[] endpoints;
+  private final BalancingPolicy policy;
+  private final OutlierDetector outlierDetector;
+  private final RetryConfig retryConfig;
+  private final RetryBudget retryBudget;
+  private final LatencyWindow latencies;
+  private final LongAdder retryCount = new LongAdder();
+  private final LongAdder hedgeCount = new LongAdder();
+
+  public BalancingProxyHandler(
+      List<Endpoint> endpoints,
+      BalancingPolicy policy,
+      OutlierDetectionConfig outlierDetectionConfig,
+      EndpointHealth health) {
+    this(endpoints, policy, outlierDetectionConfig, RetryConfig.DISABLED, health);
+  }
+
+  public BalancingProxyHandler(
+      List<Endpoint> endpoints,
+      BalancingPolicy policy,
+      OutlierDetectionConfig outlierDetectionConfig,
+      RetryConfig retryConfig,
+      EndpointHealth health) {
+    this.endpoints = endpoints.toArray(new Endpoint[0]);
+    this.policy = policy;
+    this.outlierDetector = new OutlierDetector(this.endpoints, outlierDetectionConfig, health);
+    this.retryConfig = retryConfig;
+    this.retryBudget =
+        new RetryBudget(
+            retryConfig.getBudgetRatio(),
+            retryConfig.getMinRetriesPerSecond(),
+            retryConfig.getBudgetWindowNanos());
+    this.latencies = new LatencyWindow(retryConfig.getHedgingPercentile());
+  }
+
+  public OutlierDetector outlierDetector() {
+    return outlierDetector;
+  }
+
+  public List<Endpoint> endpoints() {
+    return Collections.unmodifiableList(Arrays.asList(endpoints));
+  }
+
+  /** Number of requests sent again to another endpoint after a failure. */
+  public long getRetryCount() {
+    return retryCount.sum();
+  }
+
+  /** Number of requests also sent to another endpoint because the first one was slow. */
+  public long getHedgeCount() {
+    return hedgeCount.sum();
+  }
+
+  /** Number of retries and hedges not made because the retry budget was spent. */
+  public long getRetryBudgetExhaustedCount() {
+    return retryBudget.exhaustedCount();
+  }
+
+  @Override
+  public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+    ChannelStreams streams = STREAMS.get(ctx, this);
+    int streamId = request.streamId();
+
+    if (streams.rejected.drain(request)) {
+      // the start of this stream was already answered without an endpoint
+      return;
+    }
+
+    Endpoint endpoint;
+    if (request.startOfMessage()) {
+      endpoint = policy.select(outlierDetector.available());
+      if (endpoint == null) {
+        log.warn("No endpoint available for {}", request.path());
+        streams.rejected.reject(ctx, request, BAD_GATEWAY);
+        return;
+      }
+      if (request.endOfMessage()
+          && retryConfig.isRetryable(request.method())
+          && !hasBody(request)) {
+        retryBudget.recordRequest();
+        Attempts attempts = new Attempts(ctx, request, route, retryConfig.getMaxAttempts());
+        streams.attempts.put(streamId, attempts);
+        send(ctx, streams, attempts, endpoint);
+        if (retryConfig.isHedgingEnabled()) {
+          scheduleHedge(streams, attempts);
+        }
+        return;
+      }
+      streams.pinned.put(streamId, endpoint);
+    } else {
+      endpoint = streams.pinned.get(streamId);
+      if (endpoint == null) {
+        // a stream this handler never started, there is nowhere to send it
+        RequestBodies.release(request);
+        return;
+      }
+    }
+
+    EndpointContext endpointCtx = streams.context(ctx, endpoint, this);
+    if (request.startOfMessage()) {
+      endpointCtx.requestStarted(streamId);
+    }
+    if (request.endOfMessage()) {
+      streams.pinned.remove(streamId);
+    }
+
+    endpoint.handler().handle(endpointCtx, request, route);
+  }
+
+  /** A body is consumed by the first attempt, so only requests without one are retried. */
+  private static boolean hasBody(Request request) {
+    ByteBuf body = RequestBodies.content(request);
+    return body != null && body.isReadable();
+  }
+
+  private void send(
+      ChannelHandlerContext ctx, ChannelStreams streams, Attempts attempts, Endpoint endpoint) {
+    EndpointContext endpointCtx = streams.context(ctx, endpoint, this);
+    attempts.sent(endpoint);
+    endpointCtx.requestStarted(attempts.request.streamId());
+    endpoint.handler().handle(endpointCtx, attempts.request, attempts.route);
+  }
+
+  private void scheduleHedge(ChannelStreams streams, Attempts attempts) {
+    long delayNanos = Math.max(latencies.percentileNanos(), retryConfig.getHedgingMinDelayNanos());
+    attempts.setHedge(
+        attempts
+            .ctx
+            .executor()
+            .schedule(() -> hedge(streams, attempts), delayNanos, TimeUnit.NANOSECONDS));
+  }
+
+  private void hedge(ChannelStreams streams, Attempts attempts) {
+    if (attempts.isAnswered() || !attempts.ctx.channel().isActive()) {
+      return;
+    }
+    Endpoint endpoint = policy.selectAmong(attempts.untried(outlierDetector.available()));
+    if (endpoint != null && retryBudget.tryAcquire()) {
+      hedgeCount.increment();
+      send(attempts.ctx, streams, attempts, endpoint);
+    }
+  }
+
+  /** Sends the request of a failed attempt to another endpoint, on the server's event loop. */
+  private void retry(ChannelStreams streams, Attempts attempts, HttpResponseStatus failure) {
+    attempts
+        .ctx
+        .executor()
+        .execute(
+            () -> {
+              if (!attempts.ctx.channel().isActive()) {
+                return;
+              }
+              Endpoint endpoint = policy.selectAmong(attempts.untried(outlierDetector.available()));
+              if (endpoint == null) {
+                // every endpoint left was ejected in the meantime
+                attempts.giveUp();
+                streams.attempts.remove(attempts.request.streamId(), attempts);
+                writeError(attempts.ctx, attempts.request.streamId(), failure);
+                return;
+              }
+              retryCount.increment();
+              send(attempts.ctx, streams, attempts, endpoint);
+            });
+  }
+
+  /**
+   * A response of a retryable stream started on an endpoint, returns whether to pass it on to the
+   * client.
+   */
+  boolean onResponse(
+      ChannelStreams streams, Attempts attempts, Endpoint endpoint, HttpResponseStatus status) {
+    boolean unavailable =
+        retryConfig.isEnabled()
+            && retryConfig.isRetryUnavailable()
+            && status.code() == SERVICE_UNAVAILABLE.code();
+    switch (attempts.onResponse(endpoint, unavailable, outlierDetector.available(), retryBudget)) {
+      case RETRY:
+        retry(streams, attempts, SERVICE_UNAVAILABLE);
+        return false;
+      case DROP:
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * The attempt of a retryable stream on an endpoint failed, returns whether the failure is taken
+   * care of (another attempt answers the stream).
+   */
+  boolean onFailure(ChannelStreams streams, Attempts attempts, Endpoint endpoint) {
+    // with hedging alone, a failure can still be taken care of by a hedge already sent
+    Endpoint[] available = retryConfig.isEnabled() ? outlierDetector.available() : NO_ENDPOINTS;
+    switch (attempts.onFailure(endpoint, available, retryBudget)) {
+      case RETRY:
+        retry(streams, attempts, BAD_GATEWAY);
+        return true;
+      case DROP:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  void recordLatency(long latencyNanos) {
+    latencies.record(latencyNanos);
+  }
+
+  static void writeError(ChannelHandlerContext ctx, int streamId, HttpResponseStatus status) {
+    ctx.writeAndFlush(
+        DefaultFullResponse.builder()
+            .status(status)
+            .streamId(streamId)
+            .body(Unpooled.EMPTY_BUFFER)
+            .headers(new DefaultHeaders())
+            .build());
+  }
+
+  /**
+   * Balancing state of one handler on one channel, only touched from the channel's event loop. A
+   * route rebuild may reuse endpoints with a new handler, the contexts of an endpoint are therefore
+   * kept per handler so they report to that handler's outlier detector, retry budget and latencies.
+   */
+  static class ChannelStreams {
+    private final Map<Integer, Endpoint> pinned = new HashMap<>();
+    private final Map<Endpoint, EndpointContext> contexts = new HashMap<>();
+    private final RejectedStreams rejected = new RejectedStreams();
+    // the retryable streams, also read by the endpoint contexts from the clients' event loops
+    final Map<Integer, Attempts> attempts = new ConcurrentHashMap<>();
+
+    /** Releases the streams of the channel once it is closed. */
+    private void close() {
+      contexts.values().forEach(EndpointContext::abandon);
+      attempts.values().forEach(Attempts::giveUp);
+      attempts.clear();
+    }
+
+    EndpointContext context(
+        ChannelHandlerContext ctx, Endpoint endpoint, BalancingProxyHandler handler) {
+      return contexts.computeIfAbsent(endpoint, e -> new EndpointContext(ctx, e, handler, this));
+    }
+  }
+}
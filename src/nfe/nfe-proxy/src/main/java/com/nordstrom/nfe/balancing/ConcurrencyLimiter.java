@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import com.nordstrom.nfe.config.ConcurrencyLimitConfig;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit on the requests of one route in flight at once, in the manner of the gradient
+ * (TCP Vegas like) limiters: when latency rises above the route's long term latency requests are
+ * queueing up somewhere upstream, so the limit shrinks in proportion; while latency holds steady
+ * the limit grows by about its square root, probing for more capacity. Upstream overload (503,
+ * 504, unreachable) backs the limit off right away.
+ *
+ * <p>Admitting and releasing requests are single atomic operations. Latency samples are summed up
+ * lock-free, the limit is recomputed (synchronized) at most once per sample window.
+ */
+public class ConcurrencyLimiter {
+  // the long term latency follows the window averages over about this many windows
+  private static final int LONG_TERM_WINDOWS = 100;
+
+  private final ConcurrencyLimitConfig config;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder rejectedCount = new LongAdder();
+  private volatile int limit;
+
+  // the samples of the current window
+  private final LongAdder windowLatencyNanos = new LongAdder();
+  private final LongAdder windowSamples = new LongAdder();
+  private final AtomicInteger windowMaxInFlight = new AtomicInteger();
+  private final AtomicLong windowStartNanos;
+  private volatile boolean windowDropped;
+
+  // only touched while updating the limit
+  private double estimatedLimit;
+  private double longTermLatencyNanos;
+
+  public ConcurrencyLimiter(ConcurrencyLimitConfig config) {
+    this.config = config;
+    this.estimatedLimit = clamp(config.getInitialLimit());
+    this.limit = (int) estimatedLimit;
+    this.windowStartNanos = new AtomicLong(System.nanoTime());
+  }
+
+  /** Takes a slot for a request, returns false (and counts a rejection) when none is left. */
+  public boolean tryAcquire() {
+    int current = inFlight.incrementAndGet();
+    if (current > limit) {
+      inFlight.decrementAndGet();
+      rejectedCount.increment();
+      return false;
+    }
+    if (current > windowMaxInFlight.get()) {
+      windowMaxInFlight.accumulateAndGet(current, Math::max);
+    }
+    return true;
+  }
+
+  /** Gives back the slot of a request whose response is complete (or will never be). */
+  public void release() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * Records how long upstream took to start answering a request.
+   *
+   * @param dropped whether upstream was overloaded (or unreachable) instead of answering.
+   */
+  public void onSample(long latencyNanos, boolean dropped) {
+    if (dropped) {
+      if (!windowDropped) {
+        windowDropped = true;
+      }
+    } else {
+      windowLatencyNanos.add(latencyNanos);
+      windowSamples.increment();
+    }
+
+    long now = System.nanoTime();
+    long start = windowStartNanos.get();
+    if (now - start >= config.getSampleWindowNanos()
+        && windowStartNanos.compareAndSet(start, now)) {
+      update();
+    }
+  }
+
+  /** The number of requests currently allowed in flight. */
+  public int getLimit() {
+    return limit;
+  }
+
+  /** The number of requests currently in flight. */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /** The number of requests rejected because the limit was reached. */
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  private synchronized void update() {
+    long samples = windowSamples.sumThenReset();
+    long latencySum = windowLatencyNanos.sumThenReset();
+    int maxInFlight = windowMaxInFlight.getAndSet(inFlight.get());
+    boolean dropped = windowDropped;
+    windowDropped = false;
+
+    if (dropped) {
+      estimatedLimit = clamp(estimatedLimit * config.getBackoffRatio());
+      limit = (int) estimatedLimit;
+      return;
+    }
+    if (samples == 0) {
+      return;
+    }
+
+    double latencyNanos = Math.max(1, (double) latencySum / samples);
+    if (longTermLatencyNanos == 0) {
+      longTermLatencyNanos = latencyNanos;
+    } else {
+      longTermLatencyNanos += (latencyNanos - longTermLatencyNanos) / LONG_TERM_WINDOWS;
+      if (longTermLatencyNanos > 2 * latencyNanos) {
+        // latency is back to normal after a long stretch of overload, catch up with it faster
+        longTermLatencyNanos *= 0.95;
+      }
+    }
+    if (maxInFlight < estimatedLimit / 2) {
+      // the route is not using its limit, latency says nothing about how far it could go
+      return;
+    }
+
+    // below 1 once latency exceeds the tolerated multiple of the long term latency
+    double tolerated = config.getRttTolerance() * longTermLatencyNanos;
+    double gradient = Math.max(0.5, Math.min(1.0, tolerated / latencyNanos));
+    double next = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+    estimatedLimit =
+        clamp(estimatedLimit * (1 - config.getSmoothing()) + next * config.getSmoothing());
+    limit = (int) estimatedLimit;
+  }
+
+  private double clamp(double value) {
+    return Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), value));
+  }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.GATEWAY_TIMEOUT;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+
+import com.nordstrom.nfe.RejectedStreams;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Admits the request streams of a route within its adaptive concurrency limit. Streams over the
+ * limit are answered with a 503 on the spot instead of queueing for an upstream connection, the
+ * others are passed on to the route's proxy handler and hold their slot until their response is
+ * complete.
+ */
+public class ConcurrencyLimitingProxyHandler implements PipelineRequestHandler {
+  private static final HandlerContexts<ConcurrencyLimitingProxyHandler, LimitingContext> CONTEXTS =
+      new HandlerContexts<>(
+          ConcurrencyLimitingProxyHandler.class,
+          (ctx, handler) -> new LimitingContext(ctx),
+          LimitingContext::releaseAll);
+
+  private final PipelineRequestHandler delegate;
+  private final ConcurrencyLimiter limiter;
+
+  public ConcurrencyLimitingProxyHandler(
+      PipelineRequestHandler delegate, ConcurrencyLimiter limiter) {
+    this.delegate = delegate;
+    this.limiter = limiter;
+  }
+
+  /** The proxy handler admitted requests go to. */
+  public PipelineRequestHandler delegate() {
+    return delegate;
+  }
+
+  public ConcurrencyLimiter limiter() {
+    return limiter;
+  }
+
+  @Override
+  public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+    LimitingContext limitingCtx = CONTEXTS.get(ctx, this);
+
+    if (limitingCtx.rejected.drain(request)) {
+      // the stream was already answered with a 503, drop the rest of it
+      return;
+    }
+
+    if (request.startOfMessage()) {
+      if (!limiter.tryAcquire()) {
+        limitingCtx.rejected.reject(ctx, request, SERVICE_UNAVAILABLE);
+        return;
+      }
+      limitingCtx.admit(request.streamId(), limiter);
+    }
+
+    delegate.handle(limitingCtx, request, route);
+  }
+
+  /** A stream holding a slot of its route's limiter. */
+  private static class Admitted {
+    private final ConcurrencyLimiter limiter;
+    private final long startNanos = System.nanoTime();
+    private boolean sampled;
+
+    Admitted(ConcurrencyLimiter limiter) {
+      this.limiter = limiter;
+    }
+  }
+
+  /**
+   * Tracking of the admitted streams, wrapping the context the proxy handler writes its responses
+   * to.
+   */
+  private static class LimitingContext extends ForwardingChannelHandlerContext {
+    private final Map<Integer, Admitted> admitted = new ConcurrentHashMap<>();
+    // only touched from the channel's event loop
+    private final RejectedStreams rejected = new RejectedStreams();
+
+    private LimitingContext(ChannelHandlerContext delegate) {
+      super(delegate);
+    }
+
+    void admit(int streamId, ConcurrencyLimiter limiter) {
+      Admitted previous = admitted.put(streamId, new Admitted(limiter));
+      if (previous != null) {
+        previous.limiter.release();
+      }
+    }
+
+    /** Releases the streams that will never see the end of their response. */
+    private void releaseAll() {
+      for (Integer streamId : admitted.keySet()) {
+        Admitted stream = admitted.remove(streamId);
+        if (stream != null) {
+          if (!stream.sampled) {
+            stream.limiter.onSample(System.nanoTime() - stream.startNanos, true);
+          }
+          stream.limiter.release();
+        }
+      }
+    }
+
+    /** The proxy handler gave up on the streams it could not get an answer for. */
+    @Override
+    public ChannelFuture close(ChannelPromise promise) {
+      releaseAll();
+      return super.close(promise);
+    }
+
+    @Override
+    public ChannelFuture close() {
+      return close(newPromise());
+    }
+
+    @Override
+    public ChannelFuture write(Object msg, ChannelPromise promise) {
+      observe(msg);
+      return super.write(msg, promise);
+    }
+
+    @Override
+    public ChannelFuture writeAndFlush(Object msg, ChannelPromise promise) {
+      observe(msg);
+      return super.writeAndFlush(msg, promise);
+    }
+
+    private void observe(Object msg) {
+      int streamId;
+      boolean end;
+      if (msg instanceof Response) {
+        Response response = (Response) msg;
+        streamId = response.streamId();
+        end = response.endOfMessage();
+        Admitted stream = admitted.get(streamId);
+        if (stream != null && response.startOfMessage() && !stream.sampled) {
+          stream.sampled = true;
+          int status = response.status().code();
+          stream.limiter.onSample(
+              System.nanoTime() - stream.startNanos,
+              status == SERVICE_UNAVAILABLE.code() || status == GATEWAY_TIMEOUT.code());
+        }
+      } else if (msg instanceof SegmentedData) {
+        SegmentedData data = (SegmentedData) msg;
+        streamId = data.streamId();
+        end = data.endOfMessage();
+      } else {
+        return;
+      }
+
+      if (end) {
+        Admitted stream = admitted.remove(streamId);
+        if (stream != null) {
+          stream.limiter.release();
+        }
+      }
+    }
+  }
+}
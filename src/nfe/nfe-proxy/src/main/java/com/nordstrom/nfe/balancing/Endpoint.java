@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import com.nordstrom.nfe.metrics.LatencyHistogram;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * One upstream instance of a proxy route along with the load it is currently carrying.
+ *
+ * <p>Every counter is updated with atomics so that the event loops proxying to the same endpoint
+ * never contend on a lock.
+ */
+@Accessors(fluent = true)
+public class Endpoint {
+  /** Cost of an endpoint that has outstanding requests but has not answered any yet. */
+  private static final double PENALTY = Long.MAX_VALUE >> 16;
+
+  @Getter private final InetSocketAddress address;
+  @Getter private final int weight;
+  @Getter private final PipelineRequestHandler handler;
+  /** The latencies of the endpoint when its route is metered, null otherwise. */
+  @Getter @Nullable private final LatencyHistogram latencyHistogram;
+  private final double decayNanos;
+
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private final AtomicLong peakEwmaBits = new AtomicLong(Double.doubleToRawLongBits(0));
+  private volatile long lastSampleNanos = System.nanoTime();
+  private final LongAdder requestCount = new LongAdder();
+  private final LongAdder errorCount = new LongAdder();
+
+  // outlier detection state, written by the route's OutlierDetector
+  final AtomicInteger consecutiveErrors = new AtomicInteger();
+  final AtomicInteger consecutiveSlowResponses = new AtomicInteger();
+  volatile boolean ejected;
+  volatile long ejectedUntilNanos;
+  long readmittedNanos;
+  int ejections;
+
+  public Endpoint(
+      InetSocketAddress address, int weight, long decayNanos, PipelineRequestHandler handler) {
+    this(address, weight, decayNanos, handler, null);
+  }
+
+  public Endpoint(
+      InetSocketAddress address,
+      int weight,
+      long decayNanos,
+      PipelineRequestHandler handler,
+      @Nullable LatencyHistogram latencyHistogram) {
+    this.address = address;
+    this.weight = Math.max(1, weight);
+    this.decayNanos = Math.max(1, decayNanos);
+    this.handler = handler;
+    this.latencyHistogram = latencyHistogram;
+  }
+
+  public int outstanding() {
+    return outstanding.get();
+  }
+
+  public long requestCount() {
+    return requestCount.sum();
+  }
+
+  public long errorCount() {
+    return errorCount.sum();
+  }
+
+  /** Whether outlier detection has currently taken this endpoint out of rotation. */
+  public boolean isEjected() {
+    return ejected;
+  }
+
+  void recordError() {
+    errorCount.increment();
+  }
+
+  /** Called when a request stream is sent to this endpoint. */
+  public void requestStarted() {
+    requestCount.increment();
+    outstanding.incrementAndGet();
+  }
+
+  /** Called once the response of a request stream has been fully received (or abandoned). */
+  public void requestFinished() {
+    outstanding.decrementAndGet();
+  }
+
+  /**
+   * Folds a response latency into the peak EWMA. A latency above the current average replaces it
+   * outright, a lower one is blended in according to the time since the previous sample.
+   */
+  public void recordLatency(long latencyNanos) {
+    if (latencyHistogram != null) {
+      latencyHistogram.record(latencyNanos);
+    }
+    long now = System.nanoTime();
+    double weight = Math.exp(-(now - lastSampleNanos) / decayNanos);
+    while (true) {
+      long bits = peakEwmaBits.get();
+      double previous = Double.longBitsToDouble(bits);
+      double next =
+          latencyNanos > previous ? latencyNanos : previous * weight + latencyNanos * (1 - weight);
+      if (peakEwmaBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+        break;
+      }
+    }
+    lastSampleNanos = now;
+  }
+
+  /** The peak EWMA latency, decayed by the time elapsed since the last sample. */
+  public double peakEwmaNanos() {
+    double elapsed = System.nanoTime() - lastSampleNanos;
+    return Double.longBitsToDouble(peakEwmaBits.get()) * Math.exp(-elapsed / decayNanos);
+  }
+
+  /**
+   * The expected cost of sending one more request here: the latency estimate scaled by the number
+   * of requests that would be queued ahead of it. Decaying the estimate on read lets an endpoint
+   * that was slow (and therefore stopped being picked) win requests back over time.
+   */
+  public double cost() {
+    int pending = outstanding.get();
+    double latency = peakEwmaNanos();
+    if (latency == 0 && pending != 0) {
+      return PENALTY + pending;
+    }
+    return latency * (pending + 1);
+  }
+
+  @Override
+  public String toString() {
+    return address.getHostString() + ":" + address.getPort();
+  }
+}
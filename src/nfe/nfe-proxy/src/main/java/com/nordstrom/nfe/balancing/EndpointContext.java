@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import com.nordstrom.nfe.tracing.Trace;
+import com.nordstrom.nfe.tracing.TracingHandler;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The context an endpoint's proxy handler writes its responses to. Watching those writes is how
+ * the outstanding request count and the latency of the endpoint are kept up to date, and how the
+ * outlier detector learns about errors.
+ *
+ * <p>It is also where the attempts at retryable streams are settled: the responses of attempts
+ * that lost the stream are dropped instead of written, and failures of attempts that were retried
+ * elsewhere are not passed on.
+ *
+ * <p>One instance exists per (server channel, endpoint) pair. Responses may be written from the
+ * client's event loop, so the in flight streams are kept in a concurrent map.
+ */
+@Slf4j
+class EndpointContext extends ForwardingChannelHandlerContext {
+  private final Endpoint endpoint;
+  private final BalancingProxyHandler handler;
+  private final OutlierDetector outlierDetector;
+  private final BalancingProxyHandler.ChannelStreams streams;
+  // stream id -> System.nanoTime() when the request was sent
+  private final Map<Integer, Long> inFlight = new ConcurrentHashMap<>();
+  // set when a failure of this endpoint was taken care of by retrying elsewhere
+  private volatile boolean retriedElsewhere;
+
+  EndpointContext(
+      ChannelHandlerContext delegate,
+      Endpoint endpoint,
+      BalancingProxyHandler handler,
+      BalancingProxyHandler.ChannelStreams streams) {
+    super(delegate);
+    this.endpoint = endpoint;
+    this.handler = handler;
+    this.outlierDetector = handler.outlierDetector();
+    this.streams = streams;
+  }
+
+  void requestStarted(int streamId) {
+    if (inFlight.put(streamId, System.nanoTime()) == null) {
+      endpoint.requestStarted();
+    }
+  }
+
+  /** Releases the streams that will never see a response, e.g. because the channel closed. */
+  void abandon() {
+    for (Integer streamId : inFlight.keySet()) {
+      if (inFlight.remove(streamId) != null) {
+        endpoint.requestFinished();
+      }
+    }
+  }
+
+  /** The proxy handler reports failures to reach the endpoint (e.g. connect errors) here. */
+  @Override
+  public ChannelHandlerContext fireExceptionCaught(Throwable cause) {
+    outlierDetector.onError(endpoint);
+    if (retryInFlight()) {
+      log.debug("Failure of {} taken care of by other attempts", endpoint, cause);
+      return this;
+    }
+    return super.fireExceptionCaught(cause);
+  }
+
+  @Override
+  public ChannelFuture close(ChannelPromise promise) {
+    if (!inFlight.isEmpty()) {
+      // the proxy handler gave up on requests it had sent to the endpoint
+      outlierDetector.onError(endpoint);
+      if (retryInFlight()) {
+        promise.trySuccess();
+        return promise;
+      }
+    } else if (retriedElsewhere) {
+      // the close following a failure whose streams were retried elsewhere
+      retriedElsewhere = false;
+      promise.trySuccess();
+      return promise;
+    }
+    return super.close(promise);
+  }
+
+  @Override
+  public ChannelFuture close() {
+    return close(newPromise());
+  }
+
+  @Override
+  public ChannelFuture write(Object msg, ChannelPromise promise) {
+    if (!observe(msg)) {
+      return drop(msg, promise);
+    }
+    return super.write(msg, promise);
+  }
+
+  @Override
+  public ChannelFuture writeAndFlush(Object msg, ChannelPromise promise) {
+    if (!observe(msg)) {
+      return drop(msg, promise);
+    }
+    return super.writeAndFlush(msg, promise);
+  }
+
+  private static ChannelFuture drop(Object msg, ChannelPromise promise) {
+    ReferenceCountUtil.release(msg);
+    promise.trySuccess();
+    return promise;
+  }
+
+  /**
+   * Hands the in flight streams over to other endpoints. Returns whether there were streams in
+   * flight and every one of them is answered by another attempt.
+   */
+  private boolean retryInFlight() {
+    boolean any = false;
+    boolean handled = true;
+    for (Integer streamId : inFlight.keySet()) {
+      any = true;
+      Attempts attempts = streams.attempts.get(streamId);
+      if (attempts == null) {
+        // not retryable, left for the channel to abandon
+        handled = false;
+        continue;
+      }
+      if (inFlight.remove(streamId) == null) {
+        continue;
+      }
+      endpoint.requestFinished();
+      if (!handler.onFailure(streams, attempts, endpoint)) {
+        handled = false;
+      } else if (attempts.isComplete()) {
+        streams.attempts.remove(streamId, attempts);
+      }
+    }
+    if (any && handled) {
+      retriedElsewhere = true;
+    }
+    return any && handled;
+  }
+
+  /** Updates the endpoint with a message written back, returns whether to pass it on. */
+  private boolean observe(Object msg) {
+    int streamId;
+    boolean end;
+    boolean forward;
+    if (msg instanceof Response) {
+      Response response = (Response) msg;
+      streamId = response.streamId();
+      end = response.endOfMessage();
+      Attempts attempts = streams.attempts.get(streamId);
+      if (response.startOfMessage()) {
+        retriedElsewhere = false;
+        Long startNanos = inFlight.get(streamId);
+        if (startNanos != null) {
+          long nowNanos = System.nanoTime();
+          long latencyNanos = nowNanos - startNanos;
+          endpoint.recordLatency(latencyNanos);
+          handler.recordLatency(latencyNanos);
+          outlierDetector.onResponse(endpoint, response.status().code(), latencyNanos);
+          Trace trace = TracingHandler.trace(channel(), streamId);
+          if (trace != null) {
+            trace.upstreamSpan(endpoint.address(), startNanos, nowNanos, response.status().code());
+          }
+        }
+        forward =
+            attempts == null || handler.onResponse(streams, attempts, endpoint, response.status());
+      } else {
+        forward = attempts == null || attempts.isWinner(endpoint);
+      }
+    } else if (msg instanceof SegmentedData) {
+      SegmentedData data = (SegmentedData) msg;
+      streamId = data.streamId();
+      end = data.endOfMessage();
+      Attempts attempts = streams.attempts.get(streamId);
+      forward = attempts == null || attempts.isWinner(endpoint);
+    } else {
+      return true;
+    }
+
+    if (end) {
+      if (inFlight.remove(streamId) != null) {
+        endpoint.requestFinished();
+      }
+      Attempts attempts = streams.attempts.get(streamId);
+      if (attempts != null) {
+        attempts.onFinished(endpoint);
+        if (attempts.isComplete()) {
+          streams.attempts.remove(streamId, attempts);
+        }
+      }
+    }
+    return forward;
+  }
+}
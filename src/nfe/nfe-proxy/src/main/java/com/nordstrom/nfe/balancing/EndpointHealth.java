@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import java.net.InetSocketAddress;
+
+/** The health of endpoints as seen by active health checks. */
+public interface EndpointHealth {
+  EndpointHealth ALWAYS_HEALTHY =
+      new EndpointHealth() {
+        @Override
+        public boolean isHealthy(InetSocketAddress address) {
+          return true;
+        }
+
+        @Override
+        public long version() {
+          return 0;
+        }
+      };
+
+  /** Endpoints that are not health checked are healthy. */
+  boolean isHealthy(InetSocketAddress address);
+
+  /** Changes whenever the health of any endpoint changes, so that callers can cache results. */
+  long version();
+}
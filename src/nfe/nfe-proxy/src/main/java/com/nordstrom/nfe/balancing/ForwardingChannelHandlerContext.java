@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelProgressivePromise;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import java.net.SocketAddress;
+
+/**
+ * A {@link ChannelHandlerContext} that forwards every call to another context. Subclasses override
+ * the calls they want to observe, e.g. the responses a proxy handler writes back for a request.
+ */
+public class ForwardingChannelHandlerContext implements ChannelHandlerContext {
+  protected final ChannelHandlerContext delegate;
+
+  public ForwardingChannelHandlerContext(ChannelHandlerContext delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Channel channel() {
+    return delegate.channel();
+  }
+
+  @Override
+  public EventExecutor executor() {
+    return delegate.executor();
+  }
+
+  @Override
+  public String name() {
+    return delegate.name();
+  }
+
+  @Override
+  public ChannelHandler handler() {
+    return delegate.handler();
+  }
+
+  @Override
+  public boolean isRemoved() {
+    return delegate.isRemoved();
+  }
+
+  @Override
+  public ChannelHandlerContext fireChannelRegistered() {
+    delegate.fireChannelRegistered();
+    return this;
+  }
+
+  @Override
+  public ChannelHandlerContext fireChannelUnregistered() {
+    delegate.fireChannelUnregistered();
+    return this;
+  }
+
+  @Override
+  public ChannelHandlerContext fireChannelActive() {
+    delegate.fireChannelActive();
+    return this;
+  }
+
+  @Override
+  public ChannelHandlerContext fireChannelInactive() {
+    delegate.fireChannelInactive();
+    return this;
+  }
+
+  @Override
+  public ChannelHandlerContext fireExceptionCaught(Throwable cause) {
+    delegate.fireExceptionCaught(cause);
+    return this;
+  }
+
+  @Override
+  public ChannelHandlerContext fireUserEventTriggered(Object evt) {
+    delegate.fireUserEventTriggered(evt);
+    return this;
+  }
+
+  @Override
+  public ChannelHandlerContext fireChannelRead(Object msg) {
+    delegate.fireChannelRead(msg);
+    return this;
+  }
+
+  @Override
+  public ChannelHandlerContext fireChannelReadComplete() {
+    delegate.fireChannelReadComplete();
+    return this;
+  }
+
+  @Override
+  public ChannelHandlerContext fireChannelWritabilityChanged() {
+    delegate.fireChannelWritabilityChanged();
+    return this;
+  }
+
+  @Override
+  public ChannelFuture bind(SocketAddress localAddress) {
+    return delegate.bind(localAddress);
+  }
+
+  @Override
+  public ChannelFuture connect(SocketAddress remoteAddress) {
+    return delegate.connect(remoteAddress);
+  }
+
+  @Override
+  public ChannelFuture connect(SocketAddress remoteAddress, SocketAddress localAddress) {
+    return delegate.connect(remoteAddress, localAddress);
+  }
+
+  @Override
+  public ChannelFuture disconnect() {
+    return delegate.disconnect();
+  }
+
+  @Override
+  public ChannelFuture close() {
+    return delegate.close();
+  }
+
+  @Override
+  public ChannelFuture deregister() {
+    return delegate.deregister();
+  }
+
+  @Override
+  public ChannelFuture bind(SocketAddress localAddress, ChannelPromise promise) {
+    return delegate.bind(localAddress, promise);
+  }
+
+  @Override
+  public ChannelFuture connect(SocketAddress remoteAddress, ChannelPromise promise) {
+    return delegate.connect(remoteAddress, promise);
+  }
+
+  @Override
+  public ChannelFuture connect(
+      SocketAddress remoteAddress, SocketAddress localAddress, ChannelPromise promise) {
+    return delegate.connect(remoteAddress, localAddress, promise);
+  }
+
+  @Override
+  public ChannelFuture disconnect(ChannelPromise promise) {
+    return delegate.disconnect(promise);
+  }
+
+  @Override
+  public ChannelFuture close(ChannelPromise promise) {
+    return delegate.close(promise);
+  }
+
+  @Override
+  public ChannelFuture deregister(ChannelPromise promise) {
+    return delegate.deregister(promise);
+  }
+
+  @Override
+  public ChannelHandlerContext read() {
+    delegate.read();
+    return this;
+  }
+
+  @Override
+  public ChannelFuture write(Object msg) {
+    return write(msg, newPromise());
+  }
+
+  @Override
+  public ChannelFuture write(Object msg, ChannelPromise promise) {
+    return delegate.write(msg, promise);
+  }
+
+  @Override
+  public ChannelHandlerContext flush() {
+    delegate.flush();
+    return this;
+  }
+
+  @Override
+  public ChannelFuture writeAndFlush(Object msg, ChannelPromise promise) {
+    return delegate.writeAndFlush(msg, promise);
+  }
+
+  @Override
+  public ChannelFuture writeAndFlush(Object msg) {
+    return writeAndFlush(msg, newPromise());
+  }
+
+  @Override
+  public ChannelPromise newPromise() {
+    return delegate.newPromise();
+  }
+
+  @Override
+  public ChannelProgressivePromise newProgressivePromise() {
+    return delegate.newProgressivePromise();
+  }
+
+  @Override
+  public ChannelFuture newSucceededFuture() {
+    return delegate.newSucceededFuture();
+  }
+
+  @Override
+  public ChannelFuture newFailedFuture(Throwable cause) {
+    return delegate.newFailedFuture(cause);
+  }
+
+  @Override
+  public ChannelPromise voidPromise() {
+    return delegate.voidPromise();
+  }
+
+  @Override
+  public ChannelPipeline pipeline() {
+    return delegate.pipeline();
+  }
+
+  @Override
+  public ByteBufAllocator alloc() {
+    return delegate.alloc();
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public <T> Attribute<T> attr(AttributeKey<T> key) {
+    return delegate.attr(key);
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public <T> boolean hasAttr(AttributeKey<T> key) {
+    return delegate.hasAttr(key);
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * The contexts a kind of proxy handler wraps around the channel's context (or any other per
+ * channel state of the handler), one per channel and handler instance. A client connection may
+ * carry requests to several routes, each with its own handler (and its own limiter, cache, ...),
+ * so a context is never shared between handlers. The contexts are created and looked up from the
+ * channel's event loop, and closed along with it. Looking up an existing context does not
+ * allocate.
+ *
+ * <p>Proxy handlers may write their responses from the client's event loop instead of the
+ * channel's, so the state a context shares between requests and responses must be thread safe.
+ *
+ * @param <H> the handler owning the contexts
+ * @param <C> the context wrapped around the channel's context, or the handler's channel state
+ */
+public class HandlerContexts<H, C> {
+  private final AttributeKey<Map<H, C>> key;
+  private final BiFunction<ChannelHandlerContext, H, C> factory;
+  private final Consumer<C> onClose;
+
+  /**
+   * @param owner the handler class, naming the channel attribute holding the contexts
+   * @param factory builds the context of a handler out of the context it is first called with
+   * @param onClose releases what a context still holds once its channel is closed
+   */
+  public HandlerContexts(
+      Class<H> owner, BiFunction<ChannelHandlerContext, H, C> factory, Consumer<C> onClose) {
+    this.key = AttributeKey.valueOf(owner, "contexts");
+    this.factory = factory;
+    this.onClose = onClose;
+  }
+
+  /** The context of the handler on the channel of ctx, created on first use. */
+  public C get(ChannelHandlerContext ctx, H handler) {
+    Channel channel = ctx.channel();
+    Attribute<Map<H, C>> attribute = channel.attr(key);
+    Map<H, C> contexts = attribute.get();
+    if (contexts == null) {
+      contexts = new HashMap<>();
+      attribute.set(contexts);
+      Map<H, C> closing = contexts;
+      channel.closeFuture().addListener(f -> closing.values().forEach(onClose));
+    }
+    C handlerCtx = contexts.get(handler);
+    if (handlerCtx == null) {
+      handlerCtx = factory.apply(ctx, handler);
+      contexts.put(handler, handlerCtx);
+    }
+    return handlerCtx;
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The recent response latencies of a route, enough to tell a percentile of them. Samples go into a
+ * ring of the last SIZE responses; the percentile is recomputed at most once a second by whoever
+ * asks for it, so recording stays a couple of atomic writes.
+ */
+class LatencyWindow {
+  private static final int SIZE = 1024;
+  // fewer samples than this don't say much about the tail
+  private static final int MIN_SAMPLES = 20;
+  private static final long RECOMPUTE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final double percentile;
+  private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+  private final AtomicLong count = new AtomicLong();
+  private volatile long percentileNanos;
+  private volatile long computedNanos = System.nanoTime() - RECOMPUTE_NANOS;
+
+  /** @param percentile between 0 and 1, e.g. 0.95. */
+  LatencyWindow(double percentile) {
+    this.percentile = percentile;
+  }
+
+  void record(long latencyNanos) {
+    samples.set((int) (count.getAndIncrement() & (SIZE - 1)), latencyNanos);
+  }
+
+  /** The percentile of the recent latencies, 0 when there are too few of them. */
+  long percentileNanos() {
+    long now = System.nanoTime();
+    if (now - computedNanos >= RECOMPUTE_NANOS) {
+      computedNanos = now;
+      percentileNanos = compute();
+    }
+    return percentileNanos;
+  }
+
+  private long compute() {
+    int size = (int) Math.min(count.get(), SIZE);
+    if (size < MIN_SAMPLES) {
+      return 0;
+    }
+    long[] sorted = new long[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = samples.get(i);
+    }
+    Arrays.sort(sorted);
+    return sorted[Math.max(0, Math.min(size - 1, (int) Math.ceil(percentile * size) - 1))];
+  }
+}
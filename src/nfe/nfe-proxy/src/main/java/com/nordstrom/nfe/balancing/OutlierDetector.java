@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import com.nordstrom.nfe.config.OutlierDetectionConfig;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Passive health checking of the endpoints of one route. Responses are counted as they go by, an
+ * endpoint answering with consecutive errors (5xx responses, connect failures) or consecutive
+ * latency outliers is ejected from selection for a while.
+ *
+ * <p>The endpoints available for selection also leave out the ones failing active health checks.
+ * If every endpoint that is not ejected fails its health checks, they are all kept (the checks are
+ * more likely to be broken than the whole route).
+ *
+ * <p>Ejection times back off exponentially for endpoints that keep getting ejected, and at most
+ * maxEjectedPercent of the endpoints (but at least one, if there are others) are ejected at once
+ * so that a route-wide problem does not empty the route. Counting is lock-free, ejecting and readmitting (both rare) synchronize.
+ */
+@Slf4j
+public class OutlierDetector {
+  private final OutlierDetectionConfig config;
+  private final Endpoint[] endpoints;
+  private final EndpointHealth health;
+  private final int maxEjected;
+  private final LongAdder ejectionCount = new LongAdder();
+
+  private volatile Endpoint[] available;
+  private volatile int ejectedCount;
+  private volatile long nextReadmitNanos;
+  private volatile long healthVersion;
+
+  public OutlierDetector(
+      Endpoint[] endpoints, OutlierDetectionConfig config, EndpointHealth health) {
+    this.config = config;
+    this.endpoints = endpoints;
+    this.health = health;
+    this.maxEjected = maxEjected(endpoints.length, config);
+    refresh(System.nanoTime());
+  }
+
+  /**
+   * At least one endpoint may be ejected when the percentage allows any, so that a small route
+   * doesn't round it down to none, unless it is the route's only endpoint.
+   */
+  private static int maxEjected(int endpointCount, OutlierDetectionConfig config) {
+    if (!config.isEnabled() || config.getMaxEjectedPercent() <= 0) {
+      return 0;
+    }
+    int byPercent = endpointCount * config.getMaxEjectedPercent() / 100;
+    return Math.max(byPercent, Math.min(1, endpointCount - 1));
+  }
+
+  /**
+   * The endpoints in rotation. Endpoints whose ejection has expired are readmitted first, and a
+   * change in health check results is picked up.
+   */
+  public Endpoint[] available() {
+    if (health.version() != healthVersion
+        || (ejectedCount != 0 && System.nanoTime() - nextReadmitNanos >= 0)) {
+      refresh(System.nanoTime());
+    }
+    return available;
+  }
+
+  /** Total number of ejections since the route was built. */
+  public long getEjectionCount() {
+    return ejectionCount.sum();
+  }
+
+  /** Number of endpoints currently ejected. */
+  public int getEjectedCount() {
+    return ejectedCount;
+  }
+
+  void onResponse(Endpoint endpoint, int status, long latencyNanos) {
+    if (status >= 500) {
+      onError(endpoint);
+      return;
+    }
+    if (!config.isEnabled()) {
+      return;
+    }
+
+    // only write to the shared counters when there is something to reset
+    if (endpoint.consecutiveErrors.get() != 0) {
+      endpoint.consecutiveErrors.set(0);
+    }
+    if (isSlow(endpoint, latencyNanos)) {
+      int slow = endpoint.consecutiveSlowResponses.incrementAndGet();
+      if (slow >= config.getConsecutiveSlowResponses()) {
+        eject(endpoint, slow + " consecutive slow responses");
+      }
+    } else if (endpoint.consecutiveSlowResponses.get() != 0) {
+      endpoint.consecutiveSlowResponses.set(0);
+    }
+  }
+
+  void onError(Endpoint endpoint) {
+    endpoint.recordError();
+    if (!config.isEnabled()) {
+      return;
+    }
+
+    int errors = endpoint.consecutiveErrors.incrementAndGet();
+    if (errors >= config.getConsecutiveErrors()) {
+      eject(endpoint, errors + " consecutive errors");
+    }
+  }
+
+  /** A response is slow when it took several times longer than the route's average. */
+  private boolean isSlow(Endpoint endpoint, long latencyNanos) {
+    if (latencyNanos < config.getSlowResponseMinimumNanos()) {
+      return false;
+    }
+    double total = 0;
+    int count = 0;
+    for (Endpoint other : available) {
+      double latency = other.peakEwmaNanos();
+      if (other != endpoint && latency > 0) {
+        total += latency;
+        count++;
+      }
+    }
+    return count > 0 && latencyNanos > config.getSlowResponseFactor() * total / count;
+  }
+
+  private synchronized void eject(Endpoint endpoint, String reason) {
+    if (endpoint.ejected) {
+      return;
+    }
+    if (ejectedCount >= maxEjected) {
+      log.warn("Not ejecting {} after {}, too many endpoints are ejected", endpoint, reason);
+      return;
+    }
+
+    long now = System.nanoTime();
+    if (now - endpoint.readmittedNanos > config.getMaxEjectionNanos()) {
+      // healthy for long enough since the last ejection, start backing off from scratch
+      endpoint.ejections = 0;
+    }
+    long duration =
+        Math.min(
+            config.getBaseEjectionNanos() << Math.min(endpoint.ejections, 20),
+            config.getMaxEjectionNanos());
+
+    endpoint.ejections++;
+    endpoint.ejectedUntilNanos = now + duration;
+    endpoint.ejected = true;
+    endpoint.consecutiveErrors.set(0);
+    endpoint.consecutiveSlowResponses.set(0);
+    ejectionCount.increment();
+    log.warn(
+        "Ejecting {} for {} ms after {}",
+        endpoint,
+        TimeUnit.NANOSECONDS.toMillis(duration),
+        reason);
+
+    refresh(now);
+  }
+
+  private synchronized void refresh(long now) {
+    // read the version first, a health change racing with this refresh triggers another one
+    healthVersion = health.version();
+    List<Endpoint> notEjected = new ArrayList<>(endpoints.length);
+    List<Endpoint> healthy = new ArrayList<>(endpoints.length);
+    int ejected = 0;
+    long nextReadmit = 0;
+
+    for (Endpoint endpoint : endpoints) {
+      if (endpoint.ejected && now - endpoint.ejectedUntilNanos >= 0) {
+        endpoint.ejected = false;
+        endpoint.readmittedNanos = now;
+        log.info("Readmitting {}", endpoint);
+      }
+      if (endpoint.ejected) {
+        if (ejected == 0 || endpoint.ejectedUntilNanos - nextReadmit < 0) {
+          nextReadmit = endpoint.ejectedUntilNanos;
+        }
+        ejected++;
+        continue;
+      }
+      notEjected.add(endpoint);
+      if (health.isHealthy(endpoint.address())) {
+        healthy.add(endpoint);
+      }
+    }
+
+    List<Endpoint> inRotation = healthy.isEmpty() ? notEjected : healthy;
+    available =
+        inRotation.size() == endpoints.length ? endpoints : inRotation.toArray(new Endpoint[0]);
+    nextReadmitNanos = nextReadmit;
+    ejectedCount = ejected;
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
+import javax.annotation.Nullable;
+
+/**
+ * Samples two distinct endpoints at random and keeps the cheaper one. Comparing only two endpoints
+ * avoids the herding a global "least loaded" choice causes when many event loops act on the same
+ * stale view, while still steering traffic away from overloaded or slow endpoints.
+ */
+class PowerOfTwoChoicesPolicy implements BalancingPolicy {
+  private final ToDoubleFunction<Endpoint> cost;
+
+  PowerOfTwoChoicesPolicy(ToDoubleFunction<Endpoint> cost) {
+    this.cost = cost;
+  }
+
+  @Nullable
+  @Override
+  public Endpoint select(Endpoint[] endpoints) {
+    switch (endpoints.length) {
+      case 0:
+        return null;
+      case 1:
+        return endpoints[0];
+      default:
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(endpoints.length);
+        // draw from the remaining endpoints so that both picks are distinct
+        int second = random.nextInt(endpoints.length - 1);
+        if (second >= first) {
+          second++;
+        }
+        Endpoint a = endpoints[first];
+        Endpoint b = endpoints[second];
+        return cost.applyAsDouble(b) < cost.applyAsDouble(a) ? b : a;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the retries (and hedges) of a route to a ratio of its requests, so that retrying cannot
+ * multiply the load on endpoints that are already failing. Requests and retries are counted over a
+ * sliding window; a retry is allowed while the retries in the window stay under the ratio of the
+ * requests in it plus a small reserve, so that a route with little traffic can still retry.
+ *
+ * <p>Counting is lock-free, concurrent retries may overshoot the budget by a few.
+ */
+class RetryBudget {
+  private static final int SLOTS = 10;
+
+  private final double ratio;
+  private final long reserve;
+  private final WindowedCounter requests;
+  private final WindowedCounter retries;
+  private final LongAdder exhausted = new LongAdder();
+
+  RetryBudget(double ratio, int minRetriesPerSecond, long windowNanos) {
+    this.ratio = ratio;
+    this.reserve = minRetriesPerSecond * Math.max(1, TimeUnit.NANOSECONDS.toSeconds(windowNanos));
+    this.requests = new WindowedCounter(windowNanos);
+    this.retries = new WindowedCounter(windowNanos);
+  }
+
+  void recordRequest() {
+    requests.increment(System.nanoTime());
+  }
+
+  /** Takes a retry out of the budget, false when the budget is spent. */
+  boolean tryAcquire() {
+    long now = System.nanoTime();
+    if (retries.sum(now) < reserve + ratio * requests.sum(now)) {
+      retries.increment(now);
+      return true;
+    }
+    exhausted.increment();
+    return false;
+  }
+
+  /** Number of retries not made because the budget was spent. */
+  long exhaustedCount() {
+    return exhausted.sum();
+  }
+
+  /** A count over the last window, kept in SLOTS slots that are reused as time goes by. */
+  private static class WindowedCounter {
+    private final long slotNanos;
+    private final AtomicLongArray slotIds = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+
+    WindowedCounter(long windowNanos) {
+      this.slotNanos = Math.max(1, windowNanos / SLOTS);
+      for (int i = 0; i < SLOTS; i++) {
+        slotIds.set(i, Long.MIN_VALUE);
+      }
+    }
+
+    void increment(long now) {
+      long id = Math.floorDiv(now, slotNanos);
+      int index = (int) Math.floorMod(id, (long) SLOTS);
+      long current = slotIds.get(index);
+      if (current != id && slotIds.compareAndSet(index, current, id)) {
+        counts.set(index, 0);
+      }
+      counts.incrementAndGet(index);
+    }
+
+    long sum(long now) {
+      long id = Math.floorDiv(now, slotNanos);
+      long sum = 0;
+      for (int i = 0; i < SLOTS; i++) {
+        if (id - slotIds.get(i) < SLOTS) {
+          sum += counts.get(i);
+        }
+      }
+      return sum;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Smooth weighted round robin: endpoints are visited in proportion to their weight, interleaved
+ * rather than in runs (weights 5, 1, 1 give a a b a c a a).
+ *
+ * <p>The visiting order is computed once per endpoint array and then walked with a single atomic
+ * counter, so selection is lock-free. Subsets picked from by retries and hedges are walked by
+ * weight without a schedule of their own, so they never replace the route's schedule.
+ */
+class WeightedRoundRobinPolicy implements BalancingPolicy {
+  private final AtomicLong counter = new AtomicLong();
+  private final AtomicLong subsetCounter = new AtomicLong();
+  private volatile Schedule schedule = new Schedule(new Endpoint[0]);
+
+  @Nullable
+  @Override
+  public Endpoint select(Endpoint[] endpoints) {
+    if (endpoints.length == 0) {
+      return null;
+    }
+    Schedule current = schedule;
+    if (current.source != endpoints) {
+      // racing threads may each build a schedule, any one of them is fine to keep
+      current = new Schedule(endpoints);
+      schedule = current;
+    }
+    long next = counter.getAndIncrement() & Long.MAX_VALUE;
+    return current.order[(int) (next % current.order.length)];
+  }
+
+  @Nullable
+  @Override
+  public Endpoint selectAmong(Endpoint[] endpoints) {
+    if (endpoints.length == 0) {
+      return null;
+    }
+    long total = 0;
+    for (Endpoint endpoint : endpoints) {
+      total += endpoint.weight();
+    }
+    long next = (subsetCounter.getAndIncrement() & Long.MAX_VALUE) % total;
+    for (Endpoint endpoint : endpoints) {
+      next -= endpoint.weight();
+      if (next < 0) {
+        return endpoint;
+      }
+    }
+    return endpoints[endpoints.length - 1];
+  }
+
+  private static class Schedule {
+    private final Endpoint[] source;
+    private final Endpoint[] order;
+
+    Schedule(Endpoint[] source) {
+      this.source = source;
+
+      int total = 0;
+      for (Endpoint endpoint : source) {
+        total += endpoint.weight();
+      }
+
+      List<Endpoint> order = new ArrayList<>(total);
+      int[] current = new int[source.length];
+      for (int round = 0; round < total; round++) {
+        int best = 0;
+        for (int i = 0; i < source.length; i++) {
+          current[i] += source[i].weight();
+          if (current[i] > current[best]) {
+            best = i;
+          }
+        }
+        current[best] -= total;
+        order.add(source[best]);
+      }
+      this.order = order.toArray(new Endpoint[0]);
+    }
+  }
+}
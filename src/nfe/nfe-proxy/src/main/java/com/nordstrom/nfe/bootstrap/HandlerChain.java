@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.bootstrap;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import java.util.LinkedHashMap;
+
+/**
+ * Stands in for several handlers where the pipeline has room for one. When added to a pipeline it
+ * puts its handlers (in order) where it was added and removes itself.
+ */
+class HandlerChain extends ChannelHandlerAdapter {
+  private final LinkedHashMap<String, ChannelHandler> handlers;
+
+  HandlerChain(LinkedHashMap<String, ChannelHandler> handlers) {
+    this.handlers = handlers;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    ChannelPipeline pipeline = ctx.pipeline();
+    handlers.forEach((name, handler) -> pipeline.addBefore(ctx.name(), name, handler));
+    pipeline.remove(this);
+  }
+}
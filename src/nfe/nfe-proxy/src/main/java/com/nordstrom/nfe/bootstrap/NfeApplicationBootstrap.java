@@ -18,16 +18,22 @@ package com.nordstrom.nfe.bootstrap;
 import com.nordstrom.nfe.GatekeeperAuthorizer;
 import com.nordstrom.nfe.GatekeeperClientProxy;
 import com.nordstrom.nfe.NfeState;
+import com.nordstrom.nfe.ipfilter.IpFilterHandler;
+import com.nordstrom.nfe.ratelimiting.RateLimitHandler;
+import com.nordstrom.nfe.routing.NfePipelineRouter;
+import com.nordstrom.nfe.streaming.ClientWritabilityHandler;
+import com.nordstrom.nfe.tracing.Tracer;
+import com.nordstrom.nfe.tracing.TracingHandler;
 import com.xjeffrose.xio.SSL.MutualAuthHandler;
 import com.xjeffrose.xio.SSL.TlsAuthState;
 import com.xjeffrose.xio.application.Application;
 import com.xjeffrose.xio.bootstrap.ApplicationBootstrap;
 import com.xjeffrose.xio.grpc.GrpcService;
-import com.xjeffrose.xio.http.PipelineRouter;
 import com.xjeffrose.xio.pipeline.SmartHttpPipeline;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 
@@ -46,9 +52,17 @@ public class NfeApplicationBootstrap extends ApplicationBootstrap {
   private SmartHttpPipeline pipelineFragment() {
     return new SmartHttpPipeline() {
 
+      // the tracing handler goes first, so the router can time route lookups in the trace
       @Override
       public ChannelHandler getApplicationRouter() {
-        return new PipelineRouter(state.getRoutes());
+        LinkedHashMap<String, ChannelHandler> handlers = new LinkedHashMap<>();
+        Tracer tracer = NfeServiceLocator.getInstance().getTracer();
+        if (tracer.isEnabled()) {
+          handlers.put("tracing", new TracingHandler(tracer));
+        }
+        handlers.put("client writability", new ClientWritabilityHandler());
+        handlers.put("nfe router", new NfePipelineRouter(state::getRouteGeneration));
+        return new HandlerChain(handlers);
       }
 
       @Override
@@ -68,9 +82,20 @@ public class NfeApplicationBootstrap extends ApplicationBootstrap {
         };
       }
 
+      // runs between the router and the authorizer, the request filters are its only use
+      @Override
+      public ChannelHandler getAuthenticationHandler() {
+        NfeServiceLocator locator = NfeServiceLocator.getInstance();
+        LinkedHashMap<String, ChannelHandler> filters = new LinkedHashMap<>();
+        filters.put("ip filter", new IpFilterHandler(locator.getIpFilters()));
+        filters.put("rate limiter", new RateLimitHandler(locator.getRateLimits()));
+        return new HandlerChain(filters);
+      }
+
       @Override
       public ChannelHandler getAuthorizationHandler() {
-        return new GatekeeperAuthorizer(state, gatekeeperClientProxy);
+        return new GatekeeperAuthorizer(
+            state, gatekeeperClientProxy, NfeServiceLocator.getInstance().getApiKeyAdmission());
       }
     };
   }
@@ -88,7 +113,6 @@ public class NfeApplicationBootstrap extends ApplicationBootstrap {
     // Accessing the getter is required or no RouteStates will be created.
     NfeServiceLocator.getInstance().getRouteStates().buildInitialRoutes(grpcServices);
 
-    // TODO(CK): fix tracing
     addServer(
         "nfe-main", xioServerBootstrap -> xioServerBootstrap.addToPipeline(pipelineFragment()));
     return super.build();
@@ -18,20 +18,35 @@ package com.nordstrom.nfe.bootstrap;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.nordstrom.gtm.apikey.ApiKey;
 import com.nordstrom.nfe.*;
+import com.nordstrom.nfe.apikey.ApiKeyAdmission;
+import com.nordstrom.nfe.apikey.ApiKeyAdmissionUpdater;
 import com.nordstrom.nfe.config.GatekeeperConfig;
 import com.nordstrom.nfe.config.NfeConfig;
+import com.nordstrom.nfe.ipfilter.IpFilterUpdater;
+import com.nordstrom.nfe.ipfilter.IpFilters;
+import com.nordstrom.nfe.metrics.MetricsCollector;
+import com.nordstrom.nfe.metrics.MetricsServer;
+import com.nordstrom.nfe.metrics.NfeMetrics;
 import com.nordstrom.nfe.nlpmanagement.CustomerAccountNlpDeploymentGrpcService;
 import com.nordstrom.nfe.nlpmanagement.CustomerAccountNlpDeploymentWatcher;
 import com.nordstrom.nfe.nlpmanagement.KubernetesNlpDeploymentGrpcService;
 import com.nordstrom.nfe.nlpmanagement.KubernetesNlpDeploymentWatcher;
+import com.nordstrom.nfe.nlpmanagement.NlpHealthChecker;
 import com.nordstrom.nfe.nlpmanagement.ServiceRegistrationGrpcService;
 import com.nordstrom.nfe.nlpmanagement.ServiceRegistrationUpdatedWatcher;
+import com.nordstrom.nfe.ratelimiting.FleetQuotas;
+import com.nordstrom.nfe.ratelimiting.RateLimitUpdater;
+import com.nordstrom.nfe.ratelimiting.RateLimits;
 import com.nordstrom.nfe.servicedeployment.ServiceDeploymentDao;
 import com.nordstrom.nfe.servicedeployment.ServiceDeploymentGrpcService;
+import com.nordstrom.nfe.streaming.BackpressuredClientFactory;
+import com.nordstrom.nfe.tracing.Tracer;
 import com.xjeffrose.xio.bootstrap.XioServiceLocator;
 import com.xjeffrose.xio.core.ZkClient;
 import com.xjeffrose.xio.http.ProxyClientFactory;
+import java.util.stream.Collectors;
 import lombok.Getter;
 
 public class NfeServiceLocator {
@@ -75,7 +90,27 @@ public class NfeServiceLocator {
   private final GatekeeperClientProxy gatekeeperClient = createGatekeeperClientProxy();
 
   @Getter(lazy = true)
-  private final ApiKeyGrpcService apiKeyGrpcService = new ApiKeyGrpcService(getGatekeeperClient());
+  private final ApiKeyGrpcService apiKeyGrpcService =
+      new ApiKeyGrpcService(
+          getGatekeeperClient(),
+          getCoreDataService(),
+          getApiKeyAdmission(),
+          getApiKeyAdmissionUpdater());
+
+  @Getter(lazy = true)
+  private final ApiKeyAdmission apiKeyAdmission =
+      new ApiKeyAdmission(
+          getNfeConfig().apiKeyAdmissionConfig(),
+          getNfeConfig().apiKeysConfig().stream().map(ApiKey::getKey).collect(Collectors.toList()));
+
+  @Getter(lazy = true)
+  private final ApiKeyAdmissionUpdater apiKeyAdmissionUpdater =
+      new ApiKeyAdmissionUpdater(
+          getNfeConfig().apiKeyAdmissionConfig(),
+          getApiKeyAdmission(),
+          getCoreDataService(),
+          getZkClient(),
+          getNfeState()::getRouteGeneration);
 
   @Getter(lazy = true)
   private final CoreDataService coreDataService =
@@ -103,11 +138,71 @@ public class NfeServiceLocator {
   private final ObjectMapper objectMapper = new ObjectMapper();
 
   @Getter(lazy = true)
-  private final ProxyClientFactory proxyClientFactory = new ProxyClientFactory(getNfeState());
+  private final ProxyClientFactory proxyClientFactory =
+      new BackpressuredClientFactory(getNfeState());
 
   @Getter(lazy = true)
   private final RouteStates routeStates =
-      new RouteStates(getNfeState(), getNfeConfig(), getProxyClientFactory());
+      new RouteStates(
+          getNfeState(),
+          getNfeConfig(),
+          getProxyClientFactory(),
+          getNlpHealthChecker(),
+          getNfeConfig().metricsConfig().isEnabled() ? getNfeMetrics() : null);
+
+  @Getter(lazy = true)
+  private final NfeMetrics nfeMetrics = new NfeMetrics(getNfeConfig().metricsConfig());
+
+  @Getter(lazy = true)
+  private final MetricsServer metricsServer =
+      new MetricsServer(
+          getNfeConfig().metricsConfig(),
+          new MetricsCollector(
+              getNfeMetrics(),
+              getNfeState(),
+              getRouteStates(),
+              getCoreDataService(),
+              getGatekeeperClient(),
+              getNlpHealthChecker(),
+              getRateLimits(),
+              getFleetQuotas(),
+              getIpFilters(),
+              getApiKeyAdmission(),
+              getTracer()));
+
+  @Getter(lazy = true)
+  private final Tracer tracer = new Tracer(getNfeConfig().tracingConfig());
+
+  @Getter(lazy = true)
+  private final NlpHealthChecker nlpHealthChecker =
+      new NlpHealthChecker(getNfeConfig().nlpHealthCheckConfig());
+
+  @Getter(lazy = true)
+  private final IpFilters ipFilters = new IpFilters();
+
+  @Getter(lazy = true)
+  private final IpFilterUpdater ipFilterUpdater =
+      new IpFilterUpdater(
+          getNfeConfig().ipFilteringConfig(),
+          getIpFilters(),
+          getCoreDataService(),
+          getNfeState()::getRouteGeneration);
+
+  @Getter(lazy = true)
+  private final RateLimits rateLimits = new RateLimits(getNfeConfig().rateLimitingConfig());
+
+  @Getter(lazy = true)
+  private final RateLimitUpdater rateLimitUpdater =
+      new RateLimitUpdater(
+          getNfeConfig().rateLimitingConfig(),
+          getRateLimits(),
+          getCoreDataService(),
+          getNfeState()::getRouteGeneration);
+
+  @Getter(lazy = true)
+  private final FleetQuotas fleetQuotas =
+      new FleetQuotas(
+          getNfeConfig().fleetQuotaConfig(), getRateLimits(), getZkClient(), getObjectMapper());
 
   @Getter(lazy = true)
   private final ServiceDeploymentDao serviceDeploymentDao =
@@ -132,6 +227,6 @@ public class NfeServiceLocator {
 
   private GatekeeperClientProxy createGatekeeperClientProxy() {
     GatekeeperConfig config = getNfeConfig().gatekeeperConfig();
-    return new GatekeeperClientProxy(config.host, config.port);
+    return new GatekeeperClientProxy(config);
   }
 }
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.caching;
+
+import java.util.Locale;
+import lombok.Getter;
+
+/** The Cache-Control directives the response cache acts on. Unknown directives are ignored. */
+@Getter
+class CacheControl {
+  static final CacheControl EMPTY = new CacheControl();
+
+  private boolean noStore;
+  private boolean noCache;
+  private boolean isPrivate;
+  private boolean mustRevalidate;
+  // -1 when absent
+  private long maxAgeSeconds = -1;
+  private long sharedMaxAgeSeconds = -1;
+  private long staleWhileRevalidateSeconds;
+
+  private CacheControl() {}
+
+  /** Parses every Cache-Control header value of a message. */
+  static CacheControl parse(Iterable<? extends CharSequence> values) {
+    CacheControl cacheControl = null;
+    for (CharSequence value : values) {
+      for (String directive : value.toString().split(",")) {
+        if (cacheControl == null) {
+          cacheControl = new CacheControl();
+        }
+        cacheControl.apply(directive.trim().toLowerCase(Locale.ROOT));
+      }
+    }
+    return cacheControl != null ? cacheControl : EMPTY;
+  }
+
+  private void apply(String directive) {
+    int equals = directive.indexOf('=');
+    String name = equals < 0 ? directive : directive.substring(0, equals).trim();
+    String argument = equals < 0 ? "" : directive.substring(equals + 1).trim().replace("\"", "");
+
+    switch (name) {
+      case "no-store":
+        noStore = true;
+        break;
+      case "no-cache":
+        noCache = true;
+        break;
+      case "private":
+        isPrivate = true;
+        break;
+      case "must-revalidate":
+      case "proxy-revalidate":
+        mustRevalidate = true;
+        break;
+      case "max-age":
+        maxAgeSeconds = seconds(argument, maxAgeSeconds);
+        break;
+      case "s-maxage":
+        sharedMaxAgeSeconds = seconds(argument, sharedMaxAgeSeconds);
+        break;
+      case "stale-while-revalidate":
+        staleWhileRevalidateSeconds = seconds(argument, staleWhileRevalidateSeconds);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static long seconds(String argument, long fallback) {
+    try {
+      return Math.max(0, Long.parseLong(argument));
+    } catch (NumberFormatException e) {
+      return fallback;
+    }
+  }
+
+  /**
+   * How long a response stays fresh in a shared cache, -1 when it doesn't say. A response that
+   * has to be revalidated on every use is fresh for 0 seconds.
+   */
+  long freshnessSeconds() {
+    if (noCache) {
+      return 0;
+    }
+    return sharedMaxAgeSeconds >= 0 ? sharedMaxAgeSeconds : maxAgeSeconds;
+  }
+
+  /** Whether a shared cache may store the response at all. */
+  boolean isStorable() {
+    return !noStore && !isPrivate && freshnessSeconds() >= 0;
+  }
+
+  /** How long a stale response may still be served while it is being revalidated. */
+  long staleSeconds() {
+    return mustRevalidate || noCache ? 0 : staleWhileRevalidateSeconds;
+  }
+}
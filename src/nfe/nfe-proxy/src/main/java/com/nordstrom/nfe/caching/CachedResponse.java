@@ -0,0 +1,328 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.caching;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.AGE;
+import static io.netty.handler.codec.http.HttpHeaderNames.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaderNames.ETAG;
+import static io.netty.handler.codec.http.HttpHeaderNames.VARY;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.Response;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.AsciiString;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * A response stored in the cache, along with the request header values it varies on and how long
+ * it stays fresh. The body is a pooled direct buffer owned by the cache; it is released when the
+ * entry is evicted or replaced, so readers take their own reference with {@link #retainedBody()}.
+ *
+ * <p>The entry counts its own references (the cache's, plus readers taking a body reference) and
+ * only takes one while the count is above zero. Retaining the body itself after the cache let go
+ * of it could succeed on a buffer the pool already handed out again.
+ */
+class CachedResponse {
+  // connection specific headers, never replayed from the cache
+  private static final Set<AsciiString> HOP_BY_HOP =
+      ImmutableSet.of(
+          AsciiString.of("connection"),
+          AsciiString.of("keep-alive"),
+          AsciiString.of("proxy-connection"),
+          AsciiString.of("te"),
+          AsciiString.of("trailer"),
+          AsciiString.of("transfer-encoding"),
+          AsciiString.of("upgrade"),
+          CONTENT_LENGTH,
+          AGE);
+
+  private final HttpResponseStatus status;
+  private final Headers headers;
+  private final ByteBuf body;
+  @Nullable private final String etag;
+  private final List<String> varyNames;
+  private final List<String> varyValues;
+  private final long storedMillis;
+  private final long freshUntilMillis;
+  private final long staleUntilMillis;
+  private final AtomicBoolean revalidating = new AtomicBoolean();
+  // the cache's reference plus the readers taking a body reference right now
+  private final AtomicInteger refCnt = new AtomicInteger(1);
+
+  private CachedResponse(
+      HttpResponseStatus status,
+      Headers headers,
+      ByteBuf body,
+      List<String> varyNames,
+      List<String> varyValues,
+      long nowMillis,
+      CacheControl cacheControl,
+      long ageSeconds) {
+    this.status = status;
+    this.headers = headers;
+    this.body = body;
+    CharSequence etag = headers.get(ETAG);
+    this.etag = etag != null ? etag.toString() : null;
+    this.varyNames = varyNames;
+    this.varyValues = varyValues;
+    this.storedMillis = nowMillis - TimeUnit.SECONDS.toMillis(ageSeconds);
+    this.freshUntilMillis =
+        storedMillis + TimeUnit.SECONDS.toMillis(cacheControl.freshnessSeconds());
+    this.staleUntilMillis =
+        freshUntilMillis + TimeUnit.SECONDS.toMillis(cacheControl.staleSeconds());
+  }
+
+  /**
+   * Builds an entry out of an upstream response and the body read for it, or returns null when
+   * the response can't be stored (the body is then left to the caller).
+   */
+  @Nullable
+  static CachedResponse of(
+      Response response,
+      CacheControl cacheControl,
+      ByteBuf body,
+      Headers requestHeaders,
+      long nowMillis) {
+    List<String> varyNames = varyNames(response.headers());
+    if (varyNames == null) {
+      return null;
+    }
+    return new CachedResponse(
+        response.status(),
+        copyHeaders(response.headers()),
+        body,
+        varyNames,
+        values(requestHeaders, varyNames),
+        nowMillis,
+        cacheControl,
+        ageSeconds(response.headers()));
+  }
+
+  /**
+   * The status and headers of an upstream response as they are now, for the entry built once its
+   * body has been read. Handlers further along may change the headers of the response meanwhile.
+   */
+  static Response head(Response response) {
+    return DefaultFullResponse.builder()
+        .status(response.status())
+        .headers(copyHeaders(response.headers()))
+        .body(Unpooled.EMPTY_BUFFER)
+        .streamId(response.streamId())
+        .build();
+  }
+
+  /** Whether an upstream response may be stored, before its body has been read. */
+  static boolean isCacheable(Response response, CacheControl cacheControl) {
+    Headers headers = response.headers();
+    return response.status().code() == HttpResponseStatus.OK.code()
+        && cacheControl.isStorable()
+        && (cacheControl.freshnessSeconds() > 0 || headers.contains(ETAG))
+        && !headers.contains("set-cookie")
+        && varyNames(headers) != null;
+  }
+
+  /**
+   * The entry after a 304 from upstream: same body, headers and freshness updated by the 304.
+   * The caller must hold a reference to the body for the duration of the call.
+   */
+  CachedResponse refreshed(Headers notModified, long nowMillis) {
+    Headers merged = copyHeaders(headers);
+    for (Map.Entry<CharSequence, CharSequence> header : notModified) {
+      if (!isHopByHop(header.getKey())) {
+        merged.set(header.getKey(), header.getValue());
+      }
+    }
+    CacheControl cacheControl = CacheControl.parse(merged.getAll(CACHE_CONTROL));
+    return new CachedResponse(
+        status,
+        merged,
+        body.retain(),
+        varyNames,
+        varyValues,
+        nowMillis,
+        cacheControl,
+        ageSeconds(notModified));
+  }
+
+  /** Whether the request asks for the same variant of the resource. */
+  boolean matches(Headers requestHeaders) {
+    return varyNames.isEmpty() || varyValues.equals(values(requestHeaders, varyNames));
+  }
+
+  boolean isFresh(long nowMillis) {
+    return nowMillis < freshUntilMillis;
+  }
+
+  /** Whether the entry is stale but may still be served while it is revalidated. */
+  boolean isStaleUsable(long nowMillis) {
+    return !isFresh(nowMillis) && nowMillis < staleUntilMillis;
+  }
+
+  /** Claims the revalidation of the entry, false when another request already did. */
+  boolean startRevalidation() {
+    return revalidating.compareAndSet(false, true);
+  }
+
+  void revalidationFailed() {
+    revalidating.set(false);
+  }
+
+  @Nullable
+  String etag() {
+    return etag;
+  }
+
+  /** Memory the entry holds, body and headers. */
+  int size() {
+    int size = body.capacity() + 64;
+    for (Map.Entry<CharSequence, CharSequence> header : headers) {
+      size += header.getKey().length() + header.getValue().length();
+    }
+    return size;
+  }
+
+  /** A reference to the body, or null when the entry has been evicted in the meantime. */
+  @Nullable
+  ByteBuf retainedBody() {
+    int refs;
+    do {
+      refs = refCnt.get();
+      if (refs == 0) {
+        return null;
+      }
+    } while (!refCnt.compareAndSet(refs, refs + 1));
+
+    try {
+      return body.retainedDuplicate();
+    } finally {
+      release();
+    }
+  }
+
+  /** Gives up the cache's reference, the body is released once no reader is taking one. */
+  void release() {
+    if (refCnt.decrementAndGet() == 0) {
+      body.release();
+    }
+  }
+
+  /** The response to answer a request with, taking ownership of the given body reference. */
+  Response toResponse(int streamId, ByteBuf body, long nowMillis) {
+    Headers headers = copyHeaders(this.headers);
+    headers.set(CONTENT_LENGTH, String.valueOf(body.readableBytes()));
+    headers.set(AGE, String.valueOf(ageSeconds(nowMillis)));
+    return DefaultFullResponse.builder()
+        .status(status)
+        .streamId(streamId)
+        .body(body)
+        .headers(headers)
+        .build();
+  }
+
+  /** A 304 for a request whose If-None-Match matched the entry. */
+  Response toNotModified(int streamId, long nowMillis) {
+    Headers headers = new DefaultHeaders();
+    headers.set(ETAG, etag);
+    CharSequence cacheControl = this.headers.get(CACHE_CONTROL);
+    if (cacheControl != null) {
+      headers.set(CACHE_CONTROL, cacheControl);
+    }
+    headers.set(AGE, String.valueOf(ageSeconds(nowMillis)));
+    return DefaultFullResponse.builder()
+        .status(HttpResponseStatus.NOT_MODIFIED)
+        .streamId(streamId)
+        .body(Unpooled.EMPTY_BUFFER)
+        .headers(headers)
+        .build();
+  }
+
+  private long ageSeconds(long nowMillis) {
+    return TimeUnit.MILLISECONDS.toSeconds(Math.max(0, nowMillis - storedMillis));
+  }
+
+  private static long ageSeconds(Headers headers) {
+    CharSequence age = headers.get(AGE);
+    if (age == null) {
+      return 0;
+    }
+    try {
+      return Math.max(0, Long.parseLong(age.toString().trim()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /** The lower cased names of the Vary header, null for 'Vary: *' (nothing matches it). */
+  @Nullable
+  private static List<String> varyNames(Headers headers) {
+    List<CharSequence> vary = headers.getAll(VARY);
+    if (vary.isEmpty()) {
+      return ImmutableList.of();
+    }
+    List<String> names = new ArrayList<>();
+    for (CharSequence value : vary) {
+      for (String name : value.toString().split(",")) {
+        name = name.trim().toLowerCase(Locale.ROOT);
+        if (name.equals("*")) {
+          return null;
+        }
+        if (!name.isEmpty()) {
+          names.add(name);
+        }
+      }
+    }
+    return ImmutableList.copyOf(names);
+  }
+
+  private static List<String> values(Headers headers, List<String> names) {
+    List<String> values = new ArrayList<>(names.size());
+    for (String name : names) {
+      values.add(String.join(",", headers.getAll(name)));
+    }
+    return values;
+  }
+
+  private static Headers copyHeaders(Headers headers) {
+    Headers copy = new DefaultHeaders();
+    for (Map.Entry<CharSequence, CharSequence> header : headers) {
+      if (!isHopByHop(header.getKey())) {
+        copy.add(header.getKey(), header.getValue());
+      }
+    }
+    return copy;
+  }
+
+  private static boolean isHopByHop(CharSequence name) {
+    // http/2 pseudo headers (':status') belong to the connection the response came in on
+    return (name.length() > 0 && name.charAt(0) == ':')
+        || HOP_BY_HOP.contains(AsciiString.of(name).toLowerCase());
+  }
+}
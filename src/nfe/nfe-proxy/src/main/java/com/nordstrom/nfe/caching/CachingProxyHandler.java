@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.caching;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.AUTHORIZATION;
+import static io.netty.handler.codec.http.HttpHeaderNames.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaderNames.IF_NONE_MATCH;
+
+import com.nordstrom.nfe.balancing.ForwardingChannelHandlerContext;
+import com.nordstrom.nfe.balancing.HandlerContexts;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Answers GET requests of a route out of the response cache, and stores the cacheable responses
+ * of the requests it passes on to the route's proxy handler.
+ *
+ * <p>A stale response with an ETag is revalidated with an If-None-Match request; when upstream
+ * answers 304 the stored response is refreshed and sent instead. While a response is within its
+ * stale-while-revalidate window only the first request for it goes upstream, the others are
+ * answered with the stale response in the meantime.
+ */
+public class CachingProxyHandler implements PipelineRequestHandler {
+  private static final HandlerContexts<CachingProxyHandler, CachingContext> CONTEXTS =
+      new HandlerContexts<>(
+          CachingProxyHandler.class,
+          (ctx, handler) -> new CachingContext(ctx, handler.cache),
+          CachingContext::releaseAll);
+
+  private final PipelineRequestHandler delegate;
+  private final ResponseCache cache;
+
+  public CachingProxyHandler(PipelineRequestHandler delegate, ResponseCache cache) {
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  /** The proxy handler requests that are not answered from the cache go to. */
+  public PipelineRequestHandler delegate() {
+    return delegate;
+  }
+
+  @Override
+  public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+    CachingContext cachingCtx = CONTEXTS.get(ctx, this);
+    if (isCacheable(request) && answerFromCache(ctx, cachingCtx, request)) {
+      return;
+    }
+    delegate.handle(cachingCtx, request, route);
+  }
+
+  private static boolean isCacheable(Request request) {
+    return request.startOfMessage()
+        && request.endOfMessage()
+        && HttpMethod.GET.equals(request.method())
+        && !request.headers().contains(AUTHORIZATION);
+  }
+
+  /**
+   * Answers the request from the cache if possible. Otherwise the request is set up to go
+   * upstream, conditional on the ETag of a stored response, with its response captured.
+   */
+  private boolean answerFromCache(
+      ChannelHandlerContext ctx, CachingContext cachingCtx, Request request) {
+    CacheControl requestCacheControl =
+        CacheControl.parse(request.headers().getAll(CACHE_CONTROL));
+    if (requestCacheControl.isNoStore()) {
+      return false;
+    }
+
+    String key = key(request);
+    long now = cache.now();
+    CachedResponse cached = cache.get(key);
+    if (cached != null && !cached.matches(request.headers())) {
+      cached = null;
+    }
+
+    boolean mustRevalidate =
+        requestCacheControl.isNoCache() || requestCacheControl.getMaxAgeSeconds() == 0;
+    if (cached != null && !mustRevalidate) {
+      boolean fresh = cached.isFresh(now);
+      // a stale response is only served when another request is already revalidating it
+      if (fresh || (cached.isStaleUsable(now) && !cached.startRevalidation())) {
+        Response response = cachedResponse(request, cached, now);
+        if (response != null) {
+          cache.recordHit(!fresh);
+          ctx.writeAndFlush(response);
+          return true;
+        }
+      }
+    }
+
+    cache.recordMiss();
+    cachingCtx.capture(request, key, cached);
+    return false;
+  }
+
+  @Nullable
+  private static Response cachedResponse(Request request, CachedResponse cached, long now) {
+    CharSequence ifNoneMatch = request.headers().get(IF_NONE_MATCH);
+    if (ifNoneMatch != null && cached.etag() != null && matches(ifNoneMatch, cached.etag())) {
+      return cached.toNotModified(request.streamId(), now);
+    }
+    ByteBuf body = cached.retainedBody();
+    return body != null ? cached.toResponse(request.streamId(), body, now) : null;
+  }
+
+  private static boolean matches(CharSequence ifNoneMatch, String etag) {
+    for (String candidate : ifNoneMatch.toString().split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || weak(candidate).equals(weak(etag))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String weak(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  private static String key(Request request) {
+    CharSequence host = request.headers().get("host");
+    if (host == null) {
+      host = request.headers().get(":authority");
+    }
+    return (host != null ? host : "") + request.path();
+  }
+
+  /** A response being read from upstream to be stored. */
+  private static class Capture {
+    private final String key;
+    private final Headers requestHeaders;
+    // the stored response being revalidated, if any, and a reference to its body
+    @Nullable private final CachedResponse stale;
+    @Nullable private ByteBuf staleBody;
+    @Nullable private Response head;
+    @Nullable private CacheControl cacheControl;
+    @Nullable private ByteBuf body;
+
+    Capture(
+        String key,
+        Headers requestHeaders,
+        @Nullable CachedResponse stale,
+        @Nullable ByteBuf staleBody) {
+      this.key = key;
+      this.requestHeaders = requestHeaders;
+      this.stale = stale;
+      this.staleBody = staleBody;
+    }
+
+    void release() {
+      if (stale != null && staleBody != null) {
+        stale.revalidationFailed();
+      }
+      ReferenceCountUtil.release(staleBody);
+      ReferenceCountUtil.release(body);
+      staleBody = null;
+      body = null;
+    }
+  }
+
+  /**
+   * Capture of the responses to store, wrapping the context the proxy handler writes its responses
+   * to.
+   */
+  private static class CachingContext extends ForwardingChannelHandlerContext {
+    private final ResponseCache cache;
+    private final Map<Integer, Capture> captures = new ConcurrentHashMap<>();
+
+    private CachingContext(ChannelHandlerContext delegate, ResponseCache cache) {
+      super(delegate);
+      this.cache = cache;
+    }
+
+    void capture(Request request, String key, @Nullable CachedResponse stale) {
+      ByteBuf staleBody = null;
+      // revalidate the stored response, unless the client is revalidating its own copy
+      if (stale != null
+          && stale.etag() != null
+          && !request.headers().contains(IF_NONE_MATCH)) {
+        staleBody = stale.retainedBody();
+        if (staleBody != null) {
+          request.headers().set(IF_NONE_MATCH, stale.etag());
+        }
+      }
+      Capture previous =
+          captures.put(
+              request.streamId(),
+              new Capture(key, request.headers(), staleBody != null ? stale : null, staleBody));
+      if (previous != null) {
+        previous.release();
+      }
+    }
+
+    private void releaseAll() {
+      for (Integer streamId : captures.keySet()) {
+        Capture capture = captures.remove(streamId);
+        if (capture != null) {
+          capture.release();
+        }
+      }
+    }
+
+    @Override
+    public ChannelFuture write(Object msg, ChannelPromise promise) {
+      return super.write(observe(msg), promise);
+    }
+
+    @Override
+    public ChannelFuture writeAndFlush(Object msg, ChannelPromise promise) {
+      return super.writeAndFlush(observe(msg), promise);
+    }
+
+    /** Captures the message if it belongs to a response being stored, returns what to write. */
+    private Object observe(Object msg) {
+      if (msg instanceof Response) {
+        Response response = (Response) msg;
+        Capture capture = captures.get(response.streamId());
+        if (capture != null && response.startOfMessage()) {
+          return onResponse(capture, response);
+        }
+      } else if (msg instanceof SegmentedData) {
+        SegmentedData data = (SegmentedData) msg;
+        Capture capture = captures.get(data.streamId());
+        if (capture != null && capture.body != null) {
+          append(capture, data.streamId(), data.content(), data.endOfMessage());
+        }
+      }
+      return msg;
+    }
+
+    private Object onResponse(Capture capture, Response response) {
+      long now = cache.now();
+      if (response.status().code() == HttpResponseStatus.NOT_MODIFIED.code()
+          && capture.stale != null
+          && capture.staleBody != null) {
+        // the stored response is still good, answer with it instead of the 304
+        captures.remove(response.streamId());
+        CachedResponse refreshed = capture.stale.refreshed(response.headers(), now);
+        cache.put(capture.key, refreshed);
+        cache.recordRevalidation();
+        Response full = refreshed.toResponse(response.streamId(), capture.staleBody, now);
+        capture.staleBody = null;
+        ReferenceCountUtil.release(response);
+        return full;
+      }
+
+      if (capture.stale != null) {
+        capture.stale.revalidationFailed();
+      }
+      ReferenceCountUtil.release(capture.staleBody);
+      capture.staleBody = null;
+
+      CacheControl cacheControl = CacheControl.parse(response.headers().getAll(CACHE_CONTROL));
+      if (!CachedResponse.isCacheable(response, cacheControl)
+          || contentLength(response) > cache.maxEntrySizeBytes()) {
+        captures.remove(response.streamId());
+        return response;
+      }
+
+      capture.head = CachedResponse.head(response);
+      capture.cacheControl = cacheControl;
+      int initialCapacity = (int) Math.max(0, Math.min(contentLength(response), 1024));
+      capture.body =
+          PooledByteBufAllocator.DEFAULT.directBuffer(
+              initialCapacity, cache.maxEntrySizeBytes());
+      ByteBuf content = response.body();
+      append(
+          capture,
+          response.streamId(),
+          content != null ? content : Unpooled.EMPTY_BUFFER,
+          response.endOfMessage());
+      return response;
+    }
+
+    private void append(Capture capture, int streamId, ByteBuf content, boolean end) {
+      int readable = content.readableBytes();
+      if (capture.body.writerIndex() + readable > cache.maxEntrySizeBytes()) {
+        // too large to store, let the rest of the response go by
+        captures.remove(streamId);
+        capture.release();
+        return;
+      }
+      capture.body.writeBytes(content, content.readerIndex(), readable);
+      if (!end) {
+        return;
+      }
+
+      captures.remove(streamId);
+      CachedResponse stored =
+          CachedResponse.of(
+              capture.head,
+              capture.cacheControl,
+              capture.body,
+              capture.requestHeaders,
+              cache.now());
+      if (stored != null) {
+        capture.body = null;
+        cache.put(capture.key, stored);
+      } else {
+        capture.release();
+      }
+    }
+
+    private static long contentLength(Response response) {
+      CharSequence contentLength = response.headers().get(CONTENT_LENGTH);
+      if (contentLength == null) {
+        return -1;
+      }
+      try {
+        return Long.parseLong(contentLength.toString().trim());
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+  }
+}
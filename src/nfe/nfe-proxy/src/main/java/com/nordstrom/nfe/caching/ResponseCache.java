@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.caching;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.nordstrom.nfe.config.ResponseCacheConfig;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Process wide cache of upstream responses, shared by every route that has caching enabled and
+ * keyed by host and path.
+ *
+ * <p>The bodies are held in pooled direct buffers, off the heap, and the cache is bounded by the
+ * bytes it holds: the least recently used responses are evicted (and their buffers released)
+ * first. One variant of a resource is kept, a response varying on other request headers replaces
+ * it.
+ */
+public class ResponseCache {
+  private final ResponseCacheConfig config;
+  private final Cache<String, CachedResponse> responses;
+  private final LongSupplier clock;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder staleHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder revalidations = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder sizeBytes = new LongAdder();
+
+  public ResponseCache(ResponseCacheConfig config) {
+    this(config, System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  ResponseCache(ResponseCacheConfig config, LongSupplier clock) {
+    this.config = config;
+    this.clock = clock;
+    this.responses =
+        CacheBuilder.newBuilder()
+            .maximumWeight(config.getMaxSizeBytes())
+            .<String, CachedResponse>weigher((key, response) -> response.size())
+            .removalListener(
+                notification -> {
+                  if (notification.getCause() == RemovalCause.SIZE) {
+                    evictions.increment();
+                  }
+                  sizeBytes.add(-notification.getValue().size());
+                  notification.getValue().release();
+                })
+            .build();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /** Stale responses served while they were being revalidated. */
+  public long getStaleHitCount() {
+    return staleHits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /** Stale responses upstream confirmed with a 304. */
+  public long getRevalidationCount() {
+    return revalidations.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /** Share of the cacheable requests answered from the cache, stale answers included. */
+  public double getHitRatio() {
+    long hit = hits.sum() + staleHits.sum();
+    long total = hit + misses.sum();
+    return total == 0 ? 0 : (double) hit / total;
+  }
+
+  public long getSizeBytes() {
+    return sizeBytes.sum();
+  }
+
+  public long getEntryCount() {
+    return responses.size();
+  }
+
+  int maxEntrySizeBytes() {
+    return config.getMaxEntrySizeBytes();
+  }
+
+  long now() {
+    return clock.getAsLong();
+  }
+
+  @Nullable
+  CachedResponse get(String key) {
+    return responses.getIfPresent(key);
+  }
+
+  void put(String key, CachedResponse response) {
+    sizeBytes.add(response.size());
+    responses.put(key, response);
+  }
+
+  void recordHit(boolean stale) {
+    if (stale) {
+      staleHits.increment();
+    } else {
+      hits.increment();
+    }
+  }
+
+  void recordMiss() {
+    misses.increment();
+  }
+
+  void recordRevalidation() {
+    revalidations.increment();
+  }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.compression;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaderNames.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaderNames.ETAG;
+import static io.netty.handler.codec.http.HttpHeaderNames.VARY;
+
+import com.nordstrom.nfe.balancing.ForwardingChannelHandlerContext;
+import com.nordstrom.nfe.balancing.HandlerContexts;
+import com.nordstrom.nfe.config.CompressionConfig;
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultSegmentedData;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Compresses the responses of a route for the clients that accept it. Compression streams along
+ * with the response: each part of the body is compressed as it is written, into pooled buffers, by
+ * an encoder kept for the response's stream until it ends.
+ *
+ * <p>Responses are only compressed when they are worth it (a compressible content type, long
+ * enough) and are not compressed already. The level comes from the process wide {@link
+ * ResponseCompressor}, which lowers it (or stops compressing) as the host gets busy.
+ */
+public class CompressingProxyHandler implements PipelineRequestHandler {
+  private static final HandlerContexts<CompressingProxyHandler, CompressingContext> CONTEXTS =
+      new HandlerContexts<>(
+          CompressingProxyHandler.class,
+          (ctx, handler) -> new CompressingContext(ctx),
+          CompressingContext::releaseAll);
+
+  private final PipelineRequestHandler delegate;
+  private final CompressionConfig config;
+  private final ResponseCompressor compressor;
+
+  public CompressingProxyHandler(
+      PipelineRequestHandler delegate, CompressionConfig config, ResponseCompressor compressor) {
+    this.delegate = delegate;
+    this.config = config;
+    this.compressor = compressor;
+  }
+
+  /** The proxy handler whose responses are compressed. */
+  public PipelineRequestHandler delegate() {
+    return delegate;
+  }
+
+  @Override
+  public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+    CompressingContext compressingCtx = CONTEXTS.get(ctx, this);
+    if (request.startOfMessage() && !HttpMethod.HEAD.equals(request.method())) {
+      ContentEncoding encoding = ContentEncoding.negotiate(request.headers().get(ACCEPT_ENCODING));
+      if (encoding != null) {
+        compressingCtx.accepted.put(request.streamId(), new Accepted(encoding, this));
+      }
+    }
+    delegate.handle(compressingCtx, request, route);
+  }
+
+  /**
+   * Returns the level to compress the response at, or 0 to leave it alone.
+   *
+   * @param size the length of the body, -1 when not known yet.
+   */
+  private int level(Response response, long size) {
+    int status = response.status().code();
+    Headers headers = response.headers();
+    CharSequence contentType = headers.get(CONTENT_TYPE);
+    CharSequence cacheControl = headers.get(CACHE_CONTROL);
+    if (status < 200
+        || status == 204
+        || status == 304
+        || headers.contains(CONTENT_ENCODING)
+        || contentType == null
+        || !config.isCompressible(contentType)
+        || (cacheControl != null && cacheControl.toString().contains("no-transform"))
+        || (size >= 0 && size < config.getMinSizeBytes())) {
+      return 0;
+    }
+    int level = compressor.level();
+    if (level == 0) {
+      compressor.recordBusySkipped();
+    }
+    return level;
+  }
+
+  /** A client that accepts compressed responses, waiting for the response of its request. */
+  private static class Accepted {
+    private final ContentEncoding encoding;
+    private final CompressingProxyHandler handler;
+
+    Accepted(ContentEncoding encoding, CompressingProxyHandler handler) {
+      this.encoding = encoding;
+      this.handler = handler;
+    }
+  }
+
+  /** Compresses the body of one response, part after part. */
+  private static class Encoder {
+    private final ResponseCompressor compressor;
+    private final EmbeddedChannel channel;
+
+    Encoder(ContentEncoding encoding, int level, ResponseCompressor compressor) {
+      this.compressor = compressor;
+      this.channel = new EmbeddedChannel(ZlibCodecFactory.newZlibEncoder(encoding.wrapper, level));
+    }
+
+    /** Compresses (and releases) the next part of the body. */
+    ByteBuf encode(@Nullable ByteBuf content, boolean last) {
+      long start = System.nanoTime();
+      int in = 0;
+      if (content != null && content.isReadable()) {
+        in = content.readableBytes();
+        channel.writeOutbound(content);
+      } else if (content != null) {
+        content.release();
+      }
+      if (last) {
+        channel.finish();
+      }
+
+      CompositeByteBuf out = channel.alloc().compositeBuffer();
+      ByteBuf compressed;
+      while ((compressed = channel.readOutbound()) != null) {
+        if (compressed.isReadable()) {
+          out.addComponent(true, compressed);
+        } else {
+          compressed.release();
+        }
+      }
+      compressor.recordCompression(in, out.readableBytes(), System.nanoTime() - start);
+      return out;
+    }
+
+    void release() {
+      channel.finishAndReleaseAll();
+    }
+  }
+
+  /**
+   * Compression of the responses, wrapping the context the proxy handler writes its responses to.
+   */
+  private static class CompressingContext extends ForwardingChannelHandlerContext {
+    private final Map<Integer, Accepted> accepted = new ConcurrentHashMap<>();
+    private final Map<Integer, Encoder> encoders = new ConcurrentHashMap<>();
+
+    private CompressingContext(ChannelHandlerContext delegate) {
+      super(delegate);
+    }
+
+    private void releaseAll() {
+      for (Integer streamId : encoders.keySet()) {
+        Encoder encoder = encoders.remove(streamId);
+        if (encoder != null) {
+          encoder.release();
+        }
+      }
+      accepted.clear();
+    }
+
+    @Override
+    public ChannelFuture write(Object msg, ChannelPromise promise) {
+      return super.write(observe(msg), promise);
+    }
+
+    @Override
+    public ChannelFuture writeAndFlush(Object msg, ChannelPromise promise) {
+      return super.writeAndFlush(observe(msg), promise);
+    }
+
+    /** Returns the message to write, compressed if it is part of a response being compressed. */
+    private Object observe(Object msg) {
+      if (msg instanceof Response) {
+        Response response = (Response) msg;
+        if (!response.startOfMessage()) {
+          return msg;
+        }
+        Accepted client = accepted.remove(response.streamId());
+        return client != null ? onResponse(client, response) : msg;
+      } else if (msg instanceof SegmentedData) {
+        SegmentedData data = (SegmentedData) msg;
+        Encoder encoder =
+            data.endOfMessage() ? encoders.remove(data.streamId()) : encoders.get(data.streamId());
+        if (encoder == null) {
+          return msg;
+        }
+        return DefaultSegmentedData.builder()
+            .content(encoder.encode(data.content(), data.endOfMessage()))
+            .trailingHeaders(data.trailingHeaders())
+            .endOfMessage(data.endOfMessage())
+            .streamId(data.streamId())
+            .build();
+      }
+      return msg;
+    }
+
+    private Object onResponse(Accepted client, Response response) {
+      ByteBuf body = response.body();
+      long size;
+      if (response.endOfMessage()) {
+        size = body != null ? body.readableBytes() : 0;
+      } else if (body != null && body.isReadable()) {
+        // the first part of the body came with the headers, not worth handling apart
+        return response;
+      } else {
+        size = contentLength(response.headers());
+      }
+
+      int level = client.handler.level(response, size);
+      if (level == 0) {
+        return response;
+      }
+      ResponseCompressor compressor = client.handler.compressor;
+      compressor.recordCompressed();
+      Encoder encoder = new Encoder(client.encoding, level, compressor);
+      Headers headers = response.headers();
+      headers.remove(CONTENT_LENGTH);
+      headers.set(CONTENT_ENCODING, client.encoding.token);
+      CharSequence vary = headers.get(VARY);
+      headers.set(VARY, vary == null ? "accept-encoding" : vary + ", accept-encoding");
+      CharSequence etag = headers.get(ETAG);
+      if (etag != null && !etag.toString().startsWith("W/")) {
+        // the compressed body is not byte for byte what the strong validator was for
+        headers.set(ETAG, "W/" + etag);
+      }
+
+      if (!response.endOfMessage()) {
+        encoders.put(response.streamId(), encoder);
+        return response;
+      }
+      return DefaultFullResponse.builder()
+          .status(response.status())
+          .headers(headers)
+          .body(encoder.encode(body, true))
+          .streamId(response.streamId())
+          .build();
+    }
+
+    private static long contentLength(Headers headers) {
+      CharSequence contentLength = headers.get(CONTENT_LENGTH);
+      if (contentLength == null) {
+        return -1;
+      }
+      try {
+        return Long.parseLong(contentLength.toString().trim());
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.compression;
+
+import io.netty.handler.codec.compression.ZlibWrapper;
+import javax.annotation.Nullable;
+
+/** The content codings the NFE compresses responses with, in order of preference. */
+enum ContentEncoding {
+  GZIP("gzip", ZlibWrapper.GZIP),
+  DEFLATE("deflate", ZlibWrapper.ZLIB);
+
+  final String token;
+  final ZlibWrapper wrapper;
+
+  ContentEncoding(String token, ZlibWrapper wrapper) {
+    this.token = token;
+    this.wrapper = wrapper;
+  }
+
+  /** The preferred coding the Accept-Encoding header allows, null when none is. */
+  @Nullable
+  static ContentEncoding negotiate(@Nullable CharSequence acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    double gzip = -1;
+    double deflate = -1;
+    double any = -1;
+    for (String part : acceptEncoding.toString().split(",")) {
+      String[] params = part.trim().split(";");
+      String coding = params[0].trim();
+      double quality = quality(params);
+      if (coding.equalsIgnoreCase(GZIP.token) || coding.equalsIgnoreCase("x-gzip")) {
+        gzip = Math.max(gzip, quality);
+      } else if (coding.equalsIgnoreCase(DEFLATE.token)) {
+        deflate = Math.max(deflate, quality);
+      } else if (coding.equals("*")) {
+        any = quality;
+      }
+    }
+    // codings that are not listed get the quality of '*', if any
+    gzip = gzip < 0 ? any : gzip;
+    deflate = deflate < 0 ? any : deflate;
+
+    if (gzip > 0 && gzip >= deflate) {
+      return GZIP;
+    }
+    return deflate > 0 ? DEFLATE : null;
+  }
+
+  private static double quality(String[] params) {
+    for (int i = 1; i < params.length; i++) {
+      String param = params[i].trim();
+      if (param.startsWith("q=")) {
+        try {
+          return Double.parseDouble(param.substring(2));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.compression;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.nordstrom.nfe.config.ResponseCompressionConfig;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The compression level of the NFE's responses and how compressing them went. The level follows
+ * the host's CPU load (sampled at most once a second): the busier the host, the lower the level,
+ * down to not compressing at all, so that compression never becomes the bottleneck at peak load.
+ */
+public class ResponseCompressor {
+  private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final ResponseCompressionConfig config;
+  private final DoubleSupplier cpuLoad;
+  private volatile int level;
+  private volatile long nextSampleNanos = System.nanoTime();
+
+  private final LongAdder compressedCount = new LongAdder();
+  private final LongAdder busySkippedCount = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder compressionNanos = new LongAdder();
+
+  public ResponseCompressor(ResponseCompressionConfig config) {
+    this(config, ResponseCompressor::systemCpuLoad);
+  }
+
+  @VisibleForTesting
+  ResponseCompressor(ResponseCompressionConfig config, DoubleSupplier cpuLoad) {
+    this.config = config;
+    this.cpuLoad = cpuLoad;
+    this.level = config.getMaxLevel();
+  }
+
+  /** The level to compress a response at now, 0 when the host is too busy to compress. */
+  int level() {
+    long now = System.nanoTime();
+    if (now - nextSampleNanos >= 0) {
+      nextSampleNanos = now + SAMPLE_INTERVAL_NANOS;
+      level = levelFor(cpuLoad.getAsDouble());
+    }
+    return level;
+  }
+
+  private int levelFor(double load) {
+    if (load >= config.getCpuHighWatermark()) {
+      return 0;
+    }
+    if (load <= config.getCpuLowWatermark()) {
+      return config.getMaxLevel();
+    }
+    double busy =
+        (load - config.getCpuLowWatermark())
+            / (config.getCpuHighWatermark() - config.getCpuLowWatermark());
+    return (int)
+        Math.round(config.getMaxLevel() - busy * (config.getMaxLevel() - config.getMinLevel()));
+  }
+
+  void recordCompressed() {
+    compressedCount.increment();
+  }
+
+  void recordBusySkipped() {
+    busySkippedCount.increment();
+  }
+
+  void recordCompression(long in, long out, long nanos) {
+    bytesIn.add(in);
+    bytesOut.add(out);
+    compressionNanos.add(nanos);
+  }
+
+  /** The level responses are compressed at, as of the last CPU load sample. */
+  public int getLevel() {
+    return level;
+  }
+
+  /** Number of responses compressed. */
+  public long getCompressedCount() {
+    return compressedCount.sum();
+  }
+
+  /** Number of compressible responses sent uncompressed because the host was too busy. */
+  public long getBusySkippedCount() {
+    return busySkippedCount.sum();
+  }
+
+  /** Bytes of response body compressed. */
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  /** Bytes of compressed response body sent. */
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  public long getBytesSaved() {
+    return getBytesIn() - getBytesOut();
+  }
+
+  /** Time spent compressing, on the event loops (compressing never waits, so it is CPU time). */
+  public long getCompressionNanos() {
+    return compressionNanos.sum();
+  }
+
+  private static double systemCpuLoad() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      // negative while not available yet
+      return Math.max(0, ((com.sun.management.OperatingSystemMXBean) os).getSystemCpuLoad());
+    }
+    return os.getSystemLoadAverage() / os.getAvailableProcessors();
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.nordstrom.nfe.balancing.BalancingPolicy;
+import com.typesafe.config.Config;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** How the requests of a proxy route are spread over its clients. */
+@Getter
+@RequiredArgsConstructor
+public class BalancingConfig {
+  private final BalancingPolicy.Type policy;
+  private final long ewmaDecayNanos;
+  /** Client weights, in the order of the route's clients. Missing weights default to 1. */
+  private final List<Integer> weights;
+  private final OutlierDetectionConfig outlierDetectionConfig;
+  private final RetryConfig retryConfig;
+  private final ConcurrencyLimitConfig concurrencyLimitConfig;
+
+  /** Reads the 'balancing' section and the client weights of a proxy route config. */
+  public static BalancingConfig fromConfig(Config routeConfig) {
+    Config config = routeConfig.getConfig("balancing");
+    BalancingPolicy.Type policy = config.getEnum(BalancingPolicy.Type.class, "policy");
+    long ewmaDecayNanos = config.getDuration("ewmaDecay", TimeUnit.NANOSECONDS);
+    List<Integer> weights =
+        routeConfig
+            .getConfigList("clients")
+            .stream()
+            .map(client -> client.hasPath("weight") ? client.getInt("weight") : 1)
+            .collect(Collectors.toList());
+    OutlierDetectionConfig outlierDetectionConfig =
+        OutlierDetectionConfig.fromConfig(config.getConfig("outlierDetection"));
+    RetryConfig retryConfig = RetryConfig.fromConfig(config.getConfig("retry"));
+    ConcurrencyLimitConfig concurrencyLimitConfig =
+        ConcurrencyLimitConfig.fromConfig(config.getConfig("concurrencyLimit"));
+
+    return new BalancingConfig(
+        policy,
+        ewmaDecayNanos,
+        weights,
+        outlierDetectionConfig,
+        retryConfig,
+        concurrencyLimitConfig);
+  }
+
+  public int getWeight(int clientIndex) {
+    return clientIndex < weights.size() ? weights.get(clientIndex) : 1;
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** Which responses of a proxy route are compressed. */
+@Getter
+@RequiredArgsConstructor
+public class CompressionConfig {
+  private final boolean enabled;
+  private final long minSizeBytes;
+  /** Content types (or prefixes of them, e.g. 'text/') worth compressing, in lower case. */
+  private final List<String> contentTypes;
+
+  /** Reads the 'compression' section of a proxy route config. */
+  public static CompressionConfig fromConfig(Config config) {
+    boolean enabled = config.getBoolean("enabled");
+    long minSizeBytes = config.getBytes("minSize");
+    List<String> contentTypes =
+        config
+            .getStringList("contentTypes")
+            .stream()
+            .map(contentType -> contentType.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toList());
+
+    return new CompressionConfig(enabled, minSizeBytes, contentTypes);
+  }
+
+  public boolean isCompressible(CharSequence contentType) {
+    String type = contentType.toString().toLowerCase(Locale.ROOT);
+    for (String compressible : contentTypes) {
+      if (type.startsWith(compressible)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** How many requests of a proxy route may be in flight at once, adjusted from their latency. */
+@Getter
+@RequiredArgsConstructor
+public class ConcurrencyLimitConfig {
+  private final boolean enabled;
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double smoothing;
+  private final double rttTolerance;
+  private final double backoffRatio;
+  private final long sampleWindowNanos;
+
+  /** Reads the 'concurrencyLimit' section of a proxy route's balancing config. */
+  public static ConcurrencyLimitConfig fromConfig(Config config) {
+    boolean enabled = config.getBoolean("enabled");
+    int initialLimit = config.getInt("initialLimit");
+    int minLimit = config.getInt("minLimit");
+    int maxLimit = config.getInt("maxLimit");
+    double smoothing = config.getDouble("smoothing");
+    double rttTolerance = config.getDouble("rttTolerance");
+    double backoffRatio = config.getDouble("backoffRatio");
+    long sampleWindowNanos = config.getDuration("sampleWindow", TimeUnit.NANOSECONDS);
+
+    return new ConcurrencyLimitConfig(
+        enabled,
+        initialLimit,
+        minLimit,
+        maxLimit,
+        smoothing,
+        rttTolerance,
+        backoffRatio,
+        sampleWindowNanos);
+  }
+}
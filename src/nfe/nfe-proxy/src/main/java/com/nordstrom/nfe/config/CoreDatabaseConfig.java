@@ -17,16 +17,27 @@ package com.nordstrom.nfe.config;
 
 import com.typesafe.config.Config;
 import com.xjeffrose.xio.SSL.TlsConfig;
+import java.util.concurrent.TimeUnit;
 
 public class CoreDatabaseConfig {
   private final String host;
   private final int port;
   private final TlsConfig tlsConfig;
+  private final long deadlineMillis;
+  private final long keepAliveTimeMillis;
+  private final long keepAliveTimeoutMillis;
+  private final int batchSize;
+  private final int batchesInFlight;
 
   public CoreDatabaseConfig(Config config) {
     this.host = config.getString("host");
     this.port = config.getInt("port");
     this.tlsConfig = TlsConfig.fromConfig("tls", config);
+    this.deadlineMillis = config.getDuration("deadline", TimeUnit.MILLISECONDS);
+    this.keepAliveTimeMillis = config.getDuration("keepAliveTime", TimeUnit.MILLISECONDS);
+    this.keepAliveTimeoutMillis = config.getDuration("keepAliveTimeout", TimeUnit.MILLISECONDS);
+    this.batchSize = config.getInt("batchSize");
+    this.batchesInFlight = config.getInt("batchesInFlight");
   }
 
   public String getHost() {
@@ -40,4 +51,24 @@ public class CoreDatabaseConfig {
   public TlsConfig getTlsConfig() {
     return tlsConfig;
   }
+
+  public long getDeadlineMillis() {
+    return deadlineMillis;
+  }
+
+  public long getKeepAliveTimeMillis() {
+    return keepAliveTimeMillis;
+  }
+
+  public long getKeepAliveTimeoutMillis() {
+    return keepAliveTimeoutMillis;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public int getBatchesInFlight() {
+    return batchesInFlight;
+  }
 }
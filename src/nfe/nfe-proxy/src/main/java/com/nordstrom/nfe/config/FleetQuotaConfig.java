@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class FleetQuotaConfig {
+  private final boolean enabled;
+  private final long reconcileIntervalMillis;
+  private final long memberTtlMillis;
+  private final double evenSplit;
+  private final String path;
+  private final String memberId;
+
+  public static FleetQuotaConfig fromConfig(Config config) {
+    boolean enabled = config.getBoolean("enabled");
+    long reconcileIntervalMillis = config.getDuration("reconcileInterval", TimeUnit.MILLISECONDS);
+    long memberTtlMillis = config.getDuration("memberTtl", TimeUnit.MILLISECONDS);
+    double evenSplit = config.getDouble("evenSplit");
+    String path = config.getString("path");
+    String memberId = config.getString("memberId");
+    if (memberId.isEmpty()) {
+      memberId = hostName();
+    }
+
+    return new FleetQuotaConfig(
+        enabled, reconcileIntervalMillis, memberTtlMillis, evenSplit, path, memberId);
+  }
+
+  private static String hostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return UUID.randomUUID().toString();
+    }
+  }
+}
@@ -16,22 +16,36 @@
 package com.nordstrom.nfe.config;
 
 import com.typesafe.config.Config;
+import java.util.concurrent.TimeUnit;
 
 public class GatekeeperConfig {
 
   public final String host;
   public final int port;
+  public final long authorizationCacheMaxSize;
+  public final long authorizationCacheMaxTtlMillis;
 
   public GatekeeperConfig(String host, int port) {
+    this(host, port, 100_000, TimeUnit.MINUTES.toMillis(15));
+  }
+
+  public GatekeeperConfig(
+      String host, int port, long authorizationCacheMaxSize, long authorizationCacheMaxTtlMillis) {
     this.host = host;
     this.port = port;
+    this.authorizationCacheMaxSize = authorizationCacheMaxSize;
+    this.authorizationCacheMaxTtlMillis = authorizationCacheMaxTtlMillis;
   }
 
   public static GatekeeperConfig fromConfig(Config config) {
     String host = config.getString("host");
     int port = config.getInt("port");
+    long authorizationCacheMaxSize = config.getLong("authorizationCache.maxSize");
+    long authorizationCacheMaxTtlMillis =
+        config.getDuration("authorizationCache.maxTtl", TimeUnit.MILLISECONDS);
 
-    return new GatekeeperConfig(host, port);
+    return new GatekeeperConfig(
+        host, port, authorizationCacheMaxSize, authorizationCacheMaxTtlMillis);
   }
 
   public static GatekeeperConfig fromConfig(String key, Config config) {
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** Whether the proxy routes are metered, and where the metrics are served. */
+@Getter
+@RequiredArgsConstructor
+public class MetricsConfig {
+  private final boolean enabled;
+  private final String bindHost;
+  private final int port;
+  private final String path;
+  private final List<Long> latencyBucketsMicros;
+
+  public static MetricsConfig fromConfig(Config config) {
+    boolean enabled = config.getBoolean("enabled");
+    String bindHost = config.getString("bindHost");
+    int port = config.getInt("port");
+    String path = config.getString("path");
+    List<Long> latencyBucketsMicros =
+        config.getDurationList("latencyBuckets", TimeUnit.MICROSECONDS);
+
+    return new MetricsConfig(enabled, bindHost, port, path, latencyBucketsMicros);
+  }
+}
@@ -21,6 +21,7 @@ import com.xjeffrose.xio.application.ApplicationConfig;
 import com.xjeffrose.xio.client.ClientConfig;
 import com.xjeffrose.xio.http.ProxyRouteConfig;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import lombok.Getter;
 import lombok.experimental.Accessors;
@@ -34,12 +35,34 @@ public class NfeConfig extends ApplicationConfig {
   private final GatekeeperConfig gatekeeperConfig;
   private final RoutesConfig routeConfig;
   private final List<ProxyRouteConfig> proxyRoutes;
+  // keyed by the path of the proxy route
+  private final Map<String, BalancingConfig> proxyRouteBalancingConfigs;
+  // keyed by the path of the proxy route
+  private final Map<String, Boolean> proxyRouteCachingEnabled;
+  // keyed by the path of the proxy route
+  private final Map<String, StreamingConfig> proxyRouteStreamingConfigs;
+  // keyed by the path of the proxy route
+  private final Map<String, CompressionConfig> proxyRouteCompressionConfigs;
   private final List<ApiKey> apiKeysConfig;
+  private final ApiKeyAdmissionConfig apiKeyAdmissionConfig;
   private final CoreDatabaseConfig coreDatabaseConfig;
   private final NlpSharedCountConfig nlpSharedCountConfig;
   private final ServiceDeploymentConfig serviceDeploymentConfig;
   private final KubernetesRoutingConfig kubernetesRoutingConfig;
+  private final RouteUpdatesConfig routeUpdatesConfig;
+  private final NlpHealthCheckConfig nlpHealthCheckConfig;
+  private final IpFilteringConfig ipFilteringConfig;
+  private final RateLimitingConfig rateLimitingConfig;
+  private final FleetQuotaConfig fleetQuotaConfig;
+  private final ResponseCacheConfig responseCacheConfig;
+  private final ResponseCompressionConfig responseCompressionConfig;
+  private final MetricsConfig metricsConfig;
+  private final TracingConfig tracingConfig;
   private final ProxyRouteConfig defaultProxyRouteConfig;
+  private final BalancingConfig defaultBalancingConfig;
+  private final boolean defaultCachingEnabled;
+  private final StreamingConfig defaultStreamingConfig;
+  private final CompressionConfig defaultCompressionConfig;
   private final ClientConfig defaultClientConfig;
 
   public NfeConfig(Config config) {
@@ -52,6 +75,35 @@ public class NfeConfig extends ApplicationConfig {
             .stream()
             .map(ProxyRouteConfig::new)
             .collect(Collectors.toList());
+    proxyRouteBalancingConfigs =
+        config
+            .getConfigList("nfe.proxy.routes")
+            .stream()
+            .collect(
+                Collectors.toMap(cfg -> cfg.getString("path"), BalancingConfig::fromConfig));
+    proxyRouteCachingEnabled =
+        config
+            .getConfigList("nfe.proxy.routes")
+            .stream()
+            .collect(
+                Collectors.toMap(
+                    cfg -> cfg.getString("path"), cfg -> cfg.getBoolean("cache.enabled")));
+    proxyRouteStreamingConfigs =
+        config
+            .getConfigList("nfe.proxy.routes")
+            .stream()
+            .collect(
+                Collectors.toMap(
+                    cfg -> cfg.getString("path"),
+                    cfg -> StreamingConfig.fromConfig(cfg.getConfig("streaming"))));
+    proxyRouteCompressionConfigs =
+        config
+            .getConfigList("nfe.proxy.routes")
+            .stream()
+            .collect(
+                Collectors.toMap(
+                    cfg -> cfg.getString("path"),
+                    cfg -> CompressionConfig.fromConfig(cfg.getConfig("compression"))));
 
     gatekeeperConfig = GatekeeperConfig.fromConfig("nfe.gatekeeper", config);
     routeConfig = RoutesConfig.fromConfig("nfe", config);
@@ -68,6 +120,8 @@ public class NfeConfig extends ApplicationConfig {
                         .setKey(cfg.getString("key"))
                         .build())
             .collect(Collectors.toList());
+    this.apiKeyAdmissionConfig =
+        ApiKeyAdmissionConfig.fromConfig(config.getConfig("nfe.apiKeyAdmission"));
 
     this.coreDatabaseConfig = new CoreDatabaseConfig(config.getConfig("nfe.coreDatabase"));
     this.nlpSharedCountConfig = new NlpSharedCountConfig(config.getConfig("nfe.nlpSharedCount"));
@@ -75,7 +129,47 @@ public class NfeConfig extends ApplicationConfig {
         ServiceDeploymentConfig.fromConfig(config.getConfig("nfe.serviceDeployment"));
     this.kubernetesRoutingConfig =
         KubernetesRoutingConfig.fromConfig(config.getConfig("nfe.kubernetesRouting"));
+    this.routeUpdatesConfig = RouteUpdatesConfig.fromConfig(config.getConfig("nfe.routeUpdates"));
+    this.nlpHealthCheckConfig =
+        NlpHealthCheckConfig.fromConfig(config.getConfig("nfe.nlpHealthChecks"));
+    this.ipFilteringConfig = IpFilteringConfig.fromConfig(config.getConfig("nfe.ipFiltering"));
+    this.rateLimitingConfig = RateLimitingConfig.fromConfig(config.getConfig("nfe.rateLimiting"));
+    this.fleetQuotaConfig =
+        FleetQuotaConfig.fromConfig(config.getConfig("nfe.rateLimiting.fleet"));
+    this.responseCacheConfig =
+        ResponseCacheConfig.fromConfig(config.getConfig("nfe.responseCache"));
+    this.responseCompressionConfig =
+        ResponseCompressionConfig.fromConfig(config.getConfig("nfe.responseCompression"));
+    this.metricsConfig = MetricsConfig.fromConfig(config.getConfig("nfe.metrics"));
+    this.tracingConfig = TracingConfig.fromConfig(config.getConfig("nfe.tracing"));
     this.defaultProxyRouteConfig = new ProxyRouteConfig(config.getConfig("nfe.proxyRouteTemplate"));
+    this.defaultBalancingConfig =
+        BalancingConfig.fromConfig(config.getConfig("nfe.proxyRouteTemplate"));
+    this.defaultCachingEnabled = config.getBoolean("nfe.proxyRouteTemplate.cache.enabled");
+    this.defaultStreamingConfig =
+        StreamingConfig.fromConfig(config.getConfig("nfe.proxyRouteTemplate.streaming"));
+    this.defaultCompressionConfig =
+        CompressionConfig.fromConfig(config.getConfig("nfe.proxyRouteTemplate.compression"));
     this.defaultClientConfig = ClientConfig.from(config.getConfig("nfe.nlpClient"));
   }
+
+  /** The balancing config of a proxy route, the template's for routes not found in config. */
+  public BalancingConfig balancingConfig(ProxyRouteConfig route) {
+    return proxyRouteBalancingConfigs.getOrDefault(route.path(), defaultBalancingConfig);
+  }
+
+  /** Whether the responses of a proxy route are cached, the template's for routes not in config. */
+  public boolean cachingEnabled(ProxyRouteConfig route) {
+    return proxyRouteCachingEnabled.getOrDefault(route.path(), defaultCachingEnabled);
+  }
+
+  /** The streaming config of a proxy route, the template's for routes not found in config. */
+  public StreamingConfig streamingConfig(ProxyRouteConfig route) {
+    return proxyRouteStreamingConfigs.getOrDefault(route.path(), defaultStreamingConfig);
+  }
+
+  /** The compression config of a proxy route, the template's for routes not found in config. */
+  public CompressionConfig compressionConfig(ProxyRouteConfig route) {
+    return proxyRouteCompressionConfigs.getOrDefault(route.path(), defaultCompressionConfig);
+  }
 }
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import com.xjeffrose.xio.SSL.TlsConfig;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class NlpHealthCheckConfig {
+  private final boolean enabled;
+  private final String path;
+  private final boolean useTls;
+  private final TlsConfig tlsConfig;
+  private final long intervalMillis;
+  private final double jitter;
+  private final long timeoutMillis;
+  private final int rise;
+  private final int fall;
+  private final int threads;
+
+  public static NlpHealthCheckConfig fromConfig(Config config) {
+    boolean enabled = config.getBoolean("enabled");
+    String path = config.getString("path");
+    boolean useTls = config.getBoolean("useTls");
+    TlsConfig tlsConfig = TlsConfig.fromConfig("tls", config);
+    long intervalMillis = config.getDuration("interval", TimeUnit.MILLISECONDS);
+    double jitter = config.getDouble("jitter");
+    long timeoutMillis = config.getDuration("timeout", TimeUnit.MILLISECONDS);
+    int rise = config.getInt("rise");
+    int fall = config.getInt("fall");
+    int threads = config.getInt("threads");
+
+    return new NlpHealthCheckConfig(
+        enabled,
+        path,
+        useTls,
+        tlsConfig,
+        intervalMillis,
+        jitter,
+        timeoutMillis,
+        rise,
+        fall,
+        threads);
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** When the endpoints of a proxy route are temporarily taken out of rotation. */
+@Getter
+@RequiredArgsConstructor
+public class OutlierDetectionConfig {
+  private final boolean enabled;
+  private final int consecutiveErrors;
+  private final int consecutiveSlowResponses;
+  private final double slowResponseFactor;
+  private final long slowResponseMinimumNanos;
+  private final long baseEjectionNanos;
+  private final long maxEjectionNanos;
+  private final int maxEjectedPercent;
+
+  public static OutlierDetectionConfig fromConfig(Config config) {
+    boolean enabled = config.getBoolean("enabled");
+    int consecutiveErrors = config.getInt("consecutiveErrors");
+    int consecutiveSlowResponses = config.getInt("consecutiveSlowResponses");
+    double slowResponseFactor = config.getDouble("slowResponseFactor");
+    long slowResponseMinimumNanos =
+        config.getDuration("slowResponseMinimum", TimeUnit.NANOSECONDS);
+    long baseEjectionNanos = config.getDuration("baseEjectionTime", TimeUnit.NANOSECONDS);
+    long maxEjectionNanos = config.getDuration("maxEjectionTime", TimeUnit.NANOSECONDS);
+    int maxEjectedPercent = config.getInt("maxEjectedPercent");
+
+    return new OutlierDetectionConfig(
+        enabled,
+        consecutiveErrors,
+        consecutiveSlowResponses,
+        slowResponseFactor,
+        slowResponseMinimumNanos,
+        baseEjectionNanos,
+        maxEjectionNanos,
+        maxEjectedPercent);
+  }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** How hard responses are compressed, given how busy the host is. */
+@Getter
+@RequiredArgsConstructor
+public class ResponseCompressionConfig {
+  private final int maxLevel;
+  private final int minLevel;
+  private final double cpuLowWatermark;
+  private final double cpuHighWatermark;
+
+  public static ResponseCompressionConfig fromConfig(Config config) {
+    int maxLevel = config.getInt("maxLevel");
+    int minLevel = config.getInt("minLevel");
+    double cpuLowWatermark = config.getDouble("cpuLowWatermark");
+    double cpuHighWatermark = config.getDouble("cpuHighWatermark");
+
+    return new ResponseCompressionConfig(maxLevel, minLevel, cpuLowWatermark, cpuHighWatermark);
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.google.common.collect.ImmutableSet;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * When the requests of a proxy route are sent to another endpoint after a failure, or hedged. Only
+ * methods whose requests carry no body may be retried, the body is gone once the first attempt
+ * has been sent.
+ */
+@Getter
+@RequiredArgsConstructor
+public class RetryConfig {
+  private static final Set<HttpMethod> BODILESS_METHODS =
+      ImmutableSet.of(HttpMethod.GET, HttpMethod.HEAD, HttpMethod.OPTIONS, HttpMethod.TRACE);
+
+  public static final RetryConfig DISABLED =
+      new RetryConfig(
+          false, ImmutableSet.of(), 1, false, 0, 0, TimeUnit.SECONDS.toNanos(10), false, 0.95, 0);
+
+  private final boolean enabled;
+  private final Set<HttpMethod> methods;
+  private final int maxAttempts;
+  private final boolean retryUnavailable;
+  private final double budgetRatio;
+  private final int minRetriesPerSecond;
+  private final long budgetWindowNanos;
+  private final boolean hedgingEnabled;
+  private final double hedgingPercentile;
+  private final long hedgingMinDelayNanos;
+
+  /** Reads the 'retry' section of a proxy route's balancing config. */
+  public static RetryConfig fromConfig(Config config) {
+    boolean enabled = config.getBoolean("enabled");
+    Set<HttpMethod> methods =
+        config
+            .getStringList("methods")
+            .stream()
+            .map(HttpMethod::valueOf)
+            .collect(Collectors.toSet());
+    for (HttpMethod method : methods) {
+      if (!BODILESS_METHODS.contains(method)) {
+        throw new ConfigException.BadValue(
+            config.origin(), "methods", method + " requests carry a body and can't be retried");
+      }
+    }
+    int maxAttempts = config.getInt("maxAttempts");
+    boolean retryUnavailable = config.getBoolean("retryUnavailable");
+    double budgetRatio = config.getDouble("budget.ratio");
+    int minRetriesPerSecond = config.getInt("budget.minRetriesPerSecond");
+    long budgetWindowNanos = config.getDuration("budget.window", TimeUnit.NANOSECONDS);
+    boolean hedgingEnabled = config.getBoolean("hedging.enabled");
+    double hedgingPercentile = config.getDouble("hedging.percentile") / 100;
+    long hedgingMinDelayNanos = config.getDuration("hedging.minDelay", TimeUnit.NANOSECONDS);
+
+    return new RetryConfig(
+        enabled,
+        methods,
+        maxAttempts,
+        retryUnavailable,
+        budgetRatio,
+        minRetriesPerSecond,
+        budgetWindowNanos,
+        hedgingEnabled,
+        hedgingPercentile,
+        hedgingMinDelayNanos);
+  }
+
+  /** Whether a request with this method may be sent more than once. */
+  public boolean isRetryable(HttpMethod method) {
+    return (enabled || hedgingEnabled) && methods.contains(method);
+  }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class RouteUpdatesConfig {
+  private final long coalesceWindowMillis;
+  private final int maxBatchSize;
+
+  public static RouteUpdatesConfig fromConfig(Config config) {
+    long coalesceWindowMillis = config.getDuration("coalesceWindow", TimeUnit.MILLISECONDS);
+    int maxBatchSize = config.getInt("maxBatchSize");
+
+    return new RouteUpdatesConfig(coalesceWindowMillis, maxBatchSize);
+  }
+}
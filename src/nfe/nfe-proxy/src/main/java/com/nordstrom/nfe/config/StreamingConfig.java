@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** Whether the bodies of a proxy route are streamed with backpressure, and how much at once. */
+@Getter
+@RequiredArgsConstructor
+public class StreamingConfig {
+  public static final StreamingConfig DISABLED = new StreamingConfig(false, 0);
+
+  private final boolean enabled;
+  private final long maxInFlightBytes;
+
+  /** Reads the 'streaming' section of a proxy route config. */
+  public static StreamingConfig fromConfig(Config config) {
+    boolean enabled = config.getBoolean("enabled");
+    long maxInFlightBytes = config.getBytes("maxInFlightBytes");
+
+    return new StreamingConfig(enabled, maxInFlightBytes);
+  }
+}
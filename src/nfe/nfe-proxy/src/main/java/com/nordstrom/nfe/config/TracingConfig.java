@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.config;
+
+import com.typesafe.config.Config;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/** Whether requests are traced, how many of them, and where their spans are reported. */
+@Getter
+@RequiredArgsConstructor
+public class TracingConfig {
+  private final boolean enabled;
+  private final String serviceName;
+  private final String zipkinUrl;
+  private final double tracesPerSecond;
+  private final int maxQueuedSpans;
+  private final int batchSize;
+  private final long flushIntervalMillis;
+
+  public static TracingConfig fromConfig(Config config) {
+    boolean enabled = config.getBoolean("enabled");
+    String serviceName = config.getString("serviceName");
+    String zipkinUrl = config.getString("zipkinUrl");
+    double tracesPerSecond = config.getDouble("tracesPerSecond");
+    int maxQueuedSpans = config.getInt("maxQueuedSpans");
+    int batchSize = config.getInt("batchSize");
+    long flushIntervalMillis = config.getDuration("flushInterval", TimeUnit.MILLISECONDS);
+
+    return new TracingConfig(
+        enabled,
+        serviceName,
+        zipkinUrl,
+        tracesPerSecond,
+        maxQueuedSpans,
+        batchSize,
+        flushIntervalMillis);
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ipfilter;
+
+import com.google.common.net.InetAddresses;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * An IP address as the 128 bits that {@link CidrTrie} walks, most significant bit first. IPv4
+ * addresses take up the top 32 bits of {@link #high()}. A key is made once per connection, so
+ * checking each request of the connection needs no allocation.
+ */
+public class AddressKey {
+  private final long high;
+  private final long low;
+  private final boolean ipv4;
+
+  AddressKey(long high, long low, boolean ipv4) {
+    this.high = high;
+    this.low = low;
+    this.ipv4 = ipv4;
+  }
+
+  public static AddressKey of(InetAddress address) {
+    byte[] bytes = address.getAddress();
+    if (address instanceof Inet4Address) {
+      return new AddressKey(bits(bytes, 0, 4) << 32, 0, true);
+    }
+    return new AddressKey(bits(bytes, 0, 8), bits(bytes, 8, 8), false);
+  }
+
+  /** Parses a literal address, never doing a DNS lookup. */
+  public static AddressKey parse(String address) {
+    return of(InetAddresses.forString(address));
+  }
+
+  private static long bits(byte[] bytes, int offset, int length) {
+    long bits = 0;
+    for (int i = offset; i < offset + length; i++) {
+      bits = (bits << 8) | (bytes[i] & 0xff);
+    }
+    return bits;
+  }
+
+  public long high() {
+    return high;
+  }
+
+  public long low() {
+    return low;
+  }
+
+  public boolean isIpv4() {
+    return ipv4;
+  }
+
+  /** The number of bits in an address of this family. */
+  public int width() {
+    return ipv4 ? 32 : 128;
+  }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ipfilter;
+
+/**
+ * Longest prefix match of addresses against CIDR blocks in a path compressed binary (Patricia)
+ * trie. Each node holds a prefix, branching happens only where prefixes diverge, so a lookup takes
+ * at most one step per address bit (32 for IPv4, 128 for IPv6) and usually far fewer.
+ *
+ * <p>The trie is built from mutable nodes and then compiled into flat arrays indexed by node, so
+ * a lookup walks primitive arrays and never allocates. A compiled trie is immutable, a change in
+ * the filters builds a new one.
+ */
+public class CidrTrie {
+  public static final int NO_MATCH = -1;
+  public static final int DENY = 0;
+  public static final int ALLOW = 1;
+
+  public static final CidrTrie EMPTY = new Builder().build();
+
+  private final long[] highs;
+  private final long[] lows;
+  private final int[] lengths;
+  private final int[] zeros;
+  private final int[] ones;
+  private final byte[] values;
+
+  private CidrTrie(int size) {
+    highs = new long[size];
+    lows = new long[size];
+    lengths = new int[size];
+    zeros = new int[size];
+    ones = new int[size];
+    values = new byte[size];
+  }
+
+  public int size() {
+    return values.length;
+  }
+
+  /** The value of the longest prefix holding the address, or NO_MATCH. */
+  public int find(long high, long low) {
+    int match = NO_MATCH;
+    int node = values.length == 0 ? -1 : 0;
+    while (node >= 0) {
+      int length = lengths[node];
+      if (((high ^ highs[node]) & highMask(length)) != 0
+          || ((low ^ lows[node]) & lowMask(length)) != 0) {
+        break;
+      }
+      if (values[node] != NO_MATCH) {
+        match = values[node];
+      }
+      if (length == 128) {
+        break;
+      }
+      node = bit(high, low, length) == 0 ? zeros[node] : ones[node];
+    }
+    return match;
+  }
+
+  public int find(AddressKey address) {
+    return find(address.high(), address.low());
+  }
+
+  private static long highMask(int length) {
+    return length == 0 ? 0 : length >= 64 ? -1L : -1L << (64 - length);
+  }
+
+  private static long lowMask(int length) {
+    return length <= 64 ? 0 : length == 128 ? -1L : -1L << (128 - length);
+  }
+
+  private static int bit(long high, long low, int index) {
+    return (int) (index < 64 ? high >>> (63 - index) : low >>> (127 - index)) & 1;
+  }
+
+  private static int commonLength(long high, long low, long otherHigh, long otherLow) {
+    long diff = high ^ otherHigh;
+    if (diff != 0) {
+      return Long.numberOfLeadingZeros(diff);
+    }
+    return 64 + Long.numberOfLeadingZeros(low ^ otherLow);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private Node root;
+    private int size;
+
+    /**
+     * Adds a block of addresses, the first length bits of the key. When a block is added both
+     * allowed and denied, it is denied.
+     */
+    public Builder add(AddressKey key, int length, boolean allow) {
+      if (length < 0 || length > key.width()) {
+        throw new IllegalArgumentException("Invalid prefix length " + length);
+      }
+      long high = key.high() & highMask(length);
+      long low = key.low() & lowMask(length);
+      root = insert(root, high, low, length, allow ? ALLOW : DENY);
+      return this;
+    }
+
+    private Node insert(Node node, long high, long low, int length, int value) {
+      if (node == null) {
+        size++;
+        return new Node(high, low, length, value);
+      }
+
+      int common =
+          Math.min(Math.min(length, node.length), commonLength(high, low, node.high, node.low));
+      if (common == node.length) {
+        if (length == node.length) {
+          node.value = node.value == NO_MATCH ? value : Math.min(node.value, value);
+        } else if (bit(high, low, common) == 0) {
+          node.zero = insert(node.zero, high, low, length, value);
+        } else {
+          node.one = insert(node.one, high, low, length, value);
+        }
+        return node;
+      }
+
+      // the new block and the node diverge (or the new block holds the node), split there
+      size++;
+      Node parent =
+          new Node(high & highMask(common), low & lowMask(common), common, NO_MATCH);
+      parent.attach(node);
+      if (common == length) {
+        parent.value = value;
+      } else {
+        size++;
+        parent.attach(new Node(high, low, length, value));
+      }
+      return parent;
+    }
+
+    public CidrTrie build() {
+      CidrTrie trie = new CidrTrie(size);
+      if (root != null) {
+        compile(trie, root, 0, new int[] {1});
+      }
+      return trie;
+    }
+
+    /** Lays the nodes out depth first, a node's zero child is the next index. */
+    private static void compile(CidrTrie trie, Node node, int index, int[] next) {
+      trie.highs[index] = node.high;
+      trie.lows[index] = node.low;
+      trie.lengths[index] = node.length;
+      trie.values[index] = (byte) node.value;
+      trie.zeros[index] = -1;
+      trie.ones[index] = -1;
+      if (node.zero != null) {
+        int child = next[0]++;
+        trie.zeros[index] = child;
+        compile(trie, node.zero, child, next);
+      }
+      if (node.one != null) {
+        int child = next[0]++;
+        trie.ones[index] = child;
+        compile(trie, node.one, child, next);
+      }
+    }
+  }
+
+  private static class Node {
+    private final long high;
+    private final long low;
+    private final int length;
+    private int value;
+    private Node zero;
+    private Node one;
+
+    Node(long high, long low, int length, int value) {
+      this.high = high;
+      this.low = low;
+      this.length = length;
+      this.value = value;
+    }
+
+    void attach(Node child) {
+      if (bit(child.high, child.low, length) == 0) {
+        zero = child;
+      } else {
+        one = child;
+      }
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ipfilter;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.FORBIDDEN;
+
+import com.nordstrom.nfe.RejectedStreams;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.RoutePartial;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Applies the IP filters of the routed service, the first thing after routing so that blocked
+ * clients are answered with a 403 before any rate limiting, Gatekeeper call or upstream work.
+ *
+ * <p>The client address is turned into a trie key once per channel, checking a request is then a
+ * map lookup and a trie walk. An instance of this handler is created per channel.
+ */
+@Slf4j
+public class IpFilterHandler extends ChannelInboundHandlerAdapter {
+  private final IpFilters ipFilters;
+
+  // streams that were blocked but have not yet seen their last message
+  private final RejectedStreams blockedStreams = new RejectedStreams();
+  @Nullable private AddressKey client;
+  private boolean clientResolved;
+
+  public IpFilterHandler(IpFilters ipFilters) {
+    this.ipFilters = ipFilters;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (!(msg instanceof RoutePartial)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+
+    if (blockedStreams.drain(msg)) {
+      // the stream was already answered with a 403, drop the rest of it
+      return;
+    }
+
+    Request request = ((RoutePartial) msg).request();
+    if (request.startOfMessage() && !isAllowed(ctx, ((RoutePartial) msg).route().path())) {
+      block(ctx, msg, request);
+      return;
+    }
+
+    ctx.fireChannelRead(msg);
+  }
+
+  private boolean isAllowed(ChannelHandlerContext ctx, String routePath) {
+    ServiceIpFilter filter = ipFilters.forRoutePath(routePath);
+    if (filter == null) {
+      return true;
+    }
+
+    if (!clientResolved) {
+      client = clientAddress(ctx.channel().remoteAddress());
+      clientResolved = true;
+    }
+    return client == null || filter.isAllowed(client);
+  }
+
+  private void block(ChannelHandlerContext ctx, Object msg, Request request) {
+    log.debug("Blocked {} from {}", request.path(), ctx.channel().remoteAddress());
+    ipFilters.recordBlocked();
+    blockedStreams.reject(ctx, msg, FORBIDDEN);
+  }
+
+  @Nullable
+  private static AddressKey clientAddress(SocketAddress address) {
+    if (address instanceof InetSocketAddress) {
+      InetAddress inetAddress = ((InetSocketAddress) address).getAddress();
+      return inetAddress != null ? AddressKey.of(inetAddress) : null;
+    }
+    return null;
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    blockedStreams.clear();
+    super.channelInactive(ctx);
+  }
+}
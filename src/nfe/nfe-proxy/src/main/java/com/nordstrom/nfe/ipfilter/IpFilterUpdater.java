@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ipfilter;
+
+import com.nordstrom.gtm.ipfilter.ListAppIpFiltersResponse;
+import com.nordstrom.nfe.CoreDataService;
+import com.nordstrom.nfe.config.IpFilteringConfig;
+import com.nordstrom.nfe.routing.RouteGeneration;
+import com.nordstrom.nfe.routing.RoutedServiceUpdater;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the IP filters of the routed services up to date. Every refresh interval the filters of
+ * each service the current proxy routes lead to are read from the core data service, and the
+ * services whose filters changed are recompiled. A service whose lookup failed keeps its last
+ * known filters.
+ */
+public class IpFilterUpdater extends RoutedServiceUpdater<ListAppIpFiltersResponse> {
+  private final IpFilters ipFilters;
+  private final CoreDataService coreDataService;
+
+  public IpFilterUpdater(
+      IpFilteringConfig config,
+      IpFilters ipFilters,
+      CoreDataService coreDataService,
+      Supplier<RouteGeneration> routeGeneration) {
+    super("ip-filters", config.isEnabled(), config.getRefreshIntervalMillis(), routeGeneration);
+    this.ipFilters = ipFilters;
+    this.coreDataService = coreDataService;
+  }
+
+  @Override
+  protected Map<String, ListAppIpFiltersResponse> lookUp(Set<String> serviceNames) {
+    return coreDataService.getIpFilters(serviceNames);
+  }
+
+  @Override
+  protected void update(String serviceName, ListAppIpFiltersResponse filters) {
+    ipFilters.update(serviceName, filters);
+  }
+
+  @Override
+  protected void publish(Map<String, String> serviceNamesByRoutePath) {
+    ipFilters.publish(serviceNamesByRoutePath);
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ipfilter;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.nordstrom.gtm.ipfilter.ListAppIpFiltersResponse;
+import com.nordstrom.nfe.routing.RoutedServices;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The compiled IP filters of the services the NFE routes to, looked up by route path on every
+ * request. A service's trie is only rebuilt when its filters change, everything else carries over
+ * from one refresh to the next. That includes services that allow every address, which are kept
+ * but not published.
+ */
+@Slf4j
+public class IpFilters {
+  private final RoutedServices<ServiceIpFilter> services = new RoutedServices<>();
+  private final LongAdder blockedCount = new LongAdder();
+
+  /** The filter of the service a route leads to, null when the service is not filtered. */
+  @Nullable
+  public ServiceIpFilter forRoutePath(String routePath) {
+    return services.forRoutePath(routePath);
+  }
+
+  @VisibleForTesting
+  ServiceIpFilter forService(String serviceName) {
+    return services.get(serviceName);
+  }
+
+  /** Total number of requests blocked. */
+  public long getBlockedCount() {
+    return blockedCount.sum();
+  }
+
+  /** Number of services with filters. */
+  public int getFilteredServiceCount() {
+    return (int) services.values().stream().filter(filter -> !filter.allowsAll()).count();
+  }
+
+  void recordBlocked() {
+    blockedCount.increment();
+  }
+
+  /** Sets the filters of a service, compiling them only if they changed. */
+  public void update(String serviceName, ListAppIpFiltersResponse filters) {
+    ServiceIpFilter current = services.get(serviceName);
+    if (current != null && current.source().equals(filters)) {
+      return;
+    }
+
+    ServiceIpFilter filter = ServiceIpFilter.build(serviceName, filters);
+    if (!filter.allowsAll()) {
+      log.info(
+          "Filtering {} with {} ip filters, default allow {}",
+          serviceName,
+          filters.getIpFilterKeyToIpFilterCount(),
+          filters.getIsDefaultAllow());
+    }
+    services.put(serviceName, filter);
+  }
+
+  /**
+   * Publishes which services the routes lead to (keyed by route path). Services that no route
+   * leads to anymore are forgotten.
+   */
+  public void publish(Map<String, String> serviceNamesByRoutePath) {
+    services.publish(serviceNamesByRoutePath, filter -> !filter.allowsAll());
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ipfilter;
+
+import com.nordstrom.gtm.ipfilter.IpFilter;
+import com.nordstrom.gtm.ipfilter.ListAppIpFiltersResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The IP filters of one service compiled into a trie per address family. The most specific
+ * matching filter decides, addresses that no filter matches get the service's default.
+ */
+@Slf4j
+public class ServiceIpFilter {
+  private final ListAppIpFiltersResponse source;
+  private final CidrTrie ipv4;
+  private final CidrTrie ipv6;
+  private final boolean defaultAllow;
+
+  private ServiceIpFilter(
+      ListAppIpFiltersResponse source, CidrTrie ipv4, CidrTrie ipv6, boolean defaultAllow) {
+    this.source = source;
+    this.ipv4 = ipv4;
+    this.ipv6 = ipv6;
+    this.defaultAllow = defaultAllow;
+  }
+
+  /** Compiles the enabled filters of a service, filters with an invalid CIDR are left out. */
+  public static ServiceIpFilter build(String serviceName, ListAppIpFiltersResponse filters) {
+    CidrTrie.Builder ipv4 = CidrTrie.builder();
+    CidrTrie.Builder ipv6 = CidrTrie.builder();
+    for (IpFilter filter : filters.getIpFilterKeyToIpFilterMap().values()) {
+      if (filter.getIsDisabled()) {
+        continue;
+      }
+      try {
+        String cidr = filter.getCidrAddress();
+        int slash = cidr.indexOf('/');
+        AddressKey key = AddressKey.parse(slash < 0 ? cidr : cidr.substring(0, slash));
+        int length = slash < 0 ? key.width() : Integer.parseInt(cidr.substring(slash + 1));
+        (key.isIpv4() ? ipv4 : ipv6).add(key, length, filter.getType() == IpFilter.Type.ALLOW);
+      } catch (IllegalArgumentException e) {
+        log.warn("Ignoring ip filter {} of {}", filter.getCidrAddress(), serviceName, e);
+      }
+    }
+
+    return new ServiceIpFilter(filters, ipv4.build(), ipv6.build(), filters.getIsDefaultAllow());
+  }
+
+  /** The filters this was compiled from. */
+  ListAppIpFiltersResponse source() {
+    return source;
+  }
+
+  /**
+   * Whether every address is allowed, that is no filter is enabled and the service allows by
+   * default. A service that denies by default and has no enabled filter admits no address.
+   */
+  public boolean allowsAll() {
+    return defaultAllow && ipv4.size() == 0 && ipv6.size() == 0;
+  }
+
+  public boolean isAllowed(AddressKey address) {
+    int value = (address.isIpv4() ? ipv4 : ipv6).find(address);
+    return value == CidrTrie.NO_MATCH ? defaultAllow : value == CidrTrie.ALLOW;
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latencies recorded from any thread without locking or allocating, in microseconds, exact within
+ * 1% up to a minute (longer ones are counted as a minute).
+ *
+ * <p>Recording goes to an HdrHistogram {@link Recorder}. Reading swaps out what was recorded since
+ * the previous read and adds it to the totals, which only ever grow.
+ */
+public class LatencyHistogram {
+  static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+  private static final int SIGNIFICANT_DIGITS = 2;
+
+  private final Recorder recorder = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+  private final LongAdder sumMicros = new LongAdder();
+  // only touched while holding the lock of this histogram
+  private final Histogram total = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+  private Histogram interval;
+
+  public void record(long latencyNanos) {
+    long micros = Math.min(Math.max(latencyNanos / 1000, 0), HIGHEST_MICROS);
+    recorder.recordValue(micros);
+    sumMicros.add(micros);
+  }
+
+  /** Everything recorded so far. */
+  public synchronized Histogram snapshot() {
+    interval = recorder.getIntervalHistogram(interval);
+    total.add(interval);
+    return total.copy();
+  }
+
+  /** The sum of everything recorded so far, in microseconds. */
+  public long sumMicros() {
+    return sumMicros.sum();
+  }
+}
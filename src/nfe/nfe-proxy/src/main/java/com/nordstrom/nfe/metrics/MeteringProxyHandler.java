@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import com.nordstrom.nfe.balancing.ForwardingChannelHandlerContext;
+import com.nordstrom.nfe.balancing.HandlerContexts;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.collection.IntObjectHashMap;
+import java.util.ArrayDeque;
+import javax.annotation.Nullable;
+
+/**
+ * Meters the requests of a route: how long they take until the end of their response, how many
+ * bytes go each way and the status of the responses.
+ *
+ * <p>Metering runs on the event loops for every request, so it does not allocate. The streams
+ * being timed are kept in a primitive map per channel and their timers are reused from one request
+ * to the next, the counts go to {@link java.util.concurrent.atomic.LongAdder}s and the latencies to
+ * an HdrHistogram recorder.
+ */
+public class MeteringProxyHandler implements PipelineRequestHandler {
+  // the streams left when the channel closes are never answered, they are not timed
+  private static final HandlerContexts<MeteringProxyHandler, MeteringContext> CONTEXTS =
+      new HandlerContexts<>(
+          MeteringProxyHandler.class,
+          (ctx, handler) -> new MeteringContext(ctx),
+          MeteringContext::clear);
+
+  private final PipelineRequestHandler delegate;
+  private final RouteMetrics metrics;
+
+  public MeteringProxyHandler(PipelineRequestHandler delegate, RouteMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  /** The proxy handler whose requests are metered. */
+  public PipelineRequestHandler delegate() {
+    return delegate;
+  }
+
+  public RouteMetrics metrics() {
+    return metrics;
+  }
+
+  @Override
+  public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+    MeteringContext meteringCtx = context(ctx);
+    if (request.startOfMessage()) {
+      meteringCtx.requestStarted(request.streamId(), metrics);
+    }
+    ByteBuf content = content(request);
+    if (content != null) {
+      metrics.recordRequestBytes(content.readableBytes());
+    }
+    delegate.handle(meteringCtx, request, route);
+  }
+
+  /** The context the requests of this handler on the channel of ctx are metered with. */
+  MeteringContext context(ChannelHandlerContext ctx) {
+    return CONTEXTS.get(ctx, this);
+  }
+
+  @Nullable
+  private static ByteBuf content(Request request) {
+    if (request instanceof SegmentedData) {
+      return ((SegmentedData) request).content();
+    }
+    return request.body();
+  }
+
+  /** A request being timed, reused for another one once its response has ended. */
+  private static class Timer {
+    private RouteMetrics metrics;
+    private long startNanos;
+  }
+
+  /**
+   * Metering of the responses, wrapping the context the proxy handler writes its responses to. The
+   * streams are guarded by the context's lock, only ever contended by the two event loops.
+   */
+  static class MeteringContext extends ForwardingChannelHandlerContext {
+    private final IntObjectHashMap<Timer> timers = new IntObjectHashMap<>(4);
+    private final ArrayDeque<Timer> idle = new ArrayDeque<>(4);
+
+    private MeteringContext(ChannelHandlerContext delegate) {
+      super(delegate);
+    }
+
+    synchronized void requestStarted(int streamId, RouteMetrics metrics) {
+      Timer timer = idle.poll();
+      if (timer == null) {
+        timer = new Timer();
+      }
+      timer.metrics = metrics;
+      timer.startNanos = System.nanoTime();
+      Timer previous = timers.put(streamId, timer);
+      if (previous != null) {
+        idle.push(previous);
+      }
+    }
+
+    private synchronized void clear() {
+      timers.clear();
+      idle.clear();
+    }
+
+    @Override
+    public ChannelFuture write(Object msg, ChannelPromise promise) {
+      observe(msg);
+      return super.write(msg, promise);
+    }
+
+    @Override
+    public ChannelFuture writeAndFlush(Object msg, ChannelPromise promise) {
+      observe(msg);
+      return super.writeAndFlush(msg, promise);
+    }
+
+    /** Records a part of a response written back. */
+    synchronized void observe(Object msg) {
+      int streamId;
+      ByteBuf content;
+      boolean end;
+      if (msg instanceof Response) {
+        Response response = (Response) msg;
+        streamId = response.streamId();
+        content = response.body();
+        end = response.endOfMessage();
+        if (response.startOfMessage()) {
+          Timer timer = timers.get(streamId);
+          if (timer != null) {
+            timer.metrics.recordStatus(response.status().code());
+          }
+        }
+      } else if (msg instanceof SegmentedData) {
+        SegmentedData data = (SegmentedData) msg;
+        streamId = data.streamId();
+        content = data.content();
+        end = data.endOfMessage();
+      } else {
+        return;
+      }
+
+      Timer timer = end ? timers.remove(streamId) : timers.get(streamId);
+      if (timer == null) {
+        return;
+      }
+      if (content != null) {
+        timer.metrics.recordResponseBytes(content.readableBytes());
+      }
+      if (end) {
+        timer.metrics.latency().record(System.nanoTime() - timer.startNanos);
+        timer.metrics = null;
+        idle.push(timer);
+      }
+    }
+  }
+}
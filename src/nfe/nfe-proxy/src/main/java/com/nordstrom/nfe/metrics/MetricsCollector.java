@@ -0,0 +1,615 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import com.nordstrom.nfe.CoreDataService;
+import com.nordstrom.nfe.GatekeeperAuthorizationCache;
+import com.nordstrom.nfe.GatekeeperClientProxy;
+import com.nordstrom.nfe.GrpcClientMetrics;
+import com.nordstrom.nfe.NfeState;
+import com.nordstrom.nfe.RouteStates;
+import com.nordstrom.nfe.apikey.ApiKeyAdmission;
+import com.nordstrom.nfe.balancing.BalancingProxyHandler;
+import com.nordstrom.nfe.balancing.ConcurrencyLimiter;
+import com.nordstrom.nfe.balancing.ConcurrencyLimitingProxyHandler;
+import com.nordstrom.nfe.balancing.Endpoint;
+import com.nordstrom.nfe.caching.CachingProxyHandler;
+import com.nordstrom.nfe.caching.ResponseCache;
+import com.nordstrom.nfe.compression.CompressingProxyHandler;
+import com.nordstrom.nfe.compression.ResponseCompressor;
+import com.nordstrom.nfe.ipfilter.IpFilters;
+import com.nordstrom.nfe.nlpmanagement.NlpHealthChecker;
+import com.nordstrom.nfe.ratelimiting.FleetQuotas;
+import com.nordstrom.nfe.ratelimiting.RateLimits;
+import com.nordstrom.nfe.ratelimiting.ServiceRateLimiter;
+import com.nordstrom.nfe.streaming.StreamingProxyHandler;
+import com.nordstrom.nfe.tracing.AdaptiveSampler;
+import com.nordstrom.nfe.tracing.SpanReporter;
+import com.nordstrom.nfe.tracing.Tracer;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.RouteState;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
+
+/**
+ * Gathers the metrics of the NFE into Prometheus text: the metered routes and endpoints, and the
+ * counters kept by the rest of the NFE (route updates, response cache and compression, Gatekeeper
+ * and core database calls, NLP health checks, rate limits, IP filters, API key admission and
+ * tracing).
+ *
+ * <p>The parts of a route (balancing, concurrency limit, streaming) are found by unwrapping its
+ * proxy handler. Nothing here runs on the event loops.
+ */
+public class MetricsCollector {
+  private static final String COUNTER = "counter";
+  private static final String GAUGE = "gauge";
+  private static final String HISTOGRAM = "histogram";
+
+  private final NfeMetrics metrics;
+  private final NfeState nfeState;
+  private final RouteStates routeStates;
+  private final CoreDataService coreDataService;
+  private final GatekeeperClientProxy gatekeeperClient;
+  private final NlpHealthChecker nlpHealthChecker;
+  private final RateLimits rateLimits;
+  private final FleetQuotas fleetQuotas;
+  private final IpFilters ipFilters;
+  private final ApiKeyAdmission apiKeyAdmission;
+  private final Tracer tracer;
+
+  public MetricsCollector(
+      NfeMetrics metrics,
+      NfeState nfeState,
+      RouteStates routeStates,
+      CoreDataService coreDataService,
+      GatekeeperClientProxy gatekeeperClient,
+      NlpHealthChecker nlpHealthChecker,
+      RateLimits rateLimits,
+      FleetQuotas fleetQuotas,
+      IpFilters ipFilters,
+      ApiKeyAdmission apiKeyAdmission,
+      Tracer tracer) {
+    this.metrics = metrics;
+    this.nfeState = nfeState;
+    this.routeStates = routeStates;
+    this.coreDataService = coreDataService;
+    this.gatekeeperClient = gatekeeperClient;
+    this.nlpHealthChecker = nlpHealthChecker;
+    this.rateLimits = rateLimits;
+    this.fleetQuotas = fleetQuotas;
+    this.ipFilters = ipFilters;
+    this.apiKeyAdmission = apiKeyAdmission;
+    this.tracer = tracer;
+  }
+
+  /** Every metric of the NFE, in Prometheus text format. */
+  public String scrape() {
+    List<ProxyRoute> routes = proxyRoutes();
+    PrometheusWriter writer = new PrometheusWriter();
+    writeRoutes(writer, routes);
+    writeEndpoints(writer, routes);
+    writeRouteUpdates(writer);
+    writeResponseCache(writer);
+    writeResponseCompression(writer);
+    writeGatekeeper(writer);
+    writeCoreDatabase(writer);
+    writeNlpHealthChecks(writer);
+    writeRateLimits(writer);
+    writeIpFilters(writer);
+    writeApiKeyAdmission(writer);
+    writeTracing(writer);
+    return writer.toString();
+  }
+
+  /** The proxy routes currently routed, dropping the metrics of the ones that are gone. */
+  private List<ProxyRoute> proxyRoutes() {
+    List<ProxyRoute> routes = new ArrayList<>();
+    Map<String, Set<InetSocketAddress>> routed = new HashMap<>();
+    for (Map.Entry<String, RouteState> entry : nfeState.getRoutes().entrySet()) {
+      ProxyRoute route = new ProxyRoute(entry.getKey(), entry.getValue().handler());
+      if (route.balancing == null) {
+        // not a proxy route, e.g. a gRPC service
+        continue;
+      }
+      routes.add(route);
+      Set<InetSocketAddress> addresses = new HashSet<>();
+      for (Endpoint endpoint : route.balancing.endpoints()) {
+        addresses.add(endpoint.address());
+      }
+      routed.put(route.path, addresses);
+    }
+    metrics.retain(routed);
+    return routes;
+  }
+
+  private void writeRoutes(PrometheusWriter writer, List<ProxyRoute> routes) {
+    List<Long> buckets = metrics.config().getLatencyBucketsMicros();
+    writer.family(
+        "nfe_route_request_duration_seconds",
+        HISTOGRAM,
+        "Time from the start of a request until the end of its response.");
+    for (ProxyRoute route : routes) {
+      if (route.metering != null) {
+        writer.histogram(
+            "nfe_route_request_duration_seconds",
+            route.metering.metrics().latency(),
+            buckets,
+            "route",
+            route.path);
+      }
+    }
+
+    writer.family("nfe_route_responses_total", COUNTER, "Responses, by status class.");
+    for (ProxyRoute route : routes) {
+      if (route.metering != null) {
+        for (int statusClass = 1; statusClass <= 5; statusClass++) {
+          writer.sample(
+              "nfe_route_responses_total",
+              route.metering.metrics().getResponseCount(statusClass),
+              "route",
+              route.path,
+              "code",
+              statusClass + "xx");
+        }
+      }
+    }
+
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_request_bytes_total",
+        COUNTER,
+        "Bytes of request body received.",
+        route -> route.metering,
+        metering -> metering.metrics().getRequestBytes());
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_response_bytes_total",
+        COUNTER,
+        "Bytes of response body sent, after compression.",
+        route -> route.metering,
+        metering -> metering.metrics().getResponseBytes());
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_retries_total",
+        COUNTER,
+        "Requests sent again to another endpoint after a failure.",
+        route -> route.balancing,
+        BalancingProxyHandler::getRetryCount);
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_hedges_total",
+        COUNTER,
+        "Requests also sent to another endpoint because the first one was slow.",
+        route -> route.balancing,
+        BalancingProxyHandler::getHedgeCount);
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_retry_budget_exhausted_total",
+        COUNTER,
+        "Retries and hedges not made because the retry budget was spent.",
+        route -> route.balancing,
+        BalancingProxyHandler::getRetryBudgetExhaustedCount);
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_ejections_total",
+        COUNTER,
+        "Endpoints taken out of rotation by outlier detection.",
+        route -> route.balancing,
+        balancing -> balancing.outlierDetector().getEjectionCount());
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_ejected_endpoints",
+        GAUGE,
+        "Endpoints currently out of rotation.",
+        route -> route.balancing,
+        balancing -> balancing.outlierDetector().getEjectedCount());
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_concurrency_limit",
+        GAUGE,
+        "Requests allowed in flight.",
+        route -> route.limiter,
+        ConcurrencyLimiter::getLimit);
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_concurrency_in_flight",
+        GAUGE,
+        "Requests in flight.",
+        route -> route.limiter,
+        ConcurrencyLimiter::getInFlight);
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_concurrency_rejected_total",
+        COUNTER,
+        "Requests answered with a 503 for being over the concurrency limit.",
+        route -> route.limiter,
+        ConcurrencyLimiter::getRejectedCount);
+    routeFamily(
+        writer,
+        routes,
+        "nfe_route_streaming_pauses_total",
+        COUNTER,
+        "Times a client connection stopped being read to let its bodies drain.",
+        route -> route.streaming,
+        StreamingProxyHandler::getPauseCount);
+  }
+
+  private static <T> void routeFamily(
+      PrometheusWriter writer,
+      List<ProxyRoute> routes,
+      String name,
+      String type,
+      String help,
+      Function<ProxyRoute, T> part,
+      ToLongFunction<T> value) {
+    writer.family(name, type, help);
+    for (ProxyRoute route : routes) {
+      T t = part.apply(route);
+      if (t != null) {
+        writer.sample(name, value.applyAsLong(t), "route", route.path);
+      }
+    }
+  }
+
+  private void writeEndpoints(PrometheusWriter writer, List<ProxyRoute> routes) {
+    List<Long> buckets = metrics.config().getLatencyBucketsMicros();
+    writer.family(
+        "nfe_endpoint_response_latency_seconds",
+        HISTOGRAM,
+        "Time from sending a request to an endpoint until the start of its response.");
+    for (ProxyRoute route : routes) {
+      for (Endpoint endpoint : route.balancing.endpoints()) {
+        if (endpoint.latencyHistogram() != null) {
+          writer.histogram(
+              "nfe_endpoint_response_latency_seconds",
+              endpoint.latencyHistogram(),
+              buckets,
+              "route",
+              route.path,
+              "endpoint",
+              endpoint.toString());
+        }
+      }
+    }
+
+    endpointFamily(
+        writer,
+        routes,
+        "nfe_endpoint_requests_total",
+        COUNTER,
+        "Requests sent to the endpoint.",
+        Endpoint::requestCount);
+    endpointFamily(
+        writer,
+        routes,
+        "nfe_endpoint_errors_total",
+        COUNTER,
+        "5xx responses and connect failures of the endpoint.",
+        Endpoint::errorCount);
+    endpointFamily(
+        writer,
+        routes,
+        "nfe_endpoint_outstanding",
+        GAUGE,
+        "Requests waiting on the endpoint.",
+        Endpoint::outstanding);
+    endpointFamily(
+        writer,
+        routes,
+        "nfe_endpoint_ejected",
+        GAUGE,
+        "1 while the endpoint is out of rotation.",
+        endpoint -> endpoint.isEjected() ? 1 : 0);
+  }
+
+  private static void endpointFamily(
+      PrometheusWriter writer,
+      List<ProxyRoute> routes,
+      String name,
+      String type,
+      String help,
+      ToLongFunction<Endpoint> value) {
+    writer.family(name, type, help);
+    for (ProxyRoute route : routes) {
+      for (Endpoint endpoint : route.balancing.endpoints()) {
+        writer.sample(
+            name,
+            value.applyAsLong(endpoint),
+            "route",
+            route.path,
+            "endpoint",
+            endpoint.toString());
+      }
+    }
+  }
+
+  private void writeRouteUpdates(PrometheusWriter writer) {
+    writer
+        .family("nfe_routes", GAUGE, "Routes in the current route generation.")
+        .sample("nfe_routes", nfeState.getRoutes().size())
+        .family("nfe_route_updates_queued", GAUGE, "Route changes waiting to be applied.")
+        .sample("nfe_route_updates_queued", routeStates.getQueueDepth())
+        .family("nfe_route_updates_total", COUNTER, "Route changes applied.")
+        .sample("nfe_route_updates_total", routeStates.getMutationCount())
+        .family("nfe_route_publishes_total", COUNTER, "Route generations published.")
+        .sample("nfe_route_publishes_total", routeStates.getPublishCount())
+        .family(
+            "nfe_route_publish_seconds_total",
+            COUNTER,
+            "Time spent building and publishing route generations.")
+        .sample("nfe_route_publish_seconds_total", routeStates.getPublishNanos() / 1e9)
+        .family(
+            "nfe_route_last_publish_seconds",
+            GAUGE,
+            "Time spent building and publishing the latest route generation.")
+        .sample("nfe_route_last_publish_seconds", routeStates.getLastPublishNanos() / 1e9)
+        .family("nfe_route_last_batch_size", GAUGE, "Route changes in the latest batch.")
+        .sample("nfe_route_last_batch_size", routeStates.getLastBatchSize());
+  }
+
+  private void writeResponseCache(PrometheusWriter writer) {
+    ResponseCache cache = routeStates.getResponseCache();
+    writer
+        .family("nfe_response_cache_hits_total", COUNTER, "Requests answered from the cache.")
+        .sample("nfe_response_cache_hits_total", cache.getHitCount())
+        .family(
+            "nfe_response_cache_stale_hits_total",
+            COUNTER,
+            "Stale responses served while they were being revalidated.")
+        .sample("nfe_response_cache_stale_hits_total", cache.getStaleHitCount())
+        .family("nfe_response_cache_misses_total", COUNTER, "Cacheable requests sent upstream.")
+        .sample("nfe_response_cache_misses_total", cache.getMissCount())
+        .family(
+            "nfe_response_cache_revalidations_total",
+            COUNTER,
+            "Stale responses upstream confirmed with a 304.")
+        .sample("nfe_response_cache_revalidations_total", cache.getRevalidationCount())
+        .family("nfe_response_cache_evictions_total", COUNTER, "Responses evicted for space.")
+        .sample("nfe_response_cache_evictions_total", cache.getEvictionCount())
+        .family("nfe_response_cache_bytes", GAUGE, "Size of the responses held.")
+        .sample("nfe_response_cache_bytes", cache.getSizeBytes())
+        .family("nfe_response_cache_entries", GAUGE, "Responses held.")
+        .sample("nfe_response_cache_entries", cache.getEntryCount());
+  }
+
+  private void writeResponseCompression(PrometheusWriter writer) {
+    ResponseCompressor compressor = routeStates.getResponseCompressor();
+    writer
+        .family(
+            "nfe_response_compression_level",
+            GAUGE,
+            "Level responses are compressed at, 0 while the host is too busy.")
+        .sample("nfe_response_compression_level", compressor.getLevel())
+        .family("nfe_response_compression_responses_total", COUNTER, "Responses compressed.")
+        .sample("nfe_response_compression_responses_total", compressor.getCompressedCount())
+        .family(
+            "nfe_response_compression_busy_skipped_total",
+            COUNTER,
+            "Responses left uncompressed because the host was too busy.")
+        .sample("nfe_response_compression_busy_skipped_total", compressor.getBusySkippedCount())
+        .family("nfe_response_compression_bytes_in_total", COUNTER, "Bytes compressed.")
+        .sample("nfe_response_compression_bytes_in_total", compressor.getBytesIn())
+        .family("nfe_response_compression_bytes_out_total", COUNTER, "Bytes compressed into.")
+        .sample("nfe_response_compression_bytes_out_total", compressor.getBytesOut())
+        .family("nfe_response_compression_seconds_total", COUNTER, "Time spent compressing.")
+        .sample("nfe_response_compression_seconds_total", compressor.getCompressionNanos() / 1e9);
+  }
+
+  private void writeGatekeeper(PrometheusWriter writer) {
+    GatekeeperAuthorizationCache cache = gatekeeperClient.getAuthorizationCache();
+    writer
+        .family(
+            "nfe_gatekeeper_request_duration_seconds",
+            HISTOGRAM,
+            "Time taken by Gatekeeper authorization requests.")
+        .histogram(
+            "nfe_gatekeeper_request_duration_seconds",
+            gatekeeperClient.getAuthorizationLatency(),
+            metrics.config().getLatencyBucketsMicros())
+        .family(
+            "nfe_gatekeeper_cache_hits_total",
+            COUNTER,
+            "Authorizations answered from the decision cache.")
+        .sample("nfe_gatekeeper_cache_hits_total", cache.hitCount())
+        .family("nfe_gatekeeper_cache_misses_total", COUNTER, "Authorizations sent to Gatekeeper.")
+        .sample("nfe_gatekeeper_cache_misses_total", cache.missCount())
+        .family("nfe_gatekeeper_cache_evictions_total", COUNTER, "Decisions evicted for space.")
+        .sample("nfe_gatekeeper_cache_evictions_total", cache.evictionCount())
+        .family("nfe_gatekeeper_cache_entries", GAUGE, "Decisions held.")
+        .sample("nfe_gatekeeper_cache_entries", cache.size());
+  }
+
+  private void writeCoreDatabase(PrometheusWriter writer) {
+    GrpcClientMetrics calls = coreDataService.getMetrics();
+    writer
+        .family("nfe_coredb_calls_in_flight", GAUGE, "Core database calls in flight.")
+        .sample("nfe_coredb_calls_in_flight", calls.inFlightCount())
+        .family("nfe_coredb_calls_total", COUNTER, "Core database calls completed, by result.")
+        .sample("nfe_coredb_calls_total", calls.succeededCount(), "result", "ok")
+        .sample("nfe_coredb_calls_total", calls.failedCount(), "result", "error")
+        .family(
+            "nfe_coredb_call_seconds_total",
+            COUNTER,
+            "Time spent in completed core database calls.")
+        .sample("nfe_coredb_call_seconds_total", calls.latencyNanos() / 1e9);
+  }
+
+  private void writeNlpHealthChecks(PrometheusWriter writer) {
+    writer
+        .family("nfe_nlp_health_check_targets", GAUGE, "NLPs health checked.")
+        .sample("nfe_nlp_health_check_targets", nlpHealthChecker.getTargetCount())
+        .family("nfe_nlp_health_check_unhealthy", GAUGE, "NLPs failing their health checks.")
+        .sample("nfe_nlp_health_check_unhealthy", nlpHealthChecker.getUnhealthyCount())
+        .family("nfe_nlp_health_check_probes_total", COUNTER, "Health check probes sent.")
+        .sample("nfe_nlp_health_check_probes_total", nlpHealthChecker.getProbeCount())
+        .family("nfe_nlp_health_check_failed_probes_total", COUNTER, "Health check probes failed.")
+        .sample("nfe_nlp_health_check_failed_probes_total", nlpHealthChecker.getFailedProbeCount());
+  }
+
+  private void writeRateLimits(PrometheusWriter writer) {
+    writer
+        .family("nfe_rate_limit_fleet_members", GAUGE, "Live NFEs the rate limits are shared by.")
+        .sample("nfe_rate_limit_fleet_members", fleetQuotas.getMemberCount());
+    serviceFamily(
+        writer,
+        "nfe_rate_limit_requests_per_second",
+        GAUGE,
+        "Requests per second the service is limited to.",
+        ServiceRateLimiter::getRequestsPerSecond);
+    serviceFamily(
+        writer,
+        "nfe_rate_limit_local_requests_per_second",
+        GAUGE,
+        "Requests per second this NFE lets through to the service.",
+        ServiceRateLimiter::getLocalRequestsPerSecond);
+    serviceFamily(
+        writer,
+        "nfe_rate_limit_rejected_requests_total",
+        COUNTER,
+        "Requests answered with a 429 for being over the service's rate.",
+        ServiceRateLimiter::getRejectedRequests);
+    serviceFamily(
+        writer,
+        "nfe_rate_limit_rejected_connections_total",
+        COUNTER,
+        "Requests answered with a 429 for a client holding too many connections.",
+        ServiceRateLimiter::getRejectedConnections);
+  }
+
+  private void serviceFamily(
+      PrometheusWriter writer,
+      String name,
+      String type,
+      String help,
+      ToLongFunction<ServiceRateLimiter> value) {
+    writer.family(name, type, help);
+    for (ServiceRateLimiter limiter : rateLimits.limiters()) {
+      writer.sample(name, value.applyAsLong(limiter), "service", limiter.getServiceName());
+    }
+  }
+
+  private void writeIpFilters(PrometheusWriter writer) {
+    writer
+        .family("nfe_ip_filter_blocked_total", COUNTER, "Requests blocked by IP filters.")
+        .sample("nfe_ip_filter_blocked_total", ipFilters.getBlockedCount())
+        .family("nfe_ip_filter_services", GAUGE, "Services with IP filters.")
+        .sample("nfe_ip_filter_services", ipFilters.getFilteredServiceCount());
+  }
+
+  private void writeApiKeyAdmission(PrometheusWriter writer) {
+    writer
+        .family(
+            "nfe_api_key_admitted_total",
+            COUNTER,
+            "API keys found in the admission filter and passed on to Gatekeeper.")
+        .sample("nfe_api_key_admitted_total", apiKeyAdmission.getAdmittedCount())
+        .family(
+            "nfe_api_key_rejected_total", COUNTER, "API keys rejected without asking Gatekeeper.")
+        .sample("nfe_api_key_rejected_total", apiKeyAdmission.getRejectedCount())
+        .family("nfe_api_key_filter_keys", GAUGE, "API keys in the admission filter.")
+        .sample("nfe_api_key_filter_keys", apiKeyAdmission.getKeyCount())
+        .family("nfe_api_key_filter_bytes", GAUGE, "Memory taken by the admission filter.")
+        .sample("nfe_api_key_filter_bytes", apiKeyAdmission.getSizeInBytes())
+        .family("nfe_api_key_filter_routes", GAUGE, "Routes whose API keys are checked.")
+        .sample("nfe_api_key_filter_routes", apiKeyAdmission.getRouteCount())
+        .family(
+            "nfe_api_key_filter_target_false_positive_rate",
+            GAUGE,
+            "False positive rate the admission filter is sized for.")
+        .sample(
+            "nfe_api_key_filter_target_false_positive_rate",
+            apiKeyAdmission.getTargetFalsePositiveRate())
+        .family(
+            "nfe_api_key_filter_false_positive_rate",
+            GAUGE,
+            "Estimated chance that a key never issued passes the admission filter.")
+        .sample(
+            "nfe_api_key_filter_false_positive_rate",
+            apiKeyAdmission.getEstimatedFalsePositiveRate());
+  }
+
+  private void writeTracing(PrometheusWriter writer) {
+    if (!tracer.isEnabled()) {
+      return;
+    }
+    AdaptiveSampler sampler = tracer.sampler();
+    SpanReporter reporter = tracer.reporter();
+    writer
+        .family(
+            "nfe_tracing_sample_probability",
+            GAUGE,
+            "Probability of tracing a request that arrives without a sampling decision.")
+        .sample("nfe_tracing_sample_probability", sampler.probability())
+        .family("nfe_tracing_spans_reported_total", COUNTER, "Spans accepted by Zipkin.")
+        .sample("nfe_tracing_spans_reported_total", reporter.getReportedCount())
+        .family("nfe_tracing_spans_dropped_total", COUNTER, "Spans dropped, the queue was full.")
+        .sample("nfe_tracing_spans_dropped_total", reporter.getDroppedCount())
+        .family("nfe_tracing_spans_failed_total", COUNTER, "Spans that could not be sent.")
+        .sample("nfe_tracing_spans_failed_total", reporter.getFailedCount());
+  }
+
+  /** The parts of a proxy route, found by unwrapping its handler. */
+  private static class ProxyRoute {
+    private final String path;
+    @Nullable private MeteringProxyHandler metering;
+    @Nullable private StreamingProxyHandler streaming;
+    @Nullable private ConcurrencyLimiter limiter;
+    @Nullable private BalancingProxyHandler balancing;
+
+    ProxyRoute(String path, PipelineRequestHandler handler) {
+      this.path = path;
+      while (handler != null) {
+        if (handler instanceof MeteringProxyHandler) {
+          metering = (MeteringProxyHandler) handler;
+          handler = metering.delegate();
+        } else if (handler instanceof CompressingProxyHandler) {
+          handler = ((CompressingProxyHandler) handler).delegate();
+        } else if (handler instanceof CachingProxyHandler) {
+          handler = ((CachingProxyHandler) handler).delegate();
+        } else if (handler instanceof StreamingProxyHandler) {
+          streaming = (StreamingProxyHandler) handler;
+          handler = streaming.delegate();
+        } else if (handler instanceof ConcurrencyLimitingProxyHandler) {
+          limiter = ((ConcurrencyLimitingProxyHandler) handler).limiter();
+          handler = ((ConcurrencyLimitingProxyHandler) handler).delegate();
+        } else {
+          if (handler instanceof BalancingProxyHandler) {
+            balancing = (BalancingProxyHandler) handler;
+          }
+          handler = null;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static io.netty.handler.codec.http.HttpResponseStatus.METHOD_NOT_ALLOWED;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.nordstrom.nfe.config.MetricsConfig;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The admin HTTP server Prometheus scrapes the NFE metrics from. It runs on an event loop of its
+ * own, so that scraping never competes with the proxy for an event loop, and answers a GET of the
+ * configured path with {@link MetricsCollector#scrape()}.
+ */
+@Slf4j
+public class MetricsServer {
+  private static final int MAX_REQUEST_BYTES = 8192;
+
+  private final MetricsConfig config;
+  private final MetricsCollector collector;
+  private final EventLoopGroup group;
+  private Channel channel;
+
+  public MetricsServer(MetricsConfig config, MetricsCollector collector) {
+    this.config = config;
+    this.collector = collector;
+    this.group = new NioEventLoopGroup(1, new DefaultThreadFactory("nfe-metrics", true));
+  }
+
+  public void start() {
+    if (!config.isEnabled()) {
+      return;
+    }
+    channel =
+        new ServerBootstrap()
+            .group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(
+                new ChannelInitializer<SocketChannel>() {
+                  @Override
+                  protected void initChannel(SocketChannel ch) {
+                    ch.pipeline()
+                        .addLast(new HttpServerCodec())
+                        .addLast(new HttpObjectAggregator(MAX_REQUEST_BYTES))
+                        .addLast(new ScrapeHandler());
+                  }
+                })
+            .bind(config.getBindHost(), config.getPort())
+            .syncUninterruptibly()
+            .channel();
+    log.info("Serving metrics on {}{}", channel.localAddress(), config.getPath());
+  }
+
+  public void shutdown() {
+    if (channel != null) {
+      channel.close().syncUninterruptibly();
+    }
+    group.shutdownGracefully();
+  }
+
+  private class ScrapeHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+      String path = new QueryStringDecoder(request.uri()).path();
+      FullHttpResponse response;
+      if (!path.equals(config.getPath())) {
+        response = response(NOT_FOUND, Unpooled.EMPTY_BUFFER);
+      } else if (!HttpMethod.GET.equals(request.method())) {
+        response = response(METHOD_NOT_ALLOWED, Unpooled.EMPTY_BUFFER);
+      } else {
+        try {
+          response = response(OK, Unpooled.copiedBuffer(collector.scrape(), UTF_8));
+        } catch (RuntimeException e) {
+          log.error("Unable to collect metrics", e);
+          response = response(INTERNAL_SERVER_ERROR, Unpooled.EMPTY_BUFFER);
+        }
+      }
+
+      if (HttpUtil.isKeepAlive(request)) {
+        HttpUtil.setKeepAlive(response, true);
+        ctx.writeAndFlush(response);
+      } else {
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+      }
+    }
+
+    private FullHttpResponse response(HttpResponseStatus status, ByteBuf body) {
+      FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, status, body);
+      response.headers().set(HttpHeaderNames.CONTENT_TYPE, PrometheusWriter.CONTENT_TYPE);
+      HttpUtil.setContentLength(response, body.readableBytes());
+      return response;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import com.nordstrom.nfe.config.MetricsConfig;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The metrics of the proxy routes and their endpoints, by route path. Routes get theirs when they
+ * are built, so that a route rebuilt for a change of NLPs keeps counting where it left off; the
+ * metrics of paths (and endpoints) no longer routed are dropped on the next scrape.
+ */
+public class NfeMetrics {
+  private final MetricsConfig config;
+  private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+  private final Map<String, Map<InetSocketAddress, LatencyHistogram>> endpoints =
+      new ConcurrentHashMap<>();
+
+  public NfeMetrics(MetricsConfig config) {
+    this.config = config;
+  }
+
+  public MetricsConfig config() {
+    return config;
+  }
+
+  public RouteMetrics route(String path) {
+    return routes.computeIfAbsent(path, p -> new RouteMetrics());
+  }
+
+  /** The latency of an endpoint of a route, from the request until the start of the response. */
+  public LatencyHistogram endpointLatency(String path, InetSocketAddress address) {
+    return endpoints
+        .computeIfAbsent(path, p -> new ConcurrentHashMap<>())
+        .computeIfAbsent(address, a -> new LatencyHistogram());
+  }
+
+  /**
+   * Drops the metrics of the paths that are not routed anymore, and of the endpoints that left
+   * their route.
+   *
+   * @param routed the endpoints of every path routed.
+   */
+  void retain(Map<String, Set<InetSocketAddress>> routed) {
+    routes.keySet().retainAll(routed.keySet());
+    endpoints.keySet().retainAll(routed.keySet());
+    endpoints.forEach((path, latencies) -> latencies.keySet().retainAll(routed.get(path)));
+  }
+}
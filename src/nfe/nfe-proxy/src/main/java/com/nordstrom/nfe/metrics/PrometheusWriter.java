@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import java.util.List;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4). Every sample of a
+ * family has to be written right after the family.
+ */
+public class PrometheusWriter {
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final StringBuilder out = new StringBuilder(16 * 1024);
+
+  /** Starts a family of samples, of type counter, gauge or histogram. */
+  public PrometheusWriter family(String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ');
+    for (int i = 0; i < help.length(); i++) {
+      char c = help.charAt(i);
+      if (c == '\\') {
+        out.append("\\\\");
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    return this;
+  }
+
+  /** @param labels label names and values, alternating. */
+  public PrometheusWriter sample(String name, long value, String... labels) {
+    labels(name, labels, null, null);
+    out.append(' ').append(value).append('\n');
+    return this;
+  }
+
+  /** @param labels label names and values, alternating. */
+  public PrometheusWriter sample(String name, double value, String... labels) {
+    labels(name, labels, null, null);
+    out.append(' ');
+    if (Double.isNaN(value)) {
+      out.append("NaN");
+    } else if (Double.isInfinite(value)) {
+      out.append(value > 0 ? "+Inf" : "-Inf");
+    } else {
+      out.append(value);
+    }
+    out.append('\n');
+    return this;
+  }
+
+  /**
+   * Writes the samples of a latency histogram, recorded in microseconds, as cumulative buckets of
+   * seconds.
+   *
+   * @param labels label names and values, alternating.
+   */
+  public PrometheusWriter histogram(
+      String name, LatencyHistogram latency, List<Long> bucketsMicros, String... labels) {
+    // the sum is read first, it may only fall behind the counts
+    long sumMicros = latency.sumMicros();
+    Histogram histogram = latency.snapshot();
+    for (long bucketMicros : bucketsMicros) {
+      labels(name + "_bucket", labels, "le", seconds(bucketMicros));
+      out.append(' ').append(histogram.getCountBetweenValues(0, bucketMicros)).append('\n');
+    }
+    labels(name + "_bucket", labels, "le", "+Inf");
+    out.append(' ').append(histogram.getTotalCount()).append('\n');
+    sample(name + "_sum", sumMicros / 1e6, labels);
+    sample(name + "_count", histogram.getTotalCount(), labels);
+    return this;
+  }
+
+  private void labels(String name, String[] labels, String extraName, String extraValue) {
+    out.append(name);
+    if (labels.length == 0 && extraName == null) {
+      return;
+    }
+    out.append('{');
+    for (int i = 0; i < labels.length; i += 2) {
+      label(labels[i], labels[i + 1]);
+      out.append(',');
+    }
+    if (extraName != null) {
+      label(extraName, extraValue);
+    } else {
+      out.setLength(out.length() - 1);
+    }
+    out.append('}');
+  }
+
+  private void label(String name, String value) {
+    out.append(name).append("=\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\') {
+        out.append("\\\\");
+      } else if (c == '"') {
+        out.append("\\\"");
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+
+  private static String seconds(long micros) {
+    return Double.toString(micros / 1e6);
+  }
+
+  @Override
+  public String toString() {
+    return out.toString();
+  }
+}
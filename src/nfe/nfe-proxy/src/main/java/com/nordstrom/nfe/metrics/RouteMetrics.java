@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a proxy route has been metered for: the latency of its requests, the bytes of its requests
+ * and responses and its responses per status class. Kept per route path, so it lives on across
+ * rebuilds of the route.
+ */
+public class RouteMetrics {
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LongAdder requestBytes = new LongAdder();
+  private final LongAdder responseBytes = new LongAdder();
+  // index is the first digit of the status
+  private final LongAdder[] responses = new LongAdder[6];
+
+  public RouteMetrics() {
+    for (int i = 0; i < responses.length; i++) {
+      responses[i] = new LongAdder();
+    }
+  }
+
+  /** From the start of the request until the end of its response. */
+  public LatencyHistogram latency() {
+    return latency;
+  }
+
+  public long getRequestBytes() {
+    return requestBytes.sum();
+  }
+
+  public long getResponseBytes() {
+    return responseBytes.sum();
+  }
+
+  /**
+   * Number of responses in a status class.
+   *
+   * @param statusClass the first digit of the status, 1 to 5.
+   */
+  public long getResponseCount(int statusClass) {
+    return responses[statusClass].sum();
+  }
+
+  void recordRequestBytes(int bytes) {
+    requestBytes.add(bytes);
+  }
+
+  void recordResponseBytes(int bytes) {
+    responseBytes.add(bytes);
+  }
+
+  void recordStatus(int status) {
+    int statusClass = status / 100;
+    if (statusClass >= 1 && statusClass <= 5) {
+      responses[statusClass].increment();
+    }
+  }
+}
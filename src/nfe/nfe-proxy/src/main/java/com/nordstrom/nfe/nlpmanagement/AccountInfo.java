@@ -17,8 +17,10 @@ package com.nordstrom.nfe.nlpmanagement;
 
 import java.util.ArrayList;
 import java.util.List;
+import lombok.EqualsAndHashCode;
 import lombok.ToString;
 
+@EqualsAndHashCode
 @ToString
 public class AccountInfo {
   private List<String> ipAddresses;
@@ -25,7 +25,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
@@ -38,6 +39,10 @@ public class CustomerAccountNlpDeploymentWatcher {
   private final CoreDataService coreDataService;
 
   private boolean zkClientHasInitialized = false;
+  // the NLPs reported by the TreeCache before it finished loading
+  private final TreeCacheSnapshot initialSnapshot = new TreeCacheSnapshot();
+  private long startNanos;
+  private volatile long initialLoadMillis = -1;
 
   public CustomerAccountNlpDeploymentWatcher(
       RouteStates routeStates,
@@ -51,6 +56,7 @@ public class CustomerAccountNlpDeploymentWatcher {
   }
 
   public void start() {
+    startNanos = System.nanoTime();
     zkClient.registerForTreeNodeEvents(
         CustomerAccountNlpDeploymentGrpcService.CUSTOMER_ACCOUNT_NLP_AWS_BASE_PATH,
         treeCacheEvent -> {
@@ -65,7 +71,7 @@ public class CustomerAccountNlpDeploymentWatcher {
               handleNodeRemoved(treeCacheEvent);
               break;
             case NODE_UPDATED:
-              handleNodeUpdated();
+              handleNodeUpdated(treeCacheEvent);
               break;
             case CONNECTION_SUSPENDED:
               log.debug("zookeeper sent 'CONNECTION_SUSPENDED: " + treeCacheEvent.toString());
@@ -80,36 +86,49 @@ public class CustomerAccountNlpDeploymentWatcher {
         });
   }
 
+  /**
+   * Adds every NLP the TreeCache loaded. The data comes from the cache's initial events rather
+   * than from Zookeeper, so startup does not make a round trip per NLP.
+   */
   private void handleInitialized() {
     zkClientHasInitialized = true;
-    String baseUrl = CustomerAccountNlpDeploymentGrpcService.CUSTOMER_ACCOUNT_NLP_AWS_BASE_PATH;
-
-    List<String> childPaths = new ArrayList<>();
-    for (String accountId :
-        ZookeeperHelpers.safeGetChildren(zkClient, ZookeeperHelpers.pathFromComponents(baseUrl))) {
-      for (String instanceId :
-          ZookeeperHelpers.safeGetChildren(
-              zkClient, ZookeeperHelpers.pathFromComponents(baseUrl, accountId))) {
-        childPaths.add(ZookeeperHelpers.pathFromComponents(baseUrl, accountId, instanceId));
-      }
-    }
 
     List<CustomerAccountNlpZookeeperInfo> customerAccountNlpZookeeperInfos =
-        childPaths
-            .stream()
-            .map(
-                (info) ->
-                    ZookeeperHelpers.infoAtZookeeperPath(
-                        zkClient, objectMapper, info, CustomerAccountNlpZookeeperInfo.class))
-            .filter(Optional::isPresent)
-            .map(Optional::get)
-            .collect(Collectors.toList());
+        initialSnapshot.drain(
+            objectMapper,
+            CustomerAccountNlpZookeeperInfo.class,
+            this::isNlpZookeeperChildNodePath);
+    log.info(
+        "loaded {} customer account NLPs from zookeeper in {} ms",
+        customerAccountNlpZookeeperInfos.size(),
+        elapsedMillis());
+
+    Supplier<List<NlpInstanceEntry>> entriesSupplier =
+        nlpInstanceEntriesSupplier(customerAccountNlpZookeeperInfos);
+    routeStates.addCustomerAccountNlpInstances(
+        () -> {
+          List<NlpInstanceEntry> entries = entriesSupplier.get();
+          initialLoadMillis = elapsedMillis();
+          log.info(
+              "customer account NLP routes ready {} ms after start ({} NLPs)",
+              initialLoadMillis,
+              entries.size());
+          return entries;
+        });
+  }
 
-    bulkAddNlps(customerAccountNlpZookeeperInfos);
+  /** Milliseconds from start until the initial NLPs were handed to the routes, or -1. */
+  public long getInitialLoadMillis() {
+    return initialLoadMillis;
+  }
+
+  private long elapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
   }
 
   private void handleNodeAdded(TreeCacheEvent treeCacheEvent) {
     if (!zkClientHasInitialized) {
+      initialSnapshot.record(treeCacheEvent);
       return;
     }
 
@@ -133,6 +152,7 @@ public class CustomerAccountNlpDeploymentWatcher {
 
   private void handleNodeRemoved(TreeCacheEvent treeCacheEvent) {
     if (!zkClientHasInitialized) {
+      initialSnapshot.record(treeCacheEvent);
       return;
     }
 
@@ -154,8 +174,9 @@ public class CustomerAccountNlpDeploymentWatcher {
     }
   }
 
-  private void handleNodeUpdated() {
+  private void handleNodeUpdated(TreeCacheEvent treeCacheEvent) {
     if (!zkClientHasInitialized) {
+      initialSnapshot.record(treeCacheEvent);
       return;
     }
 
@@ -176,36 +197,41 @@ public class CustomerAccountNlpDeploymentWatcher {
 
   private void bulkAddNlps(List<CustomerAccountNlpZookeeperInfo> customerAccountNlpZookeeperInfos) {
     routeStates.addCustomerAccountNlpInstances(
-        () -> {
-          // Get the list of unique account Ids.
-          List<String> uniqueAccountIds =
-              customerAccountNlpZookeeperInfos
-                  .stream()
-                  .map(CustomerAccountNlpZookeeperInfo::getAccountId)
-                  .distinct()
-                  .collect(Collectors.toList());
-
-          // Fetch route paths for each account.
-          Map<String, List<String>> fetchedRoutePathsMap =
-              coreDataService.getCustomerAccountNlpRoutePaths(uniqueAccountIds);
-
-          // Construct the new NLP instance entries.
-          List<NlpInstanceEntry> nlpInstanceEntries = new ArrayList<>();
-          for (CustomerAccountNlpZookeeperInfo customerAccountNlpZookeeperInfo :
-              customerAccountNlpZookeeperInfos) {
-            if (fetchedRoutePathsMap.containsKey(customerAccountNlpZookeeperInfo.getAccountId())) {
-              List<String> routePaths =
-                  fetchedRoutePathsMap.get(customerAccountNlpZookeeperInfo.getAccountId());
-              NlpInstanceEntry entry =
-                  new NlpInstanceEntry(
-                      customerAccountNlpZookeeperInfo.getAccountId(),
-                      customerAccountNlpZookeeperInfo.getIpAddress(),
-                      routePaths);
-              nlpInstanceEntries.add(entry);
-            }
-          }
+        nlpInstanceEntriesSupplier(customerAccountNlpZookeeperInfos));
+  }
 
-          return nlpInstanceEntries;
-        });
+  private Supplier<List<NlpInstanceEntry>> nlpInstanceEntriesSupplier(
+      List<CustomerAccountNlpZookeeperInfo> customerAccountNlpZookeeperInfos) {
+    return () -> {
+      // Get the list of unique account Ids.
+      List<String> uniqueAccountIds =
+          customerAccountNlpZookeeperInfos
+              .stream()
+              .map(CustomerAccountNlpZookeeperInfo::getAccountId)
+              .distinct()
+              .collect(Collectors.toList());
+
+      // Fetch route paths for each account.
+      Map<String, List<String>> fetchedRoutePathsMap =
+          coreDataService.getCustomerAccountNlpRoutePaths(uniqueAccountIds);
+
+      // Construct the new NLP instance entries.
+      List<NlpInstanceEntry> nlpInstanceEntries = new ArrayList<>();
+      for (CustomerAccountNlpZookeeperInfo customerAccountNlpZookeeperInfo :
+          customerAccountNlpZookeeperInfos) {
+        if (fetchedRoutePathsMap.containsKey(customerAccountNlpZookeeperInfo.getAccountId())) {
+          List<String> routePaths =
+              fetchedRoutePathsMap.get(customerAccountNlpZookeeperInfo.getAccountId());
+          NlpInstanceEntry entry =
+              new NlpInstanceEntry(
+                  customerAccountNlpZookeeperInfo.getAccountId(),
+                  customerAccountNlpZookeeperInfo.getIpAddress(),
+                  routePaths);
+          nlpInstanceEntries.add(entry);
+        }
+      }
+
+      return nlpInstanceEntries;
+    };
   }
 }
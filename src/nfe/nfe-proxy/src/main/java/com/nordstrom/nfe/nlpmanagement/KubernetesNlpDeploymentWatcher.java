@@ -20,14 +20,14 @@ import com.nordstrom.nfe.CoreDataService;
 import com.nordstrom.nfe.RouteStates;
 import com.xjeffrose.xio.core.ZkClient;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
@@ -40,6 +40,10 @@ public class KubernetesNlpDeploymentWatcher {
   private final CoreDataService coreDataService;
 
   private boolean zkClientHasInitialized = false;
+  // the K8S nodes reported by the TreeCache before it finished loading
+  private final TreeCacheSnapshot initialSnapshot = new TreeCacheSnapshot();
+  private long startNanos;
+  private volatile long initialLoadMillis = -1;
 
   public KubernetesNlpDeploymentWatcher(
       RouteStates routeStates,
@@ -53,6 +57,7 @@ public class KubernetesNlpDeploymentWatcher {
   }
 
   public void start() {
+    startNanos = System.nanoTime();
     zkClient.registerForTreeNodeEvents(
         KubernetesNlpDeploymentGrpcService.KUBERNETES_NLP_AWS_BASE_PATH,
         treeCacheEvent -> {
@@ -82,40 +87,47 @@ public class KubernetesNlpDeploymentWatcher {
         });
   }
 
+  /**
+   * Adds every K8S node the TreeCache loaded. The data comes from the cache's initial events rather
+   * than from Zookeeper, so startup does not make a round trip per node.
+   */
   private void handleInitialized() {
     zkClientHasInitialized = true;
-    String baseUrl = KubernetesNlpDeploymentGrpcService.KUBERNETES_NLP_AWS_BASE_PATH;
-
-    List<String> childPaths = new ArrayList<>();
-    for (String region :
-        ZookeeperHelpers.safeGetChildren(zkClient, ZookeeperHelpers.pathFromComponents(baseUrl))) {
-      for (String clusterId :
-          ZookeeperHelpers.safeGetChildren(
-              zkClient, ZookeeperHelpers.pathFromComponents(baseUrl, region))) {
-        for (String nodeId :
-            ZookeeperHelpers.safeGetChildren(
-                zkClient, ZookeeperHelpers.pathFromComponents(baseUrl, region, clusterId))) {
-          childPaths.add(ZookeeperHelpers.pathFromComponents(baseUrl, region, clusterId, nodeId));
-        }
-      }
-    }
 
     List<KubernetesNodeZookeeperInfo> kubernetesNodeZookeeperInfos =
-        childPaths
-            .stream()
-            .map(
-                (info) ->
-                    ZookeeperHelpers.infoAtZookeeperPath(
-                        zkClient, objectMapper, info, KubernetesNodeZookeeperInfo.class))
-            .filter(Optional::isPresent)
-            .map(Optional::get)
-            .collect(Collectors.toList());
+        initialSnapshot.drain(
+            objectMapper, KubernetesNodeZookeeperInfo.class, this::isNlpZookeeperChildNodePath);
+    log.info(
+        "loaded {} K8S nodes from zookeeper in {} ms",
+        kubernetesNodeZookeeperInfos.size(),
+        elapsedMillis());
+
+    Supplier<List<KubernetesNodeInfo>> nodeInfosSupplier =
+        nodeInfosSupplier(kubernetesNodeZookeeperInfos);
+    routeStates.addKubernetesNlpInstances(
+        () -> {
+          List<KubernetesNodeInfo> nodeInfos = nodeInfosSupplier.get();
+          initialLoadMillis = elapsedMillis();
+          log.info(
+              "K8S NLP routes ready {} ms after start ({} nodes)",
+              initialLoadMillis,
+              nodeInfos.size());
+          return nodeInfos;
+        });
+  }
+
+  /** Milliseconds from start until the initial K8S nodes were handed to the routes, or -1. */
+  public long getInitialLoadMillis() {
+    return initialLoadMillis;
+  }
 
-    bulkAddNlps(kubernetesNodeZookeeperInfos);
+  private long elapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
   }
 
   private void handleNodeAdded(TreeCacheEvent treeCacheEvent) {
     if (!zkClientHasInitialized) {
+      initialSnapshot.record(treeCacheEvent);
       return;
     }
 
@@ -139,6 +151,7 @@ public class KubernetesNlpDeploymentWatcher {
 
   private void handleNodeRemoved(TreeCacheEvent treeCacheEvent) {
     if (!zkClientHasInitialized) {
+      initialSnapshot.record(treeCacheEvent);
       return;
     }
 
@@ -162,6 +175,7 @@ public class KubernetesNlpDeploymentWatcher {
 
   private void handleNodeUpdated(TreeCacheEvent treeCacheEvent) {
     if (!zkClientHasInitialized) {
+      initialSnapshot.record(treeCacheEvent);
       return;
     }
 
@@ -184,29 +198,33 @@ public class KubernetesNlpDeploymentWatcher {
   }
 
   private void bulkAddNlps(List<KubernetesNodeZookeeperInfo> kubernetesNodeZookeeperInfos) {
-    routeStates.addKubernetesNlpInstances(
-        () -> {
-          List<String> uniqueServiceNames =
-              kubernetesNodeZookeeperInfos
-                  .stream()
-                  .flatMap((zkInfo) -> zkInfo.getKubernetesServiceZookeeperInfos().stream())
-                  .map(KubernetesServiceZookeeperInfo::getName)
-                  .distinct()
-                  .collect(Collectors.toList());
-
-          Map<String, String> fetchedServiceToPathMap;
-          try {
-            fetchedServiceToPathMap = coreDataService.getPathsForServices(uniqueServiceNames);
-          } catch (InterruptedException | ExecutionException e) {
-            log.error("Could not get paths for service names: ", e);
-            return Collections.emptyList();
-          }
+    routeStates.addKubernetesNlpInstances(nodeInfosSupplier(kubernetesNodeZookeeperInfos));
+  }
 
-          return kubernetesNodeZookeeperInfos
+  private Supplier<List<KubernetesNodeInfo>> nodeInfosSupplier(
+      List<KubernetesNodeZookeeperInfo> kubernetesNodeZookeeperInfos) {
+    return () -> {
+      List<String> uniqueServiceNames =
+          kubernetesNodeZookeeperInfos
               .stream()
-              .map((zkInfo) -> nodeInfoFromZookeeperInfo(zkInfo, fetchedServiceToPathMap))
+              .flatMap((zkInfo) -> zkInfo.getKubernetesServiceZookeeperInfos().stream())
+              .map(KubernetesServiceZookeeperInfo::getName)
+              .distinct()
               .collect(Collectors.toList());
-        });
+
+      Map<String, String> fetchedServiceToPathMap;
+      try {
+        fetchedServiceToPathMap = coreDataService.getPathsForServices(uniqueServiceNames);
+      } catch (InterruptedException | ExecutionException e) {
+        log.error("Could not get paths for service names: ", e);
+        return Collections.emptyList();
+      }
+
+      return kubernetesNodeZookeeperInfos
+          .stream()
+          .map((zkInfo) -> nodeInfoFromZookeeperInfo(zkInfo, fetchedServiceToPathMap))
+          .collect(Collectors.toList());
+    };
   }
 
   private KubernetesNodeInfo nodeInfoFromZookeeperInfo(
@@ -16,8 +16,10 @@
 package com.nordstrom.nfe.nlpmanagement;
 
 import java.util.List;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
+@EqualsAndHashCode
 @Getter
 public class KubernetesNodeInfo {
   String uniqueId;
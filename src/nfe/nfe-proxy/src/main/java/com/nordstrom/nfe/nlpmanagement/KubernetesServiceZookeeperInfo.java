@@ -15,7 +15,7 @@
  */
 package com.nordstrom.nfe.nlpmanagement;
 
-import com.nordstrom.gtm.kubernetesdeployment.ServiceInfo;
+import com.nordstrom.gtm.kubernetesdeployment.NodeInfo;
 import lombok.Getter;
 
 @Getter
@@ -28,7 +28,7 @@ public class KubernetesServiceZookeeperInfo {
     this.podCount = podCount;
   }
 
-  public KubernetesServiceZookeeperInfo(ServiceInfo serviceInfo) {
+  public KubernetesServiceZookeeperInfo(NodeInfo.ServiceInfo serviceInfo) {
     this.name = serviceInfo.getName();
     this.podCount = serviceInfo.getNodePodCount();
   }
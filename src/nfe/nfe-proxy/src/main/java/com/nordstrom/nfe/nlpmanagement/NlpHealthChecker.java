@@ -0,0 +1,303 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.nlpmanagement;
+
+import com.nordstrom.nfe.balancing.EndpointHealth;
+import com.nordstrom.nfe.config.NlpHealthCheckConfig;
+import com.xjeffrose.xio.SSL.SslContextFactory;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Actively health checks the NLPs that routes are built for.
+ *
+ * <p>Each NLP is probed on its own jittered schedule with an HTTP GET of the health route. Probes
+ * never block: connecting, the TLS handshake and reading the response all run on a small fixed
+ * group of event loops, so thousands of NLPs cost timers and sockets rather than threads. An NLP
+ * turns unhealthy after 'fall' consecutive failed probes and healthy again after 'rise'
+ * consecutive successful ones. NLPs start out healthy, trusting their Zookeeper registration.
+ *
+ * <p>Results are read through {@link EndpointHealth}, whose version changes on every transition so
+ * that routes can refilter their endpoints without being rebuilt.
+ */
+@Slf4j
+public class NlpHealthChecker implements EndpointHealth {
+  private final NlpHealthCheckConfig config;
+  private final EventLoopGroup group;
+  private final Bootstrap bootstrap;
+  private final SslContext sslContext;
+  private final Map<InetSocketAddress, Target> targets = new ConcurrentHashMap<>();
+  private final AtomicLong version = new AtomicLong();
+  private final LongAdder probeCount = new LongAdder();
+  private final LongAdder failedProbeCount = new LongAdder();
+
+  public NlpHealthChecker(NlpHealthCheckConfig config) {
+    this.config = config;
+    this.group =
+        new NioEventLoopGroup(config.getThreads(), new DefaultThreadFactory("nlp-health", true));
+    this.bootstrap =
+        new Bootstrap()
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.getTimeoutMillis());
+    this.sslContext =
+        config.isUseTls()
+            ? SslContextFactory.buildClientContext(
+                config.getTlsConfig(), InsecureTrustManagerFactory.INSTANCE)
+            : null;
+  }
+
+  /**
+   * Sets the NLPs to health check. New NLPs are first probed at a random point within the
+   * interval so that a large batch of them does not get probed all at once.
+   */
+  public void setTargets(Set<InetSocketAddress> addresses) {
+    if (!config.isEnabled()) {
+      return;
+    }
+
+    targets
+        .values()
+        .removeIf(
+            target -> {
+              if (addresses.contains(target.address)) {
+                return false;
+              }
+              target.cancel();
+              return true;
+            });
+
+    for (InetSocketAddress address : addresses) {
+      targets.computeIfAbsent(
+          address,
+          a -> {
+            Target target = new Target(a, group.next());
+            target.schedule(ThreadLocalRandom.current().nextLong(config.getIntervalMillis() + 1));
+            return target;
+          });
+    }
+  }
+
+  @Override
+  public boolean isHealthy(InetSocketAddress address) {
+    Target target = targets.get(address);
+    return target == null || target.healthy;
+  }
+
+  @Override
+  public long version() {
+    return version.get();
+  }
+
+  public int getTargetCount() {
+    return targets.size();
+  }
+
+  public int getUnhealthyCount() {
+    return (int) targets.values().stream().filter(target -> !target.healthy).count();
+  }
+
+  public long getProbeCount() {
+    return probeCount.sum();
+  }
+
+  public long getFailedProbeCount() {
+    return failedProbeCount.sum();
+  }
+
+  public void shutdown() {
+    targets.values().forEach(Target::cancel);
+    targets.clear();
+    group.shutdownGracefully();
+  }
+
+  private long nextDelayMillis() {
+    double jitter = config.getJitter() * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+    return Math.max(1, (long) (config.getIntervalMillis() * (1 + jitter)));
+  }
+
+  /** The health of one NLP. Everything but 'healthy' is only touched from its event loop. */
+  private class Target {
+    private final InetSocketAddress address;
+    private final EventLoop eventLoop;
+    private volatile boolean healthy = true;
+    private volatile boolean cancelled = false;
+    private int consecutiveSuccesses = 0;
+    private int consecutiveFailures = 0;
+
+    Target(InetSocketAddress address, EventLoop eventLoop) {
+      this.address = address;
+      this.eventLoop = eventLoop;
+    }
+
+    void schedule(long delayMillis) {
+      if (!cancelled) {
+        eventLoop.schedule(this::probe, delayMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    void cancel() {
+      cancelled = true;
+      if (!healthy) {
+        // routes still holding this NLP consider it healthy again
+        version.incrementAndGet();
+      }
+    }
+
+    private void probe() {
+      if (cancelled) {
+        return;
+      }
+      probeCount.increment();
+      Probe probe = new Probe(this);
+      bootstrap
+          .clone(eventLoop)
+          .handler(probe.initializer())
+          .connect(address)
+          .addListener(
+              (ChannelFutureListener)
+                  future -> {
+                    if (!future.isSuccess()) {
+                      probe.finish(false);
+                    }
+                  });
+    }
+
+    void completed(boolean success) {
+      if (success) {
+        consecutiveFailures = 0;
+        consecutiveSuccesses++;
+        if (!healthy && consecutiveSuccesses >= config.getRise()) {
+          healthy = true;
+          version.incrementAndGet();
+          log.info("NLP {} passed {} health checks, back in rotation", address, config.getRise());
+        }
+      } else {
+        failedProbeCount.increment();
+        consecutiveSuccesses = 0;
+        consecutiveFailures++;
+        if (healthy && consecutiveFailures >= config.getFall()) {
+          healthy = false;
+          version.incrementAndGet();
+          log.warn("NLP {} failed {} health checks, out of rotation", address, config.getFall());
+        }
+      }
+      schedule(nextDelayMillis());
+    }
+  }
+
+  /** A single health check request. */
+  private class Probe extends SimpleChannelInboundHandler<HttpObject> {
+    private final Target target;
+    private boolean finished = false;
+
+    Probe(Target target) {
+      this.target = target;
+    }
+
+    ChannelInitializer<Channel> initializer() {
+      return new ChannelInitializer<Channel>() {
+        @Override
+        protected void initChannel(Channel channel) {
+          ChannelPipeline pipeline = channel.pipeline();
+          if (sslContext != null) {
+            SslHandler sslHandler =
+                sslContext.newHandler(
+                    channel.alloc(), target.address.getHostString(), target.address.getPort());
+            sslHandler.setHandshakeTimeoutMillis(config.getTimeoutMillis());
+            pipeline.addLast(sslHandler);
+          }
+          pipeline.addLast(new HttpClientCodec());
+          pipeline.addLast(
+              new ReadTimeoutHandler(config.getTimeoutMillis(), TimeUnit.MILLISECONDS));
+          pipeline.addLast(Probe.this);
+        }
+      };
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+      DefaultFullHttpRequest request =
+          new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, config.getPath());
+      request
+          .headers()
+          .set(HttpHeaderNames.HOST, target.address.getHostString())
+          .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+      ctx.writeAndFlush(request);
+      ctx.fireChannelActive();
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+      if (msg instanceof HttpResponse) {
+        finish(((HttpResponse) msg).status().equals(HttpResponseStatus.OK));
+        ctx.close();
+      }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      finish(false);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      log.debug("Health check of NLP {} failed", target.address, cause);
+      finish(false);
+      ctx.close();
+    }
+
+    /** Runs on the target's event loop, either from the pipeline or from the connect listener. */
+    void finish(boolean success) {
+      if (!finished) {
+        finished = true;
+        target.completed(success);
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.nlpmanagement;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+
+/**
+ * Collects the nodes a TreeCache reports while it loads, so a watcher can build its initial state
+ * from the data the cache already fetched instead of reading every znode again.
+ *
+ * <p>Events are delivered one at a time by the TreeCache, so no synchronization is needed.
+ */
+@Slf4j
+public class TreeCacheSnapshot {
+  // key is the znode path, value is its data
+  private final Map<String, byte[]> dataByPath = new LinkedHashMap<>();
+
+  public void record(TreeCacheEvent treeCacheEvent) {
+    ChildData childData = treeCacheEvent.getData();
+    if (childData == null) {
+      return;
+    }
+
+    switch (treeCacheEvent.getType()) {
+      case NODE_ADDED:
+      case NODE_UPDATED:
+        dataByPath.put(childData.getPath(), childData.getData());
+        break;
+      case NODE_REMOVED:
+        dataByPath.remove(childData.getPath());
+        break;
+      default:
+        break;
+    }
+  }
+
+  public int size() {
+    return dataByPath.size();
+  }
+
+  /**
+   * Deserializes the data of every recorded node whose path is accepted by the filter, in
+   * parallel. Nodes that can't be deserialized are logged and skipped. The snapshot is emptied.
+   */
+  public <T> List<T> drain(ObjectMapper objectMapper, Class<T> tClass, Predicate<String> filter) {
+    List<Map.Entry<String, byte[]>> entries =
+        dataByPath
+            .entrySet()
+            .stream()
+            .filter(entry -> entry.getValue() != null && filter.test(entry.getKey()))
+            .collect(Collectors.toCollection(ArrayList::new));
+    dataByPath.clear();
+
+    return entries
+        .parallelStream()
+        .map(entry -> readValue(objectMapper, entry.getKey(), entry.getValue(), tClass))
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+  }
+
+  private static <T> T readValue(
+      ObjectMapper objectMapper, String path, byte[] data, Class<T> tClass) {
+    try {
+      return objectMapper.readValue(data, tClass);
+    } catch (IOException e) {
+      log.error("Unable to read zookeeper node {}: ", path, e);
+      return null;
+    }
+  }
+}
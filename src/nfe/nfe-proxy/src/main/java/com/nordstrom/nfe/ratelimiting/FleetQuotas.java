@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nordstrom.nfe.config.FleetQuotaConfig;
+import com.nordstrom.nfe.nlpmanagement.ZookeeperHelpers;
+import com.xjeffrose.xio.core.ZkClient;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Splits the rate limits of the services over the fleet of NFEs, so that a limit holds for the
+ * fleet instead of each NFE. Requests are still admitted by the local token buckets, only their
+ * rates are adjusted: every reconcile interval each NFE writes the requests it saw per service to
+ * zookeeper, reads the other NFEs' and sets its buckets to its share of each limit.
+ *
+ * <p>A share is a part of the limit split evenly over the live NFEs (so an NFE that starts seeing
+ * requests is not starved) plus the NFE's part of the fleet's requests for the rest. An NFE is
+ * live once its sequence has been seen going up, until it stops going up for the member ttl; it is
+ * timed out on the local clock, so clock skew between NFEs doesn't matter. The nodes of NFEs that
+ * went away without leaving are therefore never counted, not even by an NFE that just started,
+ * and are forgotten once they are removed from zookeeper. An NFE that leaves removes its own node,
+ * after marking it left in case the removal fails. An NFE that didn't leave picks its sequence up
+ * from its own node, so it keeps going up across restarts; a sequence that starts over is taken
+ * for a new member. When zookeeper can't be reached the last shares are kept.
+ */
+@Slf4j
+public class FleetQuotas {
+  private final FleetQuotaConfig config;
+  private final RateLimits rateLimits;
+  private final ZkClient zkClient;
+  private final ObjectMapper objectMapper;
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("fleet-quotas", true));
+  // the other NFEs, only touched from the reconcile thread
+  private final Map<String, Member> members = new HashMap<>();
+  // the sequence last written, zero until this NFE joined
+  private long sequence;
+  private volatile int memberCount = 1;
+
+  public FleetQuotas(
+      FleetQuotaConfig config,
+      RateLimits rateLimits,
+      ZkClient zkClient,
+      ObjectMapper objectMapper) {
+    this.config = config;
+    this.rateLimits = rateLimits;
+    this.zkClient = zkClient;
+    this.objectMapper = objectMapper;
+  }
+
+  public void start() {
+    if (config.isEnabled()) {
+      executor.scheduleWithFixedDelay(
+          this::reconcile, 0, config.getReconcileIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public void shutdown() {
+    if (config.isEnabled()) {
+      // after any reconcile in progress, the periodic one is cancelled by shutdown()
+      executor.execute(this::leave);
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(config.getReconcileIntervalMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    executor.shutdownNow();
+  }
+
+  /** Number of NFEs, this one included, the limits were last split over. */
+  public int getMemberCount() {
+    return memberCount;
+  }
+
+  void reconcile() {
+    try {
+      Map<String, Long> demand = new HashMap<>();
+      for (ServiceRateLimiter limiter : rateLimits.limiters()) {
+        demand.put(limiter.getServiceName(), limiter.takeDemand());
+      }
+      QuotaMemberInfo self =
+          new QuotaMemberInfo(config.getMemberId(), nextSequence(), demand, false);
+      zkClient.set(memberPath(config.getMemberId()), objectMapper.writeValueAsString(self));
+      sequence = self.getSequence();
+
+      List<QuotaMemberInfo> live = liveMembers(System.nanoTime());
+      live.add(self);
+      memberCount = live.size();
+      for (ServiceRateLimiter limiter : rateLimits.limiters()) {
+        limiter.setShare(share(self, live, limiter.getServiceName()));
+      }
+    } catch (Exception e) {
+      // keep the last shares, the next reconcile will try again
+      log.error("Unable to reconcile fleet rate limit quotas", e);
+    }
+  }
+
+  /**
+   * Tells the rest of the fleet to stop counting this NFE, if it ever joined, and removes its node.
+   */
+  void leave() {
+    if (sequence == 0) {
+      return;
+    }
+    try {
+      QuotaMemberInfo self =
+          new QuotaMemberInfo(config.getMemberId(), nextSequence(), Collections.emptyMap(), true);
+      zkClient.set(memberPath(config.getMemberId()), objectMapper.writeValueAsString(self));
+      zkClient.delete(memberPath(config.getMemberId()));
+      sequence = 0;
+    } catch (Exception e) {
+      // the others will time this NFE out after the member ttl
+      log.error("Unable to leave the fleet rate limit quotas", e);
+    }
+  }
+
+  private long nextSequence() {
+    if (sequence == 0
+        && ZookeeperHelpers.safeGetChildren(zkClient, config.getPath())
+            .contains(config.getMemberId())) {
+      // continue after the last run of this NFE, the others may still remember its sequence
+      return ZookeeperHelpers.infoAtZookeeperPath(
+                  zkClient, objectMapper, memberPath(config.getMemberId()), QuotaMemberInfo.class)
+              .map(QuotaMemberInfo::getSequence)
+              .orElse(0L)
+          + 1;
+    }
+    return sequence + 1;
+  }
+
+  private List<QuotaMemberInfo> liveMembers(long now) {
+    long ttlNanos = TimeUnit.MILLISECONDS.toNanos(config.getMemberTtlMillis());
+    List<String> children = ZookeeperHelpers.safeGetChildren(zkClient, config.getPath());
+    members.keySet().retainAll(children);
+
+    List<QuotaMemberInfo> live = new ArrayList<>(children.size() + 1);
+    for (String memberId : children) {
+      if (memberId.equals(config.getMemberId())) {
+        continue;
+      }
+      Optional<QuotaMemberInfo> info =
+          ZookeeperHelpers.infoAtZookeeperPath(
+              zkClient, objectMapper, memberPath(memberId), QuotaMemberInfo.class);
+      if (!info.isPresent()) {
+        continue;
+      }
+      if (info.get().isLeft()) {
+        members.remove(memberId);
+        continue;
+      }
+
+      long memberSequence = info.get().getSequence();
+      Member member = members.get(memberId);
+      if (member == null || memberSequence < member.sequence) {
+        // a node that was there before this NFE saw it may have been left behind, it only counts
+        // once its sequence goes up; so does one written again by an NFE that left and came back
+        members.put(memberId, new Member(memberSequence, null));
+        continue;
+      }
+      if (memberSequence > member.sequence) {
+        member = new Member(memberSequence, now);
+        members.put(memberId, member);
+      }
+      if (member.advancedNanos != null && now - member.advancedNanos <= ttlNanos) {
+        live.add(info.get());
+      }
+    }
+    return live;
+  }
+
+  private double share(QuotaMemberInfo self, List<QuotaMemberInfo> live, String serviceName) {
+    double even = 1.0 / live.size();
+    long total = 0;
+    for (QuotaMemberInfo member : live) {
+      total += member.getDemand().getOrDefault(serviceName, 0L);
+    }
+    if (total == 0) {
+      return even;
+    }
+    double byDemand = (double) self.getDemand().getOrDefault(serviceName, 0L) / total;
+    return config.getEvenSplit() * even + (1 - config.getEvenSplit()) * byDemand;
+  }
+
+  private String memberPath(String memberId) {
+    return ZookeeperHelpers.pathFromComponents(config.getPath(), memberId);
+  }
+
+  private static class Member {
+    private final long sequence;
+    // when the sequence was last seen going up, null if it never was
+    @Nullable private final Long advancedNanos;
+
+    Member(long sequence, @Nullable Long advancedNanos) {
+      this.sequence = sequence;
+      this.advancedNanos = advancedNanos;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import java.util.Collections;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * What an NFE tells the rest of the fleet about itself, stored in zookeeper as Json (using
+ * Jackson). The sequence goes up with every write so that the others can tell the NFE is still
+ * alive without comparing clocks. An NFE that shuts down writes itself as left, so the others stop
+ * counting it right away, then removes its node.
+ */
+@Getter
+public class QuotaMemberInfo {
+  private final String memberId;
+  private final long sequence;
+  // requests seen in the last reconcile interval, keyed by service name
+  private final Map<String, Long> demand;
+  private final boolean left;
+
+  public QuotaMemberInfo(String memberId, long sequence, Map<String, Long> demand, boolean left) {
+    this.memberId = memberId;
+    this.sequence = sequence;
+    this.demand = demand;
+    this.left = left;
+  }
+
+  QuotaMemberInfo() {
+    this.memberId = "";
+    this.sequence = 0;
+    this.demand = Collections.emptyMap();
+    this.left = false;
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
+
+import com.nordstrom.nfe.RejectedStreams;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.RoutePartial;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Enforces the rate limits of the routed service, ahead of the authorizer so that excess traffic
+ * is answered with a 429 before it costs a Gatekeeper call or an upstream connection.
+ *
+ * <p>The limit is checked when a stream starts. The first request of a channel to a service also
+ * counts the channel as one of the client's connections to that service, until the channel closes.
+ * An instance of this handler is created per channel.
+ */
+@Slf4j
+public class RateLimitHandler extends ChannelInboundHandlerAdapter {
+  private final RateLimits rateLimits;
+
+  // streams that were rejected but have not yet seen their last message
+  private final RejectedStreams rejectedStreams = new RejectedStreams();
+  // services this channel is counted as a connection of
+  private final Set<ServiceRateLimiter> connectedServices = new HashSet<>();
+  @Nullable private InetAddress client;
+
+  public RateLimitHandler(RateLimits rateLimits) {
+    this.rateLimits = rateLimits;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (!(msg instanceof RoutePartial)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+
+    if (rejectedStreams.drain(msg)) {
+      // the stream was already answered with a 429, drop the rest of it
+      return;
+    }
+
+    Request request = ((RoutePartial) msg).request();
+    if (request.startOfMessage() && !isAllowed(ctx, ((RoutePartial) msg).route().path())) {
+      rejectedStreams.reject(ctx, msg, TOO_MANY_REQUESTS);
+      return;
+    }
+
+    ctx.fireChannelRead(msg);
+  }
+
+  private boolean isAllowed(ChannelHandlerContext ctx, String routePath) {
+    ServiceRateLimiter limiter = rateLimits.forRoutePath(routePath);
+    if (limiter == null) {
+      return true;
+    }
+
+    if (!connectedServices.contains(limiter)) {
+      if (client == null) {
+        client = clientAddress(ctx.channel().remoteAddress());
+      }
+      if (client != null) {
+        if (!limiter.tryOpenConnection(client)) {
+          log.debug("{} has too many connections to {}", client, limiter.getServiceName());
+          return false;
+        }
+        connectedServices.add(limiter);
+      }
+    }
+
+    return limiter.tryAcquire();
+  }
+
+  @Nullable
+  private static InetAddress clientAddress(SocketAddress address) {
+    if (address instanceof InetSocketAddress) {
+      return ((InetSocketAddress) address).getAddress();
+    }
+    return null;
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    closeConnections();
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    closeConnections();
+    super.handlerRemoved(ctx);
+  }
+
+  private void closeConnections() {
+    for (ServiceRateLimiter limiter : connectedServices) {
+      limiter.closeConnection(client);
+    }
+    connectedServices.clear();
+    rejectedStreams.clear();
+  }
+}
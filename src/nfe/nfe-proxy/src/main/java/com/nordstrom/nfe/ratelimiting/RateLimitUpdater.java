@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterResponse;
+import com.nordstrom.nfe.CoreDataService;
+import com.nordstrom.nfe.config.RateLimitingConfig;
+import com.nordstrom.nfe.routing.RouteGeneration;
+import com.nordstrom.nfe.routing.RoutedServiceUpdater;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the rate limits of the routed services up to date. Every refresh interval the limits of
+ * each service the current proxy routes lead to are read from the core data service. A service
+ * whose lookup failed keeps its last known limits.
+ */
+public class RateLimitUpdater extends RoutedServiceUpdater<GetRateLimiterResponse> {
+  private final RateLimits rateLimits;
+  private final CoreDataService coreDataService;
+
+  public RateLimitUpdater(
+      RateLimitingConfig config,
+      RateLimits rateLimits,
+      CoreDataService coreDataService,
+      Supplier<RouteGeneration> routeGeneration) {
+    super("rate-limits", config.isEnabled(), config.getRefreshIntervalMillis(), routeGeneration);
+    this.rateLimits = rateLimits;
+    this.coreDataService = coreDataService;
+  }
+
+  @Override
+  protected Map<String, GetRateLimiterResponse> lookUp(Set<String> serviceNames) {
+    return coreDataService.getRateLimiters(serviceNames);
+  }
+
+  @Override
+  protected void update(String serviceName, GetRateLimiterResponse limit) {
+    rateLimits.update(
+        serviceName,
+        limit.getRequestsPerSecond(),
+        limit.getMaxConnectionsPerClient(),
+        limit.getIsDisabled());
+  }
+
+  @Override
+  protected void publish(Map<String, String> serviceNamesByRoutePath) {
+    rateLimits.publish(serviceNamesByRoutePath);
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import com.nordstrom.nfe.config.RateLimitingConfig;
+import com.nordstrom.nfe.routing.RoutedServices;
+import java.util.Collection;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * The rate limiters of the services the NFE routes to, looked up by route path on every request.
+ * Routes to the same service share its limiter. Limits are updated in place so they change live,
+ * without dropping the state of the buckets of unchanged services.
+ */
+public class RateLimits {
+  private final RateLimitingConfig config;
+  private final RoutedServices<ServiceRateLimiter> services = new RoutedServices<>();
+
+  public RateLimits(RateLimitingConfig config) {
+    this.config = config;
+  }
+
+  @Nullable
+  public ServiceRateLimiter forRoutePath(String routePath) {
+    return services.forRoutePath(routePath);
+  }
+
+  public Collection<ServiceRateLimiter> limiters() {
+    return services.values();
+  }
+
+  /** Sets the limits of a service. */
+  public void update(
+      String serviceName, int requestsPerSecond, int maxConnectionsPerClient, boolean disabled) {
+    services
+        .computeIfAbsent(
+            serviceName,
+            name -> new ServiceRateLimiter(name, config.getBurstNanos(), config.getStripes()))
+        .update(requestsPerSecond, maxConnectionsPerClient, disabled);
+  }
+
+  /**
+   * Publishes which services the routes lead to (keyed by route path). Services that no route
+   * leads to anymore are forgotten.
+   */
+  public void publish(Map<String, String> serviceNamesByRoutePath) {
+    services.publish(serviceNamesByRoutePath, limiter -> true);
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The limits of one service, shared by every route to it. A limit of zero (or a disabled limiter)
+ * lets everything through. Updating the configured requests per second replaces the token bucket,
+ * the connection counts carry over.
+ *
+ * <p>In fleet mode the limit is shared by every NFE and this one enforces its share of it,
+ * adjusted as the demand across the fleet shifts. A new share only changes the rate of the token
+ * bucket in place, the tokens it holds carry over.
+ */
+@Slf4j
+public class ServiceRateLimiter {
+  private final String serviceName;
+  private final long burstNanos;
+  private final int stripes;
+  // open connections to this service, keyed by client address
+  private final ConcurrentMap<InetAddress, Integer> connections = new ConcurrentHashMap<>();
+  private final LongAdder rejectedRequests = new LongAdder();
+  private final LongAdder rejectedConnections = new LongAdder();
+  // requests seen since the demand was last taken, allowed or not
+  private final LongAdder demand = new LongAdder();
+
+  private volatile int requestsPerSecond;
+  private volatile int maxConnectionsPerClient;
+  private volatile boolean disabled;
+  private volatile double share = 1;
+  @Nullable private volatile TokenBucket bucket;
+
+  ServiceRateLimiter(String serviceName, long burstNanos, int stripes) {
+    this.serviceName = serviceName;
+    this.burstNanos = burstNanos;
+    this.stripes = stripes;
+  }
+
+  public String getServiceName() {
+    return serviceName;
+  }
+
+  public int getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  public int getMaxConnectionsPerClient() {
+    return maxConnectionsPerClient;
+  }
+
+  public boolean isDisabled() {
+    return disabled;
+  }
+
+  public long getRejectedRequests() {
+    return rejectedRequests.sum();
+  }
+
+  public long getRejectedConnections() {
+    return rejectedConnections.sum();
+  }
+
+  /** The fraction of the service's limit enforced by this NFE. */
+  public double getShare() {
+    return share;
+  }
+
+  /** The requests per second this NFE lets through, its share of the limit. */
+  public int getLocalRequestsPerSecond() {
+    return localRate(requestsPerSecond, share);
+  }
+
+  private static int localRate(int requestsPerSecond, double share) {
+    return Math.max(1, (int) Math.round(requestsPerSecond * share));
+  }
+
+  synchronized void update(int requestsPerSecond, int maxConnectionsPerClient, boolean disabled) {
+    if (requestsPerSecond != this.requestsPerSecond
+        || maxConnectionsPerClient != this.maxConnectionsPerClient
+        || disabled != this.disabled) {
+      log.info(
+          "Rate limits of {}: {} requests per second, {} connections per client{}",
+          serviceName,
+          requestsPerSecond,
+          maxConnectionsPerClient,
+          disabled ? " (disabled)" : "");
+    }
+    if (requestsPerSecond != this.requestsPerSecond || bucket == null) {
+      bucket =
+          requestsPerSecond > 0
+              ? new TokenBucket(localRate(requestsPerSecond, share), burstNanos, stripes)
+              : null;
+    }
+    this.requestsPerSecond = requestsPerSecond;
+    this.maxConnectionsPerClient = maxConnectionsPerClient;
+    this.disabled = disabled;
+  }
+
+  /** Sets the fraction of the limit this NFE enforces, keeping the state of the bucket. */
+  synchronized void setShare(double share) {
+    this.share = share;
+    TokenBucket bucket = this.bucket;
+    if (bucket != null) {
+      bucket.setRate(localRate(requestsPerSecond, share));
+    }
+  }
+
+  /** The number of requests seen since the last call. */
+  long takeDemand() {
+    return demand.sumThenReset();
+  }
+
+  /** Takes a token for a request, false when the service is over its rate. */
+  boolean tryAcquire() {
+    TokenBucket bucket = this.bucket;
+    if (disabled || bucket == null) {
+      return true;
+    }
+    demand.increment();
+    if (bucket.tryAcquire()) {
+      return true;
+    }
+    rejectedRequests.increment();
+    return false;
+  }
+
+  /**
+   * Counts a connection from the client to this service, false (and not counted) when the client
+   * already holds as many as it is allowed.
+   */
+  boolean tryOpenConnection(InetAddress client) {
+    int count = connections.merge(client, 1, Integer::sum);
+    int max = maxConnectionsPerClient;
+    if (disabled || max <= 0 || count <= max) {
+      return true;
+    }
+    closeConnection(client);
+    rejectedConnections.increment();
+    return false;
+  }
+
+  void closeConnection(InetAddress client) {
+    connections.computeIfPresent(client, (address, count) -> count == 1 ? null : count - 1);
+  }
+
+  int connectionCount(InetAddress client) {
+    return connections.getOrDefault(client, 0);
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free token bucket refilled at a fixed rate. The bucket is split into stripes, each with
+ * its share of the rate and the burst, and a thread starts with the stripe its id maps to so the
+ * event loops mostly update different counters. A request is only rejected once every stripe is
+ * empty.
+ *
+ * <p>Each stripe is a single "theoretical arrival time" (the generic cell rate algorithm): taking a
+ * token pushes it one emission interval further, and a token is available while it is less than
+ * the burst ahead of now. Taking a token is then one compare-and-set, with no separate refill.
+ *
+ * <p>The rate can be changed in place, the stripes keep their arrival times so a change neither
+ * refills nor empties the bucket. The number of stripes is fixed by the rate the bucket was
+ * created with.
+ */
+class TokenBucket {
+  // longs between two stripes, so that stripes don't share a cache line
+  private static final int PADDING = 16;
+
+  private final AtomicLongArray cells;
+  private final int mask;
+  private final long burstNanos;
+  private volatile Rate rate;
+
+  TokenBucket(int requestsPerSecond, long burstNanos, int stripes) {
+    // a power of two stripes, each allowed at least one request per second
+    int count = Integer.highestOneBit(Math.max(1, Math.min(stripes, requestsPerSecond)));
+    this.mask = count - 1;
+    this.burstNanos = burstNanos;
+    this.cells = new AtomicLongArray(count * PADDING);
+    setRate(requestsPerSecond);
+
+    long now = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      cells.set(i * PADDING, now);
+    }
+  }
+
+  int stripes() {
+    return mask + 1;
+  }
+
+  void setRate(int requestsPerSecond) {
+    long emissionIntervalNanos = TimeUnit.SECONDS.toNanos(1) * stripes() / requestsPerSecond;
+    rate = new Rate(emissionIntervalNanos, Math.max(burstNanos, emissionIntervalNanos));
+  }
+
+  boolean tryAcquire() {
+    long now = System.nanoTime();
+    Rate rate = this.rate;
+    int start = (int) Thread.currentThread().getId();
+    for (int i = 0; i <= mask; i++) {
+      if (tryAcquire(((start + i) & mask) * PADDING, now, rate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean tryAcquire(int index, long now, Rate rate) {
+    while (true) {
+      long arrival = cells.get(index);
+      long next = (arrival - now > 0 ? arrival : now) + rate.emissionIntervalNanos;
+      if (next - now > rate.burstNanos) {
+        return false;
+      }
+      if (cells.compareAndSet(index, arrival, next)) {
+        return true;
+      }
+    }
+  }
+
+  private static class Rate {
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+
+    Rate(long emissionIntervalNanos, long burstNanos) {
+      this.emissionIntervalNanos = emissionIntervalNanos;
+      this.burstNanos = burstNanos;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import com.nordstrom.nfe.tracing.Trace;
+import com.nordstrom.nfe.tracing.TracingHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.RoutePartial;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Routes each request through the {@link RouteTrie} of the current route generation instead of
+ * scanning every route in order.
+ *
+ * <p>The generation is read when a stream starts, so long lived connections pick up route changes
+ * on their next request. The route is then pinned until the last message of the stream, so the
+ * body of a streamed request follows its headers. An instance is created per channel.
+ */
+public class NfePipelineRouter extends ChannelInboundHandlerAdapter {
+  private final Supplier<RouteGeneration> generations;
+
+  // key is stream id, value is the route resolved for the start of that stream
+  private final Map<Integer, RouteState> streamRoutes = new HashMap<>();
+
+  public NfePipelineRouter(Supplier<RouteGeneration> generations) {
+    this.generations = generations;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (!(msg instanceof Request)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+
+    Request request = (Request) msg;
+    long startNanos = System.nanoTime();
+    RouteState route = routeFor(request);
+    if (request.startOfMessage()) {
+      Trace trace = TracingHandler.trace(ctx.channel(), request.streamId());
+      if (trace != null) {
+        trace.span("route lookup", startNanos, System.nanoTime(), "nfe.route", route.path());
+      }
+    }
+    if (request.endOfMessage()) {
+      streamRoutes.remove(request.streamId());
+    } else if (request.startOfMessage()) {
+      streamRoutes.put(request.streamId(), route);
+    }
+
+    ctx.fireChannelRead(partial(request, route));
+  }
+
+  private RouteState routeFor(Request request) {
+    if (!request.startOfMessage()) {
+      RouteState pinned = streamRoutes.get(request.streamId());
+      if (pinned != null) {
+        return pinned;
+      }
+    }
+    return find(generations.get(), request);
+  }
+
+  private static RouteState find(RouteGeneration generation, Request request) {
+    CharSequence host = request.headers().get("host");
+    if (host == null) {
+      host = request.headers().get(":authority");
+    }
+    RouteState route = generation.trie().find(host, request.method(), request.path());
+    return route != null ? route : NotFoundHandler.ROUTE;
+  }
+
+  private static RoutePartial partial(Request request, RouteState route) {
+    return new RoutePartial(request, route);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    streamRoutes.clear();
+    super.channelInactive(ctx);
+  }
+}
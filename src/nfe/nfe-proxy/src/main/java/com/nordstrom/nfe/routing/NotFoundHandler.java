@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+
+import com.nordstrom.nfe.RequestBodies;
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Route;
+import com.xjeffrose.xio.http.RouteConfig;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import java.util.Collections;
+
+/**
+ * Answers requests that did not match any route with a 404. Nothing is proxied, so the body of
+ * every message of the request is released here.
+ */
+public class NotFoundHandler implements PipelineRequestHandler {
+  public static final RouteState ROUTE =
+      new RouteState(
+          new RouteConfig(Collections.emptyList(), "", "/", "none"), new NotFoundHandler());
+
+  @Override
+  public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+    RequestBodies.release(request);
+    if (!request.startOfMessage()) {
+      return;
+    }
+    ctx.writeAndFlush(
+        DefaultFullResponse.builder()
+            .status(NOT_FOUND)
+            .streamId(request.streamId())
+            .body(Unpooled.EMPTY_BUFFER)
+            .headers(new DefaultHeaders())
+            .build());
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.xjeffrose.xio.http.ProxyRouteState;
+import com.xjeffrose.xio.http.RouteState;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * A snapshot of the routing table. The route map and the tree built from it are published together
+ * so a reader never sees one without the other.
+ */
+@Accessors(fluent = true)
+@Getter
+public class RouteGeneration {
+  public static final RouteGeneration EMPTY = new RouteGeneration(0, ImmutableMap.of());
+
+  private final long id;
+  private final RouteTrie trie;
+
+  @Getter(AccessLevel.NONE)
+  private final Supplier<ImmutableMap<String, RouteState>> routes;
+
+  public RouteGeneration(long id, ImmutableMap<String, RouteState> routes) {
+    this(id, RouteTrie.build(routes), Suppliers.ofInstance(routes));
+  }
+
+  private RouteGeneration(
+      long id, RouteTrie trie, Supplier<ImmutableMap<String, RouteState>> routes) {
+    this.id = id;
+    this.trie = trie;
+    this.routes = routes;
+  }
+
+  /** Builds the generation that follows this one out of a whole new route map. */
+  public RouteGeneration next(ImmutableMap<String, RouteState> routes) {
+    return new RouteGeneration(id + 1, routes);
+  }
+
+  /**
+   * Derives the generation that follows this one with only the given paths changed. The tree is
+   * updated instead of being rebuilt, and the route map is only put together if it is asked for.
+   *
+   * @param changed the new route of each changed path, keyed by path.
+   * @param removed the paths that no longer have a route.
+   */
+  public RouteGeneration update(Map<String, RouteState> changed, Collection<String> removed) {
+    RouteTrie updated = trie.update(changed, removed);
+    return new RouteGeneration(id + 1, updated, Suppliers.memoize(updated::routes));
+  }
+
+  /** The routes of this generation, keyed by path. */
+  public ImmutableMap<String, RouteState> routes() {
+    return routes.get();
+  }
+
+  /** The services the proxy routes of this generation lead to, keyed by route path. */
+  public Map<String, String> proxyRouteServiceNames() {
+    Map<String, String> serviceNames = new HashMap<>();
+    routes().forEach(
+        (path, route) -> {
+          String serviceName = serviceName(path);
+          if (route instanceof ProxyRouteState && serviceName != null) {
+            serviceNames.put(path, serviceName);
+          }
+        });
+    return serviceNames;
+  }
+
+  /**
+   * The service a route path leads to, its last path component: '/v1/team/service/' leads to
+   * 'service'. Null for paths without any component.
+   */
+  @Nullable
+  public static String serviceName(String routePath) {
+    int end = routePath.length();
+    while (end > 0 && routePath.charAt(end - 1) == '/') {
+      end--;
+    }
+    int start = routePath.lastIndexOf('/', end - 1) + 1;
+    return start < end ? routePath.substring(start, end) : null;
+  }
+}
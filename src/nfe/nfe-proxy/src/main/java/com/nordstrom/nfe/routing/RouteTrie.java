@@ -0,0 +1,461 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import com.google.common.collect.ImmutableMap;
+import com.xjeffrose.xio.http.RouteConfig;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable radix tree of routes keyed by path.
+ *
+ * <p>Lookups walk the request path once, comparing edge labels in place, and return the route with
+ * the longest matching prefix whose host and methods accept the request. Matches only happen on
+ * segment boundaries:
+ *
+ * <ul>
+ *   <li>a route path ending with '/' (e.g. '/v1/ou/service/') matches every path beneath it.
+ *   <li>any other route path (e.g. '/nordstrom.gtm.apikey.ApiKeyer/RevokeApiKey') matches that
+ *       exact path, or paths that continue it with a new segment.
+ * </ul>
+ *
+ * <p>A lookup does not allocate. The tree is safe to share between threads. A new generation is
+ * derived with {@link #update}, which copies only the nodes along the changed paths and shares the
+ * rest of the tree with the previous generation.
+ */
+public class RouteTrie {
+  private static final Node[] NO_CHILDREN = new Node[0];
+  private static final char[] NO_KEYS = new char[0];
+
+  private final Node root;
+  private final int size;
+
+  private RouteTrie(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Builds a tree out of the given routes. Routes sharing a path keep the iteration order of the
+   * map, with host specific routes taking precedence over routes that accept any host.
+   */
+  public static RouteTrie build(Map<String, RouteState> routes) {
+    MutableNode root = new MutableNode("");
+    for (RouteState state : routes.values()) {
+      root.insert(state.path(), 0, state);
+    }
+    return new RouteTrie(root.freeze(""), routes.size());
+  }
+
+  /**
+   * Derives a tree with the routes at the given paths replaced, added or removed. Every node off
+   * the changed paths is shared with this tree, which is left untouched.
+   *
+   * @param changed the new route of each changed path, keyed by path.
+   * @param removed the paths that no longer have a route.
+   */
+  public RouteTrie update(Map<String, RouteState> changed, Collection<String> removed) {
+    Node updated = root;
+    int updatedSize = size;
+    for (String path : removed) {
+      updatedSize -= routeCount(updated, path);
+      updated = remove(updated, path, 0);
+    }
+    for (Map.Entry<String, RouteState> entry : changed.entrySet()) {
+      String path = entry.getKey();
+      updatedSize += 1 - routeCount(updated, path);
+      updated = put(updated, path, 0, new Candidate(entry.getValue()));
+    }
+    return new RouteTrie(updated, updatedSize);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** The routes of the tree keyed by path, the first route of a path wins if it has several. */
+  public ImmutableMap<String, RouteState> routes() {
+    Map<String, RouteState> routes = new LinkedHashMap<>();
+    collect(root, routes);
+    return ImmutableMap.copyOf(routes);
+  }
+
+  private static void collect(Node node, Map<String, RouteState> routes) {
+    if (node.candidates != null) {
+      for (Candidate candidate : node.candidates) {
+        routes.putIfAbsent(candidate.state.path(), candidate.state);
+      }
+    }
+    for (Node child : node.children) {
+      collect(child, routes);
+    }
+  }
+
+  /**
+   * Finds the route for a request.
+   *
+   * @param host the request host header (a port suffix is ignored), or null.
+   * @param method the request method.
+   * @param path the request path, a query string is ignored.
+   * @return the most specific matching route or null if nothing matches.
+   */
+  @Nullable
+  public RouteState find(@Nullable CharSequence host, HttpMethod method, String path) {
+    int length = path.indexOf('?');
+    if (length < 0) {
+      length = path.length();
+    }
+
+    RouteState best = null;
+    Node node = root;
+    int position = 0;
+
+    while (true) {
+      if (node.candidates != null && isBoundary(node, path, position, length)) {
+        RouteState match = node.select(host, method);
+        if (match != null) {
+          best = match;
+        }
+      }
+
+      if (position >= length) {
+        return best;
+      }
+
+      Node child = node.child(path.charAt(position));
+      if (child == null
+          || child.label.length() > length - position
+          || !path.regionMatches(position, child.label, 0, child.label.length())) {
+        return best;
+      }
+
+      position += child.label.length();
+      node = child;
+    }
+  }
+
+  private static boolean isBoundary(Node node, String path, int position, int length) {
+    return node.prefix || position == length || path.charAt(position) == '/';
+  }
+
+  /** The number of routes with exactly the given path. */
+  private static int routeCount(Node root, String path) {
+    Node node = root;
+    int position = 0;
+    while (position < path.length()) {
+      Node child = node.child(path.charAt(position));
+      if (child == null || !path.startsWith(child.label, position)) {
+        return 0;
+      }
+      position += child.label.length();
+      node = child;
+    }
+    return node.candidates == null ? 0 : node.candidates.length;
+  }
+
+  /** A copy of {@code node} with the candidate as the only route of the path. */
+  private static Node put(Node node, String path, int position, Candidate candidate) {
+    if (position == path.length()) {
+      return node.withCandidates(new Candidate[] {candidate});
+    }
+
+    int index = node.index(path.charAt(position));
+    if (index < 0) {
+      Node leaf =
+          new Node(
+              path.substring(position),
+              path.endsWith("/"),
+              NO_KEYS,
+              NO_CHILDREN,
+              new Candidate[] {candidate});
+      return node.withChildInserted(-index - 1, leaf);
+    }
+
+    Node child = node.children[index];
+    int common = MutableNode.commonPrefixLength(child.label, path, position);
+    if (common < child.label.length()) {
+      // the path leaves the edge half way, split it
+      Node tail = child.withLabel(child.label.substring(common));
+      child =
+          new Node(
+              child.label.substring(0, common),
+              path.charAt(position + common - 1) == '/',
+              new char[] {tail.label.charAt(0)},
+              new Node[] {tail},
+              null);
+    }
+    return node.withChild(index, put(child, path, position + common, candidate));
+  }
+
+  /** A copy of {@code node} without the routes of the path, or {@code node} if it has none. */
+  private static Node remove(Node node, String path, int position) {
+    if (position == path.length()) {
+      return node.candidates == null ? node : node.withCandidates(null);
+    }
+
+    int index = node.index(path.charAt(position));
+    if (index < 0) {
+      return node;
+    }
+    Node child = node.children[index];
+    if (!path.startsWith(child.label, position)) {
+      return node;
+    }
+    Node updated = remove(child, path, position + child.label.length());
+    if (updated == child) {
+      return node;
+    }
+
+    updated = compact(updated);
+    return updated == null ? node.withChildRemoved(index) : node.withChild(index, updated);
+  }
+
+  /**
+   * Keeps the tree as compact as a built one: a node left without routes or children is dropped,
+   * one left without routes and with a single child is merged into it.
+   */
+  @Nullable
+  private static Node compact(Node node) {
+    if (node.candidates != null || node.children.length > 1) {
+      return node;
+    }
+    if (node.children.length == 0) {
+      return null;
+    }
+    Node child = node.children[0];
+    return child.withLabel(node.label + child.label);
+  }
+
+  private static class Node {
+    private final String label;
+    private final boolean prefix;
+    private final char[] keys;
+    private final Node[] children;
+    @Nullable private final Candidate[] candidates;
+
+    Node(
+        String label,
+        boolean prefix,
+        char[] keys,
+        Node[] children,
+        @Nullable Candidate[] candidates) {
+      this.label = label;
+      this.prefix = prefix;
+      this.keys = keys;
+      this.children = children;
+      this.candidates = candidates;
+    }
+
+    @Nullable
+    Node child(char key) {
+      int index = index(key);
+      return index >= 0 ? children[index] : null;
+    }
+
+    /** The index of the child for the key, or (-(insertion point) - 1) if there is none. */
+    int index(char key) {
+      return Arrays.binarySearch(keys, key);
+    }
+
+    Node withLabel(String label) {
+      return new Node(label, prefix, keys, children, candidates);
+    }
+
+    Node withCandidates(@Nullable Candidate[] candidates) {
+      return new Node(label, prefix, keys, children, candidates);
+    }
+
+    Node withChild(int index, Node child) {
+      Node[] updated = children.clone();
+      updated[index] = child;
+      return new Node(label, prefix, keys, updated, candidates);
+    }
+
+    Node withChildInserted(int index, Node child) {
+      char[] updatedKeys = new char[keys.length + 1];
+      Node[] updated = new Node[children.length + 1];
+      System.arraycopy(keys, 0, updatedKeys, 0, index);
+      System.arraycopy(children, 0, updated, 0, index);
+      updatedKeys[index] = child.label.charAt(0);
+      updated[index] = child;
+      System.arraycopy(keys, index, updatedKeys, index + 1, keys.length - index);
+      System.arraycopy(children, index, updated, index + 1, children.length - index);
+      return new Node(label, prefix, updatedKeys, updated, candidates);
+    }
+
+    Node withChildRemoved(int index) {
+      if (children.length == 1) {
+        return new Node(label, prefix, NO_KEYS, NO_CHILDREN, candidates);
+      }
+      char[] updatedKeys = new char[keys.length - 1];
+      Node[] updated = new Node[children.length - 1];
+      System.arraycopy(keys, 0, updatedKeys, 0, index);
+      System.arraycopy(children, 0, updated, 0, index);
+      System.arraycopy(keys, index + 1, updatedKeys, index, keys.length - index - 1);
+      System.arraycopy(children, index + 1, updated, index, children.length - index - 1);
+      return new Node(label, prefix, updatedKeys, updated, candidates);
+    }
+
+    @Nullable
+    RouteState select(@Nullable CharSequence host, HttpMethod method) {
+      for (Candidate candidate : candidates) {
+        if (candidate.accepts(host, method)) {
+          return candidate.state;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class Candidate {
+    private final RouteState state;
+    private final String host;
+    private final List<HttpMethod> methods;
+
+    Candidate(RouteState state) {
+      RouteConfig config = state.config();
+      this.state = state;
+      this.host = config.host() == null ? "" : config.host();
+      this.methods = config.methods();
+    }
+
+    boolean isAnyHost() {
+      return host.isEmpty();
+    }
+
+    boolean accepts(@Nullable CharSequence requestHost, HttpMethod method) {
+      if (methods != null && !methods.isEmpty() && !methods.contains(method)) {
+        return false;
+      }
+      return isAnyHost() || hostMatches(requestHost);
+    }
+
+    private boolean hostMatches(@Nullable CharSequence requestHost) {
+      if (requestHost == null) {
+        return false;
+      }
+      // ignore the port
+      int length = requestHost.length();
+      for (int i = 0; i < requestHost.length(); i++) {
+        if (requestHost.charAt(i) == ':') {
+          length = i;
+          break;
+        }
+      }
+      if (length != host.length()) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (Character.toLowerCase(requestHost.charAt(i)) != Character.toLowerCase(host.charAt(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** The tree is built with mutable nodes, then frozen into compact sorted arrays. */
+  private static class MutableNode {
+    private String label;
+    private final List<MutableNode> children = new ArrayList<>();
+    private final List<Candidate> candidates = new ArrayList<>();
+
+    MutableNode(String label) {
+      this.label = label;
+    }
+
+    void insert(String path, int position, RouteState state) {
+      if (position == path.length()) {
+        Candidate candidate = new Candidate(state);
+        if (candidate.isAnyHost()) {
+          candidates.add(candidate);
+        } else {
+          // host specific routes are tried before the ones accepting any host
+          int index = 0;
+          while (index < candidates.size() && !candidates.get(index).isAnyHost()) {
+            index++;
+          }
+          candidates.add(index, candidate);
+        }
+        return;
+      }
+
+      for (MutableNode child : children) {
+        int common = commonPrefixLength(child.label, path, position);
+        if (common == 0) {
+          continue;
+        }
+        if (common < child.label.length()) {
+          child.split(common);
+        }
+        child.insert(path, position + common, state);
+        return;
+      }
+
+      MutableNode child = new MutableNode(path.substring(position));
+      children.add(child);
+      child.insert(path, path.length(), state);
+    }
+
+    /** Splits this node so that its label is only the first {@code at} characters. */
+    private void split(int at) {
+      MutableNode tail = new MutableNode(label.substring(at));
+      tail.children.addAll(children);
+      tail.candidates.addAll(candidates);
+      children.clear();
+      candidates.clear();
+      children.add(tail);
+      label = label.substring(0, at);
+    }
+
+    Node freeze(String fullPath) {
+      List<MutableNode> sorted = new ArrayList<>(children);
+      sorted.sort((a, b) -> Character.compare(a.label.charAt(0), b.label.charAt(0)));
+
+      char[] keys = sorted.isEmpty() ? NO_KEYS : new char[sorted.size()];
+      Node[] frozen = sorted.isEmpty() ? NO_CHILDREN : new Node[sorted.size()];
+      for (int i = 0; i < sorted.size(); i++) {
+        MutableNode child = sorted.get(i);
+        keys[i] = child.label.charAt(0);
+        frozen[i] = child.freeze(fullPath + child.label);
+      }
+
+      return new Node(
+          label,
+          fullPath.endsWith("/"),
+          keys,
+          frozen,
+          candidates.isEmpty() ? null : candidates.toArray(new Candidate[0]));
+    }
+
+    private static int commonPrefixLength(String label, String path, int position) {
+      int max = Math.min(label.length(), path.length() - position);
+      int i = 0;
+      while (i < max && label.charAt(i) == path.charAt(position + i)) {
+        i++;
+      }
+      return i;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps per service state of the routed services up to date. Every refresh interval the state of
+ * each service the current proxy routes lead to is looked up, applied service by service, then
+ * published by route path. A service whose lookup failed is left out of the lookup's result and
+ * keeps its last known state.
+ */
+@Slf4j
+public abstract class RoutedServiceUpdater<R> {
+  private final String name;
+  private final boolean enabled;
+  private final long refreshIntervalMillis;
+  private final Supplier<RouteGeneration> routeGeneration;
+  private final ScheduledExecutorService executor;
+
+  protected RoutedServiceUpdater(
+      String name,
+      boolean enabled,
+      long refreshIntervalMillis,
+      Supplier<RouteGeneration> routeGeneration) {
+    this.name = name;
+    this.enabled = enabled;
+    this.refreshIntervalMillis = refreshIntervalMillis;
+    this.routeGeneration = routeGeneration;
+    this.executor =
+        Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory(name, true));
+  }
+
+  /** Looks up the state of the services, services whose lookup failed are left out. */
+  protected abstract Map<String, R> lookUp(Set<String> serviceNames);
+
+  /** Applies the looked up state of a service. */
+  protected abstract void update(String serviceName, R state);
+
+  /** Publishes the routes (keyed by route path) once every service was updated. */
+  protected abstract void publish(Map<String, String> serviceNamesByRoutePath);
+
+  public void start() {
+    if (enabled) {
+      executor.scheduleWithFixedDelay(
+          this::refresh, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /** Runs one refresh, the schedule started by start() calls it every refresh interval. */
+  public void refresh() {
+    try {
+      Map<String, String> serviceNamesByRoutePath =
+          routeGeneration.get().proxyRouteServiceNames();
+
+      lookUp(new HashSet<>(serviceNamesByRoutePath.values())).forEach(this::update);
+      publish(serviceNamesByRoutePath);
+    } catch (Exception e) {
+      // keep the schedule going, the next refresh will try again
+      log.error("Unable to refresh {}", name, e);
+    }
+  }
+}
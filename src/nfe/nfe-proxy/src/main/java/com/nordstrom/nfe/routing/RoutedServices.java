@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Per service state of the services the NFE routes to, kept by service name and published by route
+ * path for the lookups done on every request. Routes to the same service share its state.
+ */
+public class RoutedServices<T> {
+  private final ConcurrentMap<String, T> byService = new ConcurrentHashMap<>();
+  private volatile ImmutableMap<String, T> byRoutePath = ImmutableMap.of();
+
+  /** The published state of the service a route leads to, null when there is none. */
+  @Nullable
+  public T forRoutePath(String routePath) {
+    return byRoutePath.get(routePath);
+  }
+
+  @Nullable
+  public T get(String serviceName) {
+    return byService.get(serviceName);
+  }
+
+  public T computeIfAbsent(String serviceName, Function<String, T> factory) {
+    return byService.computeIfAbsent(serviceName, factory);
+  }
+
+  public void put(String serviceName, T state) {
+    byService.put(serviceName, state);
+  }
+
+  public Collection<T> values() {
+    return byService.values();
+  }
+
+  /**
+   * Publishes which services the routes lead to (keyed by route path), leaving out the states that
+   * don't match 'published'. Services that no route leads to anymore are forgotten.
+   */
+  public synchronized void publish(
+      Map<String, String> serviceNamesByRoutePath, Predicate<T> published) {
+    ImmutableMap.Builder<String, T> builder = ImmutableMap.builder();
+    Set<String> routed = new HashSet<>();
+    for (Map.Entry<String, String> entry : serviceNamesByRoutePath.entrySet()) {
+      routed.add(entry.getValue());
+      T state = byService.get(entry.getValue());
+      if (state != null && published.test(state)) {
+        builder.put(entry.getKey(), state);
+      }
+    }
+    byService.keySet().retainAll(routed);
+    byRoutePath = builder.build();
+  }
+}
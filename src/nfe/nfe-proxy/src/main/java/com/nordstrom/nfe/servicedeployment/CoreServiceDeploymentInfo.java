@@ -19,11 +19,14 @@ public class CoreServiceDeploymentInfo {
   private String path;
   private String cloudAccountId;
   private String serviceDescription;
+  private boolean tlsEnabled;
 
-  public CoreServiceDeploymentInfo(String path, String cloudAccountId, String serviceDescription) {
+  public CoreServiceDeploymentInfo(
+      String path, String cloudAccountId, String serviceDescription, boolean tlsEnabled) {
     this.path = path;
     this.cloudAccountId = cloudAccountId;
     this.serviceDescription = serviceDescription;
+    this.tlsEnabled = tlsEnabled;
   }
 
   public String getPath() {
@@ -37,4 +40,8 @@ public class CoreServiceDeploymentInfo {
   public String getServiceDescription() {
     return serviceDescription;
   }
+
+  public boolean isTlsEnabled() {
+    return tlsEnabled;
+  }
 }
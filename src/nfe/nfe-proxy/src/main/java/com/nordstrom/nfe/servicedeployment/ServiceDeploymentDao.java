@@ -46,7 +46,7 @@ public class ServiceDeploymentDao {
             serviceDeploymentConfig.getDbPassword())) {
       String deploymentId = insertDeployedService(connection, request, coreServiceDeploymentInfo);
 
-      return DeployedService.newBuilder().setDeploymentId(deploymentId).build();
+      return DeployedService.newBuilder().setDeploymentKey(deploymentId).build();
     }
   }
 
@@ -65,7 +65,7 @@ public class ServiceDeploymentDao {
               + "COMMIT;";
 
       try (PreparedStatement statement = connection.prepareStatement(deleteQuery)) {
-        statement.setString(1, deployedService.getDeploymentId());
+        statement.setString(1, deployedService.getDeploymentKey());
 
         statement.execute();
         return Empty.getDefaultInstance();
@@ -128,7 +128,7 @@ public class ServiceDeploymentDao {
     statement.setString(index++, request.getAsgInfo().getTagValue());
     statement.setString(index++, coreServiceDeploymentInfo.getPath());
     statement.setInt(index++, request.getPortNumber());
-    statement.setBoolean(index++, request.getTlsEnabled());
+    statement.setBoolean(index++, coreServiceDeploymentInfo.isTlsEnabled());
     statement.setString(index++, coreServiceDeploymentInfo.getCloudAccountId());
     statement.setString(index++, coreServiceDeploymentInfo.getServiceDescription());
     statement.setString(index++, deploymentId);
@@ -170,7 +170,7 @@ public class ServiceDeploymentDao {
     // Adds values for `route_parameter` table.
     statement.setString(index++, coreServiceDeploymentInfo.getPath());
     statement.setInt(index++, request.getPortNumber());
-    statement.setBoolean(index++, request.getTlsEnabled());
+    statement.setBoolean(index++, coreServiceDeploymentInfo.isTlsEnabled());
     statement.setString(index++, coreServiceDeploymentInfo.getCloudAccountId());
     statement.setString(index++, coreServiceDeploymentInfo.getServiceDescription());
     statement.setString(index++, deploymentId);
@@ -63,7 +63,7 @@ public class ServiceDeploymentGrpcService implements GrpcService {
             (request) -> {
               try {
                 CoreServiceDeploymentInfo coreServiceDeploymentInfo =
-                    coreDataService.getServiceRoutePath(request.getServiceName());
+                    coreDataService.getServiceRoutePath(request.getDeployTargetKey());
                 DeployedService deployedService =
                     serviceDeploymentDao.addDeployedService(request, coreServiceDeploymentInfo);
                 return deployedService;
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.streaming;
+
+import com.xjeffrose.xio.application.ApplicationState;
+import com.xjeffrose.xio.bootstrap.ChannelConfiguration;
+import com.xjeffrose.xio.client.Client;
+import com.xjeffrose.xio.client.ClientConfig;
+import com.xjeffrose.xio.client.ClientState;
+import com.xjeffrose.xio.http.ProxyBackendHandler;
+import com.xjeffrose.xio.http.ProxyClientFactory;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Creates the upstream clients of the proxy handlers the way xio does, with their responses
+ * backpressured: an upstream connection stops being read while the client connection its
+ * responses are written to is not writable (more of them are queued for the client than its
+ * write buffer high water mark), until its {@link ClientWritabilityHandler} tells it is again.
+ * They also tell the {@link StreamingProxyHandler} contexts as their request bodies are written.
+ */
+public class BackpressuredClientFactory extends ProxyClientFactory {
+
+  public BackpressuredClientFactory(ApplicationState state) {
+    super(state);
+  }
+
+  /** The context is the one the proxy handler writes its responses to. */
+  @Override
+  public Client createClient(ChannelHandlerContext ctx, ClientConfig config) {
+    ClientState clientState =
+        new ClientState(ChannelConfiguration.clientConfig(ctx.channel().eventLoop()), config);
+    return new Client(
+        clientState,
+        () -> new ResponseBackpressureHandler(ctx, () -> new ProxyBackendHandler(ctx)),
+        getTracing());
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.streaming;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sits in the pipeline of a client connection, telling the upstream connections held back by a
+ * {@link ResponseBackpressureHandler} when the client connection is writable again (or gone).
+ * One per client connection.
+ */
+public class ClientWritabilityHandler extends ChannelInboundHandlerAdapter {
+  // only touched from the channel's event loop
+  private final List<Runnable> waiting = new ArrayList<>();
+  private Channel channel;
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    channel = ctx.channel();
+  }
+
+  /** Runs resume (on the channel's event loop) once the channel is writable or inactive. */
+  void whenWritable(Runnable resume) {
+    if (!channel.eventLoop().inEventLoop()) {
+      channel.eventLoop().execute(() -> whenWritable(resume));
+      return;
+    }
+    if (channel.isWritable() || !channel.isActive()) {
+      resume.run();
+    } else {
+      waiting.add(resume);
+    }
+  }
+
+  private void resumeAll() {
+    List<Runnable> resumed = new ArrayList<>(waiting);
+    waiting.clear();
+    resumed.forEach(Runnable::run);
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+    if (ctx.channel().isWritable()) {
+      resumeAll();
+    }
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    resumeAll();
+    ctx.fireChannelInactive();
+  }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.streaming;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * User event telling the context a request was proxied through that upstream is done writing out
+ * a request body. Buffers are told apart by the one they derive from, so that upstream may write
+ * out slices or duplicates of the body it was handed.
+ */
+class RequestWritten {
+  private final ByteBuf content;
+
+  RequestWritten(ByteBuf content) {
+    this.content = root(content);
+  }
+
+  /** Whether content is (or derives from) the request body written out. */
+  boolean isOf(ByteBuf content) {
+    return this.content == root(content);
+  }
+
+  private static ByteBuf root(ByteBuf buf) {
+    for (ByteBuf parent = buf.unwrap(); parent != null; parent = buf.unwrap()) {
+      buf = parent;
+    }
+    return buf;
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.streaming;
+
+import com.nordstrom.nfe.RequestBodies;
+import com.xjeffrose.xio.http.Request;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import java.util.function.Supplier;
+
+/**
+ * Sits in front of the backend handler of an upstream connection, which writes what upstream
+ * sends to the frontend context. After each read it checks the client channel behind that
+ * context; when the client is not writable the upstream connection stops being read, until the
+ * client's {@link ClientWritabilityHandler} tells it is writable again (or gone). Without one in
+ * the client pipeline nothing would resume it, so upstream is never held back.
+ *
+ * <p>It also tells the frontend context, with a {@link RequestWritten} event, when each request
+ * body written to upstream is written out.
+ */
+class ResponseBackpressureHandler extends ChannelDuplexHandler {
+  private final ChannelHandlerContext frontEnd;
+  private final Supplier<ChannelHandler> backend;
+  // only touched from the upstream channel's event loop
+  private boolean paused;
+
+  ResponseBackpressureHandler(ChannelHandlerContext frontEnd, Supplier<ChannelHandler> backend) {
+    this.frontEnd = frontEnd;
+    this.backend = backend;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    ctx.pipeline().addAfter(ctx.name(), null, backend.get());
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    ctx.fireChannelRead(msg);
+    if (paused || frontEnd.channel().isWritable()) {
+      return;
+    }
+    ClientWritabilityHandler writability =
+        frontEnd.pipeline().get(ClientWritabilityHandler.class);
+    if (writability != null) {
+      paused = true;
+      ctx.channel().config().setAutoRead(false);
+      writability.whenWritable(() -> ctx.executor().execute(() -> resume(ctx)));
+    }
+  }
+
+  private void resume(ChannelHandlerContext ctx) {
+    paused = false;
+    ctx.channel().config().setAutoRead(true);
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    ByteBuf content = msg instanceof Request ? RequestBodies.content((Request) msg) : null;
+    if (content != null && content.isReadable()) {
+      // told apart before the write, which releases the body
+      RequestWritten written = new RequestWritten(content);
+      promise = promise.unvoid();
+      promise.addListener(f -> frontEnd.fireUserEventTriggered(written));
+    }
+    ctx.write(msg, promise);
+  }
+}
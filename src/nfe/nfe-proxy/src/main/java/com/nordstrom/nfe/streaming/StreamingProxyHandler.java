@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.streaming;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.nordstrom.nfe.RequestBodies;
+import com.nordstrom.nfe.balancing.ForwardingChannelHandlerContext;
+import com.nordstrom.nfe.balancing.HandlerContexts;
+import com.nordstrom.nfe.config.StreamingConfig;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams the request and response bodies of a route through with backpressure. Bodies go by as
+ * the buffers they were read into, nothing is aggregated or copied; what is bounded is how much of
+ * them may be in flight through the NFE for one client connection.
+ *
+ * <p>Request body is in flight from when it is handed to the route's proxy handler until upstream
+ * has written it out, which the {@link BackpressuredClientFactory} clients tell with a {@link
+ * RequestWritten} event once its write completes (or, failing that, until the response of its
+ * stream is complete). Response body is in flight from when it is written to the client until it
+ * is flushed to the socket. When either goes over maxInFlightBytes the client connection stops
+ * being read, until half of it has drained.
+ *
+ * <p>The upstream side of responses is held back by the {@link BackpressuredClientFactory}
+ * clients, whose connections stop being read while the client connection is not writable.
+ */
+public class StreamingProxyHandler implements PipelineRequestHandler {
+  private static final HandlerContexts<StreamingProxyHandler, StreamingContext> CONTEXTS =
+      new HandlerContexts<>(
+          StreamingProxyHandler.class, StreamingContext::new, StreamingContext::releaseAll);
+  // the directions (of any route) holding the reads of a client connection
+  private static final AttributeKey<Integer> PAUSED_KEY =
+      AttributeKey.valueOf(StreamingProxyHandler.class, "paused");
+
+  private final PipelineRequestHandler delegate;
+  private final long maxInFlightBytes;
+  private final LongAdder pauseCount = new LongAdder();
+
+  public StreamingProxyHandler(PipelineRequestHandler delegate, StreamingConfig config) {
+    this(delegate, config.getMaxInFlightBytes());
+  }
+
+  @VisibleForTesting
+  StreamingProxyHandler(PipelineRequestHandler delegate, long maxInFlightBytes) {
+    this.delegate = delegate;
+    this.maxInFlightBytes = maxInFlightBytes;
+  }
+
+  /** The proxy handler the requests are streamed to. */
+  public PipelineRequestHandler delegate() {
+    return delegate;
+  }
+
+  /** Number of times a client connection stopped being read to let its bodies drain. */
+  public long getPauseCount() {
+    return pauseCount.sum();
+  }
+
+  @Override
+  public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+    StreamingContext streamingCtx = CONTEXTS.get(ctx, this);
+    ByteBuf content = RequestBodies.content(request);
+    if (content != null && content.isReadable()) {
+      streamingCtx.requestSent(request.streamId(), content);
+    }
+    delegate.handle(streamingCtx, request, route);
+    streamingCtx.checkRequests();
+  }
+
+  /** Only called from the channel's event loop, as reads are paused or resumed. */
+  private static void pause(Channel channel) {
+    Attribute<Integer> paused = channel.attr(PAUSED_KEY);
+    Integer count = paused.get();
+    paused.set(count == null ? 1 : count + 1);
+    if (count == null || count == 0) {
+      channel.config().setAutoRead(false);
+    }
+  }
+
+  private static void resume(Channel channel) {
+    Attribute<Integer> paused = channel.attr(PAUSED_KEY);
+    int count = paused.get() - 1;
+    paused.set(count);
+    if (count == 0) {
+      channel.config().setAutoRead(true);
+    }
+  }
+
+  /** Request body handed to upstream, with a reference held until upstream is done with it. */
+  private static class Sent {
+    private final int streamId;
+    private final ByteBuf content;
+    private final int bytes;
+
+    Sent(int streamId, ByteBuf content, int bytes) {
+      this.streamId = streamId;
+      this.content = content;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * The bodies in flight between one client connection and one route, wrapping the context the
+   * route's proxy handler writes its responses to. The request side is only touched from the
+   * channel's event loop, responses may be written from the client's.
+   */
+  private static class StreamingContext extends ForwardingChannelHandlerContext {
+    private final StreamingProxyHandler handler;
+    private final ArrayDeque<Sent> sent = new ArrayDeque<>();
+    private long requestBytes;
+    private boolean requestsPaused;
+    private final AtomicLong responseBytes = new AtomicLong();
+    // only touched from the channel's event loop
+    private boolean responsesPaused;
+
+    private StreamingContext(ChannelHandlerContext delegate, StreamingProxyHandler handler) {
+      super(delegate);
+      this.handler = handler;
+    }
+
+    void requestSent(int streamId, ByteBuf content) {
+      int bytes = content.readableBytes();
+      sent.add(new Sent(streamId, content.retain(), bytes));
+      requestBytes += bytes;
+    }
+
+    /** Pauses or resumes reading on the request body in flight. */
+    void checkRequests() {
+      if (!requestsPaused && requestBytes > handler.maxInFlightBytes) {
+        requestsPaused = true;
+        handler.pauseCount.increment();
+        pause(channel());
+      } else if (requestsPaused && requestBytes <= handler.maxInFlightBytes / 2) {
+        requestsPaused = false;
+        resume(channel());
+      }
+    }
+
+    /** Lets go of a request body upstream has written out. */
+    private void requestWritten(RequestWritten written) {
+      if (!executor().inEventLoop()) {
+        executor().execute(() -> requestWritten(written));
+        return;
+      }
+      // upstream mostly writes in order, the oldest body is the likely one
+      for (Iterator<Sent> it = sent.iterator(); it.hasNext(); ) {
+        Sent next = it.next();
+        if (written.isOf(next.content)) {
+          it.remove();
+          release(next);
+          checkRequests();
+          return;
+        }
+      }
+    }
+
+    private void release(Sent done) {
+      requestBytes -= done.bytes;
+      done.content.release();
+    }
+
+    /** The response of the stream is complete, upstream has no more use for its request body. */
+    private void streamFinished(int streamId) {
+      if (!executor().inEventLoop()) {
+        executor().execute(() -> streamFinished(streamId));
+        return;
+      }
+      for (Iterator<Sent> it = sent.iterator(); it.hasNext(); ) {
+        Sent next = it.next();
+        if (next.streamId == streamId) {
+          it.remove();
+          release(next);
+        }
+      }
+      checkRequests();
+    }
+
+    private void releaseAll() {
+      while (!sent.isEmpty()) {
+        release(sent.poll());
+      }
+    }
+
+    @Override
+    public ChannelHandlerContext fireUserEventTriggered(Object evt) {
+      if (evt instanceof RequestWritten) {
+        // a body this context did not send (over a client shared with another route) matches
+        // nothing, and is let go of by its own context once its response completes
+        requestWritten((RequestWritten) evt);
+        return this;
+      }
+      return super.fireUserEventTriggered(evt);
+    }
+
+    @Override
+    public ChannelFuture write(Object msg, ChannelPromise promise) {
+      int bytes = responseBytes(msg);
+      ChannelFuture future = super.write(msg, promise);
+      responseWritten(msg, bytes, future);
+      return future;
+    }
+
+    @Override
+    public ChannelFuture writeAndFlush(Object msg, ChannelPromise promise) {
+      int bytes = responseBytes(msg);
+      ChannelFuture future = super.writeAndFlush(msg, promise);
+      responseWritten(msg, bytes, future);
+      return future;
+    }
+
+    private static int responseBytes(Object msg) {
+      ByteBuf content = null;
+      if (msg instanceof Response) {
+        content = ((Response) msg).body();
+      } else if (msg instanceof SegmentedData) {
+        content = ((SegmentedData) msg).content();
+      }
+      return content != null ? content.readableBytes() : 0;
+    }
+
+    private void responseWritten(Object msg, int bytes, ChannelFuture future) {
+      if (msg instanceof Response && ((Response) msg).endOfMessage()) {
+        streamFinished(((Response) msg).streamId());
+      } else if (msg instanceof SegmentedData && ((SegmentedData) msg).endOfMessage()) {
+        streamFinished(((SegmentedData) msg).streamId());
+      }
+
+      if (bytes == 0 || future.isVoid()) {
+        return;
+      }
+      if (responseBytes.addAndGet(bytes) > handler.maxInFlightBytes) {
+        executor().execute(this::checkResponses);
+      }
+      // the listener runs on the channel's event loop
+      future.addListener(
+          f -> {
+            responseBytes.addAndGet(-bytes);
+            checkResponses();
+          });
+    }
+
+    private void checkResponses() {
+      long pending = responseBytes.get();
+      if (!responsesPaused && pending > handler.maxInFlightBytes) {
+        responsesPaused = true;
+        handler.pauseCount.increment();
+        pause(channel());
+      } else if (responsesPaused && pending <= handler.maxInFlightBytes / 2) {
+        responsesPaused = false;
+        resume(channel());
+      }
+    }
+  }
+}
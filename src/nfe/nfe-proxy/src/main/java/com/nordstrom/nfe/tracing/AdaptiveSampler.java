@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides at the start of a trace whether to record it, aiming at a number of traces per second
+ * whatever the request rate. The probability of sampling a request is recomputed every second from
+ * the requests seen during the last one: it drops to target / rate right away when the rate goes
+ * up, and only moves halfway back up each second when it goes down, so that a lull between bursts
+ * doesn't let the next burst be sampled wholesale. Deciding is lock-free: a counter increment and
+ * a random draw.
+ */
+public class AdaptiveSampler {
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final double targetPerSecond;
+  private final LongAdder requests = new LongAdder();
+  private final AtomicLong windowStartNanos;
+
+  private volatile double probability;
+
+  public AdaptiveSampler(double targetPerSecond) {
+    this(targetPerSecond, System.nanoTime());
+  }
+
+  AdaptiveSampler(double targetPerSecond, long nowNanos) {
+    this.targetPerSecond = targetPerSecond;
+    this.windowStartNanos = new AtomicLong(nowNanos);
+    // start by sampling everything, the first window brings it down to the target
+    this.probability = targetPerSecond > 0 ? 1 : 0;
+  }
+
+  public double probability() {
+    return probability;
+  }
+
+  public boolean isSampled() {
+    return isSampled(System.nanoTime());
+  }
+
+  boolean isSampled(long nowNanos) {
+    requests.increment();
+    long windowStart = windowStartNanos.get();
+    if (nowNanos - windowStart >= WINDOW_NANOS
+        && windowStartNanos.compareAndSet(windowStart, nowNanos)) {
+      // only the thread that moved the window updates the probability
+      double rate = requests.sumThenReset() * (double) WINDOW_NANOS / (nowNanos - windowStart);
+      double next = rate <= targetPerSecond ? 1 : targetPerSecond / rate;
+      probability = next < probability ? next : (probability + next) / 2;
+    }
+    double p = probability;
+    return p >= 1 || (p > 0 && ThreadLocalRandom.current().nextDouble() < p);
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/** A finished unit of work of a trace, as reported to Zipkin. */
+@Getter
+public class Span {
+  public enum Kind {
+    SERVER,
+    CLIENT
+  }
+
+  private final String traceId;
+  private final long id;
+  private final long parentId;
+  private final String name;
+  @Nullable private final Kind kind;
+  private final long timestampMicros;
+  private final long durationMicros;
+  @Nullable private final InetSocketAddress remote;
+  private final Map<String, String> tags = new LinkedHashMap<>();
+
+  public Span(
+      String traceId,
+      long id,
+      long parentId,
+      String name,
+      @Nullable Kind kind,
+      long timestampMicros,
+      long durationMicros,
+      @Nullable InetSocketAddress remote) {
+    this.traceId = traceId;
+    this.id = id;
+    this.parentId = parentId;
+    this.name = name;
+    this.kind = kind;
+    this.timestampMicros = timestampMicros;
+    // Zipkin drops a 0 duration
+    this.durationMicros = Math.max(1, durationMicros);
+    this.remote = remote;
+  }
+
+  Span tag(String key, String value) {
+    tags.put(key, value);
+    return this;
+  }
+
+  /** Tags the span with key / value pairs. */
+  Span tags(String... keyValues) {
+    for (int i = 0; i + 1 < keyValues.length; i += 2) {
+      tags.put(keyValues[i], keyValues[i + 1]);
+    }
+    return this;
+  }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Sends finished spans to a Zipkin v2 collector, off the event loops. Spans are put on a bounded
+ * queue without ever blocking (they are counted and dropped when it is full), one thread takes
+ * them off in batches of up to batchSize, waiting at most flushInterval for a batch to fill, and
+ * posts each batch as a JSON list.
+ */
+@Slf4j
+public class SpanReporter {
+  private static final MediaType JSON = MediaType.parse("application/json");
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final String url;
+  private final String serviceName;
+  private final int batchSize;
+  private final long flushIntervalNanos;
+  private final BlockingQueue<Span> queue;
+  private final OkHttpClient client;
+  private final Thread thread;
+  private final LongAdder reportedCount = new LongAdder();
+  private final LongAdder droppedCount = new LongAdder();
+  private final LongAdder failedCount = new LongAdder();
+
+  private volatile boolean running;
+
+  public SpanReporter(
+      String url, String serviceName, int maxQueuedSpans, int batchSize, long flushIntervalMillis) {
+    this.url = url;
+    this.serviceName = serviceName;
+    this.batchSize = batchSize;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.queue = new ArrayBlockingQueue<>(maxQueuedSpans);
+    this.client =
+        new OkHttpClient.Builder()
+            .connectTimeout(flushIntervalMillis, TimeUnit.MILLISECONDS)
+            .readTimeout(flushIntervalMillis, TimeUnit.MILLISECONDS)
+            .build();
+    this.thread = new Thread(this::run, "nfe-tracing");
+    this.thread.setDaemon(true);
+  }
+
+  public void start() {
+    running = true;
+    thread.start();
+  }
+
+  /** Stops taking spans, sending the ones already queued first. */
+  public void shutdown() {
+    running = false;
+    try {
+      thread.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) * 2 + 1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Queues a span to be sent, returns false (and drops it) when the queue is full. */
+  public boolean report(Span span) {
+    if (!running || !queue.offer(span)) {
+      droppedCount.increment();
+      return false;
+    }
+    return true;
+  }
+
+  /** Number of spans accepted by the collector. */
+  public long getReportedCount() {
+    return reportedCount.sum();
+  }
+
+  /** Number of spans not queued, because the queue was full or the reporter stopped. */
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  /** Number of spans that could not be sent to the collector. */
+  public long getFailedCount() {
+    return failedCount.sum();
+  }
+
+  private void run() {
+    List<Span> batch = new ArrayList<>(batchSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        fill(batch);
+        if (!batch.isEmpty()) {
+          send(batch);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  /** Waits for a first span, then for the batch to fill up for at most flushInterval. */
+  private void fill(List<Span> batch) throws InterruptedException {
+    Span first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+    if (first == null) {
+      return;
+    }
+    batch.add(first);
+    long deadline = System.nanoTime() + flushIntervalNanos;
+    while (true) {
+      queue.drainTo(batch, batchSize - batch.size());
+      long remaining = deadline - System.nanoTime();
+      if (batch.size() >= batchSize || remaining <= 0 || !running) {
+        return;
+      }
+      Span next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        return;
+      }
+      batch.add(next);
+    }
+  }
+
+  private void send(List<Span> batch) {
+    try {
+      okhttp3.Request request =
+          new okhttp3.Request.Builder()
+              .url(url)
+              .post(RequestBody.create(JSON, encode(batch, serviceName)))
+              .build();
+      try (Response response = client.newCall(request).execute()) {
+        if (response.isSuccessful()) {
+          reportedCount.add(batch.size());
+          return;
+        }
+        log.warn("Zipkin answered {} to {} spans", response.code(), batch.size());
+      }
+    } catch (IOException e) {
+      log.warn("Unable to send {} spans to {}: {}", batch.size(), url, e.getMessage());
+    }
+    failedCount.add(batch.size());
+  }
+
+  /** The Zipkin v2 JSON of a list of spans. */
+  static byte[] encode(List<Span> spans, String serviceName) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(spans.size() * 256);
+    try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+      json.writeStartArray();
+      for (Span span : spans) {
+        json.writeStartObject();
+        json.writeStringField("traceId", span.getTraceId());
+        json.writeStringField("id", TraceContext.hex(span.getId()));
+        if (span.getParentId() != 0) {
+          json.writeStringField("parentId", TraceContext.hex(span.getParentId()));
+        }
+        json.writeStringField("name", span.getName());
+        if (span.getKind() != null) {
+          json.writeStringField("kind", span.getKind().name());
+        }
+        json.writeNumberField("timestamp", span.getTimestampMicros());
+        json.writeNumberField("duration", span.getDurationMicros());
+        json.writeObjectFieldStart("localEndpoint");
+        json.writeStringField("serviceName", serviceName);
+        json.writeEndObject();
+        if (span.getRemote() != null) {
+          writeRemote(json, span.getRemote());
+        }
+        if (!span.getTags().isEmpty()) {
+          json.writeObjectFieldStart("tags");
+          for (Map.Entry<String, String> tag : span.getTags().entrySet()) {
+            json.writeStringField(tag.getKey(), tag.getValue());
+          }
+          json.writeEndObject();
+        }
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+    }
+    return out.toByteArray();
+  }
+
+  private static void writeRemote(JsonGenerator json, InetSocketAddress remote)
+      throws IOException {
+    json.writeObjectFieldStart("remoteEndpoint");
+    InetAddress address = remote.getAddress();
+    if (address == null) {
+      json.writeStringField("serviceName", remote.getHostString());
+    } else if (address.getAddress().length == 4) {
+      json.writeStringField("ipv4", address.getHostAddress());
+    } else {
+      json.writeStringField("ipv6", address.getHostAddress());
+    }
+    json.writeNumberField("port", remote.getPort());
+    json.writeEndObject();
+  }
+}
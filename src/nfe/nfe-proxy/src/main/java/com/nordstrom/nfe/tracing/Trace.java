@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * The spans recorded for one sampled request stream: the server span covering the whole stream,
+ * and the spans of the work done for it (TLS handshake, route lookup, authorization, upstream).
+ * They are reported together when the stream finishes.
+ *
+ * <p>The upstream span may be recorded from a client's event loop, so recording synchronizes.
+ */
+public class Trace {
+  private final Tracer tracer;
+  private final TraceContext context;
+  private final long upstreamSpanId;
+  private final String name;
+  private final long startNanos;
+  private final List<Span> spans = new ArrayList<>(4);
+  private final List<String> tags = new ArrayList<>(8);
+  private boolean upstreamSpanIdUsed;
+  private boolean finished;
+
+  Trace(Tracer tracer, TraceContext context, long upstreamSpanId, String name, long startNanos) {
+    this.tracer = tracer;
+    this.context = context;
+    this.upstreamSpanId = upstreamSpanId;
+    this.name = name;
+    this.startNanos = startNanos;
+  }
+
+  /** The context of the server span. */
+  public TraceContext context() {
+    return context;
+  }
+
+  /** The context passed upstream with the request. */
+  TraceContext upstreamContext() {
+    return context.child(upstreamSpanId, true);
+  }
+
+  /** Records a local span, tagged with key / value pairs. */
+  public synchronized void span(String name, long startNanos, long endNanos, String... tags) {
+    add(context.spanId(), Tracer.newId(), name, null, null, startNanos, endNanos).tags(tags);
+  }
+
+  /**
+   * Records the span of a request to upstream, from the time it was handed to the endpoint's proxy
+   * handler until its response started. The first one gets the span id that was passed upstream,
+   * the other attempts (retries, hedges) of the stream get their own.
+   */
+  public synchronized void upstreamSpan(
+      InetSocketAddress remote, long startNanos, long endNanos, int status) {
+    long spanId = upstreamSpanIdUsed ? Tracer.newId() : upstreamSpanId;
+    upstreamSpanIdUsed = true;
+    Span span =
+        add(context.spanId(), spanId, "upstream", Span.Kind.CLIENT, remote, startNanos, endNanos)
+            .tag("http.status_code", Integer.toString(status));
+    if (status >= 500) {
+      span.tag("error", Integer.toString(status));
+    }
+  }
+
+  /** Tags the server span. */
+  public synchronized void tag(String key, String value) {
+    tags.add(key);
+    tags.add(value);
+  }
+
+  /** Reports the server span and every span recorded for the stream, once. */
+  synchronized void finish(long endNanos) {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    Span server =
+        new Span(
+            context.traceIdString(),
+            context.spanId(),
+            context.parentId(),
+            name,
+            Span.Kind.SERVER,
+            tracer.epochMicros(startNanos),
+            (endNanos - startNanos) / 1000,
+            null);
+    server.tags(tags.toArray(new String[0]));
+    tracer.reporter().report(server);
+    for (Span span : spans) {
+      tracer.reporter().report(span);
+    }
+  }
+
+  private Span add(
+      long parentId,
+      long spanId,
+      String name,
+      @Nullable Span.Kind kind,
+      @Nullable InetSocketAddress remote,
+      long startNanos,
+      long endNanos) {
+    Span span =
+        new Span(
+            context.traceIdString(),
+            spanId,
+            parentId,
+            name,
+            kind,
+            tracer.epochMicros(startNanos),
+            (endNanos - startNanos) / 1000,
+            remote);
+    if (!finished) {
+      spans.add(span);
+    }
+    return span;
+  }
+}
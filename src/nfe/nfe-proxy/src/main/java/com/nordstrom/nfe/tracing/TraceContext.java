@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import com.xjeffrose.xio.http.Headers;
+import javax.annotation.Nullable;
+
+/**
+ * The identifiers of a span as they are passed from one hop to the next, read from and written to
+ * both the B3 headers (the multi header X-B3-* form and the single 'b3' header) and the W3C
+ * 'traceparent' header.
+ *
+ * <p>Trace ids are 128 bit, a 64 bit B3 trace id is read with a high half of 0 and written back
+ * in its 16 character form. A 0 id means none.
+ */
+public final class TraceContext {
+  static final String TRACE_ID = "x-b3-traceid";
+  static final String SPAN_ID = "x-b3-spanid";
+  static final String PARENT_SPAN_ID = "x-b3-parentspanid";
+  static final String SAMPLED = "x-b3-sampled";
+  static final String FLAGS = "x-b3-flags";
+  static final String B3 = "b3";
+  static final String TRACEPARENT = "traceparent";
+
+  private final long traceIdHigh;
+  private final long traceIdLow;
+  private final long spanId;
+  private final long parentId;
+  // null when the caller left the decision to us
+  @Nullable private final Boolean sampled;
+
+  public TraceContext(
+      long traceIdHigh, long traceIdLow, long spanId, long parentId, @Nullable Boolean sampled) {
+    this.traceIdHigh = traceIdHigh;
+    this.traceIdLow = traceIdLow;
+    this.spanId = spanId;
+    this.parentId = parentId;
+    this.sampled = sampled;
+  }
+
+  public long traceIdHigh() {
+    return traceIdHigh;
+  }
+
+  public long traceIdLow() {
+    return traceIdLow;
+  }
+
+  public long spanId() {
+    return spanId;
+  }
+
+  public long parentId() {
+    return parentId;
+  }
+
+  @Nullable
+  public Boolean sampled() {
+    return sampled;
+  }
+
+  /** Whether this carries a trace (as opposed to a bare sampling decision). */
+  public boolean hasIds() {
+    return traceIdLow != 0 && spanId != 0;
+  }
+
+  /** A context for a new span of the same trace, child of this one. */
+  public TraceContext child(long childSpanId, boolean childSampled) {
+    return new TraceContext(traceIdHigh, traceIdLow, childSpanId, spanId, childSampled);
+  }
+
+  public String traceIdString() {
+    return traceIdHigh == 0 ? hex(traceIdLow) : hex(traceIdHigh) + hex(traceIdLow);
+  }
+
+  /**
+   * Reads the context a request arrived with, the B3 headers first and 'traceparent' after them.
+   * Returns null when there is none, or it can't be parsed.
+   */
+  @Nullable
+  public static TraceContext extract(Headers headers) {
+    CharSequence traceId = headers.get(TRACE_ID);
+    if (traceId != null) {
+      return fromB3(
+          traceId, headers.get(SPAN_ID), headers.get(PARENT_SPAN_ID), samplingOf(headers));
+    }
+    CharSequence b3 = headers.get(B3);
+    if (b3 != null) {
+      return fromSingleB3(b3);
+    }
+    CharSequence traceparent = headers.get(TRACEPARENT);
+    if (traceparent != null) {
+      return fromTraceparent(traceparent);
+    }
+    Boolean sampled = samplingOf(headers);
+    return sampled != null ? new TraceContext(0, 0, 0, 0, sampled) : null;
+  }
+
+  /** Writes this context to the headers of a request to the next hop. */
+  public void inject(Headers headers) {
+    String traceId = traceIdString();
+    String spanId = hex(this.spanId);
+    headers.set(TRACE_ID, traceId);
+    headers.set(SPAN_ID, spanId);
+    if (parentId != 0) {
+      headers.set(PARENT_SPAN_ID, hex(parentId));
+    } else {
+      headers.remove(PARENT_SPAN_ID);
+    }
+    boolean isSampled = Boolean.TRUE.equals(sampled);
+    headers.set(SAMPLED, isSampled ? "1" : "0");
+    headers.remove(FLAGS);
+    headers.remove(B3);
+    headers.set(
+        TRACEPARENT,
+        "00-" + hex(traceIdHigh) + hex(traceIdLow) + "-" + spanId + (isSampled ? "-01" : "-00"));
+  }
+
+  @Nullable
+  private static Boolean samplingOf(Headers headers) {
+    CharSequence flags = headers.get(FLAGS);
+    if (flags != null && "1".contentEquals(flags)) {
+      // debug
+      return Boolean.TRUE;
+    }
+    CharSequence sampled = headers.get(SAMPLED);
+    if (sampled == null) {
+      return null;
+    }
+    return "1".contentEquals(sampled) || "true".contentEquals(sampled);
+  }
+
+  @Nullable
+  private static TraceContext fromB3(
+      CharSequence traceId,
+      @Nullable CharSequence spanId,
+      @Nullable CharSequence parentId,
+      @Nullable Boolean sampled) {
+    int length = traceId.length();
+    if ((length != 16 && length != 32) || spanId == null || spanId.length() != 16) {
+      return null;
+    }
+    try {
+      long high = length == 32 ? parseHex(traceId, 0) : 0;
+      long low = parseHex(traceId, length - 16);
+      long parent = parentId != null && parentId.length() == 16 ? parseHex(parentId, 0) : 0;
+      return new TraceContext(high, low, parseHex(spanId, 0), parent, sampled);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** {@code b3: traceid-spanid[-sampled[-parentspanid]]}, or just {@code b3: sampled}. */
+  @Nullable
+  private static TraceContext fromSingleB3(CharSequence b3) {
+    String value = b3.toString();
+    if (value.length() == 1) {
+      return new TraceContext(0, 0, 0, 0, sampledOf(value));
+    }
+    String[] parts = value.split("-", 4);
+    if (parts.length < 2) {
+      return null;
+    }
+    Boolean sampled = parts.length > 2 ? sampledOf(parts[2]) : null;
+    return fromB3(parts[0], parts[1], parts.length > 3 ? parts[3] : null, sampled);
+  }
+
+  @Nullable
+  private static Boolean sampledOf(String value) {
+    switch (value) {
+      case "1":
+      case "d":
+        return Boolean.TRUE;
+      case "0":
+        return Boolean.FALSE;
+      default:
+        return null;
+    }
+  }
+
+  /** {@code traceparent: 00-<32 hex trace id>-<16 hex parent id>-<2 hex flags>}. */
+  @Nullable
+  private static TraceContext fromTraceparent(CharSequence traceparent) {
+    if (traceparent.length() < 55
+        || traceparent.charAt(2) != '-'
+        || traceparent.charAt(35) != '-'
+        || traceparent.charAt(52) != '-') {
+      return null;
+    }
+    try {
+      long high = parseHex(traceparent, 3);
+      long low = parseHex(traceparent, 19);
+      long spanId = parseHex(traceparent, 36);
+      int flags = Character.digit(traceparent.charAt(54), 16);
+      if (flags < 0 || (high == 0 && low == 0) || spanId == 0) {
+        return null;
+      }
+      return new TraceContext(high, low, spanId, 0, (flags & 1) == 1);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** Parses the 16 hex characters of the value starting at offset. */
+  static long parseHex(CharSequence value, int offset) {
+    long result = 0;
+    for (int i = offset; i < offset + 16; i++) {
+      int digit = Character.digit(value.charAt(i), 16);
+      if (digit < 0) {
+        throw new NumberFormatException("Not a hex id: " + value);
+      }
+      result = (result << 4) | digit;
+    }
+    return result;
+  }
+
+  /** The 16 lower case hex characters of an id. */
+  static String hex(long id) {
+    char[] chars = new char[16];
+    for (int i = 15; i >= 0; i--) {
+      chars[i] = Character.forDigit((int) (id & 0xf), 16);
+      id >>>= 4;
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import com.nordstrom.nfe.config.TracingConfig;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Process wide tracing state: the sampler deciding which traces are recorded, the reporter sending
+ * their spans, and the clock spans are timed with. Span times are taken with System.nanoTime() and
+ * turned into wall clock microseconds against the time the tracer was created.
+ */
+public class Tracer {
+  private final TracingConfig config;
+  private final AdaptiveSampler sampler;
+  private final SpanReporter reporter;
+  private final long baseEpochMicros;
+  private final long baseNanos;
+
+  public Tracer(TracingConfig config) {
+    this(
+        config,
+        new SpanReporter(
+            config.getZipkinUrl(),
+            config.getServiceName(),
+            config.getMaxQueuedSpans(),
+            config.getBatchSize(),
+            config.getFlushIntervalMillis()));
+  }
+
+  Tracer(TracingConfig config, SpanReporter reporter) {
+    this.config = config;
+    this.sampler = new AdaptiveSampler(config.getTracesPerSecond());
+    this.reporter = reporter;
+    this.baseEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    this.baseNanos = System.nanoTime();
+  }
+
+  public boolean isEnabled() {
+    return config.isEnabled();
+  }
+
+  public AdaptiveSampler sampler() {
+    return sampler;
+  }
+
+  public SpanReporter reporter() {
+    return reporter;
+  }
+
+  public void start() {
+    if (config.isEnabled()) {
+      reporter.start();
+    }
+  }
+
+  public void shutdown() {
+    reporter.shutdown();
+  }
+
+  /** Whether to record a request that arrived with the given context (or none). */
+  boolean isSampled(@Nullable TraceContext incoming) {
+    if (incoming != null && incoming.sampled() != null) {
+      return incoming.sampled();
+    }
+    return sampler.isSampled();
+  }
+
+  long epochMicros(long nanos) {
+    return baseEpochMicros + TimeUnit.NANOSECONDS.toMicros(nanos - baseNanos);
+  }
+
+  /** A random non zero span or trace id. */
+  static long newId() {
+    long id;
+    do {
+      id = ThreadLocalRandom.current().nextLong();
+    } while (id == 0);
+    return id;
+  }
+}
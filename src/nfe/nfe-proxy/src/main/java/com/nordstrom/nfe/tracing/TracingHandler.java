@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.IntObjectHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.annotation.Nullable;
+
+/**
+ * Starts a trace for the request streams the sampler picks and reports it once the response has
+ * been written. The trace context a request arrives with (B3 or W3C) is continued, the sampling
+ * decision it carries is kept, and the request is sent upstream with the context of the NFE's
+ * upstream span. Unsampled requests are passed on with their headers untouched, or with
+ * 'x-b3-sampled: 0' when they came without a decision, so the hops after the NFE don't start
+ * traces of their own.
+ *
+ * <p>The TLS handshake of a connection is recorded with the first traced stream of the connection.
+ * The router, the authorizer and the balancer add their spans to the trace of a stream through
+ * {@link #trace(Channel, int)}.
+ *
+ * <p>An instance is created per channel. The upstream span may be recorded from a client's event
+ * loop, so the traces in flight are looked up under a lock.
+ */
+public class TracingHandler extends ChannelDuplexHandler {
+  private static final AttributeKey<TracingHandler> HANDLER_KEY =
+      AttributeKey.valueOf(TracingHandler.class, "handler");
+
+  private final Tracer tracer;
+  // key is stream id, only written to from the channel's event loop
+  private final IntObjectHashMap<Trace> traces = new IntObjectHashMap<>();
+  private long connectedNanos;
+  private long handshakeNanos;
+  private boolean handshakeTraced;
+
+  public TracingHandler(Tracer tracer) {
+    this.tracer = tracer;
+  }
+
+  /** The trace of a stream of the channel, or null when the stream is not traced. */
+  @Nullable
+  public static Trace trace(Channel channel, int streamId) {
+    TracingHandler handler = channel.attr(HANDLER_KEY).get();
+    return handler != null ? handler.get(streamId) : null;
+  }
+
+  private synchronized Trace get(int streamId) {
+    return traces.get(streamId);
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    ctx.channel().attr(HANDLER_KEY).set(this);
+    connectedNanos = System.nanoTime();
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) throws Exception {
+    connectedNanos = System.nanoTime();
+    super.channelActive(ctx);
+  }
+
+  @Override
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+    if (evt instanceof SslHandshakeCompletionEvent
+        && ((SslHandshakeCompletionEvent) evt).isSuccess()) {
+      handshakeNanos = System.nanoTime();
+    }
+    super.userEventTriggered(ctx, evt);
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (msg instanceof Request && ((Request) msg).startOfMessage()) {
+      start((Request) msg);
+    }
+    super.channelRead(ctx, msg);
+  }
+
+  private void start(Request request) {
+    long startNanos = System.nanoTime();
+    TraceContext incoming = TraceContext.extract(request.headers());
+    if (!tracer.isSampled(incoming)) {
+      if (incoming == null || incoming.sampled() == null) {
+        request.headers().set(TraceContext.SAMPLED, "0");
+      }
+      return;
+    }
+
+    TraceContext context =
+        incoming != null && incoming.hasIds()
+            ? incoming.child(Tracer.newId(), true)
+            : new TraceContext(Tracer.newId(), Tracer.newId(), Tracer.newId(), 0, true);
+    String method = request.method().name();
+    Trace trace =
+        new Trace(tracer, context, Tracer.newId(), method.toLowerCase(Locale.ROOT), startNanos);
+    trace.tag("http.method", method);
+    trace.tag("http.path", request.path());
+    trace.upstreamContext().inject(request.headers());
+    if (handshakeNanos != 0 && !handshakeTraced) {
+      handshakeTraced = true;
+      trace.span("tls handshake", connectedNanos, handshakeNanos);
+    }
+
+    synchronized (this) {
+      Trace previous = traces.put(request.streamId(), trace);
+      if (previous != null) {
+        // the stream id was reused before the response of the previous request was written
+        previous.finish(startNanos);
+      }
+    }
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+      throws Exception {
+    if (!traces.isEmpty()) {
+      observe(msg);
+    }
+    super.write(ctx, msg, promise);
+  }
+
+  private void observe(Object msg) {
+    int streamId;
+    boolean end;
+    if (msg instanceof Response) {
+      Response response = (Response) msg;
+      streamId = response.streamId();
+      end = response.endOfMessage();
+      if (response.startOfMessage()) {
+        Trace trace = get(streamId);
+        if (trace != null) {
+          int status = response.status().code();
+          trace.tag("http.status_code", Integer.toString(status));
+          if (status >= 500) {
+            trace.tag("error", Integer.toString(status));
+          }
+        }
+      }
+    } else if (msg instanceof SegmentedData) {
+      SegmentedData data = (SegmentedData) msg;
+      streamId = data.streamId();
+      end = data.endOfMessage();
+    } else {
+      return;
+    }
+
+    if (end) {
+      Trace trace;
+      synchronized (this) {
+        trace = traces.remove(streamId);
+      }
+      if (trace != null) {
+        trace.finish(System.nanoTime());
+      }
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    finishAll("connection closed");
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) {
+    finishAll("handler removed");
+  }
+
+  private void finishAll(String error) {
+    List<Trace> unfinished;
+    synchronized (this) {
+      if (traces.isEmpty()) {
+        return;
+      }
+      unfinished = new ArrayList<>(traces.values());
+      traces.clear();
+    }
+    long nowNanos = System.nanoTime();
+    for (Trace trace : unfinished) {
+      trace.tag("error", error);
+      trace.finish(nowNanos);
+    }
+  }
+}
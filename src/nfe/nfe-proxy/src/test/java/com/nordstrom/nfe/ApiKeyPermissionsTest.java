@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ApiKeyPermissionsTest extends Assert {
+
+  @Test
+  public void testPathComponentsAfterTheVersionAreEncoded() {
+    assertEquals("apikey:teamyo:slapservice", ApiKeyPermissions.derive("/v1/teamyo/slapservice/"));
+    assertEquals(
+        "apikey:teamyo:slapservice:api:v1:fives?x=1",
+        ApiKeyPermissions.derive("/v1/teamyo/slapservice/api/v1/fives?x=1"));
+  }
+
+  @Test
+  public void testRunsOfSlashesCountAsOne() {
+    assertEquals("apikey:ou:sn:a", ApiKeyPermissions.derive("//v1//ou///sn/a//"));
+  }
+
+  @Test
+  public void testPathsWithoutAServiceHaveNoPermission() {
+    assertEquals("*", ApiKeyPermissions.derive(""));
+    assertEquals("*", ApiKeyPermissions.derive("/"));
+    assertEquals("*", ApiKeyPermissions.derive("/v1/teamyo/"));
+  }
+
+  @Test
+  public void testPathsWithoutALeadingSlashSkipTwoComponents() {
+    // as the split on "/+" this replaces did, there's no empty first component to skip
+    assertEquals("*", ApiKeyPermissions.derive("v1/ou/sn"));
+    assertEquals("apikey:sn:a", ApiKeyPermissions.derive("v1/ou/sn/a"));
+  }
+
+  @Test
+  public void testPermissionsAreMemoizedAndInterned() {
+    ApiKeyPermissions permissions = new ApiKeyPermissions(16);
+    String permission = permissions.permission("/v1/ou/sn/a");
+
+    assertSame(permission, permissions.permission("/v1/ou/sn/a"));
+    assertSame(permission, permissions.permission(new String("/v1/ou/sn/a")));
+    assertSame(permission, permissions.permission("/v2//ou/sn/a/"));
+  }
+
+  @Test
+  public void testPathsSharingASlotAreEachResolved() {
+    ApiKeyPermissions permissions = new ApiKeyPermissions(1);
+    for (int i = 0; i < 3; i++) {
+      assertEquals("apikey:ou:sn:a", permissions.permission("/v1/ou/sn/a"));
+      assertEquals("apikey:ou:sn:b", permissions.permission("/v1/ou/sn/b"));
+    }
+  }
+}
@@ -15,10 +15,12 @@
  */
 package com.nordstrom.nfe;
 
-import com.nordstrom.gtm.coredb.GetCustomerAccountNlpRoutingInfoResponse;
-import com.nordstrom.gtm.coredb.GetServiceRoutingInfoResponse;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchResponse;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoResponse;
+import com.nordstrom.gtm.coredb.GetServiceDeployTargetInfoResponse;
 import com.nordstrom.gtm.coredb.PathComponents;
-import com.nordstrom.gtm.serviceregistration.AccountType;
+import com.nordstrom.gtm.servicedeploytarget.AwsInfo;
+import com.nordstrom.gtm.servicedeploytarget.DeploymentPlatformInfo;
 import com.nordstrom.nfe.config.NfeConfig;
 import com.nordstrom.nfe.servicedeployment.CoreServiceDeploymentInfo;
 import com.nordstrom.nfe.testhelpers.MockExternalCoreDataService;
@@ -52,7 +54,9 @@ public class CoreDataServiceTest extends Assert {
             .withValue("nfe.coreDatabase.host", ConfigValueFactory.fromAnyRef("127.0.0.1"))
             .withValue(
                 "nfe.coreDatabase.port",
-                ConfigValueFactory.fromAnyRef(mockExternalCoreDataService.getPort()));
+                ConfigValueFactory.fromAnyRef(mockExternalCoreDataService.getPort()))
+            .withValue("nfe.coreDatabase.deadline", ConfigValueFactory.fromAnyRef("1 second"))
+            .withValue("nfe.coreDatabase.batchSize", ConfigValueFactory.fromAnyRef(2));
     NfeConfig nfeConfig = new NfeConfig(config);
 
     subject = new CoreDataService(nfeConfig.coreDatabaseConfig());
@@ -60,6 +64,7 @@ public class CoreDataServiceTest extends Assert {
 
   @After
   public void afterEach() {
+    subject.shutdown();
     mockExternalCoreDataService.stop();
   }
 
@@ -68,31 +73,15 @@ public class CoreDataServiceTest extends Assert {
     String accountId1 = "account_id_1";
     String accountId2 = "account_id_2";
 
-    mockExternalCoreDataService.setGetNlpRoutingInfoLogic(
+    mockExternalCoreDataService.setGetNlpRoutingInfoBatchLogic(
         request -> {
-          if (request.getCloudAccountId().equals(accountId1)
-              && request.getAccountType().equals(AccountType.AWS)) {
-            return GetCustomerAccountNlpRoutingInfoResponse.newBuilder()
-                .addPathComponentsArray(
-                    PathComponents.newBuilder()
-                        .setOrganizationUnit("ou")
-                        .setServiceName("sn-1")
-                        .build())
-                .build();
+          if (!request.getAwsAccountIdsList().equals(Arrays.asList(accountId1, accountId2))) {
+            throw new StatusException(Status.INTERNAL);
           }
-
-          if (request.getCloudAccountId().equals(accountId2)
-              && request.getAccountType().equals(AccountType.AWS)) {
-            return GetCustomerAccountNlpRoutingInfoResponse.newBuilder()
-                .addPathComponentsArray(
-                    PathComponents.newBuilder()
-                        .setOrganizationUnit("ou")
-                        .setServiceName("sn-2")
-                        .build())
-                .build();
-          }
-
-          throw new StatusException(Status.INTERNAL);
+          return GetNlpRoutingInfoBatchResponse.newBuilder()
+              .putRoutingInfo(accountId1, routingInfo("sn-1"))
+              .putRoutingInfo(accountId2, routingInfo("sn-2"))
+              .build();
         });
 
     Map<String, List<String>> accountRoutePaths =
@@ -105,80 +94,123 @@ public class CoreDataServiceTest extends Assert {
     assertEquals(expectedRoutePaths2, accountRoutePaths.get(accountId2));
   }
 
+  @Test
+  public void testGetRoutePaths_AccountWithoutRoutes() {
+    String accountId1 = "account_id_1";
+    String accountId2 = "account_id_2";
+
+    // accounts without any route are left out of the response
+    mockExternalCoreDataService.setGetNlpRoutingInfoBatchLogic(
+        request ->
+            GetNlpRoutingInfoBatchResponse.newBuilder()
+                .putRoutingInfo(accountId1, routingInfo("sn-1"))
+                .build());
+
+    Map<String, List<String>> accountRoutePaths =
+        subject.getCustomerAccountNlpRoutePaths(Arrays.asList(accountId1, accountId2));
+
+    assertEquals(Collections.singletonList("/ou/sn-1/"), accountRoutePaths.get(accountId1));
+    assertEquals(Collections.emptyList(), accountRoutePaths.get(accountId2));
+  }
+
   @Test
   public void testGetRoutePaths_ErrorPath() {
     String accountId1 = "account_id_1";
     String accountId2 = "account_id_2";
+    String accountId3 = "account_id_3";
 
-    mockExternalCoreDataService.setGetNlpRoutingInfoLogic(
+    // the batch size is 2, so account 3 is looked up by a call of its own
+    mockExternalCoreDataService.setGetNlpRoutingInfoBatchLogic(
         request -> {
-          if (request.getCloudAccountId().equals(accountId1)
-              && request.getAccountType().equals(AccountType.AWS)) {
-            return GetCustomerAccountNlpRoutingInfoResponse.newBuilder()
-                .addPathComponentsArray(
-                    PathComponents.newBuilder()
-                        .setOrganizationUnit("ou")
-                        .setServiceName("sn-1")
-                        .build())
-                .build();
+          if (request.getAwsAccountIdsList().contains(accountId3)) {
+            throw new StatusException(Status.INTERNAL);
           }
+          return GetNlpRoutingInfoBatchResponse.newBuilder()
+              .putRoutingInfo(accountId1, routingInfo("sn-1"))
+              .putRoutingInfo(accountId2, routingInfo("sn-2"))
+              .build();
+        });
 
-          if (request.getCloudAccountId().equals(accountId2)) {
-            throw new StatusException(Status.NOT_FOUND);
-          }
+    Map<String, List<String>> accountRoutePaths =
+        subject.getCustomerAccountNlpRoutePaths(Arrays.asList(accountId1, accountId2, accountId3));
 
-          throw new StatusException(Status.INTERNAL);
+    assertEquals(Collections.singletonList("/ou/sn-1/"), accountRoutePaths.get(accountId1));
+    assertEquals(Collections.singletonList("/ou/sn-2/"), accountRoutePaths.get(accountId2));
+    // the accounts of a failed call should be left out
+    assertNull(accountRoutePaths.get(accountId3));
+  }
+
+  @Test
+  public void testGetRoutePaths_AcrossBatches() {
+    mockExternalCoreDataService.setGetNlpRoutingInfoBatchLogic(
+        request -> {
+          GetNlpRoutingInfoBatchResponse.Builder response =
+              GetNlpRoutingInfoBatchResponse.newBuilder();
+          for (String accountId : request.getAwsAccountIdsList()) {
+            response.putRoutingInfo(accountId, routingInfo("sn-" + accountId));
+          }
+          return response.build();
         });
 
-    // should return empty result
+    List<String> accountIds = Arrays.asList("1", "2", "3", "4", "5");
     Map<String, List<String>> accountRoutePaths =
-        subject.getCustomerAccountNlpRoutePaths(Arrays.asList(accountId1, accountId2));
-    List<String> expectedRoutePaths1 = Collections.singletonList("/ou/sn-1/");
-    assertEquals(expectedRoutePaths1, accountRoutePaths.get(accountId1));
+        subject.getCustomerAccountNlpRoutePaths(accountIds);
 
-    assertNull(accountRoutePaths.get(accountId2));
+    assertEquals(5, accountRoutePaths.size());
+    for (String accountId : accountIds) {
+      assertEquals(
+          Collections.singletonList("/ou/sn-" + accountId + "/"),
+          accountRoutePaths.get(accountId));
+    }
+    // one call per batch of 2 accounts
+    assertEquals(3, subject.getMetrics().succeededCount());
   }
 
   @Test
   public void testGetServiceRoutePaths_HappyPath() throws Exception {
-    String serviceName = "service_name";
+    String deployTargetKey = "deploy_target_key";
     String cloudAccountId = "cloud_account_id";
     String serviceDescripiton = "service_description";
 
-    mockExternalCoreDataService.setGetServiceRoutingInfoLogic(
+    mockExternalCoreDataService.setGetServiceDeployTargetInfoLogic(
         request -> {
-          if (request.getServiceName().equals(serviceName)) {
-            return GetServiceRoutingInfoResponse.newBuilder()
+          if (request.getDeployTargetKey().equals(deployTargetKey)) {
+            return GetServiceDeployTargetInfoResponse.newBuilder()
                 .setPathComponents(
                     PathComponents.newBuilder()
                         .setServiceVersion("v1")
                         .setOrganizationUnit("ou")
                         .setServiceName("service_name_returned")
                         .build())
-                .setCloudAccountId(cloudAccountId)
+                .setDeploymentPlatformInfo(
+                    DeploymentPlatformInfo.newBuilder()
+                        .setAwsInfo(AwsInfo.newBuilder().setAccountId(cloudAccountId)))
                 .setServiceDescription(serviceDescripiton)
+                .setIsTlsEnabled(true)
                 .build();
           }
 
           throw new StatusException(Status.INTERNAL);
         });
 
-    CoreServiceDeploymentInfo coreServiceDeploymentInfo = subject.getServiceRoutePath(serviceName);
+    CoreServiceDeploymentInfo coreServiceDeploymentInfo =
+        subject.getServiceRoutePath(deployTargetKey);
     assertEquals("/service_name_returned/", coreServiceDeploymentInfo.getPath());
     assertEquals(cloudAccountId, coreServiceDeploymentInfo.getCloudAccountId());
     assertEquals(serviceDescripiton, coreServiceDeploymentInfo.getServiceDescription());
+    assertTrue(coreServiceDeploymentInfo.isTlsEnabled());
   }
 
   @Test
   public void testGetServiceRoutePaths_ErrorPath() throws Exception {
-    mockExternalCoreDataService.setGetServiceRoutingInfoLogic(
+    mockExternalCoreDataService.setGetServiceDeployTargetInfoLogic(
         request -> {
           throw new StatusException(Status.INTERNAL);
         });
 
     Exception exception = null;
     try {
-      subject.getServiceRoutePath("service_name");
+      subject.getServiceRoutePath("deploy_target_key");
     } catch (ExecutionException | InterruptedException e) {
       exception = e;
     }
@@ -186,4 +218,55 @@ public class CoreDataServiceTest extends Assert {
     // should throw an exception
     assertNotNull(exception);
   }
+
+  @Test
+  public void testCallsShareTheChannelAndAreCounted() throws Exception {
+    mockExternalCoreDataService.setGetServiceDeployTargetInfoLogic(
+        request ->
+            GetServiceDeployTargetInfoResponse.newBuilder()
+                .setPathComponents(PathComponents.newBuilder().setServiceName("sn").build())
+                .build());
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals("/sn/", subject.getServiceRoutePath("deploy_target_key").getPath());
+    }
+
+    assertEquals(0, subject.getMetrics().inFlightCount());
+    assertEquals(5, subject.getMetrics().succeededCount());
+    assertEquals(0, subject.getMetrics().failedCount());
+    assertTrue(subject.getMetrics().latencyNanos() > 0);
+  }
+
+  @Test
+  public void testCallsAreBoundedByTheDeadline() {
+    mockExternalCoreDataService.setGetServiceDeployTargetInfoLogic(
+        request -> {
+          try {
+            Thread.sleep(2000);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return GetServiceDeployTargetInfoResponse.getDefaultInstance();
+        });
+
+    ExecutionException exception = null;
+    try {
+      subject.getServiceRoutePath("deploy_target_key");
+    } catch (ExecutionException e) {
+      exception = e;
+    } catch (InterruptedException e) {
+      fail();
+    }
+
+    assertNotNull(exception);
+    assertEquals(Status.Code.DEADLINE_EXCEEDED, Status.fromThrowable(exception).getCode());
+    assertEquals(1, subject.getMetrics().failedCount());
+  }
+
+  private static GetNlpRoutingInfoResponse routingInfo(String serviceName) {
+    return GetNlpRoutingInfoResponse.newBuilder()
+        .addPathComponentsArray(
+            PathComponents.newBuilder().setOrganizationUnit("ou").setServiceName(serviceName))
+        .build();
+  }
 }
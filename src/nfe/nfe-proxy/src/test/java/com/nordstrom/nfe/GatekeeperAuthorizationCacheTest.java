@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import com.google.protobuf.Timestamp;
+import com.nordstrom.gatekeeper.AuthorizationError;
+import com.nordstrom.gatekeeper.AuthorizationResponse;
+import com.nordstrom.gatekeeper.AuthorizationSuccess;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GatekeeperAuthorizationCacheTest extends Assert {
+  private static final long MAX_TTL = TimeUnit.MINUTES.toMillis(15);
+
+  private AtomicLong now;
+  private GatekeeperAuthorizationCache subject;
+
+  @Before
+  public void beforeEach() {
+    now = new AtomicLong(TimeUnit.DAYS.toMillis(365));
+    subject = new GatekeeperAuthorizationCache(2, MAX_TTL, now::get);
+  }
+
+  @Test
+  public void testLookupAfterRecord() {
+    subject.record("key", response(now.get() + 60_000, "apikey:ou:sn", true));
+
+    AuthorizationResponse cached =
+        subject.lookup("key", Collections.singletonList("apikey:ou:sn"));
+
+    assertNotNull(cached);
+    assertTrue(cached.getSuccess().getPermissionsMap().get("apikey:ou:sn"));
+    assertEquals(1, subject.hitCount());
+    assertEquals(0, subject.missCount());
+  }
+
+  @Test
+  public void testLookupMissesWhenAnyPermissionIsUnknown() {
+    subject.record("key", response(now.get() + 60_000, "a", true));
+
+    assertNull(subject.lookup("key", Arrays.asList("a", "b")));
+    assertNull(subject.lookup("other-key", Collections.singletonList("a")));
+    assertEquals(2, subject.missCount());
+  }
+
+  @Test
+  public void testDecisionExpiresAtCacheTtl() {
+    subject.record("key", response(now.get() + 60_000, "a", false));
+    assertNotNull(subject.lookup("key", Collections.singletonList("a")));
+
+    now.addAndGet(60_000);
+
+    assertNull(subject.lookup("key", Collections.singletonList("a")));
+  }
+
+  @Test
+  public void testCacheTtlIsCappedByMaxTtl() {
+    subject.record("key", response(now.get() + MAX_TTL * 10, "a", true));
+
+    now.addAndGet(MAX_TTL);
+
+    assertNull(subject.lookup("key", Collections.singletonList("a")));
+  }
+
+  @Test
+  public void testErrorsAndExpiredResponsesAreNotCached() {
+    subject.record(
+        "key",
+        AuthorizationResponse.newBuilder()
+            .setError(AuthorizationError.newBuilder().setMessage("nope"))
+            .build());
+    subject.record("key", response(now.get() - 1, "a", true));
+
+    assertEquals(0, subject.size());
+  }
+
+  @Test
+  public void testInvalidateSubject() {
+    subject.record("key", response(now.get() + 60_000, "a", true));
+    subject.record("other-key", response(now.get() + 60_000, "a", true));
+
+    subject.invalidate("key");
+
+    assertNull(subject.lookup("key", Collections.singletonList("a")));
+    assertNotNull(subject.lookup("other-key", Collections.singletonList("a")));
+  }
+
+  @Test
+  public void testSizeIsBounded() {
+    subject.record("key-1", response(now.get() + 60_000, "a", true));
+    subject.record("key-2", response(now.get() + 60_000, "a", true));
+    subject.record("key-3", response(now.get() + 60_000, "a", true));
+
+    assertEquals(2, subject.size());
+    assertEquals(1, subject.evictionCount());
+  }
+
+  private static AuthorizationResponse response(
+      long cacheTtlMillis, String permission, boolean authorized) {
+    return AuthorizationResponse.newBuilder()
+        .setSuccess(
+            AuthorizationSuccess.newBuilder()
+                .putPermissions(permission, authorized)
+                .setCacheTtl(
+                    Timestamp.newBuilder()
+                        .setSeconds(TimeUnit.MILLISECONDS.toSeconds(cacheTtlMillis))
+                        .setNanos((int) TimeUnit.MILLISECONDS.toNanos(cacheTtlMillis % 1000))))
+        .build();
+  }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.nordstrom.gatekeeper.AuthorizationResponse;
+import com.nordstrom.gatekeeper.AuthorizationSuccess;
+import com.nordstrom.nfe.apikey.ApiKeyAdmission;
+import com.nordstrom.nfe.config.ApiKeyAdmissionConfig;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.RouteConfig;
+import com.xjeffrose.xio.http.RoutePartial;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GatekeeperAuthorizerTest extends Assert {
+  private static final String ROUTE = "/v1/ou/sn/";
+  private static final String PATH = ROUTE + "fives";
+  private static final String PERMISSION = GatekeeperAuthorizer.encodedPermissionPath(PATH);
+
+  private GatekeeperClientProxy gatekeeperClient;
+  private EmbeddedChannel channel;
+
+  @Before
+  public void beforeEach() {
+    gatekeeperClient = mock(GatekeeperClientProxy.class);
+    ApiKeyAdmission admission =
+        new ApiKeyAdmission(new ApiKeyAdmissionConfig(false, 1, 0.001, 1), ImmutableList.of());
+    channel =
+        new EmbeddedChannel(
+            new GatekeeperAuthorizer(mock(NfeState.class), gatekeeperClient, admission));
+  }
+
+  @Test
+  public void testRoutesWithoutPermissionPassThrough() {
+    RoutePartial partial = partial("none", 1, true, true, "key");
+    channel.writeInbound(partial);
+
+    assertSame(partial, channel.readInbound());
+    verify(gatekeeperClient, times(0)).apiKeyAuth(any(), anyList());
+  }
+
+  @Test
+  public void testMessagesAreHeldUntilAuthorizedAndResumedInOrder() {
+    SettableFuture<AuthorizationResponse> future = SettableFuture.create();
+    when(gatekeeperClient.apiKeyAuth(eq("key"), eq(ImmutableList.of(PERMISSION))))
+        .thenReturn(future);
+
+    RoutePartial head = partial("apikey:encoded_path", 1, true, false, "key");
+    RoutePartial body = partial("apikey:encoded_path", 1, false, false, "key");
+    RoutePartial tail = partial("apikey:encoded_path", 1, false, true, "key");
+    channel.writeInbound(head);
+    channel.writeInbound(body);
+    channel.writeInbound(tail);
+    assertNull(channel.readInbound());
+
+    future.set(response(true));
+    channel.runPendingTasks();
+
+    assertSame(head, channel.readInbound());
+    assertSame(body, channel.readInbound());
+    assertSame(tail, channel.readInbound());
+    assertNull(channel.readOutbound());
+    // the rest of the stream is not authorized again
+    verify(gatekeeperClient, times(1)).apiKeyAuth(any(), anyList());
+  }
+
+  @Test
+  public void testCachedDecisionIsAppliedRightAway() {
+    when(gatekeeperClient.apiKeyAuth(eq("key"), anyList()))
+        .thenReturn(Futures.immediateFuture(response(true)));
+
+    RoutePartial partial = partial("apikey:encoded_path", 1, true, true, "key");
+    channel.writeInbound(partial);
+
+    assertSame(partial, channel.readInbound());
+  }
+
+  @Test
+  public void testUnauthorizedStreamIsAnsweredWith401AndReleased() {
+    SettableFuture<AuthorizationResponse> future = SettableFuture.create();
+    when(gatekeeperClient.apiKeyAuth(eq("key"), anyList())).thenReturn(future);
+
+    RoutePartial head = partial("apikey:encoded_path", 1, true, false, "key");
+    RoutePartial body = partial("apikey:encoded_path", 1, false, false, "key");
+    channel.writeInbound(head);
+    channel.writeInbound(body);
+
+    future.set(response(false));
+    channel.runPendingTasks();
+
+    assertNull(channel.readInbound());
+    Response response = channel.readOutbound();
+    assertEquals(401, response.status().code());
+    assertEquals(1, response.streamId());
+    assertEquals(0, head.request().body().refCnt());
+    assertEquals(0, body.request().body().refCnt());
+  }
+
+  @Test
+  public void testRestOfRejectedStreamIsDropped() {
+    RoutePartial head = partial("apikey:encoded_path", 1, true, false, "key");
+    RoutePartial body = partial("apikey:encoded_path", 1, false, false, "key");
+    RoutePartial tail = partial("apikey:encoded_path", 1, false, true, "key");
+    when(gatekeeperClient.apiKeyAuth(any(), anyList()))
+        .thenReturn(Futures.immediateFuture(response(false)));
+    channel.writeInbound(head);
+    channel.writeInbound(body);
+    channel.writeInbound(tail);
+
+    assertNull(channel.readInbound());
+    assertEquals(401, ((Response) channel.readOutbound()).status().code());
+    assertNull(channel.readOutbound());
+    assertEquals(0, body.request().body().refCnt());
+    assertEquals(0, tail.request().body().refCnt());
+
+    // the stream id can be used again once the rejected stream ended
+    when(gatekeeperClient.apiKeyAuth(any(), anyList()))
+        .thenReturn(Futures.immediateFuture(response(true)));
+    RoutePartial next = partial("apikey:encoded_path", 1, true, true, "key");
+    channel.writeInbound(next);
+    assertSame(next, channel.readInbound());
+  }
+
+  @Test
+  public void testMissingApiKeyIsAnsweredWith401() {
+    RoutePartial partial = partial("apikey:encoded_path", 1, true, true, null);
+    channel.writeInbound(partial);
+
+    assertNull(channel.readInbound());
+    assertEquals(401, ((Response) channel.readOutbound()).status().code());
+    assertEquals(0, partial.request().body().refCnt());
+  }
+
+  @Test
+  public void testFailedAuthorizationIsAnsweredWith401() {
+    when(gatekeeperClient.apiKeyAuth(any(), anyList()))
+        .thenReturn(Futures.immediateFailedFuture(new IllegalStateException("unavailable")));
+
+    channel.writeInbound(partial("apikey:encoded_path", 1, true, true, "key"));
+
+    assertNull(channel.readInbound());
+    assertEquals(401, ((Response) channel.readOutbound()).status().code());
+  }
+
+  @Test
+  public void testHeldMessagesAreReleasedWhenTheChannelCloses() {
+    SettableFuture<AuthorizationResponse> future = SettableFuture.create();
+    when(gatekeeperClient.apiKeyAuth(any(), anyList())).thenReturn(future);
+
+    RoutePartial head = partial("apikey:encoded_path", 1, true, false, "key");
+    RoutePartial body = partial("apikey:encoded_path", 1, false, true, "key");
+    channel.writeInbound(head);
+    channel.writeInbound(body);
+    channel.close();
+    assertEquals(0, body.request().body().refCnt());
+
+    // the decision arriving late releases the start of the stream too
+    future.set(response(true));
+    channel.runPendingTasks();
+    assertNull(channel.readInbound());
+    assertEquals(0, head.request().body().refCnt());
+  }
+
+  private static AuthorizationResponse response(boolean authorized) {
+    return AuthorizationResponse.newBuilder()
+        .setSuccess(AuthorizationSuccess.newBuilder().putPermissions(PERMISSION, authorized))
+        .build();
+  }
+
+  private static RoutePartial partial(
+      String permissionNeeded, int streamId, boolean start, boolean end, String apiKey) {
+    Headers headers = new DefaultHeaders();
+    if (apiKey != null) {
+      headers.set("apikey", apiKey);
+    }
+    ByteBuf body = Unpooled.copyLong(streamId);
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.startOfMessage()).thenReturn(start);
+    when(request.endOfMessage()).thenReturn(end);
+    when(request.path()).thenReturn(PATH);
+    when(request.headers()).thenReturn(headers);
+    when(request.body()).thenReturn(body);
+    RouteState route =
+        new RouteState(
+            new RouteConfig(Collections.emptyList(), "", ROUTE, permissionNeeded),
+            mock(PipelineRequestHandler.class));
+    return new RoutePartial(request, route);
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.RouteConfig;
+import com.xjeffrose.xio.http.RoutePartial;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RejectedStreamsTest extends Assert {
+  private EmbeddedChannel channel;
+  private ChannelHandlerContext ctx;
+  private RejectedStreams subject;
+
+  @Before
+  public void beforeEach() {
+    channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ctx = channel.pipeline().firstContext();
+    subject = new RejectedStreams();
+  }
+
+  @Test
+  public void testRejectedStreamIsAnsweredAndDrained() {
+    ByteBuf first = Unpooled.copyLong(1);
+    ByteBuf middle = Unpooled.copyLong(2);
+    ByteBuf last = Unpooled.copyLong(3);
+
+    subject.reject(ctx, partial(1, true, false, first), HttpResponseStatus.FORBIDDEN);
+    assertTrue(subject.drain(request(1, false, false, middle)));
+    assertTrue(subject.drain(partial(1, false, true, last)));
+
+    Response response = channel.readOutbound();
+    assertEquals(HttpResponseStatus.FORBIDDEN, response.status());
+    assertEquals(1, response.streamId());
+    assertEquals(0, first.refCnt());
+    assertEquals(0, middle.refCnt());
+    assertEquals(0, last.refCnt());
+  }
+
+  @Test
+  public void testOtherStreamsAreNotDrained() {
+    subject.reject(ctx, partial(1, true, false, null), HttpResponseStatus.UNAUTHORIZED);
+    ByteBuf body = Unpooled.copyLong(1);
+
+    assertFalse(subject.drain(partial(3, true, true, body)));
+    assertFalse(subject.drain("not a request"));
+    assertEquals(1, body.refCnt());
+    body.release();
+  }
+
+  @Test
+  public void testStreamIsForgottenAfterItsLastMessage() {
+    subject.reject(ctx, partial(1, true, false, null), HttpResponseStatus.TOO_MANY_REQUESTS);
+    assertTrue(subject.drain(partial(1, false, true, null)));
+
+    assertFalse(subject.drain(partial(1, true, true, null)));
+  }
+
+  @Test
+  public void testWholeRequestIsNotRemembered() {
+    subject.reject(ctx, partial(1, true, true, null), HttpResponseStatus.FORBIDDEN);
+
+    assertFalse(subject.drain(partial(1, true, true, null)));
+  }
+
+  private static Request request(int streamId, boolean start, boolean end, ByteBuf body) {
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.startOfMessage()).thenReturn(start);
+    when(request.endOfMessage()).thenReturn(end);
+    when(request.body()).thenReturn(body);
+    return request;
+  }
+
+  private static RoutePartial partial(int streamId, boolean start, boolean end, ByteBuf body) {
+    RouteState route =
+        new RouteState(
+            new RouteConfig(Collections.emptyList(), "", "/", "none"),
+            mock(PipelineRequestHandler.class));
+    return new RoutePartial(request(streamId, start, end, body), route);
+  }
+}
@@ -19,13 +19,19 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
 import com.nordstrom.gtm.serviceregistration.CreateServiceRegistrationRequest;
 import com.nordstrom.gtm.serviceregistration.CreateServiceRegistrationResponse;
+import com.nordstrom.nfe.balancing.BalancingProxyHandler;
+import com.nordstrom.nfe.balancing.Endpoint;
 import com.nordstrom.nfe.config.KubernetesRoutingConfig;
 import com.nordstrom.nfe.config.NfeConfig;
 import com.nordstrom.nfe.nlpmanagement.AccountInfo;
 import com.nordstrom.nfe.nlpmanagement.KubernetesNodeInfo;
+import com.nordstrom.nfe.nlpmanagement.NlpHealthChecker;
 import com.nordstrom.nfe.nlpmanagement.NlpInstanceEntry;
+import com.nordstrom.nfe.routing.RouteGeneration;
+import com.nordstrom.nfe.testhelpers.TimingTestHelper;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.xjeffrose.xio.client.ClientConfig;
@@ -55,11 +61,11 @@ public class RouteStatesTest {
   private Config config;
   private NfeState nfeState;
 
-  @Captor private ArgumentCaptor<ImmutableMap<String, RouteState>> routeMapCaptor;
+  @Captor private ArgumentCaptor<RouteGeneration> generationCaptor;
 
   @Before
   public void beforeEach() {
-    routeMapCaptor = ArgumentCaptor.forClass(ImmutableMap.class);
+    generationCaptor = ArgumentCaptor.forClass(RouteGeneration.class);
 
     config = ConfigFactory.load("application.conf");
     NfeConfig nfeConfig = new NfeConfig(config);
@@ -72,19 +78,23 @@ public class RouteStatesTest {
   @Test
   public void testProxyHandler() {
     subject.buildInitialRoutes(Collections.emptyList());
-    verify(nfeState, timeout(500)).setRoutes(routeMapCaptor.capture());
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
 
-    RouteState firstRouteState = routeMapCaptor.getValue().entrySet().asList().get(0).getValue();
-    assertTrue(firstRouteState.handler() instanceof PersistentProxyHandler);
+    RouteState firstRouteState = generationCaptor.getValue().routes().entrySet().asList().get(0).getValue();
+    assertTrue(firstRouteState.handler() instanceof BalancingProxyHandler);
+
+    List<Endpoint> endpoints = ((BalancingProxyHandler) firstRouteState.handler()).endpoints();
+    assertEquals(1, endpoints.size());
+    assertTrue(endpoints.get(0).handler() instanceof PersistentProxyHandler);
   }
 
   @Test
   public void testGrpcRoutes() {
     TestGrpcService grpcService = new TestGrpcService();
     subject.buildInitialRoutes(Collections.singletonList(grpcService));
-    verify(nfeState, timeout(500)).setRoutes(routeMapCaptor.capture());
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
 
-    RouteState routeState = routeMapCaptor.getValue().get(grpcService.route.buildPath());
+    RouteState routeState = generationCaptor.getValue().routes().get(grpcService.route.buildPath());
     RouteConfig routeConfig = routeState.config();
 
     assertEquals(Collections.singletonList(HttpMethod.POST), routeConfig.methods());
@@ -106,8 +116,8 @@ public class RouteStatesTest {
     subject.addCustomerAccountNlpInstances(() -> Collections.singletonList(entry));
 
     // THEN it should have added the route to NfeState
-    verify(nfeState, timeout(500)).setRoutes(routeMapCaptor.capture());
-    RouteState routeState = routeMapCaptor.getValue().get(path);
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
+    RouteState routeState = generationCaptor.getValue().routes().get(path);
     ProxyRouteConfig routeConfig = (ProxyRouteConfig) routeState.config();
 
     // THEN it should have configured the route info correctly
@@ -135,7 +145,7 @@ public class RouteStatesTest {
     subject.addCustomerAccountNlpInstances(() -> entries);
 
     // THEN it should have added the routes to NfeState
-    verify(nfeState, timeout(500)).setRoutes(routeMapCaptor.capture());
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should have the added the customer account NLPs instances to the list
     AccountInfo accountInfo1 = subject.getCustomerAccountNlpMap().get("accountId-1");
@@ -153,7 +163,7 @@ public class RouteStatesTest {
 
     // - '/ou-1/sn-1-a/'
     // THEN it should have route state for path '/ou-1/sn-1-a/'
-    RouteState routeState1 = routeMapCaptor.getValue().get(paths1.get(0));
+    RouteState routeState1 = generationCaptor.getValue().routes().get(paths1.get(0));
     ProxyRouteConfig routeConfig1 = (ProxyRouteConfig) routeState1.config();
     assertEquals(paths1.get(0), routeConfig1.path());
     assertEquals("/sn-1-a/", routeConfig1.proxyPath());
@@ -170,7 +180,7 @@ public class RouteStatesTest {
 
     // - '/ou-1/sn-1-b/'
     // THEN it should have route state for path '/ou-1/sn-1-b/'
-    RouteState routeState2 = routeMapCaptor.getValue().get(paths1.get(1));
+    RouteState routeState2 = generationCaptor.getValue().routes().get(paths1.get(1));
     ProxyRouteConfig routeConfig2 = (ProxyRouteConfig) routeState2.config();
     assertEquals(paths1.get(1), routeConfig2.path());
     assertEquals("/sn-1-b/", routeConfig2.proxyPath());
@@ -187,7 +197,7 @@ public class RouteStatesTest {
 
     // - '/ou-1/sn-2/'
     // THEN it should have route state for path '/ou-1/sn-2/'
-    RouteState routeState3 = routeMapCaptor.getValue().get(paths2.get(0));
+    RouteState routeState3 = generationCaptor.getValue().routes().get(paths2.get(0));
     ProxyRouteConfig routeConfig3 = (ProxyRouteConfig) routeState3.config();
     assertEquals(paths2.get(0), routeConfig3.path());
     assertEquals("/sn-2/", routeConfig3.proxyPath());
@@ -198,6 +208,28 @@ public class RouteStatesTest {
     assertEquals(expectedAddress3, clientConfig3.remote());
   }
 
+  @Test
+  public void testNlpsOfRoutesAreHealthChecked() {
+    NlpHealthChecker nlpHealthChecker = mock(NlpHealthChecker.class);
+    NfeConfig nfeConfig = new NfeConfig(config);
+    RouteStates subject =
+        new RouteStates(
+            nfeState, nfeConfig, new ProxyClientFactory(nfeState), nlpHealthChecker);
+
+    List<String> paths = Collections.singletonList("/ou/sn/");
+    subject.addCustomerAccountNlpInstances(
+        () ->
+            Arrays.asList(
+                new NlpInstanceEntry("accountId-1", "10.0.0.1", paths),
+                new NlpInstanceEntry("accountId-1", "10.0.0.2", paths)));
+
+    int port = nfeConfig.defaultClientConfig().remote().getPort();
+    verify(nlpHealthChecker, timeout(500))
+        .setTargets(
+            Sets.newHashSet(
+                new InetSocketAddress("10.0.0.1", port), new InetSocketAddress("10.0.0.2", port)));
+  }
+
   @Test
   public void testRemoveCustomerAccountNlpInstance_LastInstanceForAccount() {
     // GIVEN a customer account NLP has been added
@@ -205,24 +237,24 @@ public class RouteStatesTest {
     NlpInstanceEntry entry =
         new NlpInstanceEntry("accountId", "ipAddress", Collections.singletonList(path));
     subject.addCustomerAccountNlpInstances(() -> Collections.singletonList(entry));
-    verify(nfeState, timeout(500)).setRoutes(routeMapCaptor.capture());
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should have the newly added route (sanity check)
-    RouteState routeState = routeMapCaptor.getValue().get(path);
+    RouteState routeState = generationCaptor.getValue().routes().get(path);
     ProxyRouteConfig routeConfig = (ProxyRouteConfig) routeState.config();
     assertNotNull(routeConfig);
 
     // WHEN the last service for the account is removed
     subject.removeCustomerAccountNlpInstance("accountId", "ipAddress");
 
-    // add NLP + removce NLP = 2 `setRoutes()` calls
-    verify(nfeState, timeout(500).times(2)).setRoutes(routeMapCaptor.capture());
+    // add NLP + removce NLP = 2 `setRouteGeneration()` calls
+    verify(nfeState, timeout(500).times(2)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should have removed the entire account
     assertFalse(subject.getCustomerAccountNlpMap().containsKey("accountId"));
 
     // THEN it should have removed the entire proxy route
-    assertNull(routeMapCaptor.getValue().get(path));
+    assertNull(generationCaptor.getValue().routes().get(path));
   }
 
   @Test
@@ -239,8 +271,8 @@ public class RouteStatesTest {
     // WHEN one of the services for the account is removed
     subject.removeCustomerAccountNlpInstance("accountId", "ipAddress-1");
 
-    // add NLP + remove NLP = 2 `setRoutes()` calls
-    verify(nfeState, timeout(500).times(2)).setRoutes(routeMapCaptor.capture());
+    // add NLP + remove NLP = 2 `setRouteGeneration()` calls
+    verify(nfeState, timeout(500).times(2)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should have only removed the NLP instance (not the entire account)
     assertTrue(subject.getCustomerAccountNlpMap().containsKey("accountId"));
@@ -249,8 +281,8 @@ public class RouteStatesTest {
     assertEquals(Collections.singletonList("ipAddress-2"), accountInfo.getIpAddresses());
 
     // THEN it should have removed the client config, but kept the route
-    assertNotNull(routeMapCaptor.getValue().get(path));
-    RouteState routeState = routeMapCaptor.getValue().get(path);
+    assertNotNull(generationCaptor.getValue().routes().get(path));
+    RouteState routeState = generationCaptor.getValue().routes().get(path);
     ProxyRouteConfig routeConfig = (ProxyRouteConfig) routeState.config();
     assertEquals(1, routeConfig.clientConfigs().size());
     assertEquals("ipAddress-2", routeConfig.clientConfigs().get(0).remote().getHostName());
@@ -270,6 +302,163 @@ public class RouteStatesTest {
     subject.removeCustomerAccountNlpInstance("accountId", "nonExistingIpAddress");
   }
 
+  @Test
+  public void testAddCustomerAccountNlpInstances_ReusesUnchangedRoutes() {
+    // GIVEN a customer account NLP has been added
+    NlpInstanceEntry entry1 =
+        new NlpInstanceEntry("accountId-1", "ipAddress-1", Collections.singletonList("/ou/sn-1/"));
+    subject.addCustomerAccountNlpInstances(() -> Collections.singletonList(entry1));
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
+    RouteState originalRouteState = generationCaptor.getValue().routes().get("/ou/sn-1/");
+
+    // WHEN an NLP in another account is added
+    NlpInstanceEntry entry2 =
+        new NlpInstanceEntry("accountId-2", "ipAddress-2", Collections.singletonList("/ou/sn-2/"));
+    subject.addCustomerAccountNlpInstances(() -> Collections.singletonList(entry2));
+    verify(nfeState, timeout(500).times(2)).setRouteGeneration(generationCaptor.capture());
+
+    // THEN the route of the untouched account should be reused as is
+    assertSame(originalRouteState, generationCaptor.getValue().routes().get("/ou/sn-1/"));
+    assertNotNull(generationCaptor.getValue().routes().get("/ou/sn-2/"));
+  }
+
+  @Test
+  public void testUpdateCustomerAccountNlpInstanceMap_ReusesUnchangedRoutes() {
+    // GIVEN two customer accounts with NLPs
+    String pathA = "/ou/a/";
+    String pathB = "/ou/b/";
+    List<NlpInstanceEntry> entries =
+        Arrays.asList(
+            new NlpInstanceEntry("accountId-1", "ipAddress-1", Collections.singletonList(pathA)),
+            new NlpInstanceEntry("accountId-2", "ipAddress-2", Collections.singletonList(pathB)));
+    subject.addCustomerAccountNlpInstances(() -> entries);
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
+    RouteState routeStateA = generationCaptor.getValue().routes().get("/ou/a/");
+    RouteState routeStateB = generationCaptor.getValue().routes().get("/ou/b/");
+
+    // WHEN the map is replaced with an equal account 1 and a modified account 2
+    subject.updateCustomerAccountNlpInstanceMap(
+        original -> {
+          Map<String, AccountInfo> updated = new HashMap<>();
+          updated.put(
+              "accountId-1",
+              new AccountInfo(
+                  Collections.singletonList("ipAddress-1"), Collections.singletonList("/ou/a/")));
+          updated.put(
+              "accountId-2",
+              new AccountInfo(
+                  Arrays.asList("ipAddress-2", "ipAddress-3"), Collections.singletonList(pathB)));
+          return updated;
+        });
+    verify(nfeState, timeout(500).times(2)).setRouteGeneration(generationCaptor.capture());
+
+    // THEN only the modified route should have been rebuilt
+    assertSame(routeStateA, generationCaptor.getValue().routes().get("/ou/a/"));
+    RouteState updatedRouteStateB = generationCaptor.getValue().routes().get("/ou/b/");
+    assertNotSame(routeStateB, updatedRouteStateB);
+    assertEquals(2, ((ProxyRouteConfig) updatedRouteStateB.config()).clientConfigs().size());
+  }
+
+  @Test
+  public void testAddCustomerAccountNlpInstances_ReusesEndpointsOfRebuiltRoutes() {
+    // GIVEN a customer account NLP has been added
+    String path = "/ou/sn/";
+    NlpInstanceEntry entry1 =
+        new NlpInstanceEntry("accountId", "ipAddress-1", Collections.singletonList(path));
+    subject.addCustomerAccountNlpInstances(() -> Collections.singletonList(entry1));
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
+    Endpoint originalEndpoint = endpoints(generationCaptor.getValue().routes().get(path)).get(0);
+
+    // WHEN another NLP is added to the account
+    NlpInstanceEntry entry2 =
+        new NlpInstanceEntry("accountId", "ipAddress-2", Collections.singletonList(path));
+    subject.addCustomerAccountNlpInstances(() -> Collections.singletonList(entry2));
+    verify(nfeState, timeout(500).times(2)).setRouteGeneration(generationCaptor.capture());
+
+    // THEN the rebuilt route should keep the endpoint of the NLP that was already serving it
+    List<Endpoint> endpoints = endpoints(generationCaptor.getValue().routes().get(path));
+    assertEquals(2, endpoints.size());
+    assertSame(originalEndpoint, endpoints.get(0));
+    assertEquals("ipAddress-2", endpoints.get(1).address().getHostName());
+  }
+
+  @Test
+  public void testNlpRouteChangesLeaveOtherRoutesInTheTree() {
+    // GIVEN the config file routes and an NLP route have been published
+    subject.buildInitialRoutes(Collections.emptyList());
+    NlpInstanceEntry entry1 =
+        new NlpInstanceEntry("accountId-1", "ipAddress-1", Collections.singletonList("/ou/a/"));
+    subject.addCustomerAccountNlpInstances(() -> Collections.singletonList(entry1));
+    assertTrue(
+        TimingTestHelper.contiuallyCheckForSuccess(
+            500, () -> nfeState.getRoutes().containsKey("/ou/a/")));
+    ImmutableMap<String, RouteState> before = nfeState.getRoutes();
+
+    // WHEN the NLP route is removed
+    subject.removeCustomerAccountNlpInstance("accountId-1", "ipAddress-1");
+    assertTrue(
+        TimingTestHelper.contiuallyCheckForSuccess(
+            500, () -> !nfeState.getRoutes().containsKey("/ou/a/")));
+
+    // THEN every other route should still be there, as is
+    ImmutableMap<String, RouteState> after = nfeState.getRoutes();
+    assertEquals(before.size() - 1, after.size());
+    after.forEach((path, route) -> assertSame(before.get(path), route));
+  }
+
+  @Test
+  public void testAddKubernetesNlpInstances_ReusesUnchangedRoutes() {
+    // GIVEN a K8S node has been added
+    KubernetesNodeInfo nodeInfo1 =
+        new KubernetesNodeInfo("node-1", "ipAddress-1", Collections.singletonList("/ou/sn-1/"));
+    subject.addKubernetesNlpInstances(() -> Collections.singletonList(nodeInfo1));
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
+    RouteState originalRouteState = generationCaptor.getValue().routes().get("/ou/sn-1/");
+
+    // WHEN a node serving another path is added
+    KubernetesNodeInfo nodeInfo2 =
+        new KubernetesNodeInfo("node-2", "ipAddress-2", Collections.singletonList("/ou/sn-2/"));
+    subject.addKubernetesNlpInstances(() -> Collections.singletonList(nodeInfo2));
+    verify(nfeState, timeout(500).times(2)).setRouteGeneration(generationCaptor.capture());
+
+    // THEN the untouched route should be reused as is
+    assertSame(originalRouteState, generationCaptor.getValue().routes().get("/ou/sn-1/"));
+    assertNotNull(generationCaptor.getValue().routes().get("/ou/sn-2/"));
+  }
+
+  @Test
+  public void testRouteChangesWithinWindowArePublishedOnce() {
+    // GIVEN route changes are coalesced in batches of up to 3 within a long window
+    NfeConfig coalescingConfig =
+        new NfeConfig(
+            ConfigFactory.parseString(
+                    "nfe.routeUpdates { coalesceWindow = 10 seconds, maxBatchSize = 3 }")
+                .withFallback(config));
+    NfeState coalescingState = spy(new NfeState(coalescingConfig));
+    RouteStates coalescingSubject =
+        new RouteStates(
+            coalescingState, coalescingConfig, new ProxyClientFactory(coalescingState));
+
+    // WHEN 3 NLPs are added one event at a time
+    for (int i = 0; i < 3; i++) {
+      NlpInstanceEntry entry =
+          new NlpInstanceEntry(
+              "accountId-" + i, "ipAddress-" + i, Collections.singletonList("/ou/sn-" + i + "/"));
+      coalescingSubject.addCustomerAccountNlpInstances(() -> Collections.singletonList(entry));
+    }
+
+    // THEN the routes should have been published once with all 3 NLPs
+    verify(coalescingState, timeout(500).times(1)).setRouteGeneration(generationCaptor.capture());
+    assertNotNull(generationCaptor.getValue().routes().get("/ou/sn-0/"));
+    assertNotNull(generationCaptor.getValue().routes().get("/ou/sn-1/"));
+    assertNotNull(generationCaptor.getValue().routes().get("/ou/sn-2/"));
+    assertEquals(3, coalescingSubject.getLastBatchSize());
+    assertTrue(
+        TimingTestHelper.contiuallyCheckForSuccess(
+            500, () -> coalescingSubject.getPublishCount() == 1));
+    assertEquals(0, coalescingSubject.getQueueDepth());
+  }
+
   @Test
   public void testUpdateCustomerAccountNlpInstanceMap() {
     String accountId = "account_id";
@@ -281,11 +470,11 @@ public class RouteStatesTest {
 
     // WHEN the customer account NLP map is updated
     subject.updateCustomerAccountNlpInstanceMap(originalNlpInstanceMap -> newNlpInstanceMap);
-    verify(nfeState, timeout(500).times(1)).setRoutes(routeMapCaptor.capture());
+    verify(nfeState, timeout(500).times(1)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should have given NfeState a RouteState map for the newly given NLP map
     // - note: full testing of the RouteState can be found in other tests in this file
-    ImmutableMap<String, RouteState> routeStateMap = routeMapCaptor.getValue();
+    ImmutableMap<String, RouteState> routeStateMap = generationCaptor.getValue().routes();
     assertEquals(1, routeStateMap.size());
     assertNotNull(routeStateMap.get(path));
   }
@@ -299,10 +488,10 @@ public class RouteStatesTest {
     KubernetesNodeInfo nodeInfo =
         new KubernetesNodeInfo("unique-id", ipAddress, Collections.singletonList(path));
     subject.addKubernetesNlpInstances(() -> Collections.singletonList(nodeInfo));
-    verify(nfeState, timeout(500)).setRoutes(routeMapCaptor.capture());
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should now have the newly added routes
-    RouteState routeState = routeMapCaptor.getValue().get(path);
+    RouteState routeState = generationCaptor.getValue().routes().get(path);
     ProxyRouteConfig routeConfig = (ProxyRouteConfig) routeState.config();
 
     // THEN it should have configured the route info correctly
@@ -329,7 +518,7 @@ public class RouteStatesTest {
             new KubernetesNodeInfo("uniqueId-2", "ipAddress-2", paths1),
             new KubernetesNodeInfo("uniqueId-3", "ipAddress-3", paths2));
     subject.addKubernetesNlpInstances(() -> nodeInfos);
-    verify(nfeState, timeout(500)).setRoutes(routeMapCaptor.capture());
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should have the K8S-NLP instances
     KubernetesNodeInfo nodeInfo1 = subject.getK8sNlpMap().get("uniqueId-1");
@@ -353,7 +542,7 @@ public class RouteStatesTest {
 
     // - '/ou-1/sn-1-a/'
     // THEN it should have route state for path '/ou-1/sn-1-a/'
-    RouteState routeState1 = routeMapCaptor.getValue().get(paths1.get(0));
+    RouteState routeState1 = generationCaptor.getValue().routes().get(paths1.get(0));
     ProxyRouteConfig routeConfig1 = (ProxyRouteConfig) routeState1.config();
     assertEquals(paths1.get(0), routeConfig1.path());
     assertEquals("/sn-1-a/", routeConfig1.proxyPath());
@@ -370,7 +559,7 @@ public class RouteStatesTest {
 
     // - '/ou-1/sn-1-b/'
     // THEN it should have route state for path '/ou-1/sn-1-b/'
-    RouteState routeState2 = routeMapCaptor.getValue().get(paths1.get(1));
+    RouteState routeState2 = generationCaptor.getValue().routes().get(paths1.get(1));
     ProxyRouteConfig routeConfig2 = (ProxyRouteConfig) routeState2.config();
     assertEquals(paths1.get(1), routeConfig2.path());
     assertEquals("/sn-1-b/", routeConfig2.proxyPath());
@@ -387,7 +576,7 @@ public class RouteStatesTest {
 
     // - '/ou-1/sn-2/'
     // THEN it should have route state for path '/ou-1/sn-2/'
-    RouteState routeState3 = routeMapCaptor.getValue().get(paths2.get(0));
+    RouteState routeState3 = generationCaptor.getValue().routes().get(paths2.get(0));
     ProxyRouteConfig routeConfig3 = (ProxyRouteConfig) routeState3.config();
     assertEquals(paths2.get(0), routeConfig3.path());
     assertEquals("/sn-2/", routeConfig3.proxyPath());
@@ -414,10 +603,10 @@ public class RouteStatesTest {
     KubernetesNodeInfo nodeInfo =
         new KubernetesNodeInfo(uniqueId, ipAddress, Collections.singletonList(path));
     subject.addKubernetesNlpInstances(() -> Collections.singletonList(nodeInfo));
-    verify(nfeState, timeout(500).times(2)).setRoutes(routeMapCaptor.capture());
+    verify(nfeState, timeout(500).times(2)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should now have the updated routes
-    RouteState routeState = routeMapCaptor.getAllValues().get(1).get(path);
+    RouteState routeState = generationCaptor.getAllValues().get(1).routes().get(path);
     ProxyRouteConfig routeConfig = (ProxyRouteConfig) routeState.config();
 
     // THEN it should have configured the route info with the new info
@@ -439,10 +628,10 @@ public class RouteStatesTest {
     KubernetesNodeInfo entry =
         new KubernetesNodeInfo("node-id", "ipAddress", Collections.singletonList(path));
     subject.addKubernetesNlpInstances(() -> Collections.singletonList(entry));
-    verify(nfeState, timeout(500)).setRoutes(routeMapCaptor.capture());
+    verify(nfeState, timeout(500)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should have the newly added route (sanity check)
-    RouteState routeState = routeMapCaptor.getValue().get(path);
+    RouteState routeState = generationCaptor.getValue().routes().get(path);
     ProxyRouteConfig routeConfig = (ProxyRouteConfig) routeState.config();
     assertNotNull(routeConfig);
     assertTrue(subject.getK8sNlpMap().containsKey("node-id"));
@@ -450,14 +639,14 @@ public class RouteStatesTest {
     // WHEN an existing K8S node is removed
     subject.removeKubernetesNlpInstance("node-id");
 
-    // add NLP + remove NLP = 2 `setRoutes()` calls
-    verify(nfeState, timeout(500).times(2)).setRoutes(routeMapCaptor.capture());
+    // add NLP + remove NLP = 2 `setRouteGeneration()` calls
+    verify(nfeState, timeout(500).times(2)).setRouteGeneration(generationCaptor.capture());
 
     // THEN it should have removed the entire account
     assertFalse(subject.getK8sNlpMap().containsKey("node-id"));
 
     // THEN it should have removed the entire proxy route
-    assertNull(routeMapCaptor.getValue().get(path));
+    assertNull(generationCaptor.getValue().routes().get(path));
   }
 
   @Test
@@ -467,7 +656,11 @@ public class RouteStatesTest {
     waitForRouteStatesToFinishProcessingQueue();
 
     // THEN it should not have updated NfeState
-    assertTrue(routeMapCaptor.getAllValues().isEmpty());
+    assertTrue(generationCaptor.getAllValues().isEmpty());
+  }
+
+  private static List<Endpoint> endpoints(RouteState routeState) {
+    return ((BalancingProxyHandler) routeState.handler()).endpoints();
   }
 
   private static class TestGrpcService implements GrpcService {
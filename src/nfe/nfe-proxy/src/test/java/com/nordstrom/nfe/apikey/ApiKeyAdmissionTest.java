@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.apikey;
+
+import com.google.common.collect.ImmutableList;
+import com.nordstrom.nfe.config.ApiKeyAdmissionConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ApiKeyAdmissionTest extends Assert {
+  private static final String ROUTE = "/v1/ou/sn/";
+
+  private ApiKeyAdmission subject;
+
+  static ApiKeyAdmissionConfig config() {
+    return new ApiKeyAdmissionConfig(true, 1000, 0.001, 60000);
+  }
+
+  @Before
+  public void beforeEach() {
+    subject = new ApiKeyAdmission(config(), ImmutableList.of("configured"));
+  }
+
+  private void rebuild(String... issuedKeys) {
+    subject.rebuild(
+        ImmutableList.copyOf(issuedKeys), ImmutableList.of(ROUTE), subject.refreshStarted());
+  }
+
+  @Test
+  public void testEveryKeyIsAdmittedUntilTheKeysAreKnown() {
+    assertTrue(subject.admits(ROUTE, "unknown"));
+    assertEquals(0, subject.getRouteCount());
+    assertEquals(0, subject.getRejectedCount());
+  }
+
+  @Test
+  public void testUnknownKeysAreRejected() {
+    rebuild("issued");
+
+    assertTrue(subject.admits(ROUTE, "issued"));
+    assertTrue(subject.admits(ROUTE, "configured"));
+    assertFalse(subject.admits(ROUTE, "unknown"));
+    assertEquals(2, subject.getAdmittedCount());
+    assertEquals(1, subject.getRejectedCount());
+    assertEquals(2, subject.getKeyCount());
+    assertTrue(subject.getSizeInBytes() > 0);
+  }
+
+  @Test
+  public void testRoutesWithoutKnownKeysAreNotChecked() {
+    rebuild("issued");
+
+    assertTrue(subject.admits("/v1/ou/other/", "unknown"));
+    assertEquals(0, subject.getRejectedCount());
+  }
+
+  @Test
+  public void testRequestsWithoutKeyAreLeftToGatekeeper() {
+    rebuild("issued");
+
+    assertTrue(subject.admits(ROUTE, null));
+  }
+
+  @Test
+  public void testGeneratedKeysAreAdmittedAcrossRebuilds() {
+    rebuild("issued");
+
+    // generated while a refresh looks up the keys, the lookup may have missed it
+    long refreshStarted = subject.refreshStarted();
+    subject.keyGenerated("generated");
+    assertTrue(subject.admits(ROUTE, "generated"));
+
+    subject.rebuild(ImmutableList.of("issued"), ImmutableList.of(ROUTE), refreshStarted);
+    assertTrue(subject.admits(ROUTE, "generated"));
+    assertEquals(1, subject.getKeptAsideCount());
+  }
+
+  @Test
+  public void testGeneratedKeysAreLetGoOnceLookedUp() {
+    rebuild("issued");
+    subject.keyGenerated("generated");
+    assertEquals(1, subject.getKeptAsideCount());
+
+    rebuild("issued", "generated");
+
+    assertTrue(subject.admits(ROUTE, "generated"));
+    assertEquals(0, subject.getKeptAsideCount());
+  }
+
+  @Test
+  public void testRevokedKeysAreRejected() {
+    rebuild("issued");
+    subject.keyGenerated("generated");
+
+    subject.keyRevoked("issued");
+    subject.keyRevoked("generated");
+
+    assertFalse(subject.admits(ROUTE, "issued"));
+    assertFalse(subject.admits(ROUTE, "generated"));
+
+    // still listed by the core data service
+    rebuild("issued");
+    assertFalse(subject.admits(ROUTE, "issued"));
+    assertEquals(1, subject.getKeptAsideCount());
+
+    // deleted from it
+    rebuild();
+    assertFalse(subject.admits(ROUTE, "issued"));
+    assertEquals(0, subject.getKeptAsideCount());
+  }
+
+  @Test
+  public void testFilterIsSizedForTheExpectedKeys() {
+    rebuild("issued");
+    long expectedSize = subject.getSizeInBytes();
+
+    ImmutableList.Builder<String> keys = ImmutableList.builder();
+    for (int i = 0; i < 1000; i++) {
+      keys.add("key-" + i);
+    }
+    subject.rebuild(keys.build(), ImmutableList.of(ROUTE), subject.refreshStarted());
+
+    // twice the keys once there are more than expected
+    assertEquals(2 * expectedSize, subject.getSizeInBytes(), 8);
+    assertEquals(0.001, subject.getTargetFalsePositiveRate(), 0);
+    assertTrue(subject.getEstimatedFalsePositiveRate() < 0.001);
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.apikey;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.nordstrom.gtm.apikey.ApiKey;
+import com.nordstrom.gtm.coredb.ListApiKeysResponse;
+import com.nordstrom.nfe.CoreDataService;
+import com.nordstrom.nfe.routing.RouteGeneration;
+import com.xjeffrose.xio.core.ZkClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ApiKeyAdmissionUpdaterTest extends Assert {
+  private ApiKeyAdmission admission;
+  private CoreDataService coreDataService;
+  private RouteGeneration routeGeneration;
+  private ApiKeyAdmissionUpdater subject;
+
+  @Before
+  public void beforeEach() {
+    admission = new ApiKeyAdmission(ApiKeyAdmissionTest.config(), ImmutableList.of());
+    coreDataService = mock(CoreDataService.class);
+    routeGeneration = mock(RouteGeneration.class);
+    subject =
+        new ApiKeyAdmissionUpdater(
+            ApiKeyAdmissionTest.config(),
+            admission,
+            coreDataService,
+            mock(ZkClient.class),
+            () -> routeGeneration);
+  }
+
+  @Test
+  public void testRefreshLooksUpTheRoutedServices() {
+    when(routeGeneration.proxyRouteServiceNames())
+        .thenReturn(ImmutableMap.of("/v1/ou/sn/", "sn", "/v2/ou/sn/", "sn"));
+    when(coreDataService.getApiKeys(ImmutableSet.of("sn")))
+        .thenReturn(ImmutableMap.of("sn", keys("sn", "key-1", "key-2")));
+
+    subject.refresh();
+
+    assertEquals(2, admission.getRouteCount());
+    assertTrue(admission.admits("/v1/ou/sn/", "key-1"));
+    assertTrue(admission.admits("/v2/ou/sn/", "key-2"));
+    assertFalse(admission.admits("/v1/ou/sn/", "key-3"));
+  }
+
+  @Test
+  public void testFailedLookupKeepsLastKnownKeys() {
+    when(routeGeneration.proxyRouteServiceNames()).thenReturn(ImmutableMap.of("/v1/ou/sn/", "sn"));
+    when(coreDataService.getApiKeys(any()))
+        .thenReturn(ImmutableMap.of("sn", keys("sn", "key-1")))
+        .thenReturn(ImmutableMap.of());
+
+    subject.refresh();
+    subject.refresh();
+
+    assertTrue(admission.admits("/v1/ou/sn/", "key-1"));
+    assertFalse(admission.admits("/v1/ou/sn/", "key-2"));
+  }
+
+  @Test
+  public void testServicesWithUnknownKeysAreNotChecked() {
+    when(routeGeneration.proxyRouteServiceNames())
+        .thenReturn(ImmutableMap.of("/v1/ou/sn/", "sn", "/v1/ou/other/", "other"));
+    when(coreDataService.getApiKeys(any())).thenReturn(ImmutableMap.of("sn", keys("sn", "key-1")));
+
+    subject.refresh();
+
+    assertEquals(1, admission.getRouteCount());
+    assertFalse(admission.admits("/v1/ou/sn/", "key-2"));
+    assertTrue(admission.admits("/v1/ou/other/", "key-2"));
+  }
+
+  private static ListApiKeysResponse keys(String serviceName, String... keys) {
+    ListApiKeysResponse.Builder response = ListApiKeysResponse.newBuilder();
+    for (String key : keys) {
+      response.addApiKeys(ApiKey.newBuilder().setServiceName(serviceName).setKey(key));
+    }
+    return response.build();
+  }
+}
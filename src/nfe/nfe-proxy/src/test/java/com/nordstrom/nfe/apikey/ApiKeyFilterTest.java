@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.apikey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ApiKeyFilterTest extends Assert {
+
+  @Test
+  public void testKeysPutAreAlwaysFound() {
+    ApiKeyFilter filter = ApiKeyFilter.create(10000, 0.001);
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      String key = UUID.randomUUID().toString();
+      keys.add(key);
+      filter.put(key);
+    }
+
+    for (String key : keys) {
+      assertTrue(filter.mightContain(key));
+    }
+    assertEquals(10000, filter.keyCount());
+  }
+
+  @Test
+  public void testFalsePositiveRateIsAboutTheTarget() {
+    ApiKeyFilter filter = ApiKeyFilter.create(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.put(UUID.randomUUID().toString());
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain("unknown-" + i)) {
+        falsePositives++;
+      }
+    }
+    assertEquals(0.01, falsePositives / 100000.0, 0.005);
+    assertEquals(0.01, filter.estimatedFalsePositiveRate(), 0.005);
+  }
+
+  @Test
+  public void testSizedForTheExpectedKeys() {
+    ApiKeyFilter filter = ApiKeyFilter.create(100000, 0.001);
+
+    // about 14.4 bits per key at a 0.1% false positive rate
+    assertEquals(179720, filter.sizeInBytes());
+    assertEquals(10, filter.hashCount());
+    assertEquals(0, filter.estimatedFalsePositiveRate(), 0);
+  }
+
+  @Test
+  public void testEmptyFilterFindsNothing() {
+    ApiKeyFilter filter = ApiKeyFilter.create(0, 0.001);
+
+    assertFalse(filter.mightContain("key"));
+    assertTrue(filter.put("key"));
+    assertFalse(filter.put("key"));
+    assertTrue(filter.mightContain("key"));
+  }
+}
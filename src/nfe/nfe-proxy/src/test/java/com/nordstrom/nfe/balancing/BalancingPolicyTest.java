@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import static org.mockito.Mockito.mock;
+
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BalancingPolicyTest extends Assert {
+  private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  static Endpoint endpoint(int port, int weight) {
+    return new Endpoint(
+        new InetSocketAddress("127.0.0.1", port),
+        weight,
+        DECAY_NANOS,
+        mock(PipelineRequestHandler.class));
+  }
+
+  @Test
+  public void testEmptyEndpoints() {
+    for (BalancingPolicy.Type type : BalancingPolicy.Type.values()) {
+      assertNull(BalancingPolicy.create(type).select(new Endpoint[0]));
+    }
+  }
+
+  @Test
+  public void testWeightedRoundRobinInterleavesByWeight() {
+    Endpoint a = endpoint(1, 5);
+    Endpoint b = endpoint(2, 1);
+    Endpoint c = endpoint(3, 1);
+    Endpoint[] endpoints = {a, b, c};
+    BalancingPolicy subject = BalancingPolicy.create(BalancingPolicy.Type.WeightedRoundRobin);
+
+    List<Endpoint> picked = new ArrayList<>();
+    for (int i = 0; i < 14; i++) {
+      picked.add(subject.select(endpoints));
+    }
+
+    assertEquals(Arrays.asList(a, a, b, a, c, a, a, a, a, b, a, c, a, a), picked);
+  }
+
+  @Test
+  public void testWeightedRoundRobinFollowsNewEndpoints() {
+    Endpoint a = endpoint(1, 1);
+    Endpoint b = endpoint(2, 1);
+    BalancingPolicy subject = BalancingPolicy.create(BalancingPolicy.Type.WeightedRoundRobin);
+
+    subject.select(new Endpoint[] {a, b});
+
+    Endpoint[] onlyB = {b};
+    assertEquals(b, subject.select(onlyB));
+    assertEquals(b, subject.select(onlyB));
+  }
+
+  @Test
+  public void testWeightedRoundRobinSubsetsKeepTheSchedule() {
+    Endpoint a = endpoint(1, 5);
+    Endpoint b = endpoint(2, 1);
+    Endpoint c = endpoint(3, 1);
+    Endpoint[] endpoints = {a, b, c};
+    BalancingPolicy subject = BalancingPolicy.create(BalancingPolicy.Type.WeightedRoundRobin);
+
+    List<Endpoint> picked = new ArrayList<>();
+    List<Endpoint> retried = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      picked.add(subject.select(endpoints));
+      // a retry picks among the endpoints it has not tried yet, a new array every time
+      retried.add(subject.selectAmong(new Endpoint[] {b, c}));
+    }
+
+    assertEquals(Arrays.asList(a, a, b, a, c, a, a), picked);
+    assertEquals(Arrays.asList(b, c, b, c, b, c, b), retried);
+    assertNull(subject.selectAmong(new Endpoint[0]));
+  }
+
+  @Test
+  public void testPowerOfTwoChoicesAvoidsBusyEndpoint() {
+    Endpoint idle = endpoint(1, 1);
+    Endpoint busy = endpoint(2, 1);
+    busy.requestStarted();
+    busy.requestStarted();
+    Endpoint[] endpoints = {busy, idle};
+    BalancingPolicy subject = BalancingPolicy.create(BalancingPolicy.Type.PowerOfTwoChoices);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(idle, subject.select(endpoints));
+    }
+  }
+
+  @Test
+  public void testPowerOfTwoChoicesSpreadsEvenLoad() {
+    Endpoint[] endpoints = {endpoint(1, 1), endpoint(2, 1), endpoint(3, 1)};
+    BalancingPolicy subject = BalancingPolicy.create(BalancingPolicy.Type.PowerOfTwoChoices);
+
+    for (int i = 0; i < 300; i++) {
+      subject.select(endpoints).requestStarted();
+    }
+
+    // every pick leaves the least loaded of two endpoints one busier, so the load stays level
+    for (Endpoint endpoint : endpoints) {
+      assertTrue(endpoint.toString(), Math.abs(endpoint.outstanding() - 100) <= 10);
+    }
+  }
+
+  @Test
+  public void testPeakEwmaAvoidsSlowEndpoint() {
+    Endpoint fast = endpoint(1, 1);
+    Endpoint slow = endpoint(2, 1);
+    fast.recordLatency(TimeUnit.MILLISECONDS.toNanos(5));
+    slow.recordLatency(TimeUnit.MILLISECONDS.toNanos(500));
+    fast.requestStarted();
+    Endpoint[] endpoints = {slow, fast};
+    BalancingPolicy subject = BalancingPolicy.create(BalancingPolicy.Type.PeakEwma);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(fast, subject.select(endpoints));
+    }
+  }
+
+  @Test
+  public void testPeakEwmaPenalizesEndpointWithoutLatency() {
+    Endpoint measured = endpoint(1, 1);
+    Endpoint unmeasured = endpoint(2, 1);
+    measured.recordLatency(TimeUnit.SECONDS.toNanos(1));
+    measured.requestStarted();
+    unmeasured.requestStarted();
+    Endpoint[] endpoints = {unmeasured, measured};
+    BalancingPolicy subject = BalancingPolicy.create(BalancingPolicy.Type.PeakEwma);
+
+    assertEquals(measured, subject.select(endpoints));
+  }
+
+  @Test
+  public void testPeakEwmaTracksPeaksAndSmoothsDrops() {
+    Endpoint subject = endpoint(1, 1);
+
+    subject.recordLatency(100);
+    subject.recordLatency(1000);
+    assertEquals(1000, subject.peakEwmaNanos(), 1);
+
+    // a faster response right after the peak barely moves the estimate
+    subject.recordLatency(10);
+    double estimate = subject.peakEwmaNanos();
+    assertTrue(estimate > 900 && estimate <= 1000);
+  }
+
+  @Test
+  public void testOutstandingRequests() {
+    Endpoint subject = endpoint(1, 1);
+
+    subject.requestStarted();
+    subject.requestStarted();
+    subject.requestFinished();
+
+    assertEquals(1, subject.outstanding());
+    assertEquals(2, subject.requestCount());
+  }
+}
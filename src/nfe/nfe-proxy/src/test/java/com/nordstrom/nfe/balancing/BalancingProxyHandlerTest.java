@@ -0,0 +1,366 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableSet;
+import com.nordstrom.nfe.config.RetryConfig;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class BalancingProxyHandlerTest extends Assert {
+  private EmbeddedChannel channel;
+  private ChannelHandlerContext ctx;
+  private Route route;
+
+  @Before
+  public void beforeEach() {
+    channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ctx = channel.pipeline().firstContext();
+    route = mock(Route.class);
+  }
+
+  @Test
+  public void testStreamIsPinnedToOneEndpoint() {
+    Endpoint a = BalancingPolicyTest.endpoint(1, 1);
+    Endpoint b = BalancingPolicyTest.endpoint(2, 1);
+    BalancingProxyHandler subject =
+        new BalancingProxyHandler(
+            Arrays.asList(a, b),
+            BalancingPolicy.create(BalancingPolicy.Type.WeightedRoundRobin),
+            OutlierDetectorTest.config(5, 50),
+            EndpointHealth.ALWAYS_HEALTHY);
+
+    Request head = request(1, true, false);
+    Request body = request(1, false, true);
+    subject.handle(ctx, head, route);
+    subject.handle(ctx, body, route);
+
+    verify(a.handler()).handle(any(EndpointContext.class), eq(head), eq(route));
+    verify(a.handler()).handle(any(EndpointContext.class), eq(body), eq(route));
+  }
+
+  @Test
+  public void testResponsesReleaseOutstandingRequests() {
+    Endpoint endpoint = BalancingPolicyTest.endpoint(1, 1);
+    BalancingProxyHandler subject =
+        new BalancingProxyHandler(
+            Collections.singletonList(endpoint),
+            BalancingPolicy.create(BalancingPolicy.Type.PeakEwma),
+            OutlierDetectorTest.config(5, 50),
+            EndpointHealth.ALWAYS_HEALTHY);
+
+    Request request = request(1, true, true);
+    subject.handle(ctx, request, route);
+    assertEquals(1, endpoint.outstanding());
+
+    ArgumentCaptor<ChannelHandlerContext> endpointCtx =
+        ArgumentCaptor.forClass(ChannelHandlerContext.class);
+    verify(endpoint.handler()).handle(endpointCtx.capture(), eq(request), eq(route));
+    endpointCtx.getValue().writeAndFlush(response(1, true, false));
+    assertEquals(1, endpoint.outstanding());
+    assertTrue(endpoint.peakEwmaNanos() > 0);
+
+    endpointCtx.getValue().writeAndFlush(response(1, false, true));
+    assertEquals(0, endpoint.outstanding());
+  }
+
+  @Test
+  public void testClosingChannelReleasesOutstandingRequests() {
+    Endpoint endpoint = BalancingPolicyTest.endpoint(1, 1);
+    BalancingProxyHandler subject =
+        new BalancingProxyHandler(
+            Collections.singletonList(endpoint),
+            BalancingPolicy.create(BalancingPolicy.Type.PowerOfTwoChoices),
+            OutlierDetectorTest.config(5, 50),
+            EndpointHealth.ALWAYS_HEALTHY);
+
+    subject.handle(ctx, request(1, true, true), route);
+    subject.handle(ctx, request(3, true, true), route);
+    assertEquals(2, endpoint.outstanding());
+
+    channel.close();
+    assertEquals(0, endpoint.outstanding());
+  }
+
+  @Test
+  public void testHandlersSharingAnEndpointGetTheirOwnContexts() {
+    // a route rebuild reuses the endpoint with a new handler
+    Recorder recorder = new Recorder();
+    Endpoint endpoint = new Endpoint(new InetSocketAddress("127.0.0.1", 1), 1, 1, recorder);
+    BalancingProxyHandler previous =
+        new BalancingProxyHandler(
+            Collections.singletonList(endpoint),
+            BalancingPolicy.create(BalancingPolicy.Type.PeakEwma),
+            OutlierDetectorTest.config(5, 50),
+            EndpointHealth.ALWAYS_HEALTHY);
+    BalancingProxyHandler rebuilt =
+        new BalancingProxyHandler(
+            Collections.singletonList(endpoint),
+            BalancingPolicy.create(BalancingPolicy.Type.PeakEwma),
+            OutlierDetectorTest.config(5, 50),
+            EndpointHealth.ALWAYS_HEALTHY);
+
+    previous.handle(ctx, request(1, true, true), route);
+    previous.handle(ctx, request(3, true, true), route);
+    rebuilt.handle(ctx, request(5, true, true), route);
+
+    assertSame(recorder.contexts.get(0), recorder.contexts.get(1));
+    assertNotSame(recorder.contexts.get(0), recorder.contexts.get(2));
+  }
+
+  @Test
+  public void testNoEndpointsAnswersBadGateway() {
+    BalancingProxyHandler subject =
+        new BalancingProxyHandler(
+            Collections.emptyList(),
+            BalancingPolicy.create(BalancingPolicy.Type.PeakEwma),
+            OutlierDetectorTest.config(5, 50),
+            EndpointHealth.ALWAYS_HEALTHY);
+
+    subject.handle(ctx, request(1, true, true), route);
+
+    Response response = channel.readOutbound();
+    assertEquals(502, response.status().code());
+  }
+
+  @Test
+  public void testStreamAnsweredWithoutEndpointIsReleased() {
+    BalancingProxyHandler subject =
+        new BalancingProxyHandler(
+            Collections.emptyList(),
+            BalancingPolicy.create(BalancingPolicy.Type.PeakEwma),
+            OutlierDetectorTest.config(5, 50),
+            EndpointHealth.ALWAYS_HEALTHY);
+
+    Request head = request(1, true, false);
+    Request tail = request(1, false, true);
+    when(head.body()).thenReturn(Unpooled.copiedBuffer("head", StandardCharsets.UTF_8));
+    when(tail.body()).thenReturn(Unpooled.copiedBuffer("tail", StandardCharsets.UTF_8));
+    subject.handle(ctx, head, route);
+    subject.handle(ctx, tail, route);
+
+    assertEquals(502, ((Response) channel.readOutbound()).status().code());
+    assertNull(channel.readOutbound());
+    assertEquals(0, head.body().refCnt());
+    assertEquals(0, tail.body().refCnt());
+  }
+
+  @Test
+  public void testUnavailableResponseIsRetriedOnAnotherEndpoint() {
+    Recorder a = new Recorder();
+    Recorder b = new Recorder();
+    BalancingProxyHandler subject = retryingHandler(retryConfig(0.1, 10, false), a, b);
+
+    subject.handle(ctx, request(1, true, true), route);
+    Recorder first = a.contexts.isEmpty() ? b : a;
+    Recorder second = first == a ? b : a;
+    first.contexts.get(0).writeAndFlush(response(1, HttpResponseStatus.SERVICE_UNAVAILABLE));
+    assertNull(channel.readOutbound());
+
+    channel.runPendingTasks();
+    assertEquals(1, second.contexts.size());
+    second.contexts.get(0).writeAndFlush(response(1, HttpResponseStatus.OK));
+    Response response = channel.readOutbound();
+    assertEquals(200, response.status().code());
+    assertEquals(1, subject.getRetryCount());
+  }
+
+  @Test
+  public void testConnectFailureIsRetriedOnAnotherEndpoint() {
+    Recorder a = new Recorder();
+    Recorder b = new Recorder();
+    BalancingProxyHandler subject = retryingHandler(retryConfig(0.1, 10, false), a, b);
+
+    subject.handle(ctx, request(1, true, true), route);
+    Recorder first = a.contexts.isEmpty() ? b : a;
+    first.contexts.get(0).fireExceptionCaught(new IOException("connection reset"));
+    first.contexts.get(0).close();
+    channel.checkException();
+    assertTrue(channel.isActive());
+
+    channel.runPendingTasks();
+    assertEquals(1, a.contexts.size());
+    assertEquals(1, b.contexts.size());
+    assertEquals(1, subject.getRetryCount());
+  }
+
+  @Test
+  public void testRetriesAreLimitedByTheBudget() {
+    Recorder a = new Recorder();
+    Recorder b = new Recorder();
+    BalancingProxyHandler subject = retryingHandler(retryConfig(0, 0, false), a, b);
+
+    subject.handle(ctx, request(1, true, true), route);
+    Recorder first = a.contexts.isEmpty() ? b : a;
+    first.contexts.get(0).writeAndFlush(response(1, HttpResponseStatus.SERVICE_UNAVAILABLE));
+
+    Response response = channel.readOutbound();
+    assertEquals(503, response.status().code());
+    assertEquals(0, subject.getRetryCount());
+    assertEquals(1, subject.getRetryBudgetExhaustedCount());
+  }
+
+  @Test
+  public void testNonIdempotentRequestsAreNotRetried() {
+    Recorder a = new Recorder();
+    Recorder b = new Recorder();
+    BalancingProxyHandler subject = retryingHandler(retryConfig(0.1, 10, false), a, b);
+
+    Request post = request(1, true, true);
+    when(post.method()).thenReturn(HttpMethod.POST);
+    subject.handle(ctx, post, route);
+    Recorder first = a.contexts.isEmpty() ? b : a;
+    first.contexts.get(0).writeAndFlush(response(1, HttpResponseStatus.SERVICE_UNAVAILABLE));
+
+    Response response = channel.readOutbound();
+    assertEquals(503, response.status().code());
+  }
+
+  @Test
+  public void testRequestsWithABodyAreNotRetried() {
+    Recorder a = new Recorder();
+    Recorder b = new Recorder();
+    BalancingProxyHandler subject = retryingHandler(retryConfig(0.1, 10, false), a, b);
+
+    Request withBody = request(1, true, true);
+    when(withBody.body()).thenReturn(Unpooled.copyLong(1));
+    subject.handle(ctx, withBody, route);
+    Recorder first = a.contexts.isEmpty() ? b : a;
+    first.contexts.get(0).writeAndFlush(response(1, HttpResponseStatus.SERVICE_UNAVAILABLE));
+
+    Response response = channel.readOutbound();
+    assertEquals(503, response.status().code());
+    assertEquals(0, subject.getRetryCount());
+  }
+
+  @Test
+  public void testFirstResponseOfHedgedRequestWins() throws Exception {
+    Recorder a = new Recorder();
+    Recorder b = new Recorder();
+    BalancingProxyHandler subject = retryingHandler(retryConfig(0.1, 10, true), a, b);
+
+    subject.handle(ctx, request(1, true, true), route);
+    Thread.sleep(10);
+    channel.runScheduledPendingTasks();
+    assertEquals(1, a.contexts.size());
+    assertEquals(1, b.contexts.size());
+    assertEquals(1, subject.getHedgeCount());
+
+    b.contexts.get(0).writeAndFlush(response(1, HttpResponseStatus.OK));
+    a.contexts.get(0).writeAndFlush(response(1, HttpResponseStatus.OK));
+    assertNotNull(channel.readOutbound());
+    assertNull(channel.readOutbound());
+  }
+
+  @Test
+  public void testRetryBudgetIsARatioOfRequests() {
+    RetryBudget budget = new RetryBudget(0.5, 0, TimeUnit.SECONDS.toNanos(10));
+    for (int i = 0; i < 4; i++) {
+      budget.recordRequest();
+    }
+    assertTrue(budget.tryAcquire());
+    assertTrue(budget.tryAcquire());
+    assertFalse(budget.tryAcquire());
+    assertEquals(1, budget.exhaustedCount());
+  }
+
+  /** Records the contexts requests were proxied with, to answer them from the test. */
+  private static class Recorder implements PipelineRequestHandler {
+    private final List<ChannelHandlerContext> contexts = new ArrayList<>();
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+      contexts.add(ctx);
+    }
+  }
+
+  private static RetryConfig retryConfig(double ratio, int minRetriesPerSecond, boolean hedging) {
+    return new RetryConfig(
+        true,
+        ImmutableSet.of(HttpMethod.GET),
+        2,
+        true,
+        ratio,
+        minRetriesPerSecond,
+        TimeUnit.SECONDS.toNanos(10),
+        hedging,
+        0.95,
+        TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  private static BalancingProxyHandler retryingHandler(
+      RetryConfig retryConfig, Recorder a, Recorder b) {
+    return new BalancingProxyHandler(
+        Arrays.asList(
+            new Endpoint(new InetSocketAddress("127.0.0.1", 1), 1, 1, a),
+            new Endpoint(new InetSocketAddress("127.0.0.1", 2), 1, 1, b)),
+        BalancingPolicy.create(BalancingPolicy.Type.PowerOfTwoChoices),
+        OutlierDetectorTest.config(5, 50),
+        retryConfig,
+        EndpointHealth.ALWAYS_HEALTHY);
+  }
+
+  private static Response response(int streamId, HttpResponseStatus status) {
+    Response response = response(streamId, true, true);
+    when(response.status()).thenReturn(status);
+    return response;
+  }
+
+  private static Request request(int streamId, boolean start, boolean end) {
+    Request request = mock(Request.class);
+    when(request.method()).thenReturn(HttpMethod.GET);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.startOfMessage()).thenReturn(start);
+    when(request.endOfMessage()).thenReturn(end);
+    when(request.path()).thenReturn("/ou/sn/");
+    return request;
+  }
+
+  private static Response response(int streamId, boolean start, boolean end) {
+    Response response = mock(Response.class);
+    when(response.streamId()).thenReturn(streamId);
+    when(response.startOfMessage()).thenReturn(start);
+    when(response.endOfMessage()).thenReturn(end);
+    when(response.status()).thenReturn(HttpResponseStatus.OK);
+    return response;
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.nordstrom.nfe.config.ConcurrencyLimitConfig;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class ConcurrencyLimiterTest extends Assert {
+  private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  static ConcurrencyLimitConfig config(int initialLimit, int minLimit, int maxLimit) {
+    // a sample window of 0 updates the limit with every sample
+    return new ConcurrencyLimitConfig(true, initialLimit, minLimit, maxLimit, 0.2, 1.5, 0.9, 0);
+  }
+
+  private static void acquire(ConcurrencyLimiter subject, int count) {
+    for (int i = 0; i < count; i++) {
+      assertTrue(subject.tryAcquire());
+    }
+  }
+
+  @Test
+  public void testRequestsOverTheLimitAreRejected() {
+    ConcurrencyLimiter subject = new ConcurrencyLimiter(config(2, 1, 10));
+
+    acquire(subject, 2);
+    assertFalse(subject.tryAcquire());
+    assertEquals(2, subject.getInFlight());
+    assertEquals(1, subject.getRejectedCount());
+
+    subject.release();
+    assertTrue(subject.tryAcquire());
+  }
+
+  @Test
+  public void testLimitGrowsWhileLatencyHoldsSteady() {
+    ConcurrencyLimiter subject = new ConcurrencyLimiter(config(10, 1, 100));
+    acquire(subject, 10);
+
+    for (int i = 0; i < 5; i++) {
+      subject.onSample(MILLI, false);
+    }
+
+    assertTrue(subject.getLimit() > 10);
+  }
+
+  @Test
+  public void testLimitShrinksWhenLatencyRises() {
+    ConcurrencyLimiter subject = new ConcurrencyLimiter(config(10, 1, 100));
+    acquire(subject, 10);
+    for (int i = 0; i < 5; i++) {
+      subject.onSample(MILLI, false);
+    }
+    int limit = subject.getLimit();
+
+    for (int i = 0; i < 5; i++) {
+      subject.onSample(10 * MILLI, false);
+    }
+
+    assertTrue(subject.getLimit() < limit);
+  }
+
+  @Test
+  public void testLimitIsKeptWhileUnused() {
+    ConcurrencyLimiter subject = new ConcurrencyLimiter(config(100, 1, 1000));
+    acquire(subject, 1);
+
+    for (int i = 0; i < 5; i++) {
+      subject.onSample(MILLI, false);
+    }
+
+    assertEquals(100, subject.getLimit());
+  }
+
+  @Test
+  public void testLimitBacksOffWhenUpstreamIsOverloaded() {
+    ConcurrencyLimiter subject = new ConcurrencyLimiter(config(100, 1, 1000));
+
+    subject.onSample(MILLI, true);
+    assertEquals(90, subject.getLimit());
+
+    for (int i = 0; i < 100; i++) {
+      subject.onSample(MILLI, true);
+    }
+    assertEquals(1, subject.getLimit());
+  }
+
+  @Test
+  public void testHandlerRejectsStreamsOverTheLimit() {
+    EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().firstContext();
+    Route route = mock(Route.class);
+    PipelineRequestHandler delegate = mock(PipelineRequestHandler.class);
+    ConcurrencyLimitingProxyHandler subject =
+        new ConcurrencyLimitingProxyHandler(
+            delegate, new ConcurrencyLimiter(config(1, 1, 1)));
+
+    Request first = request(1);
+    subject.handle(ctx, first, route);
+    ArgumentCaptor<ChannelHandlerContext> captor =
+        ArgumentCaptor.forClass(ChannelHandlerContext.class);
+    verify(delegate).handle(captor.capture(), eq(first), eq(route));
+
+    subject.handle(ctx, request(3), route);
+    Response rejected = channel.readOutbound();
+    assertEquals(503, rejected.status().code());
+    assertEquals(1, subject.limiter().getRejectedCount());
+
+    // the slot is free again once the response of the first stream is complete
+    captor.getValue().writeAndFlush(response(1));
+    assertNotNull(channel.readOutbound());
+    subject.handle(ctx, request(5), route);
+    verify(delegate, times(2)).handle(any(), any(), eq(route));
+    assertEquals(1, subject.limiter().getInFlight());
+  }
+
+  @Test
+  public void testRejectedStreamsAreReleased() {
+    EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ChannelHandlerContext ctx = channel.pipeline().firstContext();
+    Route route = mock(Route.class);
+    PipelineRequestHandler delegate = mock(PipelineRequestHandler.class);
+    ConcurrencyLimitingProxyHandler subject =
+        new ConcurrencyLimitingProxyHandler(
+            delegate, new ConcurrencyLimiter(config(1, 1, 1)));
+    subject.handle(ctx, request(1), route);
+
+    Request head = request(3, true, false);
+    Request body = request(3, false, false);
+    Request tail = request(3, false, true);
+    subject.handle(ctx, head, route);
+    subject.handle(ctx, body, route);
+    subject.handle(ctx, tail, route);
+
+    assertEquals(503, ((Response) channel.readOutbound()).status().code());
+    assertNull(channel.readOutbound());
+    assertEquals(0, head.body().refCnt());
+    assertEquals(0, body.body().refCnt());
+    assertEquals(0, tail.body().refCnt());
+    verify(delegate, times(1)).handle(any(), any(), eq(route));
+  }
+
+  private static Request request(int streamId, boolean start, boolean end) {
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.startOfMessage()).thenReturn(start);
+    when(request.endOfMessage()).thenReturn(end);
+    when(request.body()).thenReturn(Unpooled.copiedBuffer("body", StandardCharsets.UTF_8));
+    return request;
+  }
+
+  private static Request request(int streamId) {
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.startOfMessage()).thenReturn(true);
+    when(request.endOfMessage()).thenReturn(true);
+    return request;
+  }
+
+  private static Response response(int streamId) {
+    Response response = mock(Response.class);
+    when(response.streamId()).thenReturn(streamId);
+    when(response.startOfMessage()).thenReturn(true);
+    when(response.endOfMessage()).thenReturn(true);
+    when(response.status()).thenReturn(HttpResponseStatus.OK);
+    return response;
+  }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.balancing;
+
+import com.nordstrom.nfe.config.OutlierDetectionConfig;
+import com.nordstrom.nfe.testhelpers.TimingTestHelper;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OutlierDetectorTest extends Assert {
+  private static final long BASE_EJECTION_MILLIS = 100;
+
+  static OutlierDetectionConfig config(int consecutiveErrors, int maxEjectedPercent) {
+    return new OutlierDetectionConfig(
+        true,
+        consecutiveErrors,
+        3,
+        3.0,
+        TimeUnit.MILLISECONDS.toNanos(1),
+        TimeUnit.MILLISECONDS.toNanos(BASE_EJECTION_MILLIS),
+        TimeUnit.MINUTES.toNanos(1),
+        maxEjectedPercent);
+  }
+
+  private static OutlierDetector detector(Endpoint[] endpoints, int consecutiveErrors) {
+    return new OutlierDetector(
+        endpoints, config(consecutiveErrors, 50), EndpointHealth.ALWAYS_HEALTHY);
+  }
+
+  private static Endpoint[] endpoints(int count) {
+    Endpoint[] endpoints = new Endpoint[count];
+    for (int i = 0; i < count; i++) {
+      endpoints[i] = BalancingPolicyTest.endpoint(i + 1, 1);
+    }
+    return endpoints;
+  }
+
+  @Test
+  public void testConsecutiveErrorsEjectEndpoint() {
+    Endpoint[] endpoints = endpoints(2);
+    OutlierDetector subject = detector(endpoints, 3);
+
+    subject.onError(endpoints[0]);
+    subject.onError(endpoints[0]);
+    assertEquals(2, subject.available().length);
+
+    subject.onResponse(endpoints[0], 503, 1000);
+
+    assertTrue(endpoints[0].isEjected());
+    assertEquals(Arrays.asList(endpoints[1]), Arrays.asList(subject.available()));
+    assertEquals(1, subject.getEjectedCount());
+    assertEquals(1, subject.getEjectionCount());
+    assertEquals(3, endpoints[0].errorCount());
+  }
+
+  @Test
+  public void testSuccessResetsConsecutiveErrors() {
+    Endpoint[] endpoints = endpoints(2);
+    OutlierDetector subject = detector(endpoints, 3);
+
+    subject.onError(endpoints[0]);
+    subject.onError(endpoints[0]);
+    subject.onResponse(endpoints[0], 200, 1000);
+    subject.onError(endpoints[0]);
+
+    assertFalse(endpoints[0].isEjected());
+    assertEquals(2, subject.available().length);
+  }
+
+  @Test
+  public void testEjectedFractionIsCapped() {
+    Endpoint[] endpoints = endpoints(4);
+    OutlierDetector subject = detector(endpoints, 1);
+
+    for (Endpoint endpoint : endpoints) {
+      subject.onError(endpoint);
+    }
+
+    assertEquals(2, subject.getEjectedCount());
+    assertEquals(2, subject.available().length);
+  }
+
+  @Test
+  public void testOneEndpointIsEjectedWhenThePercentRoundsDown() {
+    Endpoint[] endpoints = endpoints(4);
+    OutlierDetector subject =
+        new OutlierDetector(endpoints, config(1, 10), EndpointHealth.ALWAYS_HEALTHY);
+
+    for (Endpoint endpoint : endpoints) {
+      subject.onError(endpoint);
+    }
+
+    assertEquals(1, subject.getEjectedCount());
+    assertEquals(3, subject.available().length);
+  }
+
+  @Test
+  public void testSingleEndpointIsNeverEjected() {
+    Endpoint[] endpoints = endpoints(1);
+    OutlierDetector subject = detector(endpoints, 1);
+
+    subject.onError(endpoints[0]);
+
+    assertFalse(endpoints[0].isEjected());
+    assertEquals(1, subject.available().length);
+  }
+
+  @Test
+  public void testSlowResponsesEjectEndpoint() {
+    Endpoint[] endpoints = endpoints(3);
+    OutlierDetector subject = detector(endpoints, 5);
+    long fast = TimeUnit.MILLISECONDS.toNanos(10);
+    long slow = TimeUnit.MILLISECONDS.toNanos(100);
+    endpoints[1].recordLatency(fast);
+    endpoints[2].recordLatency(fast);
+
+    for (int i = 0; i < 3; i++) {
+      endpoints[0].recordLatency(slow);
+      subject.onResponse(endpoints[0], 200, slow);
+    }
+
+    assertTrue(endpoints[0].isEjected());
+    assertEquals(2, subject.available().length);
+  }
+
+  @Test
+  public void testEjectedEndpointIsReadmittedWithBackOff() {
+    Endpoint[] endpoints = endpoints(2);
+    OutlierDetector subject = detector(endpoints, 1);
+
+    subject.onError(endpoints[0]);
+    assertEquals(1, subject.available().length);
+    long firstEjection = endpoints[0].ejectedUntilNanos - System.nanoTime();
+
+    assertTrue(
+        TimingTestHelper.contiuallyCheckForSuccess(
+            BASE_EJECTION_MILLIS * 5, () -> subject.available().length == 2));
+    assertFalse(endpoints[0].isEjected());
+
+    // ejected again shortly after coming back, the endpoint stays out twice as long
+    subject.onError(endpoints[0]);
+    long secondEjection = endpoints[0].ejectedUntilNanos - System.nanoTime();
+    assertTrue(secondEjection > firstEjection);
+    assertTrue(secondEjection > TimeUnit.MILLISECONDS.toNanos(BASE_EJECTION_MILLIS));
+  }
+
+  @Test
+  public void testUnhealthyEndpointsLeaveRotation() {
+    Endpoint[] endpoints = endpoints(3);
+    TestHealth health = new TestHealth();
+    OutlierDetector subject = new OutlierDetector(endpoints, config(5, 50), health);
+    assertEquals(3, subject.available().length);
+
+    health.setHealthy(endpoints[1], false);
+
+    assertEquals(
+        Arrays.asList(endpoints[0], endpoints[2]), Arrays.asList(subject.available()));
+    assertEquals(0, subject.getEjectedCount());
+
+    health.setHealthy(endpoints[1], true);
+
+    assertEquals(3, subject.available().length);
+  }
+
+  @Test
+  public void testAllUnhealthyEndpointsStayInRotation() {
+    Endpoint[] endpoints = endpoints(2);
+    TestHealth health = new TestHealth();
+    OutlierDetector subject = new OutlierDetector(endpoints, config(5, 50), health);
+
+    health.setHealthy(endpoints[0], false);
+    health.setHealthy(endpoints[1], false);
+
+    assertEquals(2, subject.available().length);
+  }
+
+  @Test
+  public void testDisabledDetectorNeverEjects() {
+    Endpoint[] endpoints = endpoints(2);
+    OutlierDetector subject =
+        new OutlierDetector(
+            endpoints,
+            new OutlierDetectionConfig(false, 1, 1, 3.0, 0, 1, 1, 100),
+            EndpointHealth.ALWAYS_HEALTHY);
+
+    subject.onError(endpoints[0]);
+
+    assertFalse(endpoints[0].isEjected());
+    assertEquals(1, endpoints[0].errorCount());
+  }
+
+  private static class TestHealth implements EndpointHealth {
+    private final Set<InetSocketAddress> unhealthy = new HashSet<>();
+    private long version = 0;
+
+    void setHealthy(Endpoint endpoint, boolean healthy) {
+      if (healthy) {
+        unhealthy.remove(endpoint.address());
+      } else {
+        unhealthy.add(endpoint.address());
+      }
+      version++;
+    }
+
+    @Override
+    public boolean isHealthy(InetSocketAddress address) {
+      return !unhealthy.contains(address);
+    }
+
+    @Override
+    public long version() {
+      return version;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.caching;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.Response;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachedResponseTest extends Assert {
+  private ByteBuf body;
+  private CachedResponse subject;
+
+  @Before
+  public void beforeEach() {
+    Headers headers = new DefaultHeaders();
+    headers.set("cache-control", "max-age=60");
+    Response response =
+        DefaultFullResponse.builder()
+            .status(HttpResponseStatus.OK)
+            .streamId(1)
+            .body(Unpooled.EMPTY_BUFFER)
+            .headers(headers)
+            .build();
+    body = Unpooled.directBuffer().writeBytes("cached".getBytes(UTF_8));
+    subject =
+        CachedResponse.of(
+            response,
+            CacheControl.parse(headers.getAll("cache-control")),
+            body,
+            new DefaultHeaders(),
+            0);
+  }
+
+  @Test
+  public void testReadersKeepTheBodyAfterTheEntryIsReleased() {
+    ByteBuf read = subject.retainedBody();
+    subject.release();
+
+    assertEquals(1, body.refCnt());
+    assertEquals("cached", read.toString(UTF_8));
+    read.release();
+    assertEquals(0, body.refCnt());
+  }
+
+  @Test
+  public void testNoBodyOnceTheEntryIsReleased() {
+    subject.release();
+
+    assertEquals(0, body.refCnt());
+    assertNull(subject.retainedBody());
+  }
+
+  @Test
+  public void testConcurrentReadersAndRelease() throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    List<ByteBuf> reads = new ArrayList<>();
+    List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Thread reader =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  return;
+                }
+                for (int j = 0; j < 1000; j++) {
+                  ByteBuf read = subject.retainedBody();
+                  if (read == null) {
+                    return;
+                  }
+                  synchronized (reads) {
+                    reads.add(read);
+                  }
+                }
+              });
+      reader.start();
+      readers.add(reader);
+    }
+
+    start.countDown();
+    subject.release();
+    for (Thread reader : readers) {
+      reader.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    for (ByteBuf read : reads) {
+      assertEquals("cached", read.toString(UTF_8));
+      read.release();
+    }
+    assertEquals(0, body.refCnt());
+  }
+}
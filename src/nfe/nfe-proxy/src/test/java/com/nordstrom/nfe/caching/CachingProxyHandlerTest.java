@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.caching;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.nordstrom.nfe.config.ResponseCacheConfig;
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingProxyHandlerTest extends Assert {
+  private EmbeddedChannel channel;
+  private ChannelHandlerContext ctx;
+  private Route route;
+  private AtomicLong clock;
+  private ResponseCache cache;
+  private Upstream upstream;
+  private CachingProxyHandler subject;
+  private int nextStreamId = 1;
+
+  @Before
+  public void beforeEach() {
+    channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ctx = channel.pipeline().firstContext();
+    route = mock(Route.class);
+    clock = new AtomicLong(TimeUnit.DAYS.toMillis(1));
+    cache = new ResponseCache(new ResponseCacheConfig(1 << 20, 1024), clock::get);
+    upstream = new Upstream();
+    subject = new CachingProxyHandler(upstream, cache);
+  }
+
+  @After
+  public void afterEach() {
+    channel.finishAndReleaseAll();
+  }
+
+  /** Answers requests with the next response set, or leaves them unanswered. */
+  private static class Upstream implements PipelineRequestHandler {
+    private final List<Request> requests = new ArrayList<>();
+    private Headers headers;
+    private HttpResponseStatus status = HttpResponseStatus.OK;
+    private String body = "";
+    private boolean answer = true;
+
+    void respond(HttpResponseStatus status, String body, String... headers) {
+      this.status = status;
+      this.body = body;
+      this.headers = new DefaultHeaders();
+      for (int i = 0; i < headers.length; i += 2) {
+        this.headers.add(headers[i], headers[i + 1]);
+      }
+    }
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+      requests.add(request);
+      if (answer) {
+        ctx.writeAndFlush(
+            DefaultFullResponse.builder()
+                .status(status)
+                .streamId(request.streamId())
+                .body(Unpooled.copiedBuffer(body, UTF_8))
+                .headers(headers)
+                .build());
+      }
+    }
+  }
+
+  private Request request(String... headers) {
+    Headers requestHeaders = new DefaultHeaders();
+    requestHeaders.set("host", "nfe.example.com");
+    for (int i = 0; i < headers.length; i += 2) {
+      requestHeaders.add(headers[i], headers[i + 1]);
+    }
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(nextStreamId);
+    nextStreamId += 2;
+    when(request.startOfMessage()).thenReturn(true);
+    when(request.endOfMessage()).thenReturn(true);
+    when(request.method()).thenReturn(HttpMethod.GET);
+    when(request.path()).thenReturn("/ou/sn/items?page=1");
+    when(request.headers()).thenReturn(requestHeaders);
+    return request;
+  }
+
+  private Response send(Request request) {
+    subject.handle(ctx, request, route);
+    Response response = channel.readOutbound();
+    assertNotNull(response);
+    return response;
+  }
+
+  private static String body(Response response) {
+    String body = response.body().toString(UTF_8);
+    ReferenceCountUtil.release(response);
+    return body;
+  }
+
+  private void advanceSeconds(long seconds) {
+    clock.addAndGet(TimeUnit.SECONDS.toMillis(seconds));
+  }
+
+  @Test
+  public void testFreshResponseIsServedFromCache() {
+    upstream.respond(HttpResponseStatus.OK, "five", "cache-control", "public, max-age=60");
+    assertEquals("five", body(send(request())));
+
+    advanceSeconds(30);
+    Response cached = send(request());
+    assertEquals(200, cached.status().code());
+    assertEquals("30", cached.headers().get("age").toString());
+    assertEquals("five", body(cached));
+
+    assertEquals(1, upstream.requests.size());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0.5, cache.getHitRatio(), 0.001);
+    assertEquals(1, cache.getEntryCount());
+    assertTrue(cache.getSizeBytes() > 0);
+  }
+
+  @Test
+  public void testHandlersSharingAChannelStoreInTheirOwnCache() {
+    ResponseCache otherCache =
+        new ResponseCache(new ResponseCacheConfig(1 << 20, 1024), clock::get);
+    CachingProxyHandler other = new CachingProxyHandler(upstream, otherCache);
+    upstream.respond(HttpResponseStatus.OK, "five", "cache-control", "public, max-age=60");
+
+    assertEquals("five", body(send(request())));
+    other.handle(ctx, request(), route);
+    Response response = channel.readOutbound();
+    assertEquals("five", body(response));
+
+    assertEquals(1, cache.getEntryCount());
+    assertEquals(1, otherCache.getEntryCount());
+  }
+
+  @Test
+  public void testUncacheableResponsesAreNotStored() {
+    upstream.respond(HttpResponseStatus.OK, "five", "cache-control", "private, max-age=60");
+    body(send(request()));
+    upstream.respond(HttpResponseStatus.OK, "five", "cache-control", "no-store");
+    body(send(request()));
+    upstream.respond(HttpResponseStatus.OK, "five");
+    body(send(request()));
+    upstream.respond(
+        HttpResponseStatus.OK, "five", "cache-control", "max-age=60", "set-cookie", "a=b");
+    body(send(request()));
+    upstream.respond(HttpResponseStatus.NOT_FOUND, "", "cache-control", "max-age=60");
+    body(send(request()));
+    upstream.respond(HttpResponseStatus.OK, "too large", "cache-control", "max-age=60");
+    subject = new CachingProxyHandler(upstream, new ResponseCache(new ResponseCacheConfig(64, 4)));
+    body(send(request()));
+    body(send(request()));
+
+    assertEquals(7, upstream.requests.size());
+    assertEquals(0, cache.getEntryCount());
+  }
+
+  @Test
+  public void testRequestsCanBypassTheCache() {
+    upstream.respond(HttpResponseStatus.OK, "five", "cache-control", "max-age=60");
+    body(send(request()));
+    body(send(request("cache-control", "no-cache")));
+    body(send(request("authorization", "Basic Zm9vOmJhcg==")));
+
+    assertEquals(3, upstream.requests.size());
+  }
+
+  @Test
+  public void testResponsesVaryOnRequestHeaders() {
+    upstream.respond(
+        HttpResponseStatus.OK, "five", "cache-control", "max-age=60", "vary", "Accept-Language");
+    body(send(request("accept-language", "en")));
+    body(send(request("accept-language", "en")));
+    assertEquals(1, upstream.requests.size());
+
+    body(send(request("accept-language", "fr")));
+    assertEquals(2, upstream.requests.size());
+  }
+
+  @Test
+  public void testStaleResponseIsRevalidated() {
+    upstream.respond(
+        HttpResponseStatus.OK, "five", "cache-control", "max-age=10", "etag", "\"v1\"");
+    body(send(request()));
+
+    advanceSeconds(20);
+    upstream.respond(HttpResponseStatus.NOT_MODIFIED, "", "cache-control", "max-age=10");
+    Response revalidated = send(request());
+    assertEquals("\"v1\"", upstream.requests.get(1).headers().get("if-none-match").toString());
+    assertEquals(200, revalidated.status().code());
+    assertEquals("five", body(revalidated));
+    assertEquals(1, cache.getRevalidationCount());
+
+    // fresh again after the 304
+    body(send(request()));
+    assertEquals(2, upstream.requests.size());
+  }
+
+  @Test
+  public void testStaleResponseIsServedWhileRevalidating() {
+    upstream.respond(
+        HttpResponseStatus.OK,
+        "five",
+        "cache-control",
+        "max-age=10, stale-while-revalidate=30",
+        "etag",
+        "\"v1\"");
+    body(send(request()));
+
+    advanceSeconds(20);
+    upstream.answer = false;
+    subject.handle(ctx, request(), route);
+    assertNull(channel.readOutbound());
+    assertEquals("five", body(send(request())));
+    assertEquals(2, upstream.requests.size());
+    assertEquals(1, cache.getStaleHitCount());
+
+    // past the stale-while-revalidate window every request goes upstream
+    advanceSeconds(30);
+    subject.handle(ctx, request(), route);
+    assertEquals(3, upstream.requests.size());
+  }
+
+  @Test
+  public void testClientRevalidationIsAnsweredFromCache() {
+    upstream.respond(
+        HttpResponseStatus.OK, "five", "cache-control", "max-age=60", "etag", "W/\"v1\"");
+    body(send(request()));
+
+    Response response = send(request("if-none-match", "\"v0\", \"v1\""));
+    assertEquals(304, response.status().code());
+    ReferenceCountUtil.release(response);
+    assertEquals(1, upstream.requests.size());
+  }
+
+  @Test
+  public void testCacheControlParsing() {
+    CacheControl cacheControl =
+        CacheControl.parse(
+            Arrays.asList("public, max-age=60", "s-maxage=\"30\", bogus, max-age=x"));
+    assertEquals(30, cacheControl.freshnessSeconds());
+    assertTrue(cacheControl.isStorable());
+    assertEquals(0, cacheControl.staleSeconds());
+
+    assertFalse(CacheControl.parse(Collections.emptyList()).isStorable());
+    assertEquals(0, CacheControl.parse(Arrays.asList("no-cache")).freshnessSeconds());
+  }
+}
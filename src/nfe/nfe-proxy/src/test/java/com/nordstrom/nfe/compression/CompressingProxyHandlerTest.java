@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.compression;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.nordstrom.nfe.config.CompressionConfig;
+import com.nordstrom.nfe.config.ResponseCompressionConfig;
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.DefaultSegmentedData;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressingProxyHandlerTest extends Assert {
+  private static final String JSON = "{\"items\":[" + Strings.repeat("{\"id\":1},", 500) + "]}";
+
+  private EmbeddedChannel channel;
+  private ChannelHandlerContext ctx;
+  private Route route;
+  private Upstream upstream;
+  private ResponseCompressor compressor;
+
+  @Before
+  public void beforeEach() {
+    channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ctx = channel.pipeline().firstContext();
+    route = mock(Route.class);
+    upstream = new Upstream();
+    compressor = compressor(0.1);
+  }
+
+  @After
+  public void afterEach() {
+    channel.finishAndReleaseAll();
+  }
+
+  private static ResponseCompressor compressor(double cpuLoad) {
+    return new ResponseCompressor(new ResponseCompressionConfig(6, 1, 0.5, 0.9), () -> cpuLoad);
+  }
+
+  /** Keeps the context of the last request, to answer it from the test. */
+  private static class Upstream implements PipelineRequestHandler {
+    private ChannelHandlerContext ctx;
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+      this.ctx = ctx;
+    }
+  }
+
+  private CompressingProxyHandler handler(ResponseCompressor compressor) {
+    return new CompressingProxyHandler(
+        upstream,
+        new CompressionConfig(true, 1024, Arrays.asList("text/", "application/json")),
+        compressor);
+  }
+
+  private static Request request(String acceptEncoding) {
+    Headers headers = new DefaultHeaders();
+    headers.set("accept-encoding", acceptEncoding);
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(1);
+    when(request.startOfMessage()).thenReturn(true);
+    when(request.endOfMessage()).thenReturn(true);
+    when(request.method()).thenReturn(HttpMethod.GET);
+    when(request.headers()).thenReturn(headers);
+    return request;
+  }
+
+  private static Response response(String body, String... headers) {
+    Headers responseHeaders = new DefaultHeaders();
+    for (int i = 0; i < headers.length; i += 2) {
+      responseHeaders.add(headers[i], headers[i + 1]);
+    }
+    return DefaultFullResponse.builder()
+        .status(HttpResponseStatus.OK)
+        .streamId(1)
+        .body(Unpooled.copiedBuffer(body, UTF_8))
+        .headers(responseHeaders)
+        .build();
+  }
+
+  private static String gunzip(ByteBuf compressed) throws IOException {
+    return new String(
+        ByteStreams.toByteArray(new GZIPInputStream(new ByteBufInputStream(compressed))), UTF_8);
+  }
+
+  @Test
+  public void testResponseIsCompressedForClientsThatAcceptIt() throws IOException {
+    handler(compressor).handle(ctx, request("gzip, deflate, br"), route);
+    upstream.ctx.writeAndFlush(
+        response(JSON, "content-type", "application/json", "etag", "\"v1\""));
+
+    Response response = channel.readOutbound();
+    assertEquals("gzip", response.headers().get("content-encoding").toString());
+    assertEquals("accept-encoding", response.headers().get("vary").toString());
+    assertEquals("W/\"v1\"", response.headers().get("etag").toString());
+    assertTrue(response.body().readableBytes() < JSON.length());
+    assertEquals(JSON, gunzip(response.body()));
+    assertEquals(1, compressor.getCompressedCount());
+    assertTrue(compressor.getBytesSaved() > 0);
+    assertTrue(compressor.getCompressionNanos() > 0);
+  }
+
+  @Test
+  public void testSegmentedResponseIsCompressedAsItGoes() throws IOException {
+    handler(compressor).handle(ctx, request("gzip"), route);
+    Headers headers = new DefaultHeaders();
+    headers.set("content-type", "text/plain");
+    Response head = mock(Response.class);
+    when(head.streamId()).thenReturn(1);
+    when(head.startOfMessage()).thenReturn(true);
+    when(head.status()).thenReturn(HttpResponseStatus.OK);
+    when(head.headers()).thenReturn(headers);
+    upstream.ctx.write(head);
+    upstream.ctx.write(data(JSON, false));
+    upstream.ctx.writeAndFlush(data(JSON, true));
+
+    assertSame(head, channel.readOutbound());
+    assertEquals("gzip", headers.get("content-encoding").toString());
+    SegmentedData first = channel.readOutbound();
+    SegmentedData last = channel.readOutbound();
+    assertTrue(last.endOfMessage());
+    assertEquals(JSON + JSON, gunzip(Unpooled.wrappedBuffer(first.content(), last.content())));
+  }
+
+  @Test
+  public void testSmallResponsesAreNotCompressed() {
+    handler(compressor).handle(ctx, request("gzip"), route);
+    upstream.ctx.writeAndFlush(response("{}", "content-type", "application/json"));
+
+    Response response = channel.readOutbound();
+    assertFalse(response.headers().contains("content-encoding"));
+    assertEquals(0, compressor.getCompressedCount());
+  }
+
+  @Test
+  public void testCompressedResponsesAreLeftAlone() {
+    handler(compressor).handle(ctx, request("gzip"), route);
+    upstream.ctx.writeAndFlush(
+        response(JSON, "content-type", "application/json", "content-encoding", "br"));
+
+    Response response = channel.readOutbound();
+    assertEquals("br", response.headers().get("content-encoding").toString());
+    assertEquals(JSON.length(), response.body().readableBytes());
+  }
+
+  @Test
+  public void testUncompressibleContentTypesAreLeftAlone() {
+    handler(compressor).handle(ctx, request("gzip"), route);
+    upstream.ctx.writeAndFlush(response(JSON, "content-type", "image/png"));
+
+    Response response = channel.readOutbound();
+    assertFalse(response.headers().contains("content-encoding"));
+  }
+
+  @Test
+  public void testNothingIsCompressedWhenTheHostIsBusy() {
+    ResponseCompressor busy = compressor(0.95);
+    handler(busy).handle(ctx, request("gzip"), route);
+    upstream.ctx.writeAndFlush(response(JSON, "content-type", "application/json"));
+
+    Response response = channel.readOutbound();
+    assertFalse(response.headers().contains("content-encoding"));
+    assertEquals(1, busy.getBusySkippedCount());
+  }
+
+  @Test
+  public void testLevelFollowsCpuLoad() {
+    assertEquals(6, compressor(0.2).level());
+    assertEquals(4, compressor(0.7).level());
+    assertEquals(1, compressor(0.89).level());
+    assertEquals(0, compressor(0.9).level());
+  }
+
+  @Test
+  public void testEncodingIsNegotiated() {
+    assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip, deflate"));
+    assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("deflate"));
+    assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, deflate"));
+    assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate;q=0.8"));
+    assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+    assertNull(ContentEncoding.negotiate("identity"));
+    assertNull(ContentEncoding.negotiate(null));
+  }
+
+  private static SegmentedData data(String content, boolean end) {
+    return DefaultSegmentedData.builder()
+        .content(Unpooled.copiedBuffer(content, UTF_8))
+        .endOfMessage(end)
+        .streamId(1)
+        .build();
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ipfilter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CidrTrieTest extends Assert {
+
+  private static CidrTrie.Builder add(CidrTrie.Builder builder, String cidr, boolean allow) {
+    String[] parts = cidr.split("/");
+    return builder.add(AddressKey.parse(parts[0]), Integer.parseInt(parts[1]), allow);
+  }
+
+  private static int find(CidrTrie trie, String address) {
+    return trie.find(AddressKey.parse(address));
+  }
+
+  @Test
+  public void testEmptyTrieMatchesNothing() {
+    assertEquals(CidrTrie.NO_MATCH, find(CidrTrie.EMPTY, "10.0.0.1"));
+  }
+
+  @Test
+  public void testLongestPrefixWins() {
+    CidrTrie.Builder builder = CidrTrie.builder();
+    add(builder, "10.0.0.0/8", false);
+    add(builder, "10.1.0.0/16", true);
+    add(builder, "10.1.2.3/32", false);
+    CidrTrie trie = builder.build();
+
+    assertEquals(CidrTrie.DENY, find(trie, "10.200.0.1"));
+    assertEquals(CidrTrie.ALLOW, find(trie, "10.1.9.9"));
+    assertEquals(CidrTrie.DENY, find(trie, "10.1.2.3"));
+    assertEquals(CidrTrie.ALLOW, find(trie, "10.1.2.4"));
+    assertEquals(CidrTrie.NO_MATCH, find(trie, "11.0.0.1"));
+  }
+
+  @Test
+  public void testInsertionOrderDoesNotMatter() {
+    CidrTrie.Builder builder = CidrTrie.builder();
+    add(builder, "10.1.2.3/32", false);
+    add(builder, "10.1.0.0/16", true);
+    add(builder, "10.0.0.0/8", false);
+    add(builder, "192.168.0.0/24", true);
+    CidrTrie trie = builder.build();
+
+    assertEquals(CidrTrie.DENY, find(trie, "10.200.0.1"));
+    assertEquals(CidrTrie.ALLOW, find(trie, "10.1.9.9"));
+    assertEquals(CidrTrie.DENY, find(trie, "10.1.2.3"));
+    assertEquals(CidrTrie.ALLOW, find(trie, "192.168.0.77"));
+    assertEquals(CidrTrie.NO_MATCH, find(trie, "192.168.1.77"));
+  }
+
+  @Test
+  public void testPathsAreCompressed() {
+    CidrTrie.Builder builder = CidrTrie.builder();
+    add(builder, "10.1.2.0/24", true);
+    add(builder, "10.1.3.0/24", true);
+    // two leaves and the node where they diverge
+    assertEquals(3, builder.build().size());
+  }
+
+  @Test
+  public void testDenyWinsForTheSameBlock() {
+    CidrTrie.Builder builder = CidrTrie.builder();
+    add(builder, "10.0.0.0/8", true);
+    add(builder, "10.0.0.0/8", false);
+    assertEquals(CidrTrie.DENY, find(builder.build(), "10.0.0.1"));
+  }
+
+  @Test
+  public void testMatchAll() {
+    CidrTrie.Builder builder = CidrTrie.builder();
+    add(builder, "0.0.0.0/0", false);
+    add(builder, "127.0.0.1/32", true);
+    CidrTrie trie = builder.build();
+
+    assertEquals(CidrTrie.DENY, find(trie, "8.8.8.8"));
+    assertEquals(CidrTrie.ALLOW, find(trie, "127.0.0.1"));
+  }
+
+  @Test
+  public void testIpv6() {
+    CidrTrie.Builder builder = CidrTrie.builder();
+    add(builder, "2001:db8::/32", true);
+    add(builder, "2001:db8:0:0:8000::/65", false);
+    add(builder, "2001:db8::1/128", false);
+    CidrTrie trie = builder.build();
+
+    assertEquals(CidrTrie.ALLOW, find(trie, "2001:db8::2"));
+    assertEquals(CidrTrie.DENY, find(trie, "2001:db8::1"));
+    assertEquals(CidrTrie.DENY, find(trie, "2001:db8::8000:0:0:1"));
+    assertEquals(CidrTrie.NO_MATCH, find(trie, "2001:db9::1"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPrefixLength() {
+    add(CidrTrie.builder(), "10.0.0.0/33", true);
+  }
+}
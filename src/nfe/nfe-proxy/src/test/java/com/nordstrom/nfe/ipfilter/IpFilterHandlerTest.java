@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ipfilter;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.nordstrom.gtm.ipfilter.IpFilter;
+import com.nordstrom.gtm.ipfilter.ListAppIpFiltersResponse;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.RouteConfig;
+import com.xjeffrose.xio.http.RoutePartial;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IpFilterHandlerTest extends Assert {
+  private IpFilters ipFilters;
+
+  @Before
+  public void beforeEach() {
+    ipFilters = new IpFilters();
+    ipFilters.update(
+        "sn",
+        ListAppIpFiltersResponse.newBuilder()
+            .setIsDefaultAllow(true)
+            .putIpFilterKeyToIpFilter("a", filter("10.0.0.0/8", IpFilter.Type.DENY, false))
+            .putIpFilterKeyToIpFilter("b", filter("10.1.0.0/16", IpFilter.Type.ALLOW, false))
+            .putIpFilterKeyToIpFilter("c", filter("192.168.0.0/16", IpFilter.Type.DENY, true))
+            .putIpFilterKeyToIpFilter("d", filter("not an address", IpFilter.Type.DENY, false))
+            .build());
+    ipFilters.publish(ImmutableMap.of("/ou/sn/", "sn", "/ou/other/", "other"));
+  }
+
+  private static IpFilter filter(String cidr, IpFilter.Type type, boolean disabled) {
+    return IpFilter.newBuilder().setCidrAddress(cidr).setType(type).setIsDisabled(disabled).build();
+  }
+
+  @Test
+  public void testAllowedClientPassesThrough() {
+    EmbeddedChannel channel = channelFrom("10.1.2.3");
+    RoutePartial partial = partial("/ou/sn/", 1, true, true);
+
+    channel.writeInbound(partial);
+
+    assertSame(partial, channel.readInbound());
+  }
+
+  @Test
+  public void testBlockedClientIsAnsweredWith403() {
+    EmbeddedChannel channel = channelFrom("10.2.0.1");
+
+    channel.writeInbound(partial("/ou/sn/", 1, true, false));
+    channel.writeInbound(partial("/ou/sn/", 1, false, true));
+
+    assertNull(channel.readInbound());
+    Response response = channel.readOutbound();
+    assertEquals(403, response.status().code());
+    assertNull(channel.readOutbound());
+    assertEquals(1, ipFilters.getBlockedCount());
+  }
+
+  @Test
+  public void testDisabledFiltersAndOtherServicesDoNotBlock() {
+    EmbeddedChannel channel = channelFrom("192.168.1.1");
+    RoutePartial filtered = partial("/ou/sn/", 1, true, true);
+    channel.writeInbound(filtered);
+    assertSame(filtered, channel.readInbound());
+
+    EmbeddedChannel other = channelFrom("10.2.0.1");
+    RoutePartial unfiltered = partial("/ou/other/", 1, true, true);
+    other.writeInbound(unfiltered);
+    assertSame(unfiltered, other.readInbound());
+  }
+
+  @Test
+  public void testDefaultDeny() {
+    ipFilters.update(
+        "sn",
+        ListAppIpFiltersResponse.newBuilder()
+            .putIpFilterKeyToIpFilter("a", filter("10.1.0.0/16", IpFilter.Type.ALLOW, false))
+            .build());
+    ipFilters.publish(ImmutableMap.of("/ou/sn/", "sn"));
+
+    EmbeddedChannel allowed = channelFrom("10.1.0.1");
+    allowed.writeInbound(partial("/ou/sn/", 1, true, true));
+    assertNotNull(allowed.readInbound());
+
+    EmbeddedChannel denied = channelFrom("2001:db8::1");
+    denied.writeInbound(partial("/ou/sn/", 1, true, true));
+    assertNull(denied.readInbound());
+  }
+
+  @Test
+  public void testDefaultDenyWithoutEnabledFilters() {
+    ipFilters.update(
+        "sn",
+        ListAppIpFiltersResponse.newBuilder()
+            .putIpFilterKeyToIpFilter("a", filter("10.1.0.0/16", IpFilter.Type.ALLOW, true))
+            .build());
+    ipFilters.publish(ImmutableMap.of("/ou/sn/", "sn"));
+
+    EmbeddedChannel denied = channelFrom("10.1.0.1");
+    denied.writeInbound(partial("/ou/sn/", 1, true, true));
+    assertNull(denied.readInbound());
+    Response response = denied.readOutbound();
+    assertEquals(403, response.status().code());
+    assertEquals(1, ipFilters.getFilteredServiceCount());
+  }
+
+  @Test
+  public void testDefaultAllowWithoutEnabledFiltersIsNotFiltered() {
+    ipFilters.update("sn", ListAppIpFiltersResponse.newBuilder().setIsDefaultAllow(true).build());
+    ipFilters.publish(ImmutableMap.of("/ou/sn/", "sn"));
+
+    assertNull(ipFilters.forRoutePath("/ou/sn/"));
+    assertEquals(0, ipFilters.getFilteredServiceCount());
+  }
+
+  @Test
+  public void testUnchangedFiltersAreNotRecompiled() {
+    ServiceIpFilter compiled = ipFilters.forRoutePath("/ou/sn/");
+    ipFilters.update("sn", compiled.source());
+    ipFilters.publish(ImmutableMap.of("/ou/sn/", "sn"));
+
+    assertSame(compiled, ipFilters.forRoutePath("/ou/sn/"));
+  }
+
+  @Test
+  public void testUnchangedUnfilteredServicesAreNotRecompiled() {
+    ListAppIpFiltersResponse allowAll =
+        ListAppIpFiltersResponse.newBuilder().setIsDefaultAllow(true).build();
+    ipFilters.update("sn", allowAll);
+    ServiceIpFilter compiled = ipFilters.forService("sn");
+    ipFilters.update("sn", allowAll.toBuilder().build());
+
+    assertTrue(compiled.allowsAll());
+    assertSame(compiled, ipFilters.forService("sn"));
+  }
+
+  private EmbeddedChannel channelFrom(String address) {
+    InetSocketAddress remote = new InetSocketAddress(address, 4321);
+    return new EmbeddedChannel(new IpFilterHandler(ipFilters)) {
+      @Override
+      public SocketAddress remoteAddress() {
+        return remote;
+      }
+    };
+  }
+
+  private static RoutePartial partial(String path, int streamId, boolean start, boolean end) {
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.startOfMessage()).thenReturn(start);
+    when(request.endOfMessage()).thenReturn(end);
+    when(request.path()).thenReturn(path);
+    RouteState route =
+        new RouteState(
+            new RouteConfig(Collections.emptyList(), "", path, "none"),
+            mock(PipelineRequestHandler.class));
+    return new RoutePartial(request, route);
+  }
+}
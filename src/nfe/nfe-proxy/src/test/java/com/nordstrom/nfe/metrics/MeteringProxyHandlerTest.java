@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.DefaultSegmentedData;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MeteringProxyHandlerTest extends Assert {
+  private EmbeddedChannel channel;
+  private ChannelHandlerContext ctx;
+  private Route route;
+  private Upstream upstream;
+  private RouteMetrics metrics;
+  private MeteringProxyHandler handler;
+
+  @Before
+  public void beforeEach() {
+    channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ctx = channel.pipeline().firstContext();
+    route = mock(Route.class);
+    upstream = new Upstream();
+    metrics = new RouteMetrics();
+    handler = new MeteringProxyHandler(upstream, metrics);
+  }
+
+  @After
+  public void afterEach() {
+    channel.finishAndReleaseAll();
+  }
+
+  /** Keeps the context of the last request, to answer it from the test. */
+  private static class Upstream implements PipelineRequestHandler {
+    private ChannelHandlerContext ctx;
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+      this.ctx = ctx;
+    }
+  }
+
+  private static Request request(int streamId, String body) {
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.startOfMessage()).thenReturn(true);
+    when(request.endOfMessage()).thenReturn(true);
+    when(request.body()).thenReturn(Unpooled.copiedBuffer(body, UTF_8));
+    return request;
+  }
+
+  private static Response response(int streamId, HttpResponseStatus status, String body) {
+    return DefaultFullResponse.builder()
+        .status(status)
+        .streamId(streamId)
+        .body(Unpooled.copiedBuffer(body, UTF_8))
+        .headers(new DefaultHeaders())
+        .build();
+  }
+
+  @Test
+  public void testRequestsAreMeteredUntilTheEndOfTheirResponse() {
+    handler.handle(ctx, request(1, "hello"), route);
+    Response head = mock(Response.class);
+    when(head.streamId()).thenReturn(1);
+    when(head.startOfMessage()).thenReturn(true);
+    when(head.status()).thenReturn(HttpResponseStatus.OK);
+    upstream.ctx.writeAndFlush(head);
+    assertEquals(0, metrics.latency().snapshot().getTotalCount());
+
+    upstream.ctx.writeAndFlush(
+        DefaultSegmentedData.builder()
+            .content(Unpooled.copiedBuffer("world!", UTF_8))
+            .trailingHeaders(new DefaultHeaders())
+            .endOfMessage(true)
+            .streamId(1)
+            .build());
+
+    assertEquals(1, metrics.latency().snapshot().getTotalCount());
+    assertEquals(5, metrics.getRequestBytes());
+    assertEquals(6, metrics.getResponseBytes());
+    assertEquals(1, metrics.getResponseCount(2));
+  }
+
+  @Test
+  public void testResponsesAreCountedByStatusClass() {
+    handler.handle(ctx, request(1, ""), route);
+    handler.handle(ctx, request(3, ""), route);
+    handler.handle(ctx, request(5, ""), route);
+    upstream.ctx.writeAndFlush(response(3, HttpResponseStatus.NOT_FOUND, ""));
+    upstream.ctx.writeAndFlush(response(1, HttpResponseStatus.OK, "a"));
+    upstream.ctx.writeAndFlush(response(5, HttpResponseStatus.SERVICE_UNAVAILABLE, ""));
+
+    assertEquals(1, metrics.getResponseCount(2));
+    assertEquals(1, metrics.getResponseCount(4));
+    assertEquals(1, metrics.getResponseCount(5));
+    assertEquals(3, metrics.latency().snapshot().getTotalCount());
+  }
+
+  @Test
+  public void testLatenciesAddUpAcrossSnapshots() {
+    LatencyHistogram latency = new LatencyHistogram();
+    latency.record(TimeUnit.MILLISECONDS.toNanos(3));
+    assertEquals(1, latency.snapshot().getTotalCount());
+    latency.record(TimeUnit.MILLISECONDS.toNanos(5));
+    latency.record(TimeUnit.HOURS.toNanos(1));
+
+    assertEquals(3, latency.snapshot().getTotalCount());
+    assertEquals(
+        TimeUnit.MILLISECONDS.toMicros(8) + LatencyHistogram.HIGHEST_MICROS, latency.sumMicros());
+  }
+
+  @Test
+  public void testMeteringDoesNotAllocate() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    MeteringProxyHandler.MeteringContext meteringCtx = handler.context(ctx);
+    Response response = response(1, HttpResponseStatus.OK, "body");
+    // warm up, so that the counters, the recorder and the code are all set
+    for (int i = 0; i < 100_000; i++) {
+      meteringCtx.requestStarted(1, metrics);
+      meteringCtx.observe(response);
+    }
+
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < 100_000; i++) {
+      meteringCtx.requestStarted(1, metrics);
+      meteringCtx.observe(response);
+    }
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+    // leaves room for the call to getThreadAllocatedBytes itself, not for a byte per request
+    assertTrue("allocated " + allocated + " bytes", allocated < 10_000);
+    assertEquals(200_000, metrics.latency().snapshot().getTotalCount());
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrometheusWriterTest extends Assert {
+
+  @Test
+  public void testSamplesAreWrittenWithEscapedLabels() {
+    String text =
+        new PrometheusWriter()
+            .family("nfe_route_retries_total", "counter", "Requests sent again.")
+            .sample("nfe_route_retries_total", 3, "route", "/v1/\"quoted\"\\path/")
+            .sample("nfe_route_retries_total", 0.5)
+            .toString();
+
+    assertEquals(
+        "# HELP nfe_route_retries_total Requests sent again.\n"
+            + "# TYPE nfe_route_retries_total counter\n"
+            + "nfe_route_retries_total{route=\"/v1/\\\"quoted\\\"\\\\path/\"} 3\n"
+            + "nfe_route_retries_total 0.5\n",
+        text);
+  }
+
+  @Test
+  public void testHistogramBucketsAreCumulativeSeconds() {
+    LatencyHistogram latency = new LatencyHistogram();
+    latency.record(TimeUnit.MILLISECONDS.toNanos(2));
+    latency.record(TimeUnit.MILLISECONDS.toNanos(20));
+    latency.record(TimeUnit.MILLISECONDS.toNanos(200));
+
+    String text =
+        new PrometheusWriter()
+            .histogram(
+                "nfe_route_request_duration_seconds",
+                latency,
+                Arrays.asList(
+                    TimeUnit.MILLISECONDS.toMicros(10), TimeUnit.MILLISECONDS.toMicros(100)),
+                "route",
+                "/a/")
+            .toString();
+
+    assertEquals(
+        "nfe_route_request_duration_seconds_bucket{route=\"/a/\",le=\"0.01\"} 1\n"
+            + "nfe_route_request_duration_seconds_bucket{route=\"/a/\",le=\"0.1\"} 2\n"
+            + "nfe_route_request_duration_seconds_bucket{route=\"/a/\",le=\"+Inf\"} 3\n"
+            + "nfe_route_request_duration_seconds_sum{route=\"/a/\"} 0.222\n"
+            + "nfe_route_request_duration_seconds_count{route=\"/a/\"} 3\n",
+        text);
+  }
+}
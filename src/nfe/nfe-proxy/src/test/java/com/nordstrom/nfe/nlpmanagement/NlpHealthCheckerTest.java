@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.nlpmanagement;
+
+import com.google.common.collect.ImmutableSet;
+import com.nordstrom.nfe.config.NlpHealthCheckConfig;
+import com.nordstrom.nfe.testhelpers.TimingTestHelper;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NlpHealthCheckerTest extends Assert {
+  private final AtomicInteger healthStatus = new AtomicInteger(200);
+  private MockWebServer server;
+  private InetSocketAddress address;
+  private NlpHealthChecker subject;
+
+  @Before
+  public void beforeEach() throws Exception {
+    server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            if (!"/healthcheck".equals(request.getPath())) {
+              return new MockResponse().setResponseCode(404);
+            }
+            return new MockResponse().setResponseCode(healthStatus.get());
+          }
+        });
+    server.start();
+    address = new InetSocketAddress(server.getHostName(), server.getPort());
+
+    // no TLS, probe every 20ms, 2 results in a row flip the health
+    subject =
+        new NlpHealthChecker(
+            new NlpHealthCheckConfig(true, "/healthcheck", false, null, 20, 0.2, 500, 2, 2, 1));
+  }
+
+  @After
+  public void afterEach() throws Exception {
+    subject.shutdown();
+    server.shutdown();
+  }
+
+  @Test
+  public void testFailingNlpTurnsUnhealthyAndRecovers() {
+    subject.setTargets(ImmutableSet.of(address));
+    long version = subject.version();
+    assertTrue(subject.isHealthy(address));
+    assertTrue(TimingTestHelper.contiuallyCheckForSuccess(2000, () -> subject.getProbeCount() > 2));
+    assertTrue(subject.isHealthy(address));
+    assertEquals(version, subject.version());
+
+    healthStatus.set(503);
+    assertTrue(TimingTestHelper.contiuallyCheckForSuccess(2000, () -> !subject.isHealthy(address)));
+    assertNotEquals(version, subject.version());
+    assertEquals(1, subject.getUnhealthyCount());
+
+    healthStatus.set(200);
+    assertTrue(TimingTestHelper.contiuallyCheckForSuccess(2000, () -> subject.isHealthy(address)));
+    assertEquals(0, subject.getUnhealthyCount());
+  }
+
+  @Test
+  public void testUnreachableNlpTurnsUnhealthy() throws Exception {
+    InetSocketAddress unreachable;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      unreachable = new InetSocketAddress("127.0.0.1", socket.getLocalPort());
+    }
+
+    subject.setTargets(ImmutableSet.of(address, unreachable));
+
+    assertTrue(
+        TimingTestHelper.contiuallyCheckForSuccess(2000, () -> !subject.isHealthy(unreachable)));
+    assertTrue(subject.isHealthy(address));
+    assertTrue(subject.getFailedProbeCount() >= 2);
+  }
+
+  @Test
+  public void testRemovedNlpIsNoLongerChecked() {
+    healthStatus.set(503);
+    subject.setTargets(ImmutableSet.of(address));
+    assertTrue(TimingTestHelper.contiuallyCheckForSuccess(2000, () -> !subject.isHealthy(address)));
+
+    long version = subject.version();
+    subject.setTargets(ImmutableSet.of());
+
+    assertEquals(0, subject.getTargetCount());
+    assertTrue(subject.isHealthy(address));
+    assertNotEquals(version, subject.version());
+  }
+
+  @Test
+  public void testUntrackedAddressIsHealthy() {
+    assertTrue(subject.isHealthy(new InetSocketAddress("127.0.0.1", 1)));
+  }
+}
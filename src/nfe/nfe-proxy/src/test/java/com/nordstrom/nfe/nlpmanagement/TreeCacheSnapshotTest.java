@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.nlpmanagement;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TreeCacheSnapshotTest extends Assert {
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final TreeCacheSnapshot subject = new TreeCacheSnapshot();
+
+  @Test
+  public void testDrainDeserializesRecordedNodes() throws Exception {
+    CustomerAccountNlpZookeeperInfo info1 =
+        new CustomerAccountNlpZookeeperInfo("account_id", "instance_id-1", "ip-1");
+    CustomerAccountNlpZookeeperInfo info2 =
+        new CustomerAccountNlpZookeeperInfo("account_id", "instance_id-2", "ip-2");
+    CustomerAccountNlpZookeeperInfo removed =
+        new CustomerAccountNlpZookeeperInfo("account_id", "instance_id-3", "ip-3");
+
+    subject.record(event(TreeCacheEvent.Type.NODE_ADDED, "/nlps/aws/account_id", new byte[0]));
+    subject.record(event(TreeCacheEvent.Type.NODE_ADDED, "/nlps/aws/account_id/1", info1));
+    subject.record(event(TreeCacheEvent.Type.NODE_ADDED, "/nlps/aws/account_id/2", info1));
+    subject.record(event(TreeCacheEvent.Type.NODE_UPDATED, "/nlps/aws/account_id/2", info2));
+    subject.record(event(TreeCacheEvent.Type.NODE_ADDED, "/nlps/aws/account_id/3", removed));
+    subject.record(event(TreeCacheEvent.Type.NODE_REMOVED, "/nlps/aws/account_id/3", removed));
+    subject.record(event(TreeCacheEvent.Type.NODE_ADDED, "/nlps/aws/account_id/4", "not json"));
+
+    List<CustomerAccountNlpZookeeperInfo> infos =
+        subject.drain(
+            objectMapper,
+            CustomerAccountNlpZookeeperInfo.class,
+            path -> path.split("/").length == 5);
+
+    assertEquals(
+        Sets.newHashSet("ip-1", "ip-2"),
+        infos
+            .stream()
+            .map(CustomerAccountNlpZookeeperInfo::getIpAddress)
+            .collect(Collectors.toSet()));
+    assertEquals(0, subject.size());
+  }
+
+  private TreeCacheEvent event(TreeCacheEvent.Type type, String path, Object value)
+      throws Exception {
+    byte[] data =
+        value instanceof String
+            ? ((String) value).getBytes()
+            : objectMapper.writeValueAsBytes(value);
+    return event(type, path, data);
+  }
+
+  private static TreeCacheEvent event(TreeCacheEvent.Type type, String path, byte[] data) {
+    return new TreeCacheEvent(type, new ChildData(path, new Stat(), data));
+  }
+}
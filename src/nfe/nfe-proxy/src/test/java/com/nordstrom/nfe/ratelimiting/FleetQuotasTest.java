@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.nordstrom.nfe.config.FleetQuotaConfig;
+import com.xjeffrose.xio.core.ZkClient;
+import org.apache.curator.test.TestingServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FleetQuotasTest extends Assert {
+  private static final String PATH = "/nfe/rate_limiting/members";
+
+  private TestingServer zkServer;
+  private ZkClient zkClient;
+  private RateLimits rateLimitsA;
+  private RateLimits rateLimitsB;
+  private FleetQuotas nfeA;
+  private FleetQuotas nfeB;
+
+  @Before
+  public void beforeEach() throws Exception {
+    zkServer = new TestingServer();
+    zkServer.start();
+    zkClient = new ZkClient(zkServer.getConnectString());
+    zkClient.start();
+
+    rateLimitsA = rateLimits();
+    rateLimitsB = rateLimits();
+    ObjectMapper objectMapper = new ObjectMapper();
+    nfeA = new FleetQuotas(config("nfe-a", 60_000), rateLimitsA, zkClient, objectMapper);
+    nfeB = new FleetQuotas(config("nfe-b", 60_000), rateLimitsB, zkClient, objectMapper);
+  }
+
+  @After
+  public void afterEach() throws Exception {
+    zkClient.stop();
+    zkServer.close();
+  }
+
+  private static RateLimits rateLimits() {
+    RateLimits rateLimits = new RateLimits(RateLimitsTest.config(4));
+    rateLimits.update("sn", 1000, 0, false);
+    rateLimits.publish(ImmutableMap.of("/ou/sn/", "sn"));
+    return rateLimits;
+  }
+
+  private static FleetQuotaConfig config(String memberId, long memberTtlMillis) {
+    return new FleetQuotaConfig(true, 1000, memberTtlMillis, 0.1, PATH, memberId);
+  }
+
+  private static ServiceRateLimiter limiter(RateLimits rateLimits) {
+    return rateLimits.forRoutePath("/ou/sn/");
+  }
+
+  private static void request(RateLimits rateLimits, int count) {
+    for (int i = 0; i < count; i++) {
+      limiter(rateLimits).tryAcquire();
+    }
+  }
+
+  @Test
+  public void testAloneTakesTheWholeLimit() {
+    request(rateLimitsA, 10);
+    nfeA.reconcile();
+
+    assertEquals(1, nfeA.getMemberCount());
+    assertEquals(1.0, limiter(rateLimitsA).getShare(), 0.001);
+    assertEquals(1000, limiter(rateLimitsA).getLocalRequestsPerSecond());
+  }
+
+  @Test
+  public void testSharesFollowDemand() {
+    // each NFE only counts the other once it has seen its sequence go up
+    for (int i = 0; i < 2; i++) {
+      request(rateLimitsA, 30);
+      request(rateLimitsB, 10);
+      nfeA.reconcile();
+      nfeB.reconcile();
+    }
+    request(rateLimitsA, 30);
+    nfeA.reconcile();
+
+    assertEquals(2, nfeA.getMemberCount());
+    assertEquals(2, nfeB.getMemberCount());
+    // a tenth split evenly, the rest by the requests each NFE saw
+    assertEquals(0.05 + 0.9 * 0.75, limiter(rateLimitsA).getShare(), 0.001);
+    assertEquals(0.05 + 0.9 * 0.25, limiter(rateLimitsB).getShare(), 0.001);
+    assertEquals(725, limiter(rateLimitsA).getLocalRequestsPerSecond());
+  }
+
+  @Test
+  public void testSplitEvenlyWithoutDemand() {
+    nfeA.reconcile();
+    nfeB.reconcile();
+    nfeA.reconcile();
+    nfeB.reconcile();
+
+    assertEquals(0.5, limiter(rateLimitsB).getShare(), 0.001);
+  }
+
+  @Test
+  public void testSilentMembersTimeOut() throws Exception {
+    FleetQuotas nfeC =
+        new FleetQuotas(config("nfe-c", 50), rateLimitsA, zkClient, new ObjectMapper());
+    nfeB.reconcile();
+    nfeC.reconcile();
+    nfeB.reconcile();
+    nfeC.reconcile();
+    assertEquals(2, nfeC.getMemberCount());
+
+    // nfe-b's sequence hasn't changed for longer than the ttl
+    Thread.sleep(100);
+    nfeC.reconcile();
+    assertEquals(1, nfeC.getMemberCount());
+    assertEquals(1.0, limiter(rateLimitsA).getShare(), 0.001);
+
+    nfeB.reconcile();
+    nfeC.reconcile();
+    assertEquals(2, nfeC.getMemberCount());
+  }
+
+  @Test
+  public void testNodesLeftBehindAreNotCounted() throws Exception {
+    QuotaMemberInfo gone =
+        new QuotaMemberInfo("nfe-gone", 7, ImmutableMap.of("sn", 100L), false);
+    zkClient.set(PATH + "/nfe-gone", new ObjectMapper().writeValueAsString(gone));
+
+    nfeA.reconcile();
+    nfeA.reconcile();
+
+    assertEquals(1, nfeA.getMemberCount());
+    assertEquals(1.0, limiter(rateLimitsA).getShare(), 0.001);
+  }
+
+  @Test
+  public void testMembersThatLeaveAreDroppedRightAway() {
+    nfeA.reconcile();
+    nfeB.reconcile();
+    nfeA.reconcile();
+    nfeB.reconcile();
+    assertEquals(2, nfeB.getMemberCount());
+
+    nfeA.leave();
+    nfeB.reconcile();
+
+    assertEquals(1, nfeB.getMemberCount());
+    assertEquals(1.0, limiter(rateLimitsB).getShare(), 0.001);
+  }
+
+  @Test
+  public void testMembersThatLeaveRemoveTheirNodes() {
+    nfeA.reconcile();
+    nfeB.reconcile();
+    assertTrue(zkClient.getChildren(PATH).contains("nfe-a"));
+
+    nfeA.leave();
+
+    assertFalse(zkClient.getChildren(PATH).contains("nfe-a"));
+    assertTrue(zkClient.getChildren(PATH).contains("nfe-b"));
+  }
+
+  @Test
+  public void testMembersThatComeBackAfterLeavingAreCountedAgain() {
+    for (int i = 0; i < 3; i++) {
+      nfeA.reconcile();
+      nfeB.reconcile();
+    }
+    assertEquals(2, nfeB.getMemberCount());
+
+    // nfe-b doesn't reconcile while nfe-a is gone, so it still remembers nfe-a's old sequence
+    nfeA.leave();
+    FleetQuotas restartedA =
+        new FleetQuotas(config("nfe-a", 60_000), rateLimitsA, zkClient, new ObjectMapper());
+    restartedA.reconcile();
+    nfeB.reconcile();
+    restartedA.reconcile();
+    nfeB.reconcile();
+
+    assertEquals(2, nfeB.getMemberCount());
+  }
+
+  @Test
+  public void testSequenceKeepsGoingUpAcrossRestarts() {
+    nfeA.reconcile();
+    nfeA.reconcile();
+    nfeA.reconcile();
+    nfeB.reconcile();
+    nfeA.reconcile();
+    nfeB.reconcile();
+    assertEquals(2, nfeB.getMemberCount());
+
+    FleetQuotas restartedA =
+        new FleetQuotas(config("nfe-a", 60_000), rateLimitsA, zkClient, new ObjectMapper());
+    restartedA.reconcile();
+    nfeB.reconcile();
+
+    assertEquals(2, nfeB.getMemberCount());
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.RouteConfig;
+import com.xjeffrose.xio.http.RoutePartial;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimitHandlerTest extends Assert {
+  private RateLimits rateLimits;
+  private EmbeddedChannel channel;
+
+  @Before
+  public void beforeEach() {
+    rateLimits = new RateLimits(RateLimitsTest.config(1));
+    rateLimits.update("sn", 1, 0, false);
+    rateLimits.publish(ImmutableMap.of("/ou/sn/", "sn"));
+    channel = new EmbeddedChannel(new RateLimitHandler(rateLimits));
+  }
+
+  @Test
+  public void testUnlimitedRoutesPassThrough() {
+    for (int i = 0; i < 5; i++) {
+      RoutePartial partial = partial("/ou/other/", 1 + 2 * i, true, true);
+      channel.writeInbound(partial);
+      assertSame(partial, channel.readInbound());
+    }
+    assertNull(channel.readOutbound());
+  }
+
+  @Test
+  public void testRequestsOverTheLimitAreAnsweredWith429() {
+    RoutePartial first = partial("/ou/sn/", 1, true, true);
+    channel.writeInbound(first);
+    assertSame(first, channel.readInbound());
+
+    channel.writeInbound(partial("/ou/sn/", 3, true, true));
+    assertNull(channel.readInbound());
+    Response response = channel.readOutbound();
+    assertEquals(429, response.status().code());
+    assertEquals(3, response.streamId());
+  }
+
+  @Test
+  public void testRestOfRejectedStreamIsDropped() {
+    channel.writeInbound(partial("/ou/sn/", 1, true, true));
+    channel.readInbound();
+
+    channel.writeInbound(partial("/ou/sn/", 3, true, false));
+    channel.writeInbound(partial("/ou/sn/", 3, false, false));
+    channel.writeInbound(partial("/ou/sn/", 3, false, true));
+    assertNull(channel.readInbound());
+    assertNotNull(channel.readOutbound());
+    assertNull(channel.readOutbound());
+  }
+
+  @Test
+  public void testStreamBodiesAreNotCounted() {
+    RoutePartial head = partial("/ou/sn/", 1, true, false);
+    RoutePartial body = partial("/ou/sn/", 1, false, true);
+    channel.writeInbound(head);
+    channel.writeInbound(body);
+
+    assertSame(head, channel.readInbound());
+    assertSame(body, channel.readInbound());
+  }
+
+  private static RoutePartial partial(String path, int streamId, boolean start, boolean end) {
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.startOfMessage()).thenReturn(start);
+    when(request.endOfMessage()).thenReturn(end);
+    when(request.path()).thenReturn(path);
+    RouteState route =
+        new RouteState(
+            new RouteConfig(Collections.emptyList(), "", path, "none"),
+            mock(PipelineRequestHandler.class));
+    return new RoutePartial(request, route);
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.nordstrom.gtm.ratelimiter.GetRateLimiterResponse;
+import com.nordstrom.nfe.CoreDataService;
+import com.nordstrom.nfe.routing.RouteGeneration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimitUpdaterTest extends Assert {
+  private RateLimits rateLimits;
+  private CoreDataService coreDataService;
+  private RouteGeneration routeGeneration;
+  private RateLimitUpdater subject;
+
+  @Before
+  public void beforeEach() {
+    rateLimits = new RateLimits(RateLimitsTest.config(1));
+    coreDataService = mock(CoreDataService.class);
+    routeGeneration = mock(RouteGeneration.class);
+    subject =
+        new RateLimitUpdater(
+            RateLimitsTest.config(1), rateLimits, coreDataService, () -> routeGeneration);
+  }
+
+  @Test
+  public void testRefreshLooksUpTheRoutedServices() {
+    when(routeGeneration.proxyRouteServiceNames())
+        .thenReturn(ImmutableMap.of("/v1/ou/sn/", "sn", "/v2/ou/sn/", "sn"));
+    when(coreDataService.getRateLimiters(ImmutableSet.of("sn")))
+        .thenReturn(ImmutableMap.of("sn", limit("sn", 5, 2)));
+
+    subject.refresh();
+
+    ServiceRateLimiter limiter = rateLimits.forRoutePath("/v1/ou/sn/");
+    assertNotNull(limiter);
+    assertEquals(5, limiter.getRequestsPerSecond());
+    assertEquals(2, limiter.getMaxConnectionsPerClient());
+    assertSame(limiter, rateLimits.forRoutePath("/v2/ou/sn/"));
+  }
+
+  @Test
+  public void testFailedLookupKeepsLastKnownLimits() {
+    when(routeGeneration.proxyRouteServiceNames()).thenReturn(ImmutableMap.of("/v1/ou/sn/", "sn"));
+    when(coreDataService.getRateLimiters(any()))
+        .thenReturn(ImmutableMap.of("sn", limit("sn", 5, 0)))
+        .thenReturn(ImmutableMap.of());
+
+    subject.refresh();
+    subject.refresh();
+
+    assertEquals(5, rateLimits.forRoutePath("/v1/ou/sn/").getRequestsPerSecond());
+  }
+
+  private static GetRateLimiterResponse limit(
+      String serviceName, int requestsPerSecond, int maxConnectionsPerClient) {
+    return GetRateLimiterResponse.newBuilder()
+        .setServiceName(serviceName)
+        .setRequestsPerSecond(requestsPerSecond)
+        .setMaxConnectionsPerClient(maxConnectionsPerClient)
+        .build();
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.ratelimiting;
+
+import com.google.common.collect.ImmutableMap;
+import com.nordstrom.nfe.config.RateLimitingConfig;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimitsTest extends Assert {
+  private RateLimits subject;
+
+  @Before
+  public void beforeEach() {
+    subject = new RateLimits(config(4));
+  }
+
+  static RateLimitingConfig config(int stripes) {
+    return new RateLimitingConfig(true, 10_000, TimeUnit.SECONDS.toNanos(1), stripes);
+  }
+
+  @Test
+  public void testBucketAllowsBurstThenRejects() {
+    TokenBucket bucket = new TokenBucket(8, TimeUnit.SECONDS.toNanos(1), 4);
+    assertEquals(4, bucket.stripes());
+
+    int allowed = 0;
+    for (int i = 0; i < 100; i++) {
+      if (bucket.tryAcquire()) {
+        allowed++;
+      }
+    }
+    // a second's worth of requests, taken from every stripe
+    assertEquals(8, allowed);
+  }
+
+  @Test
+  public void testBucketStripesAreLimitedByRate() {
+    assertEquals(2, new TokenBucket(3, TimeUnit.SECONDS.toNanos(1), 8).stripes());
+    assertEquals(1, new TokenBucket(1, 0, 8).stripes());
+    assertTrue(new TokenBucket(1, 0, 8).tryAcquire());
+  }
+
+  @Test
+  public void testRoutesShareTheServiceLimiter() {
+    subject.update("sn", 5, 0, false);
+    subject.publish(ImmutableMap.of("/v1/ou/sn/", "sn", "/v2/ou/sn/", "sn", "/ou/other/", "other"));
+
+    ServiceRateLimiter limiter = subject.forRoutePath("/v1/ou/sn/");
+    assertNotNull(limiter);
+    assertSame(limiter, subject.forRoutePath("/v2/ou/sn/"));
+    assertNull(subject.forRoutePath("/ou/other/"));
+  }
+
+  @Test
+  public void testUnroutedServicesAreForgotten() {
+    subject.update("sn", 5, 0, false);
+    subject.publish(ImmutableMap.of("/ou/sn/", "sn"));
+    subject.publish(ImmutableMap.of());
+
+    assertNull(subject.forRoutePath("/ou/sn/"));
+    assertTrue(subject.limiters().isEmpty());
+  }
+
+  @Test
+  public void testLimitsUpdateLive() {
+    subject.update("sn", 1, 0, false);
+    subject.publish(ImmutableMap.of("/ou/sn/", "sn"));
+    ServiceRateLimiter limiter = subject.forRoutePath("/ou/sn/");
+
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire());
+    assertEquals(1, limiter.getRejectedRequests());
+
+    subject.update("sn", 1000, 0, false);
+    assertSame(limiter, subject.forRoutePath("/ou/sn/"));
+    assertTrue(limiter.tryAcquire());
+
+    subject.update("sn", 1, 0, true);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+
+    subject.update("sn", 0, 0, false);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+  }
+
+  @Test
+  public void testShareOfTheLimit() {
+    subject.update("sn", 8, 0, false);
+    subject.publish(ImmutableMap.of("/ou/sn/", "sn"));
+    ServiceRateLimiter limiter = subject.forRoutePath("/ou/sn/");
+
+    limiter.setShare(0.5);
+    assertEquals(4, limiter.getLocalRequestsPerSecond());
+    int allowed = 0;
+    for (int i = 0; i < 100; i++) {
+      if (limiter.tryAcquire()) {
+        allowed++;
+      }
+    }
+    assertEquals(4, allowed);
+
+    // every request counts towards the demand, rejected or not
+    assertEquals(100, limiter.takeDemand());
+    assertEquals(0, limiter.takeDemand());
+
+    // a tiny share still lets requests through
+    limiter.setShare(0.001);
+    assertEquals(1, limiter.getLocalRequestsPerSecond());
+  }
+
+  @Test
+  public void testConnectionsPerClient() throws Exception {
+    subject.update("sn", 0, 2, false);
+    subject.publish(ImmutableMap.of("/ou/sn/", "sn"));
+    ServiceRateLimiter limiter = subject.forRoutePath("/ou/sn/");
+    InetAddress client = InetAddress.getByName("10.0.0.1");
+    InetAddress other = InetAddress.getByName("10.0.0.2");
+
+    assertTrue(limiter.tryOpenConnection(client));
+    assertTrue(limiter.tryOpenConnection(client));
+    assertFalse(limiter.tryOpenConnection(client));
+    assertEquals(2, limiter.connectionCount(client));
+    assertTrue(limiter.tryOpenConnection(other));
+
+    limiter.closeConnection(client);
+    assertTrue(limiter.tryOpenConnection(client));
+
+    limiter.closeConnection(client);
+    limiter.closeConnection(client);
+    assertEquals(0, limiter.connectionCount(client));
+    assertEquals(1, limiter.getRejectedConnections());
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.RoutePartial;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NfePipelineRouterTest extends Assert {
+  private AtomicReference<RouteGeneration> generation;
+  private EmbeddedChannel channel;
+
+  @Before
+  public void beforeEach() {
+    generation = new AtomicReference<>(RouteGeneration.EMPTY);
+    channel = new EmbeddedChannel(new NfePipelineRouter(generation::get));
+  }
+
+  @Test
+  public void testUnmatchedRequestIsRoutedToNotFound() {
+    assertSame(NotFoundHandler.ROUTE, route(request(1, "/missing/", true, true)));
+  }
+
+  @Test
+  public void testExistingConnectionSeesNewRoutes() {
+    RouteState first = RouteTrieTest.route("/ou/sn/", "", Collections.emptyList());
+    generation.set(generation.get().next(ImmutableMap.of(first.path(), first)));
+    assertSame(first, route(request(1, "/ou/sn/a", true, true)));
+
+    // WHEN the route is replaced while the connection stays open
+    RouteState second = RouteTrieTest.route("/ou/sn/", "", Collections.emptyList());
+    generation.set(generation.get().next(ImmutableMap.of(second.path(), second)));
+
+    // THEN the next request on the connection uses the new route
+    assertSame(second, route(request(3, "/ou/sn/a", true, true)));
+  }
+
+  @Test
+  public void testStreamStaysOnTheRouteItStartedWith() {
+    RouteState first = RouteTrieTest.route("/ou/sn/", "", Collections.emptyList());
+    generation.set(generation.get().next(ImmutableMap.of(first.path(), first)));
+    assertSame(first, route(request(1, "/ou/sn/a", true, false)));
+
+    generation.set(generation.get().next(ImmutableMap.of()));
+
+    assertSame(first, route(request(1, "/ou/sn/a", false, true)));
+    assertSame(NotFoundHandler.ROUTE, route(request(3, "/ou/sn/a", true, true)));
+  }
+
+  private RouteState route(Request request) {
+    channel.writeInbound(request);
+    RoutePartial partial = channel.readInbound();
+    assertSame(request, partial.request());
+    return partial.route();
+  }
+
+  private static Request request(
+      int streamId, String path, boolean startOfMessage, boolean endOfMessage) {
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.path()).thenReturn(path);
+    when(request.method()).thenReturn(HttpMethod.GET);
+    when(request.headers()).thenReturn(mock(Headers.class));
+    when(request.startOfMessage()).thenReturn(startOfMessage);
+    when(request.endOfMessage()).thenReturn(endOfMessage);
+    return request;
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Response;
+import com.xjeffrose.xio.http.Route;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NotFoundHandlerTest extends Assert {
+  private EmbeddedChannel channel;
+  private ChannelHandlerContext ctx;
+
+  @Before
+  public void beforeEach() {
+    channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ctx = channel.pipeline().firstContext();
+  }
+
+  @Test
+  public void testStartOfStreamIsAnsweredWith404AndReleased() {
+    ByteBuf body = Unpooled.copyLong(1);
+
+    NotFoundHandler.ROUTE.handler().handle(ctx, request(true, body), mock(Route.class));
+
+    Response response = channel.readOutbound();
+    assertEquals(HttpResponseStatus.NOT_FOUND, response.status());
+    assertEquals(0, body.refCnt());
+  }
+
+  @Test
+  public void testRestOfStreamIsReleased() {
+    ByteBuf body = Unpooled.copyLong(1);
+
+    NotFoundHandler.ROUTE.handler().handle(ctx, request(false, body), mock(Route.class));
+
+    assertNull(channel.readOutbound());
+    assertEquals(0, body.refCnt());
+  }
+
+  private static Request request(boolean start, ByteBuf body) {
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(1);
+    when(request.startOfMessage()).thenReturn(start);
+    when(request.body()).thenReturn(body);
+    return request;
+  }
+}
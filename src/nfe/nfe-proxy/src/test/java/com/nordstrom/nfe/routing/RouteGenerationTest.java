@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.xjeffrose.xio.http.ProxyRouteState;
+import com.xjeffrose.xio.http.RouteState;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RouteGenerationTest extends Assert {
+
+  @Test
+  public void testServiceName() {
+    assertEquals("sn", RouteGeneration.serviceName("/v1/ou/sn/"));
+    assertEquals("sn", RouteGeneration.serviceName("/ou/sn"));
+    assertNull(RouteGeneration.serviceName("/"));
+    assertNull(RouteGeneration.serviceName(""));
+  }
+
+  @Test
+  public void testProxyRouteServiceNames() {
+    RouteGeneration generation =
+        RouteGeneration.EMPTY.next(
+            ImmutableMap.of(
+                "/v1/ou/sn/", proxyRoute("/v1/ou/sn/"),
+                "/", proxyRoute("/"),
+                "/grpc/", RouteTrieTest.route("/grpc/", "", Collections.emptyList())));
+
+    Map<String, String> serviceNames = generation.proxyRouteServiceNames();
+
+    assertEquals(ImmutableMap.of("/v1/ou/sn/", "sn"), serviceNames);
+  }
+
+  @Test
+  public void testUpdate() {
+    RouteState kept = proxyRoute("/v1/ou/kept/");
+    RouteState removed = proxyRoute("/v1/ou/removed/");
+    RouteState added = proxyRoute("/v1/ou/added/");
+    RouteGeneration previous =
+        RouteGeneration.EMPTY.next(
+            ImmutableMap.of("/v1/ou/kept/", kept, "/v1/ou/removed/", removed));
+
+    RouteGeneration generation =
+        previous.update(
+            ImmutableMap.of("/v1/ou/added/", added), Collections.singleton("/v1/ou/removed/"));
+
+    assertEquals(previous.id() + 1, generation.id());
+    assertEquals(
+        ImmutableMap.of("/v1/ou/kept/", kept, "/v1/ou/added/", added), generation.routes());
+    assertEquals(2, generation.trie().size());
+    assertEquals(2, previous.routes().size());
+  }
+
+  private static RouteState proxyRoute(String path) {
+    // deep stubs give the route trie a config to read
+    ProxyRouteState route = mock(ProxyRouteState.class, RETURNS_DEEP_STUBS);
+    when(route.path()).thenReturn(path);
+    return route;
+  }
+}
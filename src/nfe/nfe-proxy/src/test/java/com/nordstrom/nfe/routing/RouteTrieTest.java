@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.routing;
+
+import com.google.common.collect.ImmutableMap;
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.RouteConfig;
+import com.xjeffrose.xio.http.RouteState;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RouteTrieTest extends Assert {
+  private static final PipelineRequestHandler HANDLER = (ctx, request, route) -> {};
+
+  @Test
+  public void testEmptyTreeFindsNothing() {
+    RouteTrie subject = RouteTrie.build(ImmutableMap.of());
+
+    assertNull(subject.find(null, HttpMethod.GET, "/"));
+    assertEquals(0, subject.size());
+  }
+
+  @Test
+  public void testPrefixRouteMatchesPathsBeneathIt() {
+    RouteState service = route("/v1/ou/service/");
+    RouteTrie subject = build(service);
+
+    assertSame(service, subject.find(null, HttpMethod.GET, "/v1/ou/service/"));
+    assertSame(service, subject.find(null, HttpMethod.GET, "/v1/ou/service/a/b?c=d"));
+    assertNull(subject.find(null, HttpMethod.GET, "/v1/ou/serv"));
+    assertNull(subject.find(null, HttpMethod.GET, "/v1/ou/other/"));
+  }
+
+  @Test
+  public void testExactRouteOnlyMatchesOnSegmentBoundary() {
+    RouteState revoke = route("/nordstrom.gtm.apikey.ApiKeyer/RevokeApiKey");
+    RouteTrie subject = build(revoke);
+
+    assertSame(revoke, subject.find(null, HttpMethod.POST, revoke.path()));
+    assertSame(revoke, subject.find(null, HttpMethod.POST, revoke.path() + "/more"));
+    assertSame(revoke, subject.find(null, HttpMethod.POST, revoke.path() + "?a=b"));
+    assertNull(subject.find(null, HttpMethod.POST, revoke.path() + "s"));
+  }
+
+  @Test
+  public void testLongestPrefixWins() {
+    RouteState root = route("/");
+    RouteState ou = route("/v1/ou/");
+    RouteState service = route("/v1/ou/service/");
+    RouteState sibling = route("/v1/ou/services/");
+    RouteTrie subject = build(root, ou, service, sibling);
+
+    assertSame(service, subject.find(null, HttpMethod.GET, "/v1/ou/service/a"));
+    assertSame(sibling, subject.find(null, HttpMethod.GET, "/v1/ou/services/a"));
+    assertSame(ou, subject.find(null, HttpMethod.GET, "/v1/ou/serv/a"));
+    assertSame(root, subject.find(null, HttpMethod.GET, "/v2/"));
+  }
+
+  @Test
+  public void testHostSpecificRouteBeatsAnyHost() {
+    RouteState any = route("/v1/ou/service/");
+    RouteState specific = route("/v1/ou/service/", "api.example.com", Collections.emptyList());
+    RouteTrie subject = build(any, specific);
+
+    assertSame(specific, subject.find("API.example.com:443", HttpMethod.GET, "/v1/ou/service/"));
+    assertSame(any, subject.find("other.example.com", HttpMethod.GET, "/v1/ou/service/"));
+    assertSame(any, subject.find(null, HttpMethod.GET, "/v1/ou/service/"));
+  }
+
+  @Test
+  public void testMethodsMustMatch() {
+    RouteState post = route("/grpc/", "", Collections.singletonList(HttpMethod.POST));
+    RouteState parent = route("/");
+    RouteTrie subject = build(post, parent);
+
+    assertSame(post, subject.find(null, HttpMethod.POST, "/grpc/Call"));
+    assertSame(parent, subject.find(null, HttpMethod.GET, "/grpc/Call"));
+  }
+
+  @Test
+  public void testSplitNodesKeepTheirRoutes() {
+    RouteState abc = route("/abc/");
+    RouteState abd = route("/abd/");
+    RouteState ab = route("/ab/");
+    RouteTrie subject = build(abc, abd, ab);
+
+    assertSame(abc, subject.find(null, HttpMethod.GET, "/abc/x"));
+    assertSame(abd, subject.find(null, HttpMethod.GET, "/abd/x"));
+    assertSame(ab, subject.find(null, HttpMethod.GET, "/ab/x"));
+    assertNull(subject.find(null, HttpMethod.GET, "/abe/x"));
+  }
+
+  @Test
+  public void testUpdateAddsReplacesAndRemovesRoutes() {
+    RouteState ab = route("/ab/");
+    RouteState abc = route("/abc/");
+    RouteTrie original = build(ab, abc);
+
+    RouteState abd = route("/abd/");
+    RouteState replacement = route("/ab/");
+    RouteTrie subject =
+        original.update(
+            ImmutableMap.of("/abd/", abd, "/ab/", replacement), Collections.singleton("/abc/"));
+
+    assertSame(abd, subject.find(null, HttpMethod.GET, "/abd/x"));
+    assertSame(replacement, subject.find(null, HttpMethod.GET, "/ab/x"));
+    assertSame(replacement, subject.find(null, HttpMethod.GET, "/abc/x"));
+    assertEquals(2, subject.size());
+    assertEquals(ImmutableMap.of("/ab/", replacement, "/abd/", abd), subject.routes());
+
+    // the original tree is left untouched
+    assertSame(abc, original.find(null, HttpMethod.GET, "/abc/x"));
+    assertSame(ab, original.find(null, HttpMethod.GET, "/ab/x"));
+    assertNull(original.find(null, HttpMethod.GET, "/abd/x"));
+    assertEquals(2, original.size());
+  }
+
+  @Test
+  public void testUpdateSplitsAndMergesEdges() {
+    RouteState service = route("/v1/ou/service/");
+    RouteTrie subject = build(service);
+
+    // splits the '/v1/ou/service/' edge
+    RouteState ou = route("/v1/ou/");
+    RouteState sibling = route("/v1/ou/services/");
+    subject =
+        subject.update(
+            ImmutableMap.of("/v1/ou/", ou, "/v1/ou/services/", sibling), Collections.emptySet());
+    assertSame(service, subject.find(null, HttpMethod.GET, "/v1/ou/service/a"));
+    assertSame(sibling, subject.find(null, HttpMethod.GET, "/v1/ou/services/a"));
+    assertSame(ou, subject.find(null, HttpMethod.GET, "/v1/ou/serv/a"));
+
+    // merges the emptied nodes back into their child
+    subject = subject.update(ImmutableMap.of(), Arrays.asList("/v1/ou/", "/v1/ou/services/"));
+    assertSame(service, subject.find(null, HttpMethod.GET, "/v1/ou/service/a"));
+    assertNull(subject.find(null, HttpMethod.GET, "/v1/ou/services/a"));
+    assertNull(subject.find(null, HttpMethod.GET, "/v1/ou/serv/a"));
+    assertEquals(1, subject.size());
+
+    // removing a path that has no route changes nothing
+    assertSame(
+        service,
+        subject
+            .update(ImmutableMap.of(), Arrays.asList("/v1/", "/v1/ou/service/x/", "/other/"))
+            .find(null, HttpMethod.GET, "/v1/ou/service/a"));
+
+    subject = subject.update(ImmutableMap.of(), Collections.singleton("/v1/ou/service/"));
+    assertNull(subject.find(null, HttpMethod.GET, "/v1/ou/service/a"));
+    assertEquals(0, subject.size());
+    assertTrue(subject.routes().isEmpty());
+  }
+
+  private static RouteTrie build(RouteState... states) {
+    ImmutableMap.Builder<String, RouteState> builder = ImmutableMap.builder();
+    for (int i = 0; i < states.length; i++) {
+      builder.put(i + states[i].path(), states[i]);
+    }
+    return RouteTrie.build(builder.build());
+  }
+
+  private static RouteState route(String path) {
+    return route(path, "", Collections.emptyList());
+  }
+
+  static RouteState route(String path, String host, List<HttpMethod> methods) {
+    return new RouteState(new RouteConfig(methods, host, path, "none"), HANDLER);
+  }
+}
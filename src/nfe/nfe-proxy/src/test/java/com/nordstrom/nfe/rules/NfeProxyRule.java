@@ -62,8 +62,13 @@ public class NfeProxyRule implements BeforeEachCallback, AfterEachCallback {
   }
 
   public void startProxy() {
+    startProxy(mockWebServer.getPort(), "");
+  }
+
+  /** Starts the proxy with its routes going to upstreamPort, and the overrides config applied. */
+  public void startProxy(int upstreamPort, String overrides) {
     Config config =
-        load(ConfigFactory.parseString("testing.port = " + mockWebServer.getPort()))
+        load(ConfigFactory.parseString(overrides + "\ntesting.port = " + upstreamPort))
             // bind to a random port
             .withValue("nfe.application.servers.nfe-main.settings.bindPort", fromAnyRef(0));
 
@@ -70,11 +70,11 @@ public class ServiceDeploymentGrpcServiceTest extends Assert {
     GrpcRequestHandler<StartRoutingRequest, DeployedService> handler = route.handler;
     StartRoutingRequest request = StartRoutingRequest.newBuilder().build();
     DeployedService expectedResponse =
-        DeployedService.newBuilder().setDeploymentId("1234-abcd").build();
+        DeployedService.newBuilder().setDeploymentKey("1234-abcd").build();
     CoreServiceDeploymentInfo coreServiceDeploymentInfo =
-        new CoreServiceDeploymentInfo("path", "cloud_accouht_id", "service_description");
+        new CoreServiceDeploymentInfo("path", "cloud_accouht_id", "service_description", true);
 
-    when(coreDataService.getServiceRoutePath(request.getServiceName()))
+    when(coreDataService.getServiceRoutePath(request.getDeployTargetKey()))
         .thenReturn(coreServiceDeploymentInfo);
     when(serviceDeploymentDao.addDeployedService(request, coreServiceDeploymentInfo))
         .thenReturn(expectedResponse);
@@ -96,7 +96,7 @@ public class ServiceDeploymentGrpcServiceTest extends Assert {
 
     // test handler
     GrpcRequestHandler<DeployedService, Empty> handler = route.handler;
-    DeployedService request = DeployedService.newBuilder().setDeploymentId("1234-abcd").build();
+    DeployedService request = DeployedService.newBuilder().setDeploymentKey("1234-abcd").build();
     Empty expectedResponse = Empty.newBuilder().build();
     when(serviceDeploymentDao.removeDeployedService(request)).thenReturn(expectedResponse);
 
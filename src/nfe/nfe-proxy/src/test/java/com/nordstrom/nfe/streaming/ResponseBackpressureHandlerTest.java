@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.streaming;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.xjeffrose.xio.http.Request;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResponseBackpressureHandlerTest extends Assert {
+  private EmbeddedChannel client;
+  private EmbeddedChannel upstream;
+  private final List<Object> events = new ArrayList<>();
+
+  @Before
+  public void beforeEach() {
+    client =
+        new EmbeddedChannel(
+            new ClientWritabilityHandler(),
+            new ChannelInboundHandlerAdapter() {
+              @Override
+              public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+                events.add(evt);
+              }
+            });
+    ChannelHandlerContext frontEnd = client.pipeline().firstContext();
+    // stands in for xio's backend handler, which writes what upstream sends to the client
+    ChannelInboundHandlerAdapter backend =
+        new ChannelInboundHandlerAdapter() {
+          @Override
+          public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            frontEnd.writeAndFlush(msg);
+          }
+        };
+    upstream = new EmbeddedChannel(new ResponseBackpressureHandler(frontEnd, () -> backend));
+  }
+
+  @After
+  public void afterEach() {
+    upstream.finishAndReleaseAll();
+    client.finishAndReleaseAll();
+  }
+
+  private void setClientWritable(boolean writable) {
+    client.unsafe().outboundBuffer().setUserDefinedWritability(1, writable);
+  }
+
+  private void respond() {
+    upstream.writeInbound(Unpooled.wrappedBuffer(new byte[] {5}));
+    ReferenceCountUtil.release(client.readOutbound());
+  }
+
+  @Test
+  public void testUpstreamIsReadWhileTheClientIsWritable() {
+    respond();
+    respond();
+
+    assertTrue(upstream.config().isAutoRead());
+  }
+
+  @Test
+  public void testUpstreamIsNotReadUntilTheClientDrains() {
+    setClientWritable(false);
+    respond();
+    assertFalse(upstream.config().isAutoRead());
+
+    upstream.runPendingTasks();
+    assertFalse(upstream.config().isAutoRead());
+
+    setClientWritable(true);
+    upstream.runPendingTasks();
+    assertTrue(upstream.config().isAutoRead());
+  }
+
+  @Test
+  public void testUpstreamIsReadAgainOnceTheClientIsGone() {
+    setClientWritable(false);
+    respond();
+    client.close();
+
+    upstream.runPendingTasks();
+    assertTrue(upstream.config().isAutoRead());
+  }
+
+  @Test
+  public void testUpstreamIsNotHeldBackWithoutClientWritability() {
+    client.pipeline().remove(ClientWritabilityHandler.class);
+    setClientWritable(false);
+    respond();
+
+    assertTrue(upstream.config().isAutoRead());
+  }
+
+  @Test
+  public void testWrittenRequestBodiesAreTold() {
+    ByteBuf content = Unpooled.wrappedBuffer(new byte[] {5});
+    Request request = mock(Request.class);
+    when(request.body()).thenReturn(content);
+
+    upstream.writeOutbound(request);
+
+    assertEquals(1, events.size());
+    assertTrue(((RequestWritten) events.get(0)).isOf(content));
+  }
+}
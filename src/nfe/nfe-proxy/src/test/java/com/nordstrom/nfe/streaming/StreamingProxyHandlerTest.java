@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.streaming;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.xjeffrose.xio.http.PipelineRequestHandler;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Route;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayDeque;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class StreamingProxyHandlerTest extends Assert {
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final long MAX_IN_FLIGHT_BYTES = 1024 * 1024;
+  // large enough to go through many pauses, the multi-GB run is StreamingProxyIntegrationTest
+  private static final long BODY_SIZE = 64L * 1024 * 1024;
+
+  private EmbeddedChannel channel;
+  private ChannelHandlerContext ctx;
+  private Route route;
+  private UnpooledByteBufAllocator alloc;
+
+  @Before
+  public void beforeEach() {
+    channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    ctx = channel.pipeline().firstContext();
+    route = mock(Route.class);
+    // counts the direct memory of its buffers
+    alloc = new UnpooledByteBufAllocator(true);
+  }
+
+  /**
+   * An upstream that writes out the request body it is handed only when told to, and tells so the
+   * way the backpressured clients do.
+   */
+  private static class SlowUpstream implements PipelineRequestHandler {
+    private final ArrayDeque<ByteBuf> unwritten = new ArrayDeque<>();
+    private ChannelHandlerContext ctx;
+    private long unwrittenBytes;
+    private long maxUnwrittenBytes;
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, Request request, Route route) {
+      this.ctx = ctx;
+      ByteBuf content = request.body();
+      unwritten.add(content);
+      unwrittenBytes += content.readableBytes();
+      maxUnwrittenBytes = Math.max(maxUnwrittenBytes, unwrittenBytes);
+    }
+
+    void writeOut(int chunks) {
+      for (int i = 0; i < chunks && !unwritten.isEmpty(); i++) {
+        ByteBuf content = unwritten.poll();
+        unwrittenBytes -= content.readableBytes();
+        RequestWritten written = new RequestWritten(content);
+        content.release();
+        ctx.fireUserEventTriggered(written);
+      }
+    }
+  }
+
+  @Test
+  public void testRequestBodyInFlightStaysBounded() {
+    SlowUpstream upstream = new SlowUpstream();
+    StreamingProxyHandler subject = new StreamingProxyHandler(upstream, MAX_IN_FLIGHT_BYTES);
+    ByteBuf[] current = new ByteBuf[1];
+    // a stub only mock, so that the calls made for every chunk are not recorded
+    Request chunk = mock(Request.class, withSettings().stubOnly());
+    when(chunk.streamId()).thenReturn(1);
+    when(chunk.body()).thenAnswer(invocation -> current[0]);
+
+    long sent = 0;
+    long maxDirectMemory = 0;
+    while (sent < BODY_SIZE) {
+      if (channel.config().isAutoRead()) {
+        current[0] = alloc.directBuffer(CHUNK_SIZE).writerIndex(CHUNK_SIZE);
+        subject.handle(ctx, chunk, route);
+        sent += CHUNK_SIZE;
+      } else {
+        upstream.writeOut(4);
+      }
+      maxDirectMemory = Math.max(maxDirectMemory, alloc.metric().usedDirectMemory());
+    }
+
+    // the whole body went through, never more than the limit (and one chunk) of it at once
+    assertTrue(subject.getPauseCount() > 0);
+    assertTrue(upstream.maxUnwrittenBytes <= MAX_IN_FLIGHT_BYTES + CHUNK_SIZE);
+    assertTrue(maxDirectMemory <= MAX_IN_FLIGHT_BYTES + CHUNK_SIZE);
+
+    upstream.writeOut(Integer.MAX_VALUE);
+    channel.close();
+    assertEquals(0, alloc.metric().usedDirectMemory());
+  }
+
+  @Test
+  public void testRequestBodyWrittenOutAsASliceIsLetGo() {
+    PipelineRequestHandler upstream = mock(PipelineRequestHandler.class);
+    StreamingProxyHandler subject = new StreamingProxyHandler(upstream, CHUNK_SIZE / 2);
+    ByteBuf content = alloc.directBuffer(CHUNK_SIZE).writerIndex(CHUNK_SIZE);
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(1);
+    when(request.body()).thenReturn(content);
+    subject.handle(ctx, request, route);
+    assertFalse(channel.config().isAutoRead());
+
+    // upstream writes out a slice of the body, which does not count references of its own
+    ArgumentCaptor<ChannelHandlerContext> captor =
+        ArgumentCaptor.forClass(ChannelHandlerContext.class);
+    Mockito.verify(upstream).handle(captor.capture(), Mockito.eq(request), Mockito.eq(route));
+    ByteBuf slice = content.slice(0, CHUNK_SIZE / 2);
+    content.release();
+    captor.getValue().fireUserEventTriggered(new RequestWritten(slice));
+
+    assertTrue(channel.config().isAutoRead());
+    assertEquals(0, alloc.metric().usedDirectMemory());
+    channel.close();
+  }
+
+  @Test
+  public void testClientIsNotReadWhileResponsesAreNotFlushed() {
+    PipelineRequestHandler upstream = mock(PipelineRequestHandler.class);
+    StreamingProxyHandler subject = new StreamingProxyHandler(upstream, MAX_IN_FLIGHT_BYTES);
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(1);
+    subject.handle(ctx, request, route);
+    ArgumentCaptor<ChannelHandlerContext> captor =
+        ArgumentCaptor.forClass(ChannelHandlerContext.class);
+    Mockito.verify(upstream).handle(captor.capture(), Mockito.eq(request), Mockito.eq(route));
+    ChannelHandlerContext upstreamCtx = captor.getValue();
+
+    for (long written = 0; written <= MAX_IN_FLIGHT_BYTES; written += CHUNK_SIZE) {
+      upstreamCtx.write(data(alloc.heapBuffer(CHUNK_SIZE).writerIndex(CHUNK_SIZE)));
+    }
+    channel.runPendingTasks();
+    assertFalse(channel.config().isAutoRead());
+
+    channel.flush();
+    assertTrue(channel.config().isAutoRead());
+    assertEquals(1, subject.getPauseCount());
+    channel.close();
+  }
+
+  private static SegmentedData data(ByteBuf content) {
+    SegmentedData data = mock(SegmentedData.class);
+    when(data.streamId()).thenReturn(1);
+    when(data.content()).thenReturn(content);
+    return data;
+  }
+}
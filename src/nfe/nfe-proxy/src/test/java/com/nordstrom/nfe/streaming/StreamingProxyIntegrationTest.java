@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.streaming;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.nordstrom.nfe.OkHttpUnsafe;
+import com.nordstrom.nfe.rules.NfeProxyRule;
+import com.xjeffrose.xio.SSL.TlsConfig;
+import io.netty.util.internal.PlatformDependent;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Streams multi-GB bodies through a running NFE, both ways, with the slow side reading at a
+ * fraction of the fast side's pace, and checks that neither the heap nor direct memory grow with
+ * them. Takes minutes, so it only runs with -PstreamingIntegration.
+ */
+@EnabledIfSystemProperty(named = "nfe.streamingIntegration", matches = "true")
+public class StreamingProxyIntegrationTest {
+  private static final long BODY_SIZE = 4L * 1024 * 1024 * 1024;
+  private static final int CHUNK_SIZE = 64 * 1024;
+  // the slow side sleeps a millisecond every SLOW_BYTES it reads
+  private static final long SLOW_BYTES = 256 * 1024;
+  // growth allowed over the start of the run, far below the body size
+  private static final long MAX_GROWTH_BYTES = 128L * 1024 * 1024;
+  private static final String PATH = "/v1/teamyo/slapservice/api/v1/hello/stream";
+  private static final String ROUTES =
+      "nfe.proxy.routes = [\n"
+          + "  ${nfe.proxyRouteTemplate} {\n"
+          + "    name = streaming\n"
+          + "    path = \"/v1/teamyo/slapservice/api/v1/hello/\"\n"
+          + "    permissionNeeded = \"none\"\n"
+          + "    streaming.enabled = true\n"
+          + "    clients = [\n"
+          + "      ${xio.clientTemplate} {\n"
+          + "        name = \"streaming client\"\n"
+          + "        remoteIp = \"127.0.0.1\"\n"
+          + "        remotePort = ${testing.port}\n"
+          + "      }\n"
+          + "    ]\n"
+          + "  }\n"
+          + "]";
+
+  @RegisterExtension public final NfeProxyRule proxyRule = new NfeProxyRule();
+
+  private Upstream upstream;
+  private MemorySampler sampler;
+
+  @BeforeEach
+  public void beforeEach() throws Exception {
+    upstream = new Upstream();
+    proxyRule.startProxy(upstream.port(), ROUTES);
+    sampler = new MemorySampler();
+  }
+
+  @AfterEach
+  public void afterEach() throws Exception {
+    sampler.close();
+    upstream.close();
+  }
+
+  @Test
+  public void testSlowClientDownload() throws Exception {
+    upstream.responseBytes = BODY_SIZE;
+    Request request = new Request.Builder().url(url()).build();
+
+    try (Response response = proxyRule.getUnsafeOkhttpClient().newCall(request).execute()) {
+      assertEquals(200, response.code());
+      assertEquals(BODY_SIZE, drain(response.body().byteStream(), true));
+    }
+
+    sampler.assertBounded();
+  }
+
+  @Test
+  public void testSlowUpstreamUpload() throws Exception {
+    upstream.responseBytes = 0;
+    Request request = new Request.Builder().url(url()).post(new ZeroBody(BODY_SIZE)).build();
+
+    try (Response response = proxyRule.getUnsafeOkhttpClient().newCall(request).execute()) {
+      assertEquals(200, response.code());
+    }
+    assertEquals(BODY_SIZE, upstream.requestBytes.get());
+
+    sampler.assertBounded();
+  }
+
+  private String url() {
+    return "https://127.0.0.1:" + proxyRule.getProxyPort() + PATH;
+  }
+
+  /** Reads the stream to its end, slowly if asked to, returns the number of bytes read. */
+  private static long drain(InputStream in, boolean slow) throws Exception {
+    byte[] chunk = new byte[CHUNK_SIZE];
+    long total = 0;
+    long sinceSleep = 0;
+    for (int read; (read = in.read(chunk)) != -1; ) {
+      total += read;
+      sinceSleep += read;
+      if (slow && sinceSleep >= SLOW_BYTES) {
+        sinceSleep = 0;
+        Thread.sleep(1);
+      }
+    }
+    return total;
+  }
+
+  /** A request body of zeros, written as fast as the connection takes it. */
+  private static class ZeroBody extends RequestBody {
+    private final long size;
+
+    ZeroBody(long size) {
+      this.size = size;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return MediaType.parse("application/octet-stream");
+    }
+
+    @Override
+    public long contentLength() {
+      return size;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      byte[] chunk = new byte[CHUNK_SIZE];
+      for (long written = 0; written < size; written += CHUNK_SIZE) {
+        sink.write(chunk, 0, (int) Math.min(CHUNK_SIZE, size - written));
+      }
+    }
+  }
+
+  /**
+   * A TLS HTTP/1.1 upstream that reads request bodies slowly and writes responseBytes of zeros as
+   * fast as the connection takes them. MockWebServer holds its bodies in memory, so it won't do.
+   */
+  private static class Upstream implements Closeable {
+    private final ServerSocket serverSocket;
+    private final SSLSocketFactory sslSocketFactory;
+    private final Thread thread;
+    private final AtomicLong requestBytes = new AtomicLong();
+    private volatile long responseBytes;
+
+    Upstream() throws Exception {
+      TlsConfig tlsConfig = TlsConfig.fromConfig("nfe.h1ProxyClient.settings.tls");
+      sslSocketFactory =
+          OkHttpUnsafe.getUnsafeSSLSocketFactory(
+              OkHttpUnsafe.getKeyManagers(tlsConfig), OkHttpUnsafe.unsafeTrustManager());
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      thread = new Thread(this::serve, "streaming-upstream");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int port() {
+      return serverSocket.getLocalPort();
+    }
+
+    private void serve() {
+      while (!serverSocket.isClosed()) {
+        try (Socket raw = serverSocket.accept();
+            SSLSocket socket =
+                (SSLSocket)
+                    sslSocketFactory.createSocket(
+                        raw, raw.getInetAddress().getHostAddress(), raw.getPort(), true)) {
+          socket.setUseClientMode(false);
+          InputStream in = new BufferedInputStream(socket.getInputStream());
+          OutputStream out = socket.getOutputStream();
+          while (answer(in, out)) {
+            // keep the connection for the next request
+          }
+        } catch (Exception e) {
+          // the connection or the server socket was closed
+        }
+      }
+    }
+
+    /** Answers the next request of the connection, returns false once it has none left. */
+    private boolean answer(InputStream in, OutputStream out) throws Exception {
+      long contentLength = 0;
+      boolean chunked = false;
+      String line = readLine(in);
+      if (line == null) {
+        return false;
+      }
+      while (!(line = readLine(in)).isEmpty()) {
+        String header = line.toLowerCase();
+        if (header.startsWith("content-length:")) {
+          contentLength = Long.parseLong(header.substring("content-length:".length()).trim());
+        } else if (header.startsWith("transfer-encoding:") && header.contains("chunked")) {
+          chunked = true;
+        }
+      }
+
+      if (chunked) {
+        for (long size; (size = Long.parseLong(readLine(in).split(";")[0].trim(), 16)) > 0; ) {
+          requestBytes.addAndGet(skip(in, size));
+          readLine(in);
+        }
+        readLine(in);
+      } else {
+        requestBytes.addAndGet(skip(in, contentLength));
+      }
+
+      String head = "HTTP/1.1 200 OK\r\ncontent-length: " + responseBytes + "\r\n\r\n";
+      out.write(head.getBytes(US_ASCII));
+      byte[] chunk = new byte[CHUNK_SIZE];
+      for (long written = 0; written < responseBytes; written += CHUNK_SIZE) {
+        out.write(chunk, 0, (int) Math.min(CHUNK_SIZE, responseBytes - written));
+      }
+      out.flush();
+      return true;
+    }
+
+    /** Reads and drops size bytes of body, slowly. */
+    private static long skip(InputStream in, long size) throws Exception {
+      byte[] chunk = new byte[CHUNK_SIZE];
+      long total = 0;
+      long sinceSleep = 0;
+      while (total < size) {
+        int read = in.read(chunk, 0, (int) Math.min(CHUNK_SIZE, size - total));
+        if (read == -1) {
+          throw new IOException("request body cut short");
+        }
+        total += read;
+        sinceSleep += read;
+        if (sinceSleep >= SLOW_BYTES) {
+          sinceSleep = 0;
+          Thread.sleep(1);
+        }
+      }
+      return total;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder line = new StringBuilder();
+      for (int c; (c = in.read()) != '\n'; ) {
+        if (c == -1) {
+          return line.length() == 0 ? null : line.toString();
+        }
+        if (c != '\r') {
+          line.append((char) c);
+        }
+      }
+      return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+
+  /**
+   * Samples the heap left after collections, and the direct memory in use (both the JDK's direct
+   * buffers and the ones netty allocates without a cleaner), keeping the peaks of the run.
+   */
+  private static class MemorySampler implements Closeable {
+    private final long heapBaseline;
+    private final long directBaseline;
+    private final AtomicLong heapPeak = new AtomicLong();
+    private final AtomicLong directPeak = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    MemorySampler() {
+      System.gc();
+      heapBaseline = collectedHeap();
+      directBaseline = direct();
+      thread = new Thread(this::sample, "memory-sampler");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private void sample() {
+      while (running) {
+        record();
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    private void record() {
+      heapPeak.accumulateAndGet(collectedHeap(), Math::max);
+      directPeak.accumulateAndGet(direct(), Math::max);
+    }
+
+    /** The heap in use right after the last collection of each pool. */
+    private static long collectedHeap() {
+      long used = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        MemoryUsage collected = pool.getCollectionUsage();
+        if (pool.getType() == MemoryType.HEAP && collected != null) {
+          used += collected.getUsed();
+        }
+      }
+      return used;
+    }
+
+    private static long direct() {
+      long used = Math.max(0, PlatformDependent.usedDirectMemory());
+      for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+        if ("direct".equals(pool.getName())) {
+          used += pool.getMemoryUsed();
+        }
+      }
+      return used;
+    }
+
+    void assertBounded() {
+      record();
+      long heapGrowth = heapPeak.get() - heapBaseline;
+      long directGrowth = directPeak.get() - directBaseline;
+      assertTrue(heapGrowth < MAX_GROWTH_BYTES, "heap grew by " + heapGrowth + " bytes");
+      assertTrue(
+          directGrowth < MAX_GROWTH_BYTES, "direct memory grew by " + directGrowth + " bytes");
+    }
+
+    @Override
+    public void close() {
+      running = false;
+      thread.interrupt();
+    }
+  }
+}
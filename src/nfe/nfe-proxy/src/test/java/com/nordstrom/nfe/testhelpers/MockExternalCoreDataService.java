@@ -15,10 +15,12 @@
  */
 package com.nordstrom.nfe.testhelpers;
 
-import com.nordstrom.gtm.coredb.GetCustomerAccountNlpRoutingInfoRequest;
-import com.nordstrom.gtm.coredb.GetCustomerAccountNlpRoutingInfoResponse;
-import com.nordstrom.gtm.coredb.GetServiceRoutingInfoRequest;
-import com.nordstrom.gtm.coredb.GetServiceRoutingInfoResponse;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchRequest;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoBatchResponse;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoRequest;
+import com.nordstrom.gtm.coredb.GetNlpRoutingInfoResponse;
+import com.nordstrom.gtm.coredb.GetServiceDeployTargetInfoRequest;
+import com.nordstrom.gtm.coredb.GetServiceDeployTargetInfoResponse;
 import com.nordstrom.gtm.serviceregistration.CreateServiceRegistrationRequest;
 import com.nordstrom.gtm.serviceregistration.CreateServiceRegistrationResponse;
 import com.typesafe.config.Config;
@@ -46,30 +48,37 @@ public class MockExternalCoreDataService {
     }
   }
 
-  private class CoreDbServiceRegistrationService
-      extends com.nordstrom.gtm.coredb.ServiceRegistrationGrpc.ServiceRegistrationImplBase {
+  private class CoreDbServiceInfoService
+      extends com.nordstrom.gtm.coredb.ServiceInfoGrpc.ServiceInfoImplBase {
     @Override
-    public void getCustomerAccountNlpRoutingInfo(
-        GetCustomerAccountNlpRoutingInfoRequest request,
-        StreamObserver<GetCustomerAccountNlpRoutingInfoResponse> responseObserver) {
+    public void getNlpRoutingInfo(
+        GetNlpRoutingInfoRequest request,
+        StreamObserver<GetNlpRoutingInfoResponse> responseObserver) {
       executeAppLogic(request, responseObserver, getNlpRoutingInfoLogic);
     }
 
     @Override
-    public void getServiceRoutingInfo(
-        GetServiceRoutingInfoRequest request,
-        StreamObserver<GetServiceRoutingInfoResponse> responseObserver) {
-      executeAppLogic(request, responseObserver, getServiceRoutingInfoLogic);
+    public void getNlpRoutingInfoBatch(
+        GetNlpRoutingInfoBatchRequest request,
+        StreamObserver<GetNlpRoutingInfoBatchResponse> responseObserver) {
+      executeAppLogic(request, responseObserver, getNlpRoutingInfoBatchLogic);
+    }
+
+    @Override
+    public void getServiceDeployTargetInfo(
+        GetServiceDeployTargetInfoRequest request,
+        StreamObserver<GetServiceDeployTargetInfoResponse> responseObserver) {
+      executeAppLogic(request, responseObserver, getServiceDeployTargetInfoLogic);
     }
   }
 
   private GrpcAppLogic<CreateServiceRegistrationRequest, CreateServiceRegistrationResponse>
       createServiceRegistrationLogic;
-  private GrpcAppLogic<
-          GetCustomerAccountNlpRoutingInfoRequest, GetCustomerAccountNlpRoutingInfoResponse>
-      getNlpRoutingInfoLogic;
-  private GrpcAppLogic<GetServiceRoutingInfoRequest, GetServiceRoutingInfoResponse>
-      getServiceRoutingInfoLogic;
+  private GrpcAppLogic<GetNlpRoutingInfoRequest, GetNlpRoutingInfoResponse> getNlpRoutingInfoLogic;
+  private GrpcAppLogic<GetNlpRoutingInfoBatchRequest, GetNlpRoutingInfoBatchResponse>
+      getNlpRoutingInfoBatchLogic;
+  private GrpcAppLogic<GetServiceDeployTargetInfoRequest, GetServiceDeployTargetInfoResponse>
+      getServiceDeployTargetInfoLogic;
 
   private Server grpcServer;
   private int port;
@@ -88,7 +97,7 @@ public class MockExternalCoreDataService {
         NettyServerBuilder.forPort(port)
             .sslContext(sslContext)
             .addService(new ServiceRegistrationService())
-            .addService(new CoreDbServiceRegistrationService())
+            .addService(new CoreDbServiceInfoService())
             .build();
   }
 
@@ -115,16 +124,20 @@ public class MockExternalCoreDataService {
   }
 
   public void setGetNlpRoutingInfoLogic(
-      GrpcAppLogic<
-              GetCustomerAccountNlpRoutingInfoRequest, GetCustomerAccountNlpRoutingInfoResponse>
-          getNlpRoutingInfoLogic) {
+      GrpcAppLogic<GetNlpRoutingInfoRequest, GetNlpRoutingInfoResponse> getNlpRoutingInfoLogic) {
     this.getNlpRoutingInfoLogic = getNlpRoutingInfoLogic;
   }
 
-  public void setGetServiceRoutingInfoLogic(
-      GrpcAppLogic<GetServiceRoutingInfoRequest, GetServiceRoutingInfoResponse>
-          getServiceRoutingInfoLogic) {
-    this.getServiceRoutingInfoLogic = getServiceRoutingInfoLogic;
+  public void setGetNlpRoutingInfoBatchLogic(
+      GrpcAppLogic<GetNlpRoutingInfoBatchRequest, GetNlpRoutingInfoBatchResponse>
+          getNlpRoutingInfoBatchLogic) {
+    this.getNlpRoutingInfoBatchLogic = getNlpRoutingInfoBatchLogic;
+  }
+
+  public void setGetServiceDeployTargetInfoLogic(
+      GrpcAppLogic<GetServiceDeployTargetInfoRequest, GetServiceDeployTargetInfoResponse>
+          getServiceDeployTargetInfoLogic) {
+    this.getServiceDeployTargetInfoLogic = getServiceDeployTargetInfoLogic;
   }
 
   private <
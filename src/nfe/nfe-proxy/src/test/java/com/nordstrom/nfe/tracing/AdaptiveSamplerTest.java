@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveSamplerTest extends Assert {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  /** Sends requests evenly over a second, returns how many were sampled. */
+  private static int second(AdaptiveSampler sampler, long startNanos, int requests) {
+    int sampled = 0;
+    for (int i = 0; i < requests; i++) {
+      if (sampler.isSampled(startNanos + SECOND * i / requests)) {
+        sampled++;
+      }
+    }
+    return sampled;
+  }
+
+  @Test
+  public void testSamplingDropsToTheTargetRightAway() {
+    AdaptiveSampler sampler = new AdaptiveSampler(10, 0);
+    second(sampler, 0, 10000);
+    sampler.isSampled(SECOND);
+    assertEquals(0.001, sampler.probability(), 0.0001);
+
+    int sampled = second(sampler, SECOND, 10000);
+    assertTrue("sampled " + sampled, sampled > 0 && sampled < 40);
+  }
+
+  @Test
+  public void testSamplingRecoversGraduallyWhenTrafficDrops() {
+    AdaptiveSampler sampler = new AdaptiveSampler(10, 0);
+    second(sampler, 0, 10000);
+    second(sampler, SECOND, 5);
+    sampler.isSampled(2 * SECOND);
+
+    assertEquals((0.001 + 1) / 2, sampler.probability(), 0.001);
+  }
+
+  @Test
+  public void testEverythingIsSampledUnderTheTarget() {
+    AdaptiveSampler sampler = new AdaptiveSampler(100, 0);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(50, second(sampler, i * SECOND, 50));
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Headers;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TraceContextTest extends Assert {
+  private static final String TRACE_ID = "463ac35c9f6413ad48485a3953bb6124";
+  private static final String SPAN_ID = "a2fb4a1d1a96d312";
+  private static final String PARENT_ID = "0020000000000001";
+
+  @Test
+  public void testMultipleB3HeadersAreExtracted() {
+    Headers headers = new DefaultHeaders();
+    headers.set("x-b3-traceid", TRACE_ID);
+    headers.set("x-b3-spanid", SPAN_ID);
+    headers.set("x-b3-parentspanid", PARENT_ID);
+    headers.set("x-b3-sampled", "1");
+
+    TraceContext context = TraceContext.extract(headers);
+
+    assertEquals(TRACE_ID, context.traceIdString());
+    assertEquals(SPAN_ID, TraceContext.hex(context.spanId()));
+    assertEquals(PARENT_ID, TraceContext.hex(context.parentId()));
+    assertEquals(Boolean.TRUE, context.sampled());
+  }
+
+  @Test
+  public void test64BitTraceIdsStay64Bit() {
+    Headers headers = new DefaultHeaders();
+    headers.set("x-b3-traceid", SPAN_ID);
+    headers.set("x-b3-spanid", SPAN_ID);
+
+    TraceContext context = TraceContext.extract(headers);
+
+    assertEquals(SPAN_ID, context.traceIdString());
+    assertNull(context.sampled());
+  }
+
+  @Test
+  public void testSingleB3HeaderIsExtracted() {
+    Headers headers = new DefaultHeaders();
+    headers.set("b3", TRACE_ID + "-" + SPAN_ID + "-d-" + PARENT_ID);
+
+    TraceContext context = TraceContext.extract(headers);
+
+    assertEquals(TRACE_ID, context.traceIdString());
+    assertEquals(SPAN_ID, TraceContext.hex(context.spanId()));
+    assertEquals(PARENT_ID, TraceContext.hex(context.parentId()));
+    assertEquals(Boolean.TRUE, context.sampled());
+  }
+
+  @Test
+  public void testTraceparentIsExtracted() {
+    Headers headers = new DefaultHeaders();
+    headers.set("traceparent", "00-" + TRACE_ID + "-" + SPAN_ID + "-00");
+
+    TraceContext context = TraceContext.extract(headers);
+
+    assertEquals(TRACE_ID, context.traceIdString());
+    assertEquals(SPAN_ID, TraceContext.hex(context.spanId()));
+    assertEquals(0, context.parentId());
+    assertEquals(Boolean.FALSE, context.sampled());
+  }
+
+  @Test
+  public void testABareSamplingDecisionIsKept() {
+    Headers headers = new DefaultHeaders();
+    headers.set("x-b3-sampled", "0");
+
+    TraceContext context = TraceContext.extract(headers);
+
+    assertFalse(context.hasIds());
+    assertEquals(Boolean.FALSE, context.sampled());
+  }
+
+  @Test
+  public void testMalformedContextsAreIgnored() {
+    Headers b3 = new DefaultHeaders();
+    b3.set("x-b3-traceid", "not hex at all!!");
+    b3.set("x-b3-spanid", SPAN_ID);
+    Headers traceparent = new DefaultHeaders();
+    traceparent.set("traceparent", "00-" + TRACE_ID + "-" + SPAN_ID);
+
+    assertNull(TraceContext.extract(b3));
+    assertNull(TraceContext.extract(traceparent));
+    assertNull(TraceContext.extract(new DefaultHeaders()));
+  }
+
+  @Test
+  public void testInjectedContextIsReadBackFromEitherFormat() {
+    TraceContext parent = TraceContext.extract(headersWithB3(TRACE_ID, SPAN_ID));
+    TraceContext child = parent.child(0x1234L, true);
+    Headers headers = new DefaultHeaders();
+    headers.set("b3", "0");
+
+    child.inject(headers);
+
+    assertNull(headers.get("b3"));
+    assertEquals("00-" + TRACE_ID + "-0000000000001234-01", headers.get("traceparent").toString());
+    TraceContext b3 = TraceContext.extract(headers);
+    assertEquals(TRACE_ID, b3.traceIdString());
+    assertEquals(0x1234L, b3.spanId());
+    assertEquals(SPAN_ID, TraceContext.hex(b3.parentId()));
+    assertEquals(Boolean.TRUE, b3.sampled());
+
+    headers.remove("x-b3-traceid");
+    TraceContext w3c = TraceContext.extract(headers);
+    assertEquals(TRACE_ID, w3c.traceIdString());
+    assertEquals(0x1234L, w3c.spanId());
+  }
+
+  private static Headers headersWithB3(String traceId, String spanId) {
+    Headers headers = new DefaultHeaders();
+    headers.set("x-b3-traceid", traceId);
+    headers.set("x-b3-spanid", spanId);
+    return headers;
+  }
+}
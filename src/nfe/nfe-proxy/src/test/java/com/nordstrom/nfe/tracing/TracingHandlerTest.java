@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nfe.tracing;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.nordstrom.nfe.config.TracingConfig;
+import com.nordstrom.zipkin.LocalZipkin;
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Headers;
+import com.xjeffrose.xio.http.Request;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracingHandlerTest extends Assert {
+  private static final String TRACE_ID = "463ac35c9f6413ad48485a3953bb6124";
+  private static final String SPAN_ID = "a2fb4a1d1a96d312";
+
+  private LocalZipkin zipkin;
+  private Tracer tracer;
+  private EmbeddedChannel channel;
+
+  @Before
+  public void beforeEach() throws Exception {
+    zipkin = LocalZipkin.start();
+    tracer = tracer(1000);
+    channel = new EmbeddedChannel(new TracingHandler(tracer));
+  }
+
+  @After
+  public void afterEach() throws Exception {
+    channel.finishAndReleaseAll();
+    tracer.shutdown();
+    zipkin.close();
+  }
+
+  private Tracer tracer(double tracesPerSecond) {
+    Tracer tracer =
+        new Tracer(new TracingConfig(true, "nfe", zipkin.spansUrl(), tracesPerSecond, 100, 10, 50));
+    tracer.start();
+    return tracer;
+  }
+
+  private static Request request(int streamId, Headers headers) {
+    Request request = mock(Request.class);
+    when(request.streamId()).thenReturn(streamId);
+    when(request.startOfMessage()).thenReturn(true);
+    when(request.endOfMessage()).thenReturn(true);
+    when(request.method()).thenReturn(HttpMethod.GET);
+    when(request.path()).thenReturn("/v1/team/service/thing");
+    when(request.headers()).thenReturn(headers);
+    return request;
+  }
+
+  private void respond(int streamId, HttpResponseStatus status) {
+    channel.writeOutbound(
+        DefaultFullResponse.builder()
+            .status(status)
+            .streamId(streamId)
+            .body(Unpooled.EMPTY_BUFFER)
+            .headers(new DefaultHeaders())
+            .build());
+  }
+
+  private static Headers sampledB3() {
+    Headers headers = new DefaultHeaders();
+    headers.set("x-b3-traceid", TRACE_ID);
+    headers.set("x-b3-spanid", SPAN_ID);
+    headers.set("x-b3-sampled", "1");
+    return headers;
+  }
+
+  private Map<String, Map<String, Object>> spansByName(int count) throws Exception {
+    List<Map<String, Object>> spans = zipkin.takeSpans(count, 5, TimeUnit.SECONDS);
+    assertEquals(count, spans.size());
+    Map<String, Map<String, Object>> byName = new HashMap<>();
+    for (Map<String, Object> span : spans) {
+      byName.put((String) span.get("name"), span);
+    }
+    return byName;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, String> tags(Map<String, Object> span) {
+    return (Map<String, String>) span.get("tags");
+  }
+
+  @Test
+  public void testIncomingTraceIsContinuedUpstreamAndReported() throws Exception {
+    Headers headers = sampledB3();
+    channel.writeInbound(request(1, headers));
+
+    // the request goes upstream as a child of the NFE's server span
+    TraceContext upstream = TraceContext.extract(headers);
+    assertEquals(TRACE_ID, upstream.traceIdString());
+    assertEquals(Boolean.TRUE, upstream.sampled());
+    TraceContext server = TracingHandler.trace(channel, 1).context();
+    assertEquals(SPAN_ID, TraceContext.hex(server.parentId()));
+    assertEquals(server.spanId(), upstream.parentId());
+
+    respond(1, HttpResponseStatus.OK);
+    assertNull(TracingHandler.trace(channel, 1));
+
+    Map<String, Object> span = spansByName(1).get("get");
+    assertEquals(TRACE_ID, span.get("traceId"));
+    assertEquals(SPAN_ID, span.get("parentId"));
+    assertEquals("SERVER", span.get("kind"));
+    assertEquals("200", tags(span).get("http.status_code"));
+    assertEquals("/v1/team/service/thing", tags(span).get("http.path"));
+  }
+
+  @Test
+  public void testSpansOfTheStreamAreReportedWithIt() throws Exception {
+    channel.writeInbound(request(1, new DefaultHeaders()));
+    Trace trace = TracingHandler.trace(channel, 1);
+    long now = System.nanoTime();
+    trace.span("route lookup", now - 2000, now - 1000, "nfe.route", "/v1/");
+    trace.upstreamSpan(new InetSocketAddress("127.0.0.1", 8443), now - 1000, now, 503);
+    respond(1, HttpResponseStatus.SERVICE_UNAVAILABLE);
+
+    Map<String, Map<String, Object>> spans = spansByName(3);
+    Map<String, Object> server = spans.get("get");
+    Map<String, Object> lookup = spans.get("route lookup");
+    Map<String, Object> upstream = spans.get("upstream");
+    assertEquals(server.get("traceId"), lookup.get("traceId"));
+    assertEquals(server.get("id"), lookup.get("parentId"));
+    assertEquals("/v1/", tags(lookup).get("nfe.route"));
+    assertEquals(server.get("id"), upstream.get("parentId"));
+    assertEquals("CLIENT", upstream.get("kind"));
+    assertEquals(TraceContext.hex(trace.upstreamContext().spanId()), upstream.get("id"));
+    assertEquals("503", tags(server).get("error"));
+  }
+
+  @Test
+  public void testUnsampledRequestsAreNotTraced() throws Exception {
+    Headers headers = sampledB3();
+    headers.set("x-b3-sampled", "0");
+    channel.writeInbound(request(1, headers));
+
+    assertNull(TracingHandler.trace(channel, 1));
+    assertEquals(SPAN_ID, headers.get("x-b3-spanid").toString());
+    assertNull(headers.get("traceparent"));
+    respond(1, HttpResponseStatus.OK);
+    assertTrue(zipkin.takeSpans(1, 200, TimeUnit.MILLISECONDS).isEmpty());
+  }
+
+  @Test
+  public void testRequestsNotPickedBySamplerAreMarkedUnsampled() throws Exception {
+    channel.finishAndReleaseAll();
+    tracer.shutdown();
+    tracer = tracer(0);
+    channel = new EmbeddedChannel(new TracingHandler(tracer));
+    Headers headers = new DefaultHeaders();
+    channel.writeInbound(request(1, headers));
+
+    assertNull(TracingHandler.trace(channel, 1));
+    assertEquals("0", headers.get("x-b3-sampled").toString());
+    assertNull(headers.get("x-b3-traceid"));
+  }
+
+  @Test
+  public void testTracesLeftOpenAreReportedWhenTheConnectionCloses() throws Exception {
+    channel.writeInbound(request(1, sampledB3()));
+    channel.close();
+
+    Map<String, Object> span = spansByName(1).get("get");
+    assertEquals("connection closed", tags(span).get("error"));
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.zipkin;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * A local stand-in for a Zipkin collector. It accepts spans posted in the Zipkin v2 JSON format on
+ * {@link #spansUrl()} and keeps them, as parsed JSON objects, for tests to look at.
+ */
+public class LocalZipkin implements Closeable {
+  private static final String SPANS_PATH = "/api/v2/spans";
+  private static final TypeReference<List<Map<String, Object>>> SPANS =
+      new TypeReference<List<Map<String, Object>>>() {};
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final MockWebServer server = new MockWebServer();
+  private final LinkedBlockingQueue<Map<String, Object>> spans = new LinkedBlockingQueue<>();
+
+  public static LocalZipkin start() throws IOException {
+    LocalZipkin zipkin = new LocalZipkin();
+    zipkin.server.setDispatcher(zipkin.dispatcher());
+    zipkin.server.start();
+    return zipkin;
+  }
+
+  private LocalZipkin() {}
+
+  public String spansUrl() {
+    return server.url(SPANS_PATH).toString();
+  }
+
+  /** Number of POSTs received, whatever their content. */
+  public int requestCount() {
+    return server.getRequestCount();
+  }
+
+  /**
+   * Waits for count spans to have been received (and takes them), returns the spans received
+   * until then when the timeout passes first.
+   */
+  public List<Map<String, Object>> takeSpans(int count, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    List<Map<String, Object>> taken = new ArrayList<>(count);
+    while (taken.size() < count) {
+      Map<String, Object> span = spans.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      if (span == null) {
+        break;
+      }
+      taken.add(span);
+    }
+    return taken;
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.shutdown();
+  }
+
+  private Dispatcher dispatcher() {
+    return new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        if (!SPANS_PATH.equals(request.getPath())) {
+          return new MockResponse().setResponseCode(404);
+        }
+        if (!"POST".equals(request.getMethod())) {
+          return new MockResponse().setResponseCode(405);
+        }
+        try {
+          spans.addAll(mapper.readValue(request.getBody().readByteArray(), SPANS));
+        } catch (IOException e) {
+          return new MockResponse().setResponseCode(400).setBody(e.getMessage());
+        }
+        return new MockResponse().setResponseCode(202);
+      }
+    };
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nlp;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+
+import com.google.common.collect.ImmutableMap;
+import com.xjeffrose.xio.http.DefaultFullResponse;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.Route;
+import com.xjeffrose.xio.http.RouteConfig;
+import com.xjeffrose.xio.http.RoutePartial;
+import com.xjeffrose.xio.http.RouteState;
+import com.xjeffrose.xio.http.SegmentedData;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Routes each stream with the routes that are current when the stream starts, rather than the
+ * routes that existed when the channel was initialized.
+ *
+ * <p>The route is looked up here, in the current {@link RouteStates}, and handed on as a {@link
+ * RoutePartial}, so swapping the routes only costs reading a reference. Streams already in flight
+ * keep the route they started with until their last message.
+ */
+public class LivePipelineRouter extends ChannelInboundHandlerAdapter {
+  /** Answers requests that did not match any route with a 404. */
+  static final RouteState NOT_FOUND_ROUTE =
+      new RouteState(
+          new RouteConfig(Collections.emptyList(), "", "/", "none"),
+          LivePipelineRouter::notFound);
+
+  private final Supplier<RouteStates> routeStates;
+
+  // key is stream id, value is the route resolved for the start of that stream
+  private final Map<Integer, RouteState> streamRoutes = new HashMap<>();
+
+  public LivePipelineRouter(Supplier<RouteStates> routeStates) {
+    this.routeStates = routeStates;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (!(msg instanceof Request)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+
+    Request request = (Request) msg;
+    RouteState route = routeFor(request);
+    if (request.endOfMessage()) {
+      streamRoutes.remove(request.streamId());
+    } else if (request.startOfMessage()) {
+      streamRoutes.put(request.streamId(), route);
+    }
+
+    ctx.fireChannelRead(new RoutePartial(request, route));
+  }
+
+  private RouteState routeFor(Request request) {
+    if (!request.startOfMessage()) {
+      RouteState pinned = streamRoutes.get(request.streamId());
+      if (pinned != null) {
+        return pinned;
+      }
+    }
+    return find(routeStates.get().routeMap(), request.path());
+  }
+
+  /** The route with the longest path the request path starts with. */
+  static RouteState find(ImmutableMap<String, RouteState> routes, String path) {
+    RouteState best = NOT_FOUND_ROUTE;
+    int bestLength = -1;
+    for (RouteState route : routes.values()) {
+      String routePath = route.path();
+      if (routePath.length() > bestLength && path.startsWith(routePath)) {
+        best = route;
+        bestLength = routePath.length();
+      }
+    }
+    return best;
+  }
+
+  private static void notFound(ChannelHandlerContext ctx, Request request, Route route) {
+    // nothing is proxied, release what the request carries
+    ReferenceCountUtil.release(
+        request instanceof SegmentedData ? ((SegmentedData) request).content() : request.body());
+    if (!request.startOfMessage()) {
+      return;
+    }
+    ctx.writeAndFlush(
+        DefaultFullResponse.builder()
+            .status(NOT_FOUND)
+            .streamId(request.streamId())
+            .body(Unpooled.EMPTY_BUFFER)
+            .headers(new DefaultHeaders())
+            .build());
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    streamRoutes.clear();
+    super.channelInactive(ctx);
+  }
+}
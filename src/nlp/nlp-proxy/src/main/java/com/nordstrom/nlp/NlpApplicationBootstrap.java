@@ -17,7 +17,6 @@ package com.nordstrom.nlp;
 
 import com.xjeffrose.xio.application.Application;
 import com.xjeffrose.xio.bootstrap.ApplicationBootstrap;
-import com.xjeffrose.xio.http.PipelineRouter;
 import com.xjeffrose.xio.pipeline.SmartHttpPipeline;
 import io.netty.channel.ChannelHandler;
 import lombok.extern.slf4j.Slf4j;
@@ -41,7 +40,7 @@ public class NlpApplicationBootstrap extends ApplicationBootstrap {
 
       @Override
       public ChannelHandler getApplicationRouter() {
-        return new PipelineRouter(state.routes());
+        return new LivePipelineRouter(state::routeStates);
       }
 
       @Override
@@ -57,7 +56,10 @@ public class NlpApplicationBootstrap extends ApplicationBootstrap {
   }
 
   public Application build() {
-    // TODO(CK): fix tracing
+    // TODO(CK): report spans of the NLP hop. The tracing handler and span reporter live in the
+    // NFE (com.nordstrom.nfe.tracing) and would have to move to a library both proxies depend on.
+    // Until then the B3/W3C headers the NFE sets are passed on to the backend unchanged, so its
+    // spans still join the NFE's trace, as children of the NFE's upstream span.
     addServer(
         "nlp-main", xioServerBootstrap -> xioServerBootstrap.addToPipeline(pipelineFragment()));
     return super.build();
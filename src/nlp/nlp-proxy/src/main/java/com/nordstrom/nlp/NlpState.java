@@ -135,6 +135,11 @@ public class NlpState extends ApplicationState {
     return routeStatesRef.get().routeMap();
   }
 
+  /** The current route generation, replaced as a whole whenever the routes change. */
+  RouteStates routeStates() {
+    return routeStatesRef.get();
+  }
+
   public NlpConfig getNlpConfig() {
     return nlpConfig;
   }
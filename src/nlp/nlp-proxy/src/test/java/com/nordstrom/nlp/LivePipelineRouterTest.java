@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2018 Nordstrom, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nordstrom.nlp;
+
+import com.google.common.collect.ImmutableList;
+import com.typesafe.config.ConfigFactory;
+import com.xjeffrose.xio.config.DynamicClientConfig;
+import com.xjeffrose.xio.config.DynamicRouteConfig;
+import com.xjeffrose.xio.http.DefaultFullRequest;
+import com.xjeffrose.xio.http.DefaultHeaders;
+import com.xjeffrose.xio.http.Request;
+import com.xjeffrose.xio.http.RoutePartial;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LivePipelineRouterTest extends Assert {
+  private NlpConfig nlpConfig;
+  private NlpState nlpState;
+  private SimpleProxyRouteConfigFactory proxyRouteConfigFactory;
+  private AtomicReference<RouteStates> routeStates;
+  private EmbeddedChannel channel;
+
+  @Before
+  public void setUp() {
+    nlpConfig = new NlpConfig(ConfigFactory.load().getConfig("nlpStateUnitTest"));
+    proxyRouteConfigFactory = new SimpleProxyRouteConfigFactory(nlpConfig);
+    nlpState = new NlpState(nlpConfig, ImmutableList.of(), proxyRouteConfigFactory);
+    routeStates = new AtomicReference<>(routeStates("/path1/"));
+    channel = new EmbeddedChannel(new LivePipelineRouter(routeStates::get));
+  }
+
+  @Test
+  public void testRoutesBeforeAndAfterSwap() {
+    channel.writeInbound(request("/path1/resource"));
+    RoutePartial before = channel.readInbound();
+    assertEquals("/path1/", before.route().path());
+
+    // WHEN the routes are swapped on a channel that is already open
+    routeStates.set(routeStates("/path1/", "/path2/"));
+
+    // THEN the next request should be routed with the new routes
+    channel.writeInbound(request("/path2/resource"));
+    RoutePartial after = channel.readInbound();
+    assertEquals("/path2/", after.route().path());
+    assertSame(routeStates.get().routeMap().get("/path2/"), after.route());
+  }
+
+  @Test
+  public void testUnmatchedRequestIsNotFound() {
+    channel.writeInbound(request("/other/resource"));
+    RoutePartial partial = channel.readInbound();
+
+    assertSame(LivePipelineRouter.NOT_FOUND_ROUTE, partial.route());
+  }
+
+  private RouteStates routeStates(String... paths) {
+    ImmutableList.Builder<DynamicRouteConfig> configs = ImmutableList.builder();
+    for (String path : paths) {
+      configs.add(
+          new DynamicRouteConfig(
+              path,
+              Collections.singletonList(new DynamicClientConfig("1.2.3.4", 1234, false, null))));
+    }
+    // client factory is null because no request is proxied
+    return new RouteStates(
+        proxyRouteConfigFactory.build(configs.build()), nlpConfig, nlpState, null);
+  }
+
+  private static Request request(String path) {
+    return DefaultFullRequest.builder()
+        .method(HttpMethod.GET)
+        .path(path)
+        .headers(new DefaultHeaders())
+        .body(Unpooled.EMPTY_BUFFER)
+        .streamId(1)
+        .build();
+  }
+}